@@ -0,0 +1,126 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.soap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Unit test for {@link StaxUtil}.
+ */
+public final class StaxUtilTest {
+    private static final int MAX_ITER = 50000;
+
+    @Test
+    public void makeXMLInputFactory() {
+        XMLInputFactory factory = StaxUtil.makeXMLInputFactory();
+        Assert.assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.SUPPORT_DTD));
+        Assert.assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES));
+    }
+
+    @Test
+    public void sameAsW3cDom() throws Exception {
+        for (String name : new String[] { "GetInfoRequestSOAP.xml", "GetInfoResponseSOAP.xml", "xhtml.html",
+                "wrappedXhtml.xml" }) {
+            byte[] xml = resource(name);
+            Assert.assertEquals(name, W3cDomUtil.parseXML(new ByteArrayInputStream(xml)).toString(),
+                    StaxUtil.parseXML(new ByteArrayInputStream(xml)).toString());
+        }
+        for (String xml : new String[] {
+                "<xml xmlns=\"urn:zimbra\">\n<a fred=\"woof y&lt;6\"></a>\n<b/><b/>\n<text>R &amp; B</text></xml>",
+                "<xml xmlns=\"urn:zimbra\" xmlns:admin=\"urn:zimbraAdmin\"><e attr=\"aVal\">text</e><admin:b/></xml>",
+                "<ns7:GetAccountRequest xmlns:ns7=\"urn:zimbraAdmin\" " +
+                        "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"ns7:getAccountRequest\">" +
+                        "<ns7:account by=\"name\">user1@example.com</ns7:account></ns7:GetAccountRequest>",
+                "<a>  <b> x <![CDATA[<y>]]> </b> <!-- comment --> <c/>\n</a>",
+                "<a><b foo=\"bar\">doo<c/>wop</b></a>",
+                "<a><b><c/>wop</b></a>" }) {
+            Assert.assertEquals(xml, W3cDomUtil.parseXML(xml).toString(), StaxUtil.parseXML(xml).toString());
+        }
+    }
+
+    @Test
+    public void flatten() throws Exception {
+        Element a = StaxUtil.parseXML(new ByteArrayInputStream("<a><b foo=\"bar\">doo<c/>wop</b></a>".getBytes()));
+        Element b = a.getElement("b");
+        Assert.assertEquals("bar", b.getAttribute("foo"));
+        Assert.assertEquals(0, b.listElements().size());
+        Assert.assertEquals("doo<c/>wop", b.getText());
+    }
+
+    @Test
+    public void jsonFactory() throws Exception {
+        Element elt = StaxUtil.parseXML(
+                "<GetFolderRequest xmlns=\"urn:zimbraMail\"><folder l=\"2\"/></GetFolderRequest>",
+                Element.JSONElement.mFactory);
+        Assert.assertTrue(elt instanceof Element.JSONElement);
+        Assert.assertEquals("2", elt.getElement("folder").getAttribute("l"));
+    }
+
+    @Test
+    public void rejected() throws Exception {
+        for (String name : new String[] { "entityRef.xml", "recursiveEntity.xml", "refNonExistentFileInEntity.xml" }) {
+            try {
+                StaxUtil.parseXML(new ByteArrayInputStream(resource(name)));
+                Assert.fail(name);
+            } catch (XmlParseException expected) {
+            }
+        }
+        for (String xml : new String[] { "<a>&xxe;</a>", "<a></b>", "<a/>junk", "" }) {
+            try {
+                StaxUtil.parseXML(xml);
+                Assert.fail(xml);
+            } catch (XmlParseException expected) {
+            }
+        }
+    }
+
+    // Enable for performance comparison @Test
+    public void iterGetInfoResponseSOAP_DOM() throws Exception {
+        ByteArrayInputStream bais = new ByteArrayInputStream(resource("GetInfoResponseSOAP.xml"));
+        for (int i = 0; i < MAX_ITER; i++) {
+            bais.reset();
+            W3cDomUtil.parseXML(bais);
+        }
+    }
+
+    // Enable for performance comparison @Test
+    public void iterGetInfoResponseSOAP_STAX() throws Exception {
+        ByteArrayInputStream bais = new ByteArrayInputStream(resource("GetInfoResponseSOAP.xml"));
+        for (int i = 0; i < MAX_ITER; i++) {
+            bais.reset();
+            StaxUtil.parseXML(bais);
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        InputStream is = StaxUtilTest.class.getResourceAsStream(name);
+        try {
+            return ByteUtil.getContent(is, -1);
+        } finally {
+            ByteUtil.closeStream(is);
+        }
+    }
+}
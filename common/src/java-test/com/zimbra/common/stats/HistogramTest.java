@@ -0,0 +1,52 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void buckets() {
+        Histogram histogram = new Histogram("test", 1, 10, 100);
+        Assert.assertEquals(Arrays.asList("test_le_1", "test_le_10", "test_le_100", "test_gt_100"),
+                histogram.getNames());
+
+        histogram.increment(0);
+        histogram.increment(1);
+        histogram.increment(2);
+        histogram.increment(10);
+        histogram.increment(100);
+        histogram.increment(101);
+        histogram.increment(5000);
+        Assert.assertEquals(Arrays.<Object>asList(2L, 2L, 1L, 2L), histogram.getData());
+
+        histogram.reset();
+        Assert.assertEquals(Arrays.<Object>asList(0L, 0L, 0L, 0L), histogram.getData());
+        histogram.increment(50);
+        Assert.assertEquals(Arrays.<Object>asList(0L, 0L, 1L, 0L), histogram.getData());
+        Assert.assertEquals(2, histogram.getCount(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsortedBounds() {
+        new Histogram("test", 10, 1);
+    }
+}
@@ -152,4 +152,13 @@ public class StringUtilTest {
         Assert.assertEquals(false, StringUtil.equal(null, "abc"));
         Assert.assertEquals(false, StringUtil.equal("a bc", "abc"));
     }
+
+    @Test
+    public void jsEncodeAppendable() throws Exception {
+        for (String str : new String[] { "", "plain", "<a href=\"x\">\\</a>", "tab\tnew\nline\u2028", "\u0001" }) {
+            StringBuilder sb = new StringBuilder("x");
+            StringUtil.jsEncode(sb, str);
+            Assert.assertEquals(str, "x" + StringUtil.jsEncode(str), sb.toString());
+        }
+    }
 }
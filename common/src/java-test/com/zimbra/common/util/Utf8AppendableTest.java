@@ -0,0 +1,60 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Unit test for {@link Utf8Appendable}.
+ */
+public final class Utf8AppendableTest {
+
+    @Test
+    public void encode() throws Exception {
+        // small buffers, so that multi-byte chars and surrogate pairs straddle flushes
+        String str = "abc \u00e9\u00e8 \u4e2d\u6587 \ud83d\ude00\ud83d\ude01 xyz";
+        for (int size = 1; size < 12; size++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Utf8Appendable out = new Utf8Appendable(bytes, size);
+            out.append(str);
+            for (int i = 0; i < str.length(); i++) {
+                out.append(str.charAt(i));
+            }
+            out.append(new StringBuilder(str), 4, str.length());
+            out.flush();
+            Assert.assertEquals(str + str + str.substring(4), new String(bytes.toByteArray(), Charsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void flushIsIncremental() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8Appendable out = new Utf8Appendable(bytes, 8);
+        out.append("0123456789");
+        Assert.assertEquals(8, bytes.size()); // a full buffer goes out on the next append
+        out.flush();
+        Assert.assertEquals(10, bytes.size());
+        out.append("\ud83d");
+        out.flush(); // unpaired surrogate at the end is replaced, as String.getBytes() does
+        Assert.assertEquals("0123456789?", new String(bytes.toByteArray(), Charsets.UTF_8));
+    }
+}
@@ -183,6 +183,9 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_manager_hardref_cache = KnownKey.newKey(2500);
 
+    // byte budget of the MimeMessage cache; 0 derives it from zimbraMessageCacheSize
+    public static final KnownKey zimbra_message_cache_max_bytes = KnownKey.newKey(0L);
+
     @Supported
     public static final KnownKey zimbra_mailbox_active_cache = KnownKey.newKey(500);
 
@@ -192,6 +195,8 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_galsync_cache = KnownKey.newKey(10000);
 
+    public static final KnownKey zimbra_mailbox_conv_hash_cache = KnownKey.newKey(2000);
+
     @Supported
     public static final KnownKey zimbra_mailbox_change_checkpoint_frequency = KnownKey.newKey(100);
 
@@ -203,12 +208,32 @@ public final class LC {
 
     public static final KnownKey zimbra_mailbox_lock_readwrite = KnownKey.newKey(true);
 
+    // always-on only: share the distributed mailbox lock between readers on different servers
+    public static final KnownKey zimbra_mailbox_distributed_lock_readwrite = KnownKey.newKey(true);
+
+    // always-on only: how long an idle distributed mailbox lock stays leased to this server; 0 releases it right away
+    @Reloadable
+    public static final KnownKey zimbra_mailbox_distributed_lock_lease_ms = KnownKey.newKey(1000);
+
+    // how often redo log replay (crash recovery, zmplayredo) logs its throughput and lag; 0 disables
+    @Reloadable
+    public static final KnownKey zimbra_redolog_replay_progress_interval_ms = KnownKey.newKey(30000);
+
     @Supported
     public static final KnownKey zimbra_index_threads = KnownKey.newKey(10);
 
+    // maximum number of index tasks (batch indexing, merges) waiting per mailbox
+    public static final KnownKey zimbra_index_queue_max_per_mailbox = KnownKey.newKey(16);
+
     @Supported
     public static final KnownKey zimbra_reindex_threads = KnownKey.newKey(10);
 
+    // threads, shared by all re-indexes, that fetch items and extract their text; 1 re-indexes on the ReIndex thread
+    public static final KnownKey zimbra_reindex_parse_threads = KnownKey.newKey(4);
+
+    // items a re-index hands to the parse threads ahead of its index writer
+    public static final KnownKey zimbra_reindex_max_pending_items = KnownKey.newKey(64);
+
     @Supported
     public static final KnownKey zimbra_index_max_readers = KnownKey.newKey(35);
 
@@ -327,6 +352,7 @@ public final class LC {
     @Supported
     @Reloadable
     public static final KnownKey soap_response_chunked_transfer_encoding_enabled = KnownKey.newKey(true);
+    public static final KnownKey soap_batch_parallel_threads = KnownKey.newKey(8);
     public static final KnownKey zimbra_servlet_output_stream_buffer_size = KnownKey.newKey(5120);
 
     public static final KnownKey rest_response_cache_control_value = KnownKey.newKey("no-store, no-cache");
@@ -482,6 +508,7 @@ public final class LC {
     public static final KnownKey ldap_cache_external_domain_maxage = KnownKey.newKey(15);
     public static final KnownKey ldap_cache_group_maxsize = KnownKey.newKey(2000);
     public static final KnownKey ldap_cache_group_maxage = KnownKey.newKey(15);
+    public static final KnownKey ldap_cache_group_graph_maxsize = KnownKey.newKey(20000);
     public static final KnownKey ldap_cache_right_maxsize = KnownKey.newKey(100);
     public static final KnownKey ldap_cache_right_maxage = KnownKey.newKey(15);
     public static final KnownKey ldap_cache_server_maxsize = KnownKey.newKey(100);
@@ -490,6 +517,10 @@ public final class LC {
     public static final KnownKey ldap_cache_ucservice_maxage = KnownKey.newKey(15);
     public static final KnownKey ldap_cache_alwaysoncluster_maxsize = KnownKey.newKey(100);
     public static final KnownKey ldap_cache_alwaysoncluster_maxage = KnownKey.newKey(15);
+    public static final KnownKey ldap_cache_concurrent = KnownKey.newKey(true);
+    public static final KnownKey ldap_cache_refresh_ahead_percent = KnownKey.newKey(10);
+    public static final KnownKey ldap_cache_refresh_threads = KnownKey.newKey(2);
+    public static final KnownKey ldap_entry_intern_attrs = KnownKey.newKey(true);
 
     @Supported
     public static final KnownKey ldap_cache_timezone_maxsize = KnownKey.newKey(100);
@@ -514,6 +545,7 @@ public final class LC {
     public static final KnownKey acl_cache_target_maxsize = KnownKey.newKey(1024);
     public static final KnownKey acl_cache_target_maxage = KnownKey.newKey(15);
     public static final KnownKey acl_cache_credential_maxsize = KnownKey.newKey(512);
+    public static final KnownKey acl_cache_credential_versions_maxsize = KnownKey.newKey(10000);
     public static final KnownKey acl_cache_enabled = KnownKey.newKey(true);
 
     @Supported
@@ -704,6 +736,7 @@ public final class LC {
 
     public static final KnownKey nio_imap_enabled = KnownKey.newKey(true);
     public static final KnownKey nio_pop3_enabled = KnownKey.newKey(true);
+    public static final KnownKey nio_lmtp_enabled = KnownKey.newKey(false);
 
     public static final KnownKey nio_max_write_queue_size = KnownKey.newKey(10000);
 
@@ -726,6 +759,8 @@ public final class LC {
     public static final KnownKey imap_throttle_acct_limit = KnownKey.newKey(5000);
     public static final KnownKey imap_throttle_command_limit = KnownKey.newKey(25);
     public static final KnownKey imap_throttle_fetch = KnownKey.newKey(true);
+    // send uncompressed blobs of FETCH BODY[]/RFC822 straight from the file in the NIO IMAP server
+    public static final KnownKey imap_zero_copy_fetch = KnownKey.newKey(true);
     public static final KnownKey data_source_imap_reuse_connections = KnownKey.newKey(false);
 
     @Supported
@@ -1080,6 +1115,10 @@ public final class LC {
 
     @Supported
     public static final KnownKey contact_ranking_enabled = KnownKey.newKey(true);
+    // 0 searches the ranking table, contact folders and GAL one after the other
+    public static final KnownKey contact_autocomplete_threads = KnownKey.newKey(16);
+    public static final KnownKey contact_autocomplete_folder_timeout_ms = KnownKey.newKey(5000);
+    public static final KnownKey contact_autocomplete_gal_timeout_ms = KnownKey.newKey(5000);
 
 
     public static final KnownKey jdbc_results_streaming_enabled = KnownKey.newKey(true);
@@ -1094,6 +1133,8 @@ public final class LC {
 
     public static final KnownKey zimbra_lmtp_validate_messages = KnownKey.newKey(true);
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
+    public static final KnownKey zimbra_lmtp_delivery_threads = KnownKey.newKey(4);
+    public static final KnownKey zimbra_lmtp_dedupe_cache_file = KnownKey.newKey("");
 
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
@@ -1222,6 +1263,8 @@ public final class LC {
 
     public static final KnownKey command_line_editing_enabled = KnownKey.newKey(true);
     public static final KnownKey thread_pool_warn_percent = KnownKey.newKey(100);
+    // stack size in KB of thread-per-connection protocol handler threads; 0 uses the JVM default
+    public static final KnownKey tcp_server_thread_stack_size_kb = KnownKey.newKey(0);
 
     public static final KnownKey robots_txt = KnownKey.newKey("${zimbra_home}/conf/robots.txt");
 
@@ -1323,6 +1366,7 @@ public final class LC {
     public static final KnownKey smime_truststore_password = KnownKey.newKey("${mailboxd_truststore_password}");
 
     public static final KnownKey sieve_immutable_headers = KnownKey.newKey("Received,DKIM-Signature,Authentication-Results,Received-SPF,Message-ID");
+    public static final KnownKey sieve_script_cache_max_kb = KnownKey.newKey(16 * 1024);
 
     //Remote IMAP
     @Reloadable
@@ -1215,6 +1215,7 @@ public final class AdminConstants {
     public static final String A_NUM_FAILED = "numFailed";
     public static final String A_NUM_SKIPPED = "numSkipped";
     public static final String A_NUM_REMAINING = "numRemaining";
+    public static final String A_CHECKPOINT = "checkpoint";
     public static final String A_DURATION = "duration";
 
     public static final String A_VOLUME_TYPE = "type";
@@ -1312,6 +1313,8 @@ public final class AdminConstants {
     // index stats
     public static final String A_MAX_DOCS = "maxDocs";
     public static final String A_DELETED_DOCS = "deletedDocs";
+    public static final String A_QUEUE_DEPTH = "queueDepth";
+    public static final String A_QUEUE_AGE = "queueAge";
 
     // mailbox table
     public static final String A_MT_ID               = "id";
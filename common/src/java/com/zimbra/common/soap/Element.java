@@ -16,10 +16,10 @@
  */
 package com.zimbra.common.soap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -39,6 +39,7 @@ import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.StringUtil;
+import com.zimbra.common.util.Utf8Appendable;
 import com.zimbra.common.util.ZimbraLog;
 
 /**
@@ -464,14 +465,21 @@ public abstract class Element implements Cloneable {
         return thatURI == null || !thatURI.equals(uri);
     }
 
+    private static final int UTF8_BUFFER_SIZE = 4096;
+
     // dumping the element hierarchy
     public byte[] toUTF8() {
+        // encode as we go, rather than building the whole thing as a String first
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(UTF8_BUFFER_SIZE);
+        Utf8Appendable out = new Utf8Appendable(bytes, UTF8_BUFFER_SIZE);
         try {
-            return toString().getBytes("utf-8");
-        } catch (UnsupportedEncodingException e) {
-            // should *never* happen since UTF-8 and UTF-16 cover the exact same character space
-            return null;
+            marshal(out);
+            out.flush();
+        } catch (IOException e) {
+            // should really not happen with a ByteArrayOutputStream, just log it
+            ZimbraLog.soap.error("Caught IOException: ", e);
         }
+        return bytes.toByteArray();
     }
 
     public void output(Appendable out) throws IOException {
@@ -649,12 +657,12 @@ public abstract class Element implements Cloneable {
 
     public static Element parseXML(InputStream is)
     throws XmlParseException {
-        return W3cDomUtil.parseXML(is, XMLElement.mFactory);
+        return StaxUtil.parseXML(is, XMLElement.mFactory);
     }
 
     public static Element parseXML(String xml)
     throws XmlParseException {
-        return W3cDomUtil.parseXML(xml, XMLElement.mFactory);
+        return StaxUtil.parseXML(xml, XMLElement.mFactory);
     }
 
     public static Element convertDOM(org.dom4j.Element d4root) {
@@ -1467,11 +1475,15 @@ public abstract class Element implements Cloneable {
                 int index = 0;
                 for (Map.Entry<String, Object> attr : mAttributes.entrySet()) {
                     indent(out, indent, true);
-                    out.append('"').append(StringUtil.jsEncode(attr.getKey())).append(indent >= 0 ? "\": " : "\":");
+                    out.append('"');
+                    StringUtil.jsEncode(out, attr.getKey());
+                    out.append(indent >= 0 ? "\": " : "\":");
 
                     Object value = attr.getValue();
                     if (value instanceof String) {
-                        out.append('"').append(StringUtil.jsEncode(getAttrStringValue(attr, safe))).append('"');
+                        out.append('"');
+                        StringUtil.jsEncode(out, getAttrStringValue(attr, safe));
+                        out.append('"');
                     } else if (value instanceof JSONKeyValuePair) {
                         out.append(value.toString());
                     } else if (value instanceof JSONElement) {
@@ -1479,7 +1491,9 @@ public abstract class Element implements Cloneable {
                     } else if (value instanceof FileBackedElement) {
                         ((FileBackedElement) value).marshal(out);
                     } else if (value instanceof Element) {
-                        out.append('"').append(StringUtil.jsEncode(value)).append('"');
+                        out.append('"');
+                        StringUtil.jsEncode(out, value);
+                        out.append('"');
                     } else if (!(value instanceof List<?>)) {
                         out.append(String.valueOf(value));
                     } else {
@@ -1496,7 +1510,9 @@ public abstract class Element implements Cloneable {
                                 } else if (child instanceof JSONKeyValuePair) {
                                     out.append(child.toString());
                                 } else {
-                                    out.append('"').append(StringUtil.jsEncode(child)).append('"');
+                                    out.append('"');
+                                    StringUtil.jsEncode(out, child);
+                                    out.append('"');
                                 }
                                 if (lit.nextIndex() != lsize) {
                                     out.append(',');
@@ -1512,7 +1528,8 @@ public abstract class Element implements Cloneable {
                 if (needNamespace) {
                     indent(out, indent, true);
                     out.append('"').append(A_NAMESPACE).append(indent >= 0 ? "\": \"" : "\":\"");
-                    out.append(StringUtil.jsEncode(mNamespaces.get(""))).append('"');
+                    StringUtil.jsEncode(out, mNamespaces.get(""));
+                    out.append('"');
                 }
                 indent(out, indent - 2, true);
             }
@@ -1841,13 +1858,13 @@ public abstract class Element implements Cloneable {
             return defaultValue;
         }
 
-        private String xmlEncode(String str, boolean escapeQuotes) {
+        /** Appends {@code str} to {@code out} XML-escaped, copying unescaped runs straight from {@code str}. */
+        private void xmlEncode(Appendable out, String str, boolean escapeQuotes) throws IOException {
             if (str == null)
-                return "";
-            StringBuilder sb = null;
+                return;
             String replacement;
             int i, last;
-            for (i = 0, last = -1; i < str.length(); i++) {
+            for (i = 0, last = 0; i < str.length(); i++) {
                 char c = str.charAt(i);
                 switch (c) {
                     case '&':  replacement = "&amp;";   break;
@@ -1864,14 +1881,10 @@ public abstract class Element implements Cloneable {
                                if (isValidXmlCharacter(c))  continue;
                                replacement = "?";      break;
                 }
-                if (sb == null)
-                    sb = new StringBuilder(str.substring(0, i));
-                else
-                    sb.append(str.substring(last, i));
-                sb.append(replacement);
+                out.append(str, last, i).append(replacement);
                 last = i + 1;
             }
-            return (sb == null ? str : sb.append(str.substring(last, i)).toString());
+            out.append(str, last, str.length());
         }
 
         /**
@@ -1967,7 +1980,8 @@ public abstract class Element implements Cloneable {
             if (mAttributes != null) {
                 for (Map.Entry<String, Object> attr : mAttributes.entrySet()) {
                     out.append(' ').append(attr.getKey()).append("=\"");
-                    out.append(xmlEncode(getAttrValue(attr, safe), true)).append('"');
+                    xmlEncode(out, getAttrValue(attr, safe), true);
+                    out.append('"');
                 }
             }
             // new namespaces defined on this element
@@ -1977,7 +1991,9 @@ public abstract class Element implements Cloneable {
                     String uri = ns.getValue();
                     if (namespaceDeclarationNeeded(prefix, uri)) {
                         out.append(' ').append(A_NAMESPACE).append(prefix.equals("") ? "" : ":").append(prefix);
-                        out.append("=\"").append(xmlEncode(uri, true)).append('"');
+                        out.append("=\"");
+                        xmlEncode(out, uri, true);
+                        out.append('"');
                     }
                 }
             }
@@ -1991,12 +2007,12 @@ public abstract class Element implements Cloneable {
                         } else if (child instanceof FileBackedElement) {
                             child.marshal(out);
                         } else {
-                            out.append(xmlEncode(child.toString(), false));
+                            xmlEncode(out, child.toString(), false);
                         }
                     }
                     indent(out, indent, true);
                 } else {
-                    out.append(xmlEncode(getText(safe), false));
+                    xmlEncode(out, getText(safe), false);
                 }
                 out.append("</").append(qn).append('>');
             } else {
@@ -0,0 +1,251 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.common.soap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.base.Strings;
+import com.zimbra.common.soap.Element.ElementFactory;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Builds {@link Element} trees straight from a StAX stream, without the intermediate W3C DOM that
+ * {@link W3cDomUtil#parseXML} goes through.
+ * <p>
+ * The result is the same as {@link W3cDomUtil#parseXML}. Elements that {@link W3cDomUtil} flattens to text (XHTML, or
+ * a mixture of text and elements) are rare in SOAP requests, so when one is found the document is handed over to
+ * {@link W3cDomUtil} instead of reproducing its serialization here.
+ * Note: DOCTYPE is disallowed for security reasons
+ */
+public final class StaxUtil {
+
+    private StaxUtil() {}
+
+    private static final XMLInputFactory factory = makeXMLInputFactory();
+
+    public static XMLInputFactory makeXMLInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        // XXE attack prevention; a DOCTYPE is rejected outright below
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xmlInputFactory;
+    }
+
+    /** Thrown when the document needs {@link W3cDomUtil}'s flattening. */
+    private static final class FlattenNeededException extends Exception {
+        private static final long serialVersionUID = 5829374620156234881L;
+
+        FlattenNeededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final FlattenNeededException FLATTEN_NEEDED = new FlattenNeededException();
+
+    public static Element parseXML(InputStream is)
+    throws XmlParseException {
+        return parseXML(is, Element.XMLElement.mFactory);
+    }
+
+    /**
+     * Use StAX to parse XML into an {@link Element} tree.
+     * Note: DOCTYPE is disallowed for security reasons
+     */
+    public static Element parseXML(InputStream is, ElementFactory factory)
+    throws XmlParseException {
+        if (!is.markSupported()) {
+            // keep the bytes in case the document has to be handed over to W3cDomUtil
+            try {
+                is = new ByteArrayInputStream(ByteUtil.getContent(is, -1, false));
+            } catch (IOException e) {
+                W3cDomUtil.logParseProblem(e);
+                throw XmlParseException.PARSE_ERROR();
+            }
+        }
+        is.mark(Integer.MAX_VALUE);
+        XMLStreamReader reader;
+        try {
+            reader = StaxUtil.factory.createXMLStreamReader(is);
+        } catch (XMLStreamException e) {
+            W3cDomUtil.logParseProblem(e);
+            throw XmlParseException.PARSE_ERROR();
+        }
+        try {
+            return parse(reader, factory);
+        } catch (FlattenNeededException e) {
+            try {
+                is.reset();
+            } catch (IOException ioe) {
+                W3cDomUtil.logParseProblem(ioe);
+                throw XmlParseException.PARSE_ERROR();
+            }
+            return W3cDomUtil.parseXML(is, factory);
+        }
+    }
+
+    public static Element parseXML(String xml)
+    throws XmlParseException {
+        return parseXML(xml, Element.XMLElement.mFactory);
+    }
+
+    /**
+     * Use StAX to parse XML into an {@link Element} tree.
+     * Note: DOCTYPE is disallowed for security reasons
+     */
+    public static Element parseXML(String xml, ElementFactory factory)
+    throws XmlParseException {
+        XMLStreamReader reader;
+        try {
+            reader = StaxUtil.factory.createXMLStreamReader(new StringReader(xml));
+        } catch (XMLStreamException e) {
+            W3cDomUtil.logParseProblem(e);
+            throw XmlParseException.PARSE_ERROR();
+        }
+        try {
+            return parse(reader, factory);
+        } catch (FlattenNeededException e) {
+            return W3cDomUtil.parseXML(xml, factory);
+        }
+    }
+
+    /** An element whose end tag hasn't been seen yet. */
+    private static final class Frame {
+        final Element elt;
+        StringBuilder text;
+        boolean hasText; // any non-blank text
+        boolean hasElems;
+
+        Frame(Element elt) {
+            this.elt = elt;
+        }
+    }
+
+    private static Element parse(XMLStreamReader reader, ElementFactory factory)
+    throws XmlParseException, FlattenNeededException {
+        List<Frame> stack = new ArrayList<Frame>();
+        Element root = null;
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (!stack.isEmpty()) {
+                            Frame parent = stack.get(stack.size() - 1);
+                            if (parent.hasText) {
+                                throw FLATTEN_NEEDED;
+                            }
+                            parent.hasElems = true;
+                            parent.text = null; // whitespace between elements is never kept
+                        }
+                        stack.add(new Frame(startElement(reader, factory)));
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (!stack.isEmpty()) {
+                            Frame frame = stack.get(stack.size() - 1);
+                            String text = reader.getText();
+                            if (!frame.hasText && !text.trim().isEmpty()) {
+                                if (frame.hasElems) {
+                                    throw FLATTEN_NEEDED;
+                                }
+                                frame.hasText = true;
+                            }
+                            if (!frame.hasElems) {
+                                if (frame.text == null) {
+                                    frame.text = new StringBuilder(text);
+                                } else {
+                                    frame.text.append(text);
+                                }
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        Frame frame = stack.remove(stack.size() - 1);
+                        if (frame.hasText) {
+                            frame.elt.setText(frame.text.toString());
+                        }
+                        if (stack.isEmpty()) {
+                            root = frame.elt; // read on, so that anything malformed after it is still an error
+                        } else {
+                            stack.get(stack.size() - 1).elt.addElement(frame.elt);
+                        }
+                        break;
+                    case XMLStreamConstants.DTD:
+                        ZimbraLog.misc.warn("Problem parsing XML - DOCTYPE is disallowed");
+                        throw XmlParseException.PARSE_ERROR();
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        ZimbraLog.misc.warn("Problem parsing XML - undeclared entity %s", reader.getLocalName());
+                        throw XmlParseException.PARSE_ERROR();
+                    default: // comments and processing instructions are dropped, as in W3cDomUtil
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            /* Bug 93816 log actual problem but throw generic one to avoid information disclosure */
+            W3cDomUtil.logParseProblem(e);
+            throw XmlParseException.PARSE_ERROR();
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+            }
+        }
+        if (root == null) {
+            throw XmlParseException.PARSE_ERROR();
+        }
+        return root;
+    }
+
+    /**
+     * Creates the element with the same name, namespace and attributes as {@link W3cDomUtil#nodeToElement} would.
+     */
+    private static Element startElement(XMLStreamReader reader, ElementFactory factory)
+    throws FlattenNeededException {
+        String uri = Strings.emptyToNull(reader.getNamespaceURI());
+        if (Element.XMLElement.XHTML_NS_URI.equalsIgnoreCase(uri)) {
+            throw FLATTEN_NEEDED;
+        }
+        org.dom4j.Namespace ns = uri == null ? null : new org.dom4j.Namespace(reader.getPrefix(), uri);
+        Element elt = factory.createElement(new org.dom4j.QName(reader.getLocalName(), ns));
+        for (int i = 0, count = reader.getAttributeCount(); i < count; i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String localName = reader.getAttributeLocalName(i);
+            elt.addAttribute(Strings.isNullOrEmpty(prefix) ? localName : prefix + ":" + localName,
+                    reader.getAttributeValue(i));
+            String nsURI = reader.getAttributeNamespace(i);
+            if (!Strings.isNullOrEmpty(nsURI)) {
+                // see W3cDomUtil.makeAttributes()
+                elt.setNamespace(prefix, nsURI);
+            }
+        }
+        return elt;
+    }
+}
@@ -51,6 +51,8 @@ public class ZimbraNamespace {
     public static final String A_ARG_NAME = "n";
     public static final String A_ARG_TYPE = "t";
     public static final String DEF_ONERROR = "continue";
+    public static final String A_EXECUTION = "execution";
+    public static final String EXECUTION_PARALLEL = "parallel";
     
     public static final String E_NOTIFY   = "notify";
     public static final String E_REFRESH  = "refresh";
@@ -0,0 +1,100 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets. Bucket <tt>i</tt> counts the values that are greater than bound <tt>i-1</tt> and
+ * less than or equal to bound <tt>i</tt>; the last bucket counts everything above the highest bound.
+ * <p>
+ * As an {@link Accumulator}, reports the number of values that fell into each bucket since the last call to
+ * {@link #reset}, in columns named <tt>name_le_BOUND</tt> and <tt>name_gt_HIGHEST</tt>.
+ */
+public class Histogram
+implements Accumulator {
+
+    private final String mName;
+    private final long[] mBounds;
+    private final AtomicLongArray mCounts;
+    private final long[] mLastCounts;
+    private final List<String> mNames;
+
+    /**
+     * @param bounds upper bounds of the buckets, in ascending order
+     */
+    public Histogram(String name, long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("bounds must be ascending: " + Arrays.toString(bounds));
+            }
+        }
+        mName = name;
+        mBounds = bounds.clone();
+        mCounts = new AtomicLongArray(bounds.length + 1);
+        mLastCounts = new long[bounds.length + 1];
+        List<String> names = new ArrayList<String>(bounds.length + 1);
+        for (long bound : bounds) {
+            names.add(name + "_le_" + bound);
+        }
+        names.add(name + "_gt_" + (bounds.length > 0 ? bounds[bounds.length - 1] : 0));
+        mNames = Collections.unmodifiableList(names);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void increment(long value) {
+        int index = Arrays.binarySearch(mBounds, value);
+        mCounts.incrementAndGet(index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Returns the number of values in the given bucket since this histogram was created.
+     */
+    public long getCount(int bucket) {
+        return mCounts.get(bucket);
+    }
+
+    ////////////// Accumulator implementation ///////////////////
+
+    @Override
+    public List<String> getNames() {
+        return mNames;
+    }
+
+    @Override
+    public synchronized List<Object> getData() {
+        List<Object> data = new ArrayList<Object>(mLastCounts.length);
+        for (int i = 0; i < mLastCounts.length; i++) {
+            data.add(mCounts.get(i) - mLastCounts[i]);
+        }
+        return data;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (int i = 0; i < mLastCounts.length; i++) {
+            mLastCounts[i] = mCounts.get(i);
+        }
+    }
+}
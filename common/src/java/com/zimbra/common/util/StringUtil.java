@@ -759,6 +759,34 @@ public class StringUtil {
         return (sb == null ? str : sb.append(str.substring(last, i)).toString());
     }
 
+    /**
+     * Same as {@link #jsEncode(Object)}, but appends to {@code out} instead of building a new string.
+     */
+    public static void jsEncode(Appendable out, Object obj) throws IOException {
+        if (obj == null) {
+            return;
+        }
+
+        String replacement, str = obj.toString();
+        int i, last, length = str.length();
+        for (i = 0, last = 0; i < length; i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '<':       replacement = "\\u003C";             break;
+                case '>':       replacement = "\\u003E";             break;
+                case '\\':      replacement = "\\\\";                break;
+                case '"':       replacement = "\\\"";                break;
+                case '\u2028':  replacement = "\\u2028";             break;
+                case '\u2029':  replacement = "\\u2029";             break;
+                default:        if (c >= ' ')                        continue;
+                                replacement = JS_CHAR_ENCODINGS[c];  break;
+            }
+            out.append(str, last, i).append(replacement);
+            last = i + 1;
+        }
+        out.append(str, last, length);
+    }
+
     public static String jsEncodeKey(String key) {
         return '"' + key + '"';
     }
@@ -0,0 +1,128 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An {@link Appendable} that encodes to UTF-8 and writes to an {@link OutputStream} through a fixed size buffer.
+ * <p>
+ * However much is appended, at most {@code bufferSize} chars and three times as many bytes are held at a time, and
+ * nothing is allocated per append or per flush. Unlike a {@link java.io.Writer}, {@link #flush} does not flush the
+ * underlying stream. Not thread safe.
+ */
+public class Utf8Appendable implements Appendable {
+    private final OutputStream out;
+    private final char[] chars;
+    private final CharBuffer charBuffer;
+    private final ByteBuffer bytes;
+    private final CharsetEncoder encoder = Charsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private int length;
+
+    public Utf8Appendable(OutputStream out, int bufferSize) {
+        this.out = out;
+        chars = new char[Math.max(bufferSize, 2)]; // room for a surrogate pair
+        charBuffer = CharBuffer.wrap(chars);
+        bytes = ByteBuffer.allocate(chars.length * 3);
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        if (length == chars.length) {
+            encode(false);
+        }
+        chars[length++] = c;
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        while (start < end) {
+            if (length == chars.length) {
+                encode(false);
+            }
+            int n = Math.min(end - start, chars.length - length);
+            if (csq instanceof String) {
+                ((String) csq).getChars(start, start + n, chars, length);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(start, start + n, chars, length);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    chars[length + i] = csq.charAt(start + i);
+                }
+            }
+            length += n;
+            start += n;
+        }
+        return this;
+    }
+
+    /**
+     * Writes out everything appended so far, without flushing the underlying stream.
+     */
+    public void flush() throws IOException {
+        encode(true);
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        charBuffer.limit(length).position(0);
+        CoderResult result;
+        do {
+            result = encoder.encode(charBuffer, bytes, endOfInput);
+            write();
+        } while (result.isOverflow());
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                write();
+            }
+            write();
+            encoder.reset();
+        }
+        // a high surrogate whose low half hasn't been appended yet stays behind
+        length = charBuffer.remaining();
+        if (length > 0) {
+            System.arraycopy(chars, charBuffer.position(), chars, 0, length);
+        }
+    }
+
+    private void write() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+}
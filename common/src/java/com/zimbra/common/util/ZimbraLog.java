@@ -555,6 +555,25 @@ public final class ZimbraLog {
         return sContextString.get();
     }
 
+    /**
+     * Returns a copy of the current thread's logging context, e.g. to pass on to a worker thread with
+     * {@link #setContext}.
+     */
+    public static Map<String, String> getContext() {
+        Map<String, String> contextMap = sContextMap.get();
+        return contextMap != null ? new LinkedHashMap<String, String>(contextMap) : new LinkedHashMap<String, String>();
+    }
+
+    /**
+     * Replaces the current thread's logging context with one returned by {@link #getContext}.
+     */
+    public static void setContext(Map<String, String> context) {
+        clearContext();
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            addToContext(entry.getKey(), entry.getValue());
+        }
+    }
+
     // this is called from offline and only at LC init so we are taking chances with race
     private static final Set<String> CONTEXT_FILTER = new HashSet<String>();
 
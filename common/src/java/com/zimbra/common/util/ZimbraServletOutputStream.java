@@ -16,8 +16,6 @@
  */
 package com.zimbra.common.util;
 
-import java.io.IOException;
-
 import javax.servlet.ServletOutputStream;
 
 import com.zimbra.common.localconfig.LC;
@@ -55,59 +53,16 @@ import com.zimbra.common.localconfig.LC;
  *    
  * Our Element class outputs data using the Appendable interface methods.  
  * This wrapper implements the append methods by converting data to UTF-8 and 
- * write to the ServletOutputStream.  This way IOexception won't be eaten(problem of doing 1), 
+ * write to the ServletOutputStream through a fixed size buffer (see {@link Utf8Appendable}).
+ * This way IOexception won't be eaten(problem of doing 1), 
  * and we don't interfere with jetty's process in deciding on the transfer encoding(problem of doing 2).
  */
 
-public class ZimbraServletOutputStream implements Appendable {
+public class ZimbraServletOutputStream extends Utf8Appendable {
 
     private static final int BUFFER_SIZE = LC.zimbra_servlet_output_stream_buffer_size.intValueWithinRange(512, 20480);
-    ServletOutputStream mOut;
-    
-    // buffer to avoid frequent toString().getBytes()
-    StringBuilder mBuffer = new StringBuilder(BUFFER_SIZE);
-    
-    public ZimbraServletOutputStream(ServletOutputStream out) {
-        mOut = out;
-    }
-    
-    public Appendable append(CharSequence csq) throws IOException {
-        append(csq, 0, csq.length());
-        return this;
-    }
-
-    public Appendable append(char c) throws IOException {
-        if (mBuffer.length() + 1 > BUFFER_SIZE)
-            flush();
-        mBuffer.append(c);
-        return this;
-    }
 
-    public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        int lenToAppend = end - start;
-        
-        if (lenToAppend >= BUFFER_SIZE) {
-            // data to append itself exceeds our threshold, don't let the buffer grow(realloc)
-            flush(); // flush existing data in the buffer
-            write(csq.subSequence(start, end).toString()); // then directly flush this append data out without buffering
-        } else {
-            if (mBuffer.length() + lenToAppend > BUFFER_SIZE)
-                flush();
-            mBuffer.append(csq, start, end);
-        }
-        
-        return this;
-    }
-    
-    private void write(String str) throws IOException {
-        mOut.write(str.getBytes("utf-8"));
-    }
-    
-    public void flush() throws IOException {
-        if (mBuffer.length() > 0) {
-            write(mBuffer.toString());
-            mBuffer.setLength(0);
-        }
+    public ZimbraServletOutputStream(ServletOutputStream out) {
+        super(out, BUFFER_SIZE);
     }
-
 }
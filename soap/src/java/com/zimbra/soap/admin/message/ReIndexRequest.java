@@ -40,12 +40,13 @@ import com.zimbra.soap.admin.type.ReindexMailboxInfo;
 public class ReIndexRequest {
 
     /**
-     * @zm-api-field-tag "start|status|cancel"
+     * @zm-api-field-tag "start|status|cancel|resume"
      * @zm-api-field-description Action to perform
      * <table>
      * <tr> <td> <b>start</b> </td> <td> start reindexing </td> </tr>
      * <tr> <td> <b>status</b> </td> <td> show reindexing progress </td> </tr>
      * <tr> <td> <b>cancel</b> </td> <td> cancel reindexing </td> </tr>
+     * <tr> <td> <b>resume</b> </td> <td> resume the last cancelled or failed reindexing from its checkpoint </td> </tr>
      * </table>
      */
     @XmlAttribute(name=AdminConstants.E_ACTION, required=false)
@@ -40,6 +40,20 @@ public class IndexStats {
     @XmlAttribute(name=AdminConstants.A_DELETED_DOCS /* totalSize */, required=true)
     private final int numDeletedDocs;
 
+    /**
+     * @zm-api-field-tag queue-depth
+     * @zm-api-field-description number of index tasks waiting for this mailbox
+     */
+    @XmlAttribute(name=AdminConstants.A_QUEUE_DEPTH /* queueDepth */, required=false)
+    private Integer queueDepth;
+
+    /**
+     * @zm-api-field-tag queue-age
+     * @zm-api-field-description milliseconds the oldest waiting index task has been waiting
+     */
+    @XmlAttribute(name=AdminConstants.A_QUEUE_AGE /* queueAge */, required=false)
+    private Long queueAge;
+
     /**
      * no-argument constructor wanted by JAXB
      */
@@ -56,4 +70,9 @@ public class IndexStats {
     public int getMaxDocs() { return maxDocs; }
     public int getNumDeletedDocs() { return numDeletedDocs; }
 
+    public void setQueueDepth(Integer queueDepth) { this.queueDepth = queueDepth; }
+    public void setQueueAge(Long queueAge) { this.queueAge = queueAge; }
+    public Integer getQueueDepth() { return queueDepth; }
+    public Long getQueueAge() { return queueAge; }
+
 }
@@ -47,6 +47,13 @@ public class ReindexProgressInfo {
     @XmlAttribute(name=AdminConstants.A_NUM_REMAINING /* numRemaining */, required=true)
     private final int numRemaining;
 
+    /**
+     * @zm-api-field-tag checkpoint
+     * @zm-api-field-description Number of leading items that are done; a resumed reindex starts after them
+     */
+    @XmlAttribute(name=AdminConstants.A_CHECKPOINT /* checkpoint */, required=false)
+    private Integer checkpoint;
+
     /**
      * no-argument constructor wanted by JAXB
      */
@@ -65,4 +72,7 @@ public class ReindexProgressInfo {
     public int getNumSucceeded() { return numSucceeded; }
     public int getNumFailed() { return numFailed; }
     public int getNumRemaining() { return numRemaining; }
+
+    public void setCheckpoint(Integer checkpoint) { this.checkpoint = checkpoint; }
+    public Integer getCheckpoint() { return checkpoint; }
 }
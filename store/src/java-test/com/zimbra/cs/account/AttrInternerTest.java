@@ -0,0 +1,82 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.account.ProvisioningConstants;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link AttrInterner}.
+ */
+public final class AttrInternerTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static Account account(String id) throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(new String(Provisioning.A_zimbraId), new String(id));
+        attrs.put(new String(Provisioning.A_zimbraFeatureMailEnabled), new String(ProvisioningConstants.TRUE));
+        attrs.put(new String(Provisioning.A_zimbraPrefMailPollingInterval), new String("5m"));
+        return new Account(id + "@example.com", id, attrs, null, Provisioning.getInstance());
+    }
+
+    private static String key(Entry entry, String name) {
+        for (String key : entry.getAttrs(false, false).keySet()) {
+            if (key.equals(name)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void shared() throws Exception {
+        Account acct1 = account("11111111-1111-1111-1111-111111111111");
+        Account acct2 = account("22222222-2222-2222-2222-222222222222");
+
+        Assert.assertSame(key(acct1, Provisioning.A_zimbraFeatureMailEnabled),
+                key(acct2, Provisioning.A_zimbraFeatureMailEnabled));
+        Assert.assertSame(acct1.getAttr(Provisioning.A_zimbraFeatureMailEnabled),
+                acct2.getAttr(Provisioning.A_zimbraFeatureMailEnabled));
+        Assert.assertSame(acct1.getAttr(Provisioning.A_zimbraPrefMailPollingInterval),
+                acct2.getAttr(Provisioning.A_zimbraPrefMailPollingInterval));
+        Assert.assertTrue(acct1.getBooleanAttr(Provisioning.A_zimbraFeatureMailEnabled, false));
+        Assert.assertEquals("5m", acct2.getAttr(Provisioning.A_zimbraPrefMailPollingInterval));
+    }
+
+    @Test
+    public void unique() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        String id = new String("33333333-3333-3333-3333-333333333333");
+        attrs.put(Provisioning.A_zimbraId, id);
+        attrs.put("someUnknownAttr", "x");
+        Account acct = new Account("user3@example.com", id, attrs, null, Provisioning.getInstance());
+        Assert.assertSame(attrs, acct.getAttrs(false, false));
+        Assert.assertSame(id, acct.getAttr(Provisioning.A_zimbraId));
+        Assert.assertEquals("x", acct.getAttr("someUnknownAttr"));
+    }
+}
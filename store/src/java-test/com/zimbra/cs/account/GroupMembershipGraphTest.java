@@ -0,0 +1,113 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.account.DistributionList.BasicInfo;
+import com.zimbra.cs.account.Provisioning.GroupMembership;
+
+/**
+ * Unit test for {@link GroupMembershipGraph}.
+ */
+public final class GroupMembershipGraphTest {
+    private static final BasicInfo A = new BasicInfo("a", "a@example.com", new String[] {"a2@example.com"}, false);
+    private static final BasicInfo B = new BasicInfo("b", "b@example.com", new String[0], true);
+    private static final BasicInfo C = new BasicInfo("c", "c@example.com", new String[0], false);
+
+    private static GroupMembershipGraph graph() throws Exception {
+        // a -> b -> c, and a -> c
+        GroupMembershipGraph graph = new GroupMembershipGraph(100, 60000);
+        graph.put(A, Arrays.asList(B, C), graph.getVersion());
+        graph.put(B, Collections.singletonList(C), graph.getVersion());
+        graph.put(C, Collections.<BasicInfo>emptyList(), graph.getVersion());
+        return graph;
+    }
+
+    @Test
+    public void expand() throws Exception {
+        GroupMembershipGraph graph = graph();
+        GroupMembership membership = new GroupMembership();
+        graph.expand(null, null, membership, Collections.singletonList(A)); // all cached, so no LDAP
+        Assert.assertEquals(Arrays.asList("b", "c"), membership.groupIds());
+        Assert.assertTrue(membership.getMemberOfForId("b").isAdminGroup());
+    }
+
+    @Test
+    public void invalidateMembers() throws Exception {
+        GroupMembershipGraph graph = graph();
+        graph.invalidateMembers(Arrays.asList("A2@Example.com", "user@example.com"));
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertNotNull(graph.getParents(B));
+        Assert.assertEquals(2, graph.size());
+    }
+
+    @Test
+    public void invalidateGroup() throws Exception {
+        GroupMembershipGraph graph = graph();
+        graph.invalidateGroup("c");
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertNull(graph.getParents(B));
+        Assert.assertNull(graph.getParents(C));
+
+        graph = graph();
+        graph.invalidateGroup("b");
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertNull(graph.getParents(B));
+        Assert.assertNotNull(graph.getParents(C));
+    }
+
+    @Test
+    public void invalidateGroupByAddr() throws Exception {
+        GroupMembershipGraph graph = graph();
+        graph.invalidateGroupByAddr("B@Example.com");
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertNull(graph.getParents(B));
+        Assert.assertNotNull(graph.getParents(C));
+
+        // the members of a list that isn't cached itself aren't indexed by its address
+        graph = graph();
+        graph.invalidateGroupByAddr("unknown@example.com");
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertNull(graph.getParents(C));
+    }
+
+    @Test
+    public void staleLoad() throws Exception {
+        GroupMembershipGraph graph = new GroupMembershipGraph(100, 60000);
+        long version = graph.getVersion();
+        graph.invalidateMembers(Collections.singletonList("a@example.com"));
+        graph.put(A, Collections.singletonList(B), version);
+        Assert.assertNull(graph.getParents(A));
+    }
+
+    @Test
+    public void expire() throws Exception {
+        GroupMembershipGraph graph = new GroupMembershipGraph(100, 50);
+        graph.put(A, Collections.singletonList(B), graph.getVersion());
+        List<BasicInfo> parents = graph.getParents(A);
+        Assert.assertEquals(1, parents.size());
+        Thread.sleep(100);
+        Assert.assertNull(graph.getParents(A));
+        Assert.assertEquals(0, graph.size());
+    }
+}
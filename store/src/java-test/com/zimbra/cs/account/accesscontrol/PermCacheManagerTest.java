@@ -21,6 +21,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -367,4 +368,62 @@ public class PermCacheManagerTest {
     @Test
     public void noOp() throws Exception {
     }
+
+    private static Right cacheableRight(String name) {
+        Right right = new UserRight(name);
+        right.setCacheable();
+        return right;
+    }
+
+    @Test
+    public void invalidateCredential() throws Exception {
+        MockAccount target = new MockAccount("target");
+        MockAccount grantee1 = new MockAccount("grantee1");
+        MockAccount grantee2 = new MockAccount("grantee2");
+        Right right = cacheableRight("test-invalidateCredential");
+
+        PermCacheManager pcm = PermCacheManager.getInstance();
+        String cacheKey1 = PermissionCache.buildCacheKey(grantee1, right, false);
+        String cacheKey2 = PermissionCache.buildCacheKey(grantee2, right, true);
+        pcm.put(target, cacheKey1, right, CachedPermission.ALLOWED);
+        pcm.put(target, cacheKey2, right, CachedPermission.DENIED);
+        Assert.assertEquals(CachedPermission.ALLOWED, pcm.get(target, cacheKey1, right));
+        Assert.assertEquals(CachedPermission.DENIED, pcm.get(target, cacheKey2, right));
+
+        pcm.invalidateCache(Collections.singletonList(grantee1));
+        Assert.assertEquals(CachedPermission.NOT_CACHED, pcm.get(target, cacheKey1, right));
+        Assert.assertEquals(CachedPermission.DENIED, pcm.get(target, cacheKey2, right));
+
+        pcm.put(target, cacheKey1, right, CachedPermission.NO_MATCHING_ACL);
+        Assert.assertEquals(CachedPermission.NO_MATCHING_ACL, pcm.get(target, cacheKey1, right));
+
+        // as a target
+        pcm.invalidateCache(Collections.singletonList(target));
+        Assert.assertEquals(CachedPermission.NOT_CACHED, pcm.get(target, cacheKey1, right));
+        Assert.assertEquals(CachedPermission.NOT_CACHED, pcm.get(target, cacheKey2, right));
+    }
+
+    @Test
+    public void manyRights() throws Exception {
+        MockAccount target = new MockAccount("target");
+        MockAccount grantee = new MockAccount("grantee");
+        List<Right> rights = new ArrayList<Right>();
+        for (int i = 0; i < 40; i++) {
+            rights.add(cacheableRight("test-manyRights-" + i));
+        }
+
+        PermCacheManager pcm = PermCacheManager.getInstance();
+        String cacheKey = PermissionCache.buildCacheKey(grantee, rights.get(0), false);
+        for (int i = 0; i < rights.size(); i += 2) {
+            pcm.put(target, cacheKey, rights.get(i), i % 4 == 0 ? CachedPermission.ALLOWED : CachedPermission.DENIED);
+        }
+        for (int i = 0; i < rights.size(); i++) {
+            CachedPermission expected = i % 2 != 0 ? CachedPermission.NOT_CACHED :
+                i % 4 == 0 ? CachedPermission.ALLOWED : CachedPermission.DENIED;
+            Assert.assertEquals(expected, pcm.get(target, cacheKey, rights.get(i)));
+        }
+
+        pcm.invalidateCache();
+        Assert.assertEquals(CachedPermission.NOT_CACHED, pcm.get(target, cacheKey, rights.get(0)));
+    }
 }
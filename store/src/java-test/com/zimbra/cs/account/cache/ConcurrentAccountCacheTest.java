@@ -0,0 +1,205 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.account.Key.DomainBy;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.stats.StopWatch;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
+import com.zimbra.cs.account.cache.DomainCache.NonExistingDomain;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ConcurrentAccountCache}, {@link ConcurrentDomainCache} and {@link LoadCoalescer}.
+ */
+public final class ConcurrentAccountCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static Account account(String name, String id, String... aliases) throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailAlias, aliases);
+        return new Account(name, id, attrs, null, Provisioning.getInstance());
+    }
+
+    @Test
+    public void getPutRemove() throws Exception {
+        ConcurrentAccountCache cache = new ConcurrentAccountCache(100, 0);
+        Account acct = account("user1@example.com", "11111111-1111-1111-1111-111111111111", "alias1@example.com");
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Assert.assertSame(acct, cache.getByName("User1@Example.com"));
+        Assert.assertSame(acct, cache.getByName("alias1@example.com"));
+        Assert.assertEquals(1, cache.getSize());
+
+        cache.remove(acct);
+        Assert.assertNull(cache.getById(acct.getId()));
+        Assert.assertNull(cache.getByName("alias1@example.com"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void expire() throws Exception {
+        ConcurrentAccountCache cache = new ConcurrentAccountCache(100, 50);
+        Account acct = account("user2@example.com", "22222222-2222-2222-2222-222222222222");
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Thread.sleep(100);
+        Assert.assertNull(cache.getById(acct.getId()));
+        Assert.assertNull(cache.getByName(acct.getName()));
+    }
+
+    @Test
+    public void maxItems() throws Exception {
+        ConcurrentAccountCache cache = new ConcurrentAccountCache(10, 0);
+        for (int i = 0; i < 20; i++) {
+            cache.put(account("user" + i + "@example.com", "id" + i));
+        }
+        Assert.assertTrue(cache.getSize() <= 10);
+        Assert.assertNotNull(cache.getById("id19"));
+    }
+
+    @Test
+    public void refreshAhead() throws Exception {
+        String percent = LC.ldap_cache_refresh_ahead_percent.value();
+        LC.ldap_cache_refresh_ahead_percent.setDefault(50);
+        ConcurrentAccountCache cache;
+        try {
+            cache = new ConcurrentAccountCache(100, 400);
+        } finally {
+            LC.ldap_cache_refresh_ahead_percent.setDefault(percent);
+        }
+        Account acct = account("user3@example.com", "33333333-3333-3333-3333-333333333333");
+        cache.put(acct);
+        Thread.sleep(300);
+        // about to expire, so this read reloads it in the background and gives it a new lifetime
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Thread.sleep(200);
+        Assert.assertSame("still cached after its first lifetime", acct, cache.getById(acct.getId()));
+        Assert.assertSame(acct, cache.getByName(acct.getName()));
+    }
+
+    @Test
+    public void loadOnce() throws Exception {
+        final LoadCoalescer<String> loader = new LoadCoalescer<String>(new StopWatch());
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final String[] results = new String[2];
+
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    results[0] = loader.load("id:1", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            loads.incrementAndGet();
+                            started.countDown();
+                            release.await();
+                            return "loaded";
+                        }
+                    });
+                } catch (Exception e) {
+                    results[0] = e.toString();
+                }
+            }
+        };
+        Thread second = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    results[1] = loader.load("id:1", new Callable<String>() {
+                        @Override
+                        public String call() {
+                            loads.incrementAndGet();
+                            return "loaded again";
+                        }
+                    });
+                } catch (Exception e) {
+                    results[1] = e.toString();
+                }
+            }
+        };
+        first.start();
+        started.await();
+        second.start();
+        while (second.getState() != Thread.State.WAITING) { // waiting for the first load
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals("loaded", results[0]);
+        Assert.assertEquals("loaded", results[1]);
+
+        // once done, the next lookup runs again
+        Assert.assertEquals("loaded again", loader.load("id:1", new Callable<String>() {
+            @Override
+            public String call() {
+                return "loaded again";
+            }
+        }));
+    }
+
+    @Test
+    public void domain() throws Exception {
+        ConcurrentDomainCache cache = new ConcurrentDomainCache(100, 0, 100, 0);
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraVirtualHostname, new String[] {"Mail.Example.com", "webmail.example.com"});
+        attrs.put(Provisioning.A_zimbraForeignName, new String[] {"App:Example"});
+        Domain domain = new Domain("example.com", "44444444-4444-4444-4444-444444444444", attrs, null,
+                Provisioning.getInstance());
+        cache.put(DomainBy.id, domain.getId(), domain);
+        cache.replace(domain);
+
+        Assert.assertSame(domain, cache.getByVirtualHostname("MAIL.example.com", GetFromDomainCacheOption.POSITIVE));
+        Assert.assertSame(domain, cache.getByForeignName("app:example", GetFromDomainCacheOption.POSITIVE));
+        // keys are lower cased, the entry's values are not
+        Assert.assertArrayEquals(new String[] {"Mail.Example.com", "webmail.example.com"},
+                domain.getMultiAttr(Provisioning.A_zimbraVirtualHostname));
+        Assert.assertArrayEquals(new String[] {"App:Example"}, domain.getMultiAttr(Provisioning.A_zimbraForeignName));
+    }
+
+    @Test
+    public void domainNegativeExpire() throws Exception {
+        ConcurrentDomainCache cache = new ConcurrentDomainCache(100, 0, 100, 50);
+        cache.put(DomainBy.name, "missing.example.com", null);
+        Assert.assertTrue(cache.getByName("missing.example.com", GetFromDomainCacheOption.NEGATIVE)
+                instanceof NonExistingDomain);
+        Thread.sleep(100);
+        Assert.assertNull(cache.getByName("missing.example.com", GetFromDomainCacheOption.BOTH));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.filter;
+
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ParsedScriptCache}.
+ */
+public final class ParsedScriptCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Test
+    public void shared() throws Exception {
+        ParsedScriptCache cache = new ParsedScriptCache(1024 * 1024);
+        String script = "if header :contains \"Subject\" \"test\" { tag \"t1\"; }";
+        Node node = cache.get(script);
+        Assert.assertSame(node, cache.get(new String(script)));
+        Assert.assertNotSame(node, cache.get(script + "\nkeep;"));
+        Assert.assertEquals(2, cache.size());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void maxWeight() throws Exception {
+        ParsedScriptCache cache = new ParsedScriptCache(0);
+        cache.get("keep;");
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void parseError() throws Exception {
+        ParsedScriptCache cache = new ParsedScriptCache(1024 * 1024);
+        try {
+            cache.get("if header :contains \"Subject\" {");
+            Assert.fail();
+        } catch (ParseException expected) {
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -1,6 +1,13 @@
 package com.zimbra.cs.imap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -12,6 +19,7 @@ import org.junit.Test;
 
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
 import com.zimbra.cs.mailbox.MailItem.Type;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -61,4 +69,127 @@ public class ImapFolderTest {
         Assert.assertNotNull(i4set);
         Assert.assertEquals(3, i4set.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void collapseExpunged() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        for (int i = 1; i <= 6; i++) {
+            i4folder.cache(new ImapMessage(100 + i, Type.MESSAGE, 10 + i, 0, null), false);
+        }
+        i4folder.markMessageExpunged(i4folder.getBySequence(2));
+        i4folder.markMessageExpunged(i4folder.getBySequence(3));
+        i4folder.markMessageExpunged(i4folder.getBySequence(5));
+
+        // sequence numbers as of the preceding removals, as EXPUNGE responses require
+        Assert.assertEquals(Arrays.asList(2, 2, 3), i4folder.collapseExpunged(false));
+        Assert.assertEquals(3, i4folder.getSize());
+        Assert.assertEquals(11, i4folder.getBySequence(1).imapUid);
+        Assert.assertEquals(14, i4folder.getBySequence(2).imapUid);
+        Assert.assertEquals(2, i4folder.getBySequence(2).sequence);
+        Assert.assertEquals(16, i4folder.getBySequence(3).imapUid);
+        Assert.assertEquals(3, i4folder.getById(106).sequence);
+        Assert.assertNull(i4folder.getById(105));
+        Assert.assertNull(i4folder.getByImapId(15));
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        i4folder.cache(new ImapMessage(1, Type.MESSAGE, 1, 0, null), false);
+        i4folder.cache(new ImapMessage(7, Type.MESSAGE, 300, Flag.BITMASK_UNREAD, new String[] { "a", "b" }), true);
+        i4folder.cache(new ImapMessage(5, Type.CONTACT, 70000, Flag.BITMASK_FLAGGED, new String[] { "a", "b" }), false);
+        i4folder.cache(new ImapMessage(70001, Type.MESSAGE, 70001, 0, new String[] { "c" }), false);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(i4folder);
+        out.close();
+        ImapFolder copy = (ImapFolder) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        Assert.assertEquals(4, copy.getSize());
+        for (int seq = 1; seq <= 4; seq++) {
+            ImapMessage expected = i4folder.getBySequence(seq);
+            ImapMessage actual = copy.getBySequence(seq);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertEquals(expected.sflags, actual.sflags);
+            Assert.assertEquals(seq, actual.sequence);
+            Assert.assertEquals(expected.getType(), actual.getType());
+            Assert.assertTrue(Arrays.equals(expected.tags, actual.tags));
+        }
+        // identical tag sets come back as one shared array
+        Assert.assertSame(copy.getBySequence(2).tags, copy.getBySequence(3).tags);
+        Assert.assertEquals(5, copy.getById(5).msgId);
+        Assert.assertEquals(70000, copy.getById(5).imapUid);
+    }
+
+    @Test
+    public void serializeDelta() throws Exception {
+        final Map<String, byte[]> records = new HashMap<String, byte[]>();
+        ImapFolderSerializer.RecordStore store = new ImapFolderSerializer.RecordStore() {
+            @Override
+            public byte[] load(String key) {
+                return records.get(key);
+            }
+        };
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        for (int i = 1; i <= 200; i++) {
+            i4folder.cache(new ImapMessage(i, Type.MESSAGE, i, Flag.BITMASK_UNREAD, i % 10 == 0 ? new String[] { "x" } : null), false);
+        }
+        records.put("k1", ImapFolderSerializer.serialize(i4folder, "k1", store));
+
+        ImapFolder loaded = ImapFolderSerializer.deserialize(records.get("k1"), "k1", store);
+        Assert.assertEquals(200, loaded.getSize());
+        loaded.getBySequence(17).flags = 0;
+        loaded.getBySequence(18).tags = new String[] { "y" };
+        // changes to two columns that would cancel out in a row checksum
+        loaded.getBySequence(19).flags += 1;
+        loaded.getBySequence(19).sflags -= 31;
+        loaded.cache(new ImapMessage(201, Type.CONTACT, 201, 0, null), false);
+        records.put("k2", ImapFolderSerializer.serialize(loaded, "k2", store));
+        // only the changes are written
+        Assert.assertTrue(records.get("k2").length * 10 < records.get("k1").length);
+
+        ImapFolder copy = ImapFolderSerializer.deserialize(records.get("k2"), "k2", store);
+        Assert.assertEquals(i4folder.getId(), copy.getId());
+        Assert.assertEquals(i4folder.getUIDValidity(), copy.getUIDValidity());
+        Assert.assertEquals(201, copy.getSize());
+        for (int seq = 1; seq <= 201; seq++) {
+            ImapMessage expected = loaded.getBySequence(seq);
+            ImapMessage actual = copy.getBySequence(seq);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertEquals(expected.sflags, actual.sflags);
+            Assert.assertEquals(seq, actual.sequence);
+            Assert.assertTrue(Arrays.equals(expected.tags, actual.tags));
+        }
+        Assert.assertEquals(Type.CONTACT, copy.getBySequence(201).getType());
+
+        // expunges shift the sequence, so the next record is a full one
+        copy.markMessageExpunged(copy.getBySequence(1));
+        copy.collapseExpunged(false);
+        records.put("k3", ImapFolderSerializer.serialize(copy, "k3", store));
+        records.remove("k1");
+        records.remove("k2");
+        Assert.assertEquals(200, ImapFolderSerializer.deserialize(records.get("k3"), "k3", store).getSize());
+
+        // a delta whose base is gone can't be read
+        records.put("k4", ImapFolderSerializer.serialize(copy, "k4", store));
+        records.remove("k3");
+        try {
+            ImapFolderSerializer.deserialize(records.get("k4"), "k4", store);
+            Assert.fail();
+        } catch (InvalidObjectException expected) {
+        }
+        // nor can a record in another format
+        byte[] data = ImapFolderSerializer.serialize(copy, null, null);
+        data[4]++;
+        try {
+            ImapFolderSerializer.deserialize(data, null, null);
+            Assert.fail();
+        } catch (InvalidObjectException expected) {
+        }
+    }
+}
@@ -16,23 +16,37 @@
  */
 package com.zimbra.cs.imap;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 
 import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
 
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.InputStreamWithSize;
 import com.zimbra.common.zmime.ZMimeMessage;
 import com.zimbra.cs.imap.ImapPartSpecifier.BinaryDecodingException;
 import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.server.NioOutputStreamTest;
+import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.util.JMSession;
 
 public class ImapPartSpecifierTest {
@@ -117,4 +131,86 @@ public class ImapPartSpecifierTest {
         checkBody(mm, "3.3", "MIME", "Content-Type: text/calendar; name=meeting.ics; method=REQUEST; charset=utf-8", "Content-Transfer-Encoding: 7bit");
 
     }
+
+    @Test
+    public void transferBlob() throws Exception {
+        byte[] content = "Subject: test\r\n\r\nnothing to see here\r\n".getBytes(Charsets.US_ASCII);
+        File file = File.createTempFile("blob", null);
+        file.deleteOnExit();
+        Files.write(content, file);
+        Blob blob = new Blob(file) {
+        };
+
+        // the whole message
+        TransferHandler handler = new TransferHandler();
+        NioOutputStream os = newOutputStream(handler);
+        PrintStream ps = new PrintStream(os, false, "US-ASCII");
+        Assert.assertTrue(new ImapPartSpecifier("BODY", "", "").transferBlob(ps, os, blob, content.length));
+        Assert.assertEquals("BODY[] {" + content.length + "}\r\n", handler.text.toString());
+        Assert.assertEquals(0, handler.start);
+        Assert.assertEquals(content.length, handler.count);
+        Assert.assertFalse("channel closed", handler.region.getFileChannel().isOpen());
+
+        // BODY[]<start.count>
+        handler = new TransferHandler();
+        os = newOutputStream(handler);
+        ps = new PrintStream(os, false, "US-ASCII");
+        Assert.assertTrue(new ImapPartSpecifier("BODY", "", "", 9, 4).transferBlob(ps, os, blob, content.length));
+        Assert.assertEquals("BODY[]<9> {4}\r\n", handler.text.toString());
+        Assert.assertEquals(9, handler.start);
+        Assert.assertEquals(4, handler.count);
+
+        // a range running past the end is cut off there
+        handler = new TransferHandler();
+        os = newOutputStream(handler);
+        ps = new PrintStream(os, false, "US-ASCII");
+        Assert.assertTrue(new ImapPartSpecifier("BODY", "", "", 9, 1000).transferBlob(ps, os, blob, content.length));
+        Assert.assertEquals(content.length - 9, handler.count);
+
+        // a size mismatch or a compressed blob goes through the regular path
+        handler = new TransferHandler();
+        os = newOutputStream(handler);
+        ps = new PrintStream(os, false, "US-ASCII");
+        Assert.assertFalse(new ImapPartSpecifier("BODY", "", "").transferBlob(ps, os, blob, content.length + 1));
+        blob.setCompressed(true);
+        Assert.assertFalse(new ImapPartSpecifier("BODY", "", "").transferBlob(ps, os, blob, content.length));
+        blob.setCompressed(false);
+
+        // and so does a session that encrypts what it sends
+        DummySession session = (DummySession) handler.session;
+        session.getFilterChain().addFirst("ssl", new SslFilter(SSLContext.getDefault(), false));
+        Assert.assertFalse(new ImapPartSpecifier("BODY", "", "").transferBlob(ps, os, blob, content.length));
+        os.flush();
+        Assert.assertEquals("nothing written", 0, handler.text.length());
+        Assert.assertNull(handler.region);
+    }
+
+    private static NioOutputStream newOutputStream(TransferHandler handler) {
+        DummySession session = new DummySession();
+        session.setHandler(handler);
+        handler.session = session;
+        return NioOutputStreamTest.newOutputStream(session);
+    }
+
+    private static final class TransferHandler extends IoHandlerAdapter {
+        IoSession session;
+        final StringBuilder text = new StringBuilder();
+        FileRegion region;
+        long start;
+        long count;
+
+        @Override
+        public void messageSent(IoSession session, Object message) {
+            if (message instanceof FileRegion) {
+                region = (FileRegion) message;
+                count = region.getWrittenBytes();
+                start = region.getPosition() - count;
+            } else {
+                IoBuffer buf = (IoBuffer) message;
+                while (buf.hasRemaining()) {
+                    text.append((char) buf.get());
+                }
+            }
+        }
+    }
 }
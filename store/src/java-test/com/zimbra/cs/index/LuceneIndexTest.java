@@ -16,6 +16,18 @@
  */
 package com.zimbra.cs.index;
 
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mime.ParsedContact;
+import com.zimbra.cs.stats.ZimbraPerf;
+
 /**
  * Unit test for {@link LuceneIndex}.
  */
@@ -27,4 +39,33 @@ public final class LuceneIndexTest extends AbstractIndexStoreTest {
         // Default for LC.zimbra_class_index_store_factory.value() is USUALLY this
         return "com.zimbra.cs.index.LuceneIndex$Factory";
     }
+
+    @Test
+    public void reopenAfterCommit() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        createContact(mbox, "test1@zimbra.com");
+        mbox.index.indexDeferredItems();
+        IndexStore index = mbox.index.getIndexStore();
+        ZimbraIndexSearcher searcher = index.openSearcher(); // cached from now on
+        Assert.assertEquals(1, searcher.getIndexReader().numDocs());
+
+        long reopens = ZimbraPerf.STOPWATCH_IDX_READER_REOPEN.getCount();
+        long reused = ZimbraPerf.COUNTER_IDX_READER_SEGMENTS_REUSED.getTotal();
+        createContact(mbox, "test2@zimbra.com");
+        mbox.index.indexDeferredItems();
+        Assert.assertTrue(ZimbraPerf.STOPWATCH_IDX_READER_REOPEN.getCount() > reopens);
+        Assert.assertTrue(ZimbraPerf.COUNTER_IDX_READER_SEGMENTS_REUSED.getTotal() > reused);
+
+        // the old searcher is still usable until it is closed
+        Assert.assertEquals(1, searcher.getIndexReader().numDocs());
+        searcher.close();
+        searcher = index.openSearcher();
+        Assert.assertEquals(2, searcher.getIndexReader().numDocs());
+        searcher.close();
+    }
+
+    private static void createContact(Mailbox mbox, String email) throws Exception {
+        mbox.createContact(null, new ParsedContact(Collections.singletonMap(ContactConstants.A_email, email)),
+                Mailbox.ID_FOLDER_CONTACTS, null);
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MessageIdDedupeCache}.
+ */
+public final class MessageIdDedupeCacheTest {
+
+    @Test
+    public void addRemove() {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(100, 0);
+        Assert.assertFalse(cache.contains("<a@b>", 1));
+        cache.add("<a@b>", 1);
+        cache.add("<a@b>", 2);
+        Assert.assertTrue(cache.contains("<a@b>", 1));
+        Assert.assertTrue(cache.contains("<a@b>", 2));
+        Assert.assertFalse(cache.contains("<a@b>", 3));
+        cache.remove("<a@b>", 1);
+        Assert.assertFalse(cache.contains("<a@b>", 1));
+        Assert.assertTrue(cache.contains("<a@b>", 2));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(50.0, cache.getHitRate(), 0.1);
+    }
+
+    @Test
+    public void resize() {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(1600, 0);
+        for (int i = 0; i < 1600; i++) {
+            cache.add("<" + i + "@test>", 1);
+        }
+        Assert.assertEquals(1600, cache.size());
+        cache.setLimits(160, 0);
+        Assert.assertEquals(160, cache.size());
+        Assert.assertTrue(cache.contains("<1599@test>", 1)); // most recent ones survive
+
+        cache.setLimits(0, 0);
+        Assert.assertEquals(0, cache.size());
+        cache.add("<x@test>", 1);
+        Assert.assertFalse(cache.contains("<x@test>", 1));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(100, 50);
+        cache.add("<a@b>", 1);
+        Assert.assertTrue(cache.contains("<a@b>", 1));
+        Thread.sleep(100);
+        Assert.assertFalse(cache.contains("<a@b>", 1));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void saveLoad() throws Exception {
+        File file = File.createTempFile("dedupe", ".dat");
+        try {
+            MessageIdDedupeCache cache = new MessageIdDedupeCache(100, 0);
+            cache.add("<a@b>", 1);
+            cache.add("<a@b>", 2);
+            cache.add("<c@d>", 3);
+            cache.save(file);
+
+            MessageIdDedupeCache loaded = new MessageIdDedupeCache(100, 0);
+            loaded.load(file);
+            Assert.assertEquals(2, loaded.size());
+            Assert.assertTrue(loaded.contains("<a@b>", 1));
+            Assert.assertTrue(loaded.contains("<a@b>", 2));
+            Assert.assertTrue(loaded.contains("<c@d>", 3));
+            Assert.assertFalse(loaded.contains("<c@d>", 1));
+        } finally {
+            file.delete();
+        }
+    }
+}
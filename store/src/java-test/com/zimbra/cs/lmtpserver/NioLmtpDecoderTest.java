@@ -0,0 +1,140 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.File;
+import java.net.SocketAddress;
+import java.nio.charset.CharsetEncoder;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.DefaultTransportMetadata;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.RecoverableProtocolDecoderException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.BufferStream;
+
+/**
+ * Unit test for {@link NioLmtpDecoder}.
+ */
+public final class NioLmtpDecoderTest {
+    private static final CharsetEncoder CHARSET = Charsets.ISO_8859_1.newEncoder();
+    private static final IoBuffer IN = IoBuffer.allocate(1024).setAutoExpand(true);
+
+    private NioLmtpDecoder decoder;
+    private ProtocolCodecSession session;
+
+    @BeforeClass
+    public static void init() {
+        new File("build/test").mkdirs();
+        LC.zimbra_tmp_directory.setDefault("build/test");
+    }
+
+    @Before
+    public void setUp() {
+        decoder = new NioLmtpDecoder(16, 64, 8);
+        session = new ProtocolCodecSession();
+        session.setTransportMetadata(new DefaultTransportMetadata("test", "test", false, true,
+                SocketAddress.class, IoSessionConfig.class, Object.class));
+    }
+
+    @Test
+    public void lines() throws Exception {
+        decode("LHLO localhost\r\nMAIL FROM:<a>\r\nRCPT");
+        Assert.assertEquals("LHLO localhost", session.getDecoderOutputQueue().poll());
+        Assert.assertEquals("MAIL FROM:<a>", session.getDecoderOutputQueue().poll());
+        Assert.assertNull(session.getDecoderOutputQueue().poll());
+        decode(" TO:<b>\n");
+        Assert.assertEquals("RCPT TO:<b>", session.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void tooLong() throws Exception {
+        try {
+            decode("RCPT TO:<0123456789@example.com>\r\nRSET\r\n");
+            Assert.fail();
+        } catch (RecoverableProtocolDecoderException expected) {
+        }
+        // like ProtocolCodecFilter, carry on with the rest of the buffer
+        decoder.decode(session, IN, session.getDecoderOutput());
+        Assert.assertEquals("RSET", session.getDecoderOutputQueue().poll());
+        try {
+            decode("RCPT TO:<0123456789");
+            decode("@example.com>\r\nNOOP\r\n");
+            Assert.fail();
+        } catch (RecoverableProtocolDecoderException expected) {
+        }
+        decoder.decode(session, IN, session.getDecoderOutput());
+        Assert.assertEquals("NOOP", session.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void data() throws Exception {
+        decode("DATA\r\n");
+        Assert.assertEquals("DATA", session.getDecoderOutputQueue().poll());
+        session.setAttribute(NioLmtpDecoder.DATA, Boolean.TRUE);
+        decode("Subject: test\r\n\r\n..a\r\n.\r");
+        Assert.assertNull(session.getDecoderOutputQueue().poll());
+        decode("\nQUIT\r\n");
+        BufferStream message = (BufferStream) session.getDecoderOutputQueue().poll();
+        Assert.assertTrue("spooled", message.isSpooled());
+        Assert.assertEquals("Subject: test\r\n\r\n..a\r\n.\r\n", read(message));
+        Assert.assertEquals("QUIT", session.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void tooLarge() throws Exception {
+        session.setAttribute(NioLmtpDecoder.DATA, Boolean.TRUE);
+        decode("Subject: test\r\n\r\n");
+        for (int i = 0; i < 8; i++) {
+            decode("0123456789\r\n");
+        }
+        Assert.assertNull(session.getDecoderOutputQueue().poll());
+        decode(".\r\nNOOP\r\n");
+        Assert.assertEquals(LmtpReply.MESSAGE_TOO_LARGE, session.getDecoderOutputQueue().poll());
+        Assert.assertEquals("NOOP", session.getDecoderOutputQueue().poll());
+    }
+
+    @Test
+    public void emptyData() throws Exception {
+        session.setAttribute(NioLmtpDecoder.DATA, Boolean.TRUE);
+        decode(".\r\nNOOP\r\n");
+        BufferStream message = (BufferStream) session.getDecoderOutputQueue().poll();
+        Assert.assertFalse("in memory", message.isSpooled());
+        Assert.assertEquals(".\r\n", read(message));
+        Assert.assertEquals("NOOP", session.getDecoderOutputQueue().poll());
+    }
+
+    private String read(BufferStream message) throws Exception {
+        try {
+            return new String(message.toByteArray(), Charsets.ISO_8859_1);
+        } finally {
+            message.close();
+        }
+    }
+
+    private void decode(String input) throws Exception {
+        IN.clear().putString(input, CHARSET).flip();
+        decoder.decode(session, IN, session.getDecoderOutput());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ZimbraLmtpBackend}.
+ */
+public final class ZimbraLmtpBackendTest {
+    private static final int NUM_ACCOUNTS = 8;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        for (int i = 0; i < NUM_ACCOUNTS; i++) {
+            prov.createAccount("rcpt" + i + "@zimbra.com", "secret", new HashMap<String, Object>());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void multipleRecipients() throws Exception {
+        // more recipients than delivery lanes, with an unknown one in the middle
+        LmtpEnvelope env = new LmtpEnvelope();
+        env.setSender(new LmtpAddress("<sender@example.com>", null, null));
+        List<String> rcpts = new ArrayList<String>();
+        for (int i = 0; i < NUM_ACCOUNTS; i++) {
+            rcpts.add("rcpt" + i + "@zimbra.com");
+            if (i == NUM_ACCOUNTS / 2) {
+                rcpts.add("unknown@zimbra.com");
+            }
+        }
+        for (String rcpt : rcpts) {
+            env.addLocalRecipient(new LmtpAddress("<" + rcpt + ">", null, null));
+        }
+
+        byte[] content = ("From: sender@example.com\r\n" +
+                "To: rcpt0@zimbra.com\r\n" +
+                "Subject: parallel delivery\r\n" +
+                "Message-ID: <parallel@example.com>\r\n" +
+                "\r\n" +
+                "hello\r\n").getBytes(Charsets.US_ASCII);
+        LmtpConfig.getInstance().getLmtpBackend().deliver(env, new ByteArrayInputStream(content), content.length);
+
+        // replies go out in RCPT order
+        List<LmtpAddress> recipients = env.getRecipients();
+        Assert.assertEquals(rcpts.size(), recipients.size());
+        for (int i = 0; i < rcpts.size(); i++) {
+            LmtpAddress recipient = recipients.get(i);
+            Assert.assertEquals(rcpts.get(i), recipient.getEmailAddress());
+            if (rcpts.get(i).startsWith("unknown")) {
+                Assert.assertEquals(LmtpReply.TEMPORARY_FAILURE, recipient.getDeliveryStatus());
+                continue;
+            }
+            Assert.assertEquals(recipient.getEmailAddress(), LmtpReply.DELIVERY_OK, recipient.getDeliveryStatus());
+            Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(
+                    Provisioning.getInstance().getAccountByName(rcpts.get(i)));
+            Assert.assertEquals(recipient.getEmailAddress(), 1,
+                    mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE).size());
+        }
+    }
+}
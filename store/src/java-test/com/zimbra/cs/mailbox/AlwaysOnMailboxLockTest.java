@@ -0,0 +1,190 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.mail.internet.MimeMessage;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.zimbra.common.account.ZAttrProvisioning.MailThreadingAlgorithm;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.lock.DistributedLock;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.util.Zimbra;
+import com.zimbra.cs.zookeeper.DistributedReadWriteLock;
+
+/**
+ * Unit test for {@link MailboxLock} read locks in always-on mode, against an in-process ZooKeeper server.
+ */
+public final class AlwaysOnMailboxLockTest {
+    private static NIOServerCnxnFactory factory;
+    private static CuratorFramework server1;
+    private static CuratorFramework server2;
+    private String leaseMillis;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+
+        File dir = Files.createTempDir();
+        ZooKeeperServer zk = new ZooKeeperServer(dir, dir, 2000);
+        factory = new NIOServerCnxnFactory();
+        factory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+        factory.startup(zk);
+        String connect = "127.0.0.1:" + factory.getLocalPort();
+        server1 = CuratorFrameworkFactory.newClient(connect, new RetryOneTime(100));
+        server1.start();
+        server2 = CuratorFrameworkFactory.newClient(connect, new RetryOneTime(100));
+        server2.start();
+    }
+
+    @AfterClass
+    public static void destroy() {
+        server1.close();
+        server2.close();
+        factory.shutdown();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        leaseMillis = LC.zimbra_mailbox_distributed_lock_lease_ms.value();
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(60000);
+    }
+
+    @After
+    public void tearDown() {
+        Zimbra.setAlwaysOnClusterId(null);
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(leaseMillis);
+    }
+
+    @Test
+    public void readLocks() throws Exception {
+        final Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        String path = "/locks/" + mbox.getAccountId();
+        DistributedLock dLock = new DistributedLock(new DistributedReadWriteLock(server1, path));
+        mbox.lock.setDistributedLock(dLock);
+        Zimbra.setAlwaysOnClusterId("test");
+
+        // nothing has been loaded under a lease yet, so the first reader reloads with the write lock
+        Assert.assertTrue(mbox.requiresWriteLock());
+        mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX);
+        Assert.assertFalse(mbox.requiresWriteLock());
+
+        // while the lease is kept, readers share the lock and leave the folder and tag caches alone
+        mbox.lock.lock(false);
+        try {
+            Assert.assertFalse(mbox.lock.isWriteLockedByCurrentThread());
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX);
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            reader.start();
+            reader.join(10000);
+            Assert.assertFalse("reader waited for a write lock", reader.isAlive());
+            Assert.assertNull(error.get());
+        } finally {
+            mbox.lock.release();
+        }
+
+        // once another server has had the lock, the next reader reloads with the write lock again
+        DistributedLock other = new DistributedLock(new DistributedReadWriteLock(server2, path));
+        other.acquire(true, 5, TimeUnit.SECONDS);
+        other.release();
+        other.flush();
+        Assert.assertTrue(mbox.requiresWriteLock());
+        mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX);
+        Assert.assertFalse(mbox.requiresWriteLock());
+        dLock.flush();
+    }
+
+    @Test
+    public void conversationHashIndex() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        mbox.getAccount().setMailThreadingAlgorithm(MailThreadingAlgorithm.references);
+        MimeMessage root = ThreaderTest.getRootMimeMessage();
+        Message msg = mbox.addMessage(null, new ParsedMessage(root, false), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        Assert.assertTrue("virtual conversation", msg.getConversationId() < 0);
+        MimeMessage mm = ThreaderTest.getSecondMessage();
+        mm.setHeader("In-Reply-To", root.getMessageID());
+        ParsedMessage reply = new ParsedMessage(mm, false);
+
+        String path = "/locks/" + mbox.getAccountId();
+        DistributedLock dLock = new DistributedLock(new DistributedReadWriteLock(server1, path));
+        mbox.lock.setDistributedLock(dLock);
+        Zimbra.setAlwaysOnClusterId("test");
+        ConversationHashIndex index = mbox.getConversationHashIndex();
+        Assert.assertEquals(Arrays.asList(msg.getConversationId()), lookupConversation(mbox, reply));
+        Assert.assertTrue(index.isComplete());
+
+        // make the index disagree with the table; while the lease is kept, the index is trusted
+        mbox.beginTransaction("conversationHashIndex", null);
+        try {
+            index.retargeted(msg.getId(), Integer.MAX_VALUE);
+        } finally {
+            mbox.endTransaction(true);
+        }
+        Assert.assertEquals(Collections.emptyList(), lookupConversation(mbox, reply));
+
+        // once another server has had the lock, it may have changed the table, so the index is loaded again
+        DistributedLock other = new DistributedLock(new DistributedReadWriteLock(server2, path));
+        other.acquire(true, 5, TimeUnit.SECONDS);
+        other.release();
+        other.flush();
+        Assert.assertEquals(Arrays.asList(msg.getConversationId()), lookupConversation(mbox, reply));
+        dLock.flush();
+    }
+
+    private List<Integer> lookupConversation(Mailbox mbox, ParsedMessage pm) throws Exception {
+        mbox.beginTransaction("conversationHashIndex", null);
+        try {
+            return MailItem.toId(new Threader(mbox, pm).lookupConversation());
+        } finally {
+            mbox.endTransaction(false);
+        }
+    }
+}
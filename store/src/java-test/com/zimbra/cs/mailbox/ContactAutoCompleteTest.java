@@ -269,4 +269,41 @@ public final class ContactAutoCompleteTest {
         ContactAutoComplete autocomplete = new ContactAutoComplete(mbox.getAccount(), new OperationContext(mbox));
         Assert.assertEquals(0, autocomplete.query("noex", null, 10).entries.size());
      }
+
+    @Test
+    public void limit() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        for (String name : new String[] { "one", "two", "three" }) {
+            Map<String, Object> fields = new HashMap<String, Object>();
+            fields.put(ContactConstants.A_firstName, "Limit");
+            fields.put(ContactConstants.A_lastName, name);
+            fields.put(ContactConstants.A_email, "limit." + name + "@zimbra.com");
+            mbox.createContact(null, new ParsedContact(fields), Mailbox.ID_FOLDER_CONTACTS, null);
+        }
+        ContactRankings.increment(mbox.getAccountId(), Collections.singleton(new InternetAddress("limit.three@zimbra.com")));
+
+        ContactAutoComplete autocomplete = new ContactAutoComplete(mbox.getAccount(), new OperationContext(mbox));
+        AutoCompleteResult result = autocomplete.query("limit", null, 3);
+        Assert.assertEquals(3, result.entries.size());
+        Assert.assertTrue(result.canBeCached);
+
+        result = autocomplete.query("limit", null, 2);
+        Assert.assertEquals(2, result.entries.size());
+        Assert.assertFalse(result.canBeCached);
+        // the ranked contact comes first, whichever search finishes first
+        Assert.assertEquals("limit.three@zimbra.com", result.entries.iterator().next().mEmail);
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        AutoCompleteResult result = new AutoCompleteResult(10);
+        result.rankings = new ContactRankings(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        result.cancel();
+        ContactEntry contact = new ContactEntry();
+        contact.mDisplayName = "C1";
+        contact.mEmail = "c1@zimbra.com";
+        result.addEntry(contact);
+        Assert.assertEquals(0, result.entries.size());
+        Assert.assertFalse(result.canBeCached);
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.IndexScheduler.Priority;
+
+/**
+ * Unit test for {@link IndexScheduler}.
+ */
+public final class IndexSchedulerTest {
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private IndexScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        log.clear();
+        scheduler = new IndexScheduler("IndexTest", 1, 3);
+        // occupy the only thread so that everything submitted afterwards queues up
+        scheduler.submit(99, new Task("gate"), Priority.BULK, false);
+        while (!scheduler.isRunning(99)) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void roundRobin() throws Exception {
+        scheduler.submit(1, new Task("1a"), Priority.BATCH, false);
+        scheduler.submit(1, new Task("1b"), Priority.BATCH, false);
+        scheduler.submit(1, new Task("1c"), Priority.BATCH, false);
+        scheduler.submit(2, new Task("2a"), Priority.BATCH, false);
+        scheduler.submit(2, new Task("2b"), Priority.BATCH, false);
+        scheduler.submit(3, new Task("3a"), Priority.BATCH, false);
+        Assert.assertEquals(3, scheduler.getQueueDepth(1));
+        Assert.assertEquals(6, scheduler.getQueueDepth());
+        drain(7);
+        Assert.assertEquals(Arrays.asList("gate", "1a", "2a", "3a", "1b", "2b", "1c"), log);
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+        Assert.assertEquals(0, scheduler.getQueueAge(1));
+    }
+
+    @Test
+    public void priority() throws Exception {
+        scheduler.submit(1, new Task("bulk"), Priority.BULK, false);
+        scheduler.submit(2, new Task("batch"), Priority.BATCH, false);
+        scheduler.submit(3, new Task("interactive"), Priority.INTERACTIVE, false);
+        drain(4);
+        Assert.assertEquals(Arrays.asList("gate", "interactive", "batch", "bulk"), log);
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        scheduler.submit(1, new Task("a"), Priority.BATCH, false);
+        scheduler.submit(1, new Task("b"), Priority.BATCH, false);
+        scheduler.submit(1, new Task("c"), Priority.BATCH, false);
+        try {
+            scheduler.submit(1, new Task("d"), Priority.BATCH, false);
+            Assert.fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        scheduler.submit(2, new Task("e"), Priority.BATCH, false); // other mailboxes are unaffected
+        Thread.sleep(10);
+        long age = scheduler.getQueueAge(1);
+        Assert.assertTrue(age > 0);
+        Assert.assertTrue(scheduler.getMaxQueueAge() >= age);
+        drain(5);
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        scheduler.submit(1, new Task("bulk"), Priority.BULK, false);
+        Assert.assertTrue(scheduler.submit(2, new Task("first"), Priority.BATCH, true));
+        scheduler.submit(3, new Task("other"), Priority.BATCH, false);
+        Assert.assertFalse(scheduler.submit(2, new Task("second"), Priority.INTERACTIVE, true));
+        Assert.assertEquals(1, scheduler.getQueueDepth(2));
+        drain(4);
+        // the waiting task moved up instead of a second one being queued
+        Assert.assertEquals(Arrays.asList("gate", "first", "other", "bulk"), log);
+    }
+
+    private void drain(int expected) throws InterruptedException {
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (log.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(log.toString(), expected, log.size());
+    }
+
+    private final class Task implements Runnable {
+        private final String name;
+
+        Task(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            log.add(name);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxManager.MailboxMap;
+
+public class MailboxMapTest {
+
+    private static MailboxMaintenance maint(int id) {
+        return new MailboxMaintenance("acct-" + id, id);
+    }
+
+    @Test
+    public void hardTierBounded() {
+        MailboxMap map = new MailboxMap(100);
+        for (int i = 1; i <= 1000; i++) {
+            map.put(i, maint(i));
+        }
+        Assert.assertEquals(100, map.hardSize());
+        // maintenance locks are never softened, so everything is still reachable
+        Assert.assertEquals(1000, map.size());
+        for (int i = 1; i <= 1000; i++) {
+            Assert.assertEquals(i, ((MailboxMaintenance) map.get(i)).getMailboxId());
+        }
+    }
+
+    @Test
+    public void putRemove() {
+        MailboxMap map = new MailboxMap(10);
+        MailboxMaintenance first = maint(1);
+        Assert.assertNull(map.put(1, first));
+        MailboxMaintenance second = maint(1);
+        Assert.assertSame(first, map.put(1, second));
+        Assert.assertSame(second, map.get(1));
+        Assert.assertTrue(map.containsKey(1));
+        Assert.assertTrue(map.containsValue(second));
+        Assert.assertSame(second, map.remove(1));
+        Assert.assertNull(map.get(1));
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.hardSize());
+    }
+
+    @Test
+    public void noHardTier() {
+        MailboxMap map = new MailboxMap(0);
+        map.put(1, maint(1));
+        map.put(2, maint(2));
+        Assert.assertEquals(0, map.hardSize());
+        Assert.assertEquals(2, map.values().size());
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final MailboxMap map = new MailboxMap(256);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 1; i <= 2000; i++) {
+                            int id = i * 8 + offset;
+                            map.put(id, maint(id));
+                            Object cached = map.get(id);
+                            if (!(cached instanceof MailboxMaintenance) ||
+                                    ((MailboxMaintenance) cached).getMailboxId() != id) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(16000, map.size());
+        Assert.assertEquals(256, map.hardSize());
+    }
+}
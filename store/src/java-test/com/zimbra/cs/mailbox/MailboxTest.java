@@ -328,6 +328,28 @@ public final class MailboxTest {
         }
     }
 
+    @Test
+    public void reIndexById() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 30; i++) {
+            ids.add(mbox.addMessage(null, MailboxTestUtil.generateMessage("reindex " + i),
+                    STANDARD_DELIVERY_OPTIONS, null).getId());
+        }
+        mbox.index.indexDeferredItems();
+        ids.add(10000); // no such item
+
+        mbox.index.startReIndexById(ids);
+        MailboxIndex.ReIndexStatus status = mbox.index.getReIndexStatus();
+        for (int i = 0; i < 500 && mbox.index.isReIndexInProgress(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(mbox.index.isReIndexInProgress());
+        Assert.assertEquals(ids.size(), status.getProcessed());
+        Assert.assertEquals(0, status.getFailed());
+        Assert.assertEquals(ids.size(), status.getCheckpoint());
+    }
+
     @Test
     public void dumpster() throws Exception {
         Account acct = Provisioning.getInstance().getAccount("test@zimbra.com");
@@ -575,6 +597,30 @@ public final class MailboxTest {
         assertEquals("Last", contact.get("lastName"));
     }
 
+    @Test
+    public void resetImapUid() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(mbox.addMessage(null, new ParsedMessage(("From: test" + i + "@zimbra.com").getBytes(), false),
+                    STANDARD_DELIVERY_OPTIONS, null).getId());
+        }
+        int uidnext = mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getImapUIDNEXT();
+
+        List<Integer> uids = mbox.resetImapUid(null, ids);
+        Assert.assertEquals(3, uids.size());
+        for (int uid : uids) {
+            Assert.assertTrue(uid >= uidnext);
+        }
+        Assert.assertEquals(3, new HashSet<Integer>(uids).size());
+        Assert.assertTrue(mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getImapUIDNEXT() > uidnext);
+
+        mbox.purge(MailItem.Type.MESSAGE); // make sure the UIDs were written to the database
+        for (int i = 0; i < ids.size(); i++) {
+            Assert.assertEquals(uids.get(i).intValue(), mbox.getMessageById(null, ids.get(i)).getImapUid());
+        }
+    }
+
     @Test
     public void getVisibleFolders() throws Exception {
         Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
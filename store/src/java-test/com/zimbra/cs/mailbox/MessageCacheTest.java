@@ -0,0 +1,75 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * Unit test for {@link MessageCache}.
+ */
+public final class MessageCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void hitsAndMisses() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("test"), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        MessageCache.purge(msg.getDigest());
+        MessageCache.drainMailboxStats();
+
+        MimeMessage first = MessageCache.getMimeMessage(msg, false);
+        MimeMessage second = MessageCache.getMimeMessage(msg, false);
+        Assert.assertSame(first, second);
+        Assert.assertTrue(MessageCache.contains(msg.getDigest()));
+
+        MessageCache.MailboxStats stats = MessageCache.drainMailboxStats().get(mbox.getId());
+        Assert.assertEquals(1, stats.getMisses());
+        Assert.assertEquals(1, stats.getHits());
+        Assert.assertEquals(50.0, stats.getHitRate(), 0.0);
+        Assert.assertTrue(MessageCache.getWeightedSize() > 0);
+        Assert.assertEquals(msg.getSize(), stats.getDataSize());
+
+        // the counters restart with every drain, and idle mailboxes without cached data are dropped
+        stats = MessageCache.drainMailboxStats().get(mbox.getId());
+        Assert.assertEquals(0, stats.getHits() + stats.getMisses());
+        Assert.assertEquals(msg.getSize(), stats.getDataSize());
+        MessageCache.purge(msg.getDigest());
+        Assert.assertFalse(MessageCache.contains(msg.getDigest()));
+        Assert.assertNull(MessageCache.drainMailboxStats().get(mbox.getId()));
+    }
+}
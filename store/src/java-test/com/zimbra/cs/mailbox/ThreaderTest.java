@@ -274,6 +274,39 @@ public final class ThreaderTest {
         threadMessage("outlook", MailThreadingAlgorithm.strict, pm, mbox, Collections.<Integer>emptyList());
     }
 
+    @Test
+    public void hashIndex() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg = mbox.addMessage(null, getRootMessage(), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        ConversationHashIndex index = mbox.getConversationHashIndex();
+        index.clear();
+
+        MimeMessage mm = getSecondMessage();
+        mm.setHeader("Subject", "Re: " + ROOT_SUBJECT);
+        mm.setHeader("In-Reply-To", ROOT_MESSAGE_ID);
+        ParsedMessage pm = new ParsedMessage(mm, false);
+        threadMessage("reloaded index", MailThreadingAlgorithm.references, pm, mbox,
+                Arrays.asList(msg.getConversationId()));
+        Assert.assertTrue(index.isComplete());
+        Assert.assertTrue(index.size() > 0);
+
+        // the virtual conversation becomes a real one, and the index follows
+        Message reply = mbox.addMessage(null, pm, MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        Assert.assertTrue(reply.getConversationId() > 0);
+        Assert.assertEquals(reply.getConversationId(), mbox.getMessageById(null, msg.getId()).getConversationId());
+
+        mm = getSecondMessage();
+        mm.setHeader("Message-ID", THIRD_MESSAGE_ID);
+        mm.setHeader("Subject", "Re: " + ROOT_SUBJECT);
+        mm.setHeader("In-Reply-To", OTHER_MESSAGE_ID);
+        pm = new ParsedMessage(mm, false);
+        threadMessage("retargeted", MailThreadingAlgorithm.references, pm, mbox,
+                Arrays.asList(reply.getConversationId()));
+        index.clear();
+        threadMessage("retargeted and reloaded", MailThreadingAlgorithm.references, pm, mbox,
+                Arrays.asList(reply.getConversationId()));
+    }
+
     @Test
     public void threadIndex() throws Exception {
         Assert.assertEquals("new thread index length", 32, ThreadIndex.newThreadIndex().length());
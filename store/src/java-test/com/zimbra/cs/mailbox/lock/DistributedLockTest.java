@@ -0,0 +1,254 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.lock;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.zookeeper.DistributedReadWriteLock;
+
+/**
+ * Unit test for {@link DistributedLock} against an in-process ZooKeeper server.
+ */
+public final class DistributedLockTest {
+    private static final String PATH = "/locks/test";
+
+    private static NIOServerCnxnFactory factory;
+    private static CuratorFramework server1;
+    private static CuratorFramework server2;
+    private String leaseMillis;
+
+    @BeforeClass
+    public static void startZooKeeper() throws Exception {
+        File dir = Files.createTempDir();
+        ZooKeeperServer zk = new ZooKeeperServer(dir, dir, 2000);
+        factory = new NIOServerCnxnFactory();
+        factory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+        factory.startup(zk);
+        String connect = "127.0.0.1:" + factory.getLocalPort();
+        server1 = CuratorFrameworkFactory.newClient(connect, new RetryOneTime(100));
+        server1.start();
+        server2 = CuratorFrameworkFactory.newClient(connect, new RetryOneTime(100));
+        server2.start();
+    }
+
+    @AfterClass
+    public static void stopZooKeeper() {
+        server1.close();
+        server2.close();
+        factory.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        leaseMillis = LC.zimbra_mailbox_distributed_lock_lease_ms.value();
+    }
+
+    @After
+    public void tearDown() {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(leaseMillis);
+    }
+
+    @Test
+    public void readersShare() throws Exception {
+        DistributedReadWriteLock lock1 = new DistributedReadWriteLock(server1, PATH);
+        DistributedReadWriteLock lock2 = new DistributedReadWriteLock(server2, PATH);
+        String read1 = lock1.acquire(false, 1, TimeUnit.SECONDS);
+        String read2 = lock2.acquire(false, 1, TimeUnit.SECONDS);
+        Assert.assertNotNull(read1);
+        Assert.assertNotNull(read2);
+        Assert.assertNull("writer excluded by readers", lock2.acquire(true, 200, TimeUnit.MILLISECONDS));
+        lock1.release(read1);
+        lock2.release(read2);
+        String write = lock2.acquire(true, 1, TimeUnit.SECONDS);
+        Assert.assertNotNull(write);
+        Assert.assertNull("reader excluded by writer", lock1.acquire(false, 200, TimeUnit.MILLISECONDS));
+        lock2.release(write);
+    }
+
+    @Test
+    public void leaseReused() throws Exception {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(60000);
+        DistributedLock lock = new DistributedLock(new DistributedReadWriteLock(server1, PATH), true);
+        lock.acquire(true, 1, TimeUnit.SECONDS);
+        lock.release();
+        Assert.assertTrue(lock.hasLease());
+        Assert.assertTrue(lock.isWriteLease());
+        // a write lease covers readers
+        lock.acquire(false, 1, TimeUnit.SECONDS);
+        Assert.assertTrue(lock.isWriteLease());
+        lock.release();
+        lock.flush();
+        Assert.assertFalse(lock.hasLease());
+
+        // an idle read lease is upgraded
+        lock.acquire(false, 1, TimeUnit.SECONDS);
+        lock.release();
+        Assert.assertFalse(lock.isWriteLease());
+        lock.acquire(true, 1, TimeUnit.SECONDS);
+        Assert.assertTrue(lock.isWriteLease());
+        lock.release();
+        lock.flush();
+    }
+
+    @Test
+    public void leaseYieldsToOtherServer() throws Exception {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(60000);
+        DistributedLock lock1 = new DistributedLock(new DistributedReadWriteLock(server1, PATH), true);
+        DistributedLock lock2 = new DistributedLock(new DistributedReadWriteLock(server2, PATH), true);
+        lock1.acquire(true, 1, TimeUnit.SECONDS);
+        lock1.release();
+        Assert.assertTrue(lock1.hasLease());
+        // well within the lease time, the idle lease is given up as soon as server 2 asks for it
+        lock2.acquire(true, 5, TimeUnit.SECONDS);
+        Assert.assertFalse(lock1.hasLease());
+        try {
+            lock1.acquire(false, 200, TimeUnit.MILLISECONDS);
+            Assert.fail("lock is held by server 2");
+        } catch (ServiceException expected) {
+        }
+        lock2.release();
+        lock1.acquire(false, 5, TimeUnit.SECONDS);
+        lock1.release();
+        lock1.flush();
+        lock2.flush();
+    }
+
+    @Test
+    public void remoteWriterNotStarvedByLocalReaders() throws Exception {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(60000);
+        final DistributedLock lock1 = new DistributedLock(new DistributedReadWriteLock(server1, PATH), true);
+        final DistributedLock lock2 = new DistributedLock(new DistributedReadWriteLock(server2, PATH), true);
+        lock1.acquire(false, 1, TimeUnit.SECONDS);
+
+        // server 2 asks for the write lock while server 1 is reading
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    lock2.acquire(true, 10, TimeUnit.SECONDS);
+                    written.countDown();
+                } catch (ServiceException e) {
+                }
+            }
+        };
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!lock1.isContended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("server 1 saw server 2 waiting", lock1.isContended());
+        try {
+            lock1.acquire(false, 200, TimeUnit.MILLISECONDS);
+            Assert.fail("joined a lease another server is waiting for");
+        } catch (ServiceException expected) {
+        }
+
+        // local readers keep arriving, overlapping each other, while the first one finishes
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        try {
+                            lock1.acquire(false, 10, TimeUnit.SECONDS);
+                        } catch (ServiceException e) {
+                            return;
+                        }
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                        } finally {
+                            lock1.release();
+                        }
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        lock1.release();
+        Assert.assertTrue("server 2 got the write lock", written.await(5, TimeUnit.SECONDS));
+        lock2.release();
+        lock2.flush();
+
+        // and the local readers get their turn again
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join(15000);
+            Assert.assertFalse(reader.isAlive());
+        }
+        writer.join();
+        lock1.flush();
+        Assert.assertFalse(lock1.hasLease());
+    }
+
+    @Test
+    public void leaseIdentity() throws Exception {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(60000);
+        DistributedLock lock1 = new DistributedLock(new DistributedReadWriteLock(server1, PATH), true);
+        DistributedLock lock2 = new DistributedLock(new DistributedReadWriteLock(server2, PATH), true);
+        Assert.assertEquals(0, lock1.getLease());
+        lock1.acquire(false, 1, TimeUnit.SECONDS);
+        long lease = lock1.getLease();
+        Assert.assertTrue(lease != 0);
+        lock1.release();
+        lock1.acquire(false, 1, TimeUnit.SECONDS);
+        Assert.assertEquals("idle lease reused", lease, lock1.getLease());
+        lock1.release();
+
+        lock2.acquire(true, 5, TimeUnit.SECONDS);
+        Assert.assertEquals(0, lock1.getLease());
+        lock2.release();
+        lock2.flush();
+        lock1.acquire(false, 5, TimeUnit.SECONDS);
+        Assert.assertTrue("new lease after another server wrote", lock1.getLease() != lease);
+        lock1.release();
+        lock1.flush();
+    }
+
+    @Test
+    public void noLease() throws Exception {
+        LC.zimbra_mailbox_distributed_lock_lease_ms.setDefault(0);
+        DistributedLock lock = new DistributedLock(new DistributedReadWriteLock(server1, PATH), false);
+        lock.acquire(false, 1, TimeUnit.SECONDS);
+        // read/write disabled, so every acquisition is exclusive
+        Assert.assertTrue(lock.isWriteLease());
+        lock.release();
+        Assert.assertFalse(lock.hasLease());
+    }
+}
@@ -14,6 +14,9 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class  FileLogWriterTest {
     @Rule public TemporaryFolder folder = new TemporaryFolder();
@@ -67,6 +70,49 @@ public class  FileLogWriterTest {
         Assert.assertEquals(sequence, logWriter.getSequence());
     }
 
+    @Test
+    public void groupCommit() throws Exception {
+        logWriter.open();
+        final RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                            .withConstructor(MailboxOperation.Preview)
+                            .createMock();
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()),
+                                          true /* synchronous */);
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals("file size incorrect.",
+                            FileHeader.HEADER_LEN + 8 * 50 * 10, logWriter.getSize());
+
+        // a record too large to be batched goes straight to the file, after the ones in the batch
+        byte[] large = new byte[100 * 1024];
+        logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), false /* asynchronous */);
+        logWriter.log(op, new ByteArrayInputStream(large), true /* synchronous */);
+        logWriter.close();
+        Assert.assertEquals("file size incorrect.",
+                            FileHeader.HEADER_LEN + 8 * 50 * 10 + 10 + large.length, logWriter.getSize());
+        Assert.assertEquals("file size incorrect.",
+                            FileHeader.HEADER_LEN + 8 * 50 * 10 + 10 + large.length, folder.getRoot().listFiles()[0].length());
+    }
+
     @Test(expected = IOException.class)
     public void logBeforeOpen() throws Exception {
         logWriter.log(null, null, false);
@@ -0,0 +1,143 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.redolog.RedoLogInput;
+import com.zimbra.cs.redolog.RedoLogOutput;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Unit test for {@link ParallelRedoPlayer}.
+ */
+public final class ParallelRedoPlayerTest {
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    private ParallelRedoPlayer player;
+
+    @Before
+    public void setUp() {
+        log.clear();
+        player = new ParallelRedoPlayer(false, true, false, false, 4, 10, false);
+    }
+
+    @Test
+    public void independentItemsInSameMailbox() throws Exception {
+        // each op waits for the other to start, so this only completes if they run concurrently
+        CyclicBarrier together = new CyclicBarrier(2);
+        player.playOp(new TestOp("a", 1, new int[] { 1 }, together, 0));
+        player.playOp(new TestOp("b", 1, new int[] { 2 }, together, 0));
+        player.shutdown();
+        Assert.assertEquals(2, log.size());
+    }
+
+    @Test
+    public void sameItemInOrder() throws Exception {
+        player.playOp(new TestOp("a", 1, new int[] { 5 }, null, 100));
+        player.playOp(new TestOp("b", 1, new int[] { 6, 5 }, null, 0));
+        player.playOp(new TestOp("c", 2, new int[] { 5 }, null, 0)); // other mailbox
+        player.shutdown();
+        Assert.assertTrue(log.toString(), log.indexOf("a") < log.indexOf("b"));
+        Assert.assertTrue(log.toString(), log.indexOf("c") < log.indexOf("a"));
+    }
+
+    @Test
+    public void readersAndWriters() throws Exception {
+        TestOp write = new TestOp("write", 1, new int[] { 1 }, null, 100);
+        player.playOp(write);
+        TestOp read = new TestOp("read", 1, new int[] { 2 }, null, 100);
+        read.referenced = new int[] { 1 };
+        player.playOp(read);
+        TestOp rewrite = new TestOp("rewrite", 1, new int[] { 1 }, null, 0);
+        player.playOp(rewrite);
+        player.shutdown();
+        Assert.assertEquals(Arrays.asList("write", "read", "rewrite"), log);
+    }
+
+    @Test
+    public void barrier() throws Exception {
+        player.playOp(new TestOp("a", 1, new int[] { 1 }, null, 100));
+        player.playOp(new TestOp("b", 1, new int[] { 2 }, null, 50));
+        player.playOp(new TestOp("all", 1, null, null, 0));
+        player.playOp(new TestOp("c", 1, new int[] { 3 }, null, 0));
+        player.shutdown();
+        Assert.assertEquals(4, log.size());
+        Assert.assertEquals(log.toString(), "all", log.get(2));
+        Assert.assertEquals(log.toString(), "c", log.get(3));
+        Assert.assertEquals(0, player.getInFlight());
+    }
+
+    private final class TestOp extends RedoableOp {
+        private final String name;
+        private final int[] modified;
+        private int[] referenced = NO_ITEM_IDS;
+        private final CyclicBarrier barrier;
+        private final long sleep;
+
+        TestOp(String name, int mboxId, int[] modified, CyclicBarrier barrier, long sleep) {
+            super(MailboxOperation.SetItemTags, null);
+            setMailboxId(mboxId);
+            this.name = name;
+            this.modified = modified;
+            this.barrier = barrier;
+            this.sleep = sleep;
+        }
+
+        @Override
+        public int[] getModifiedItemIds() {
+            return modified;
+        }
+
+        @Override
+        public int[] getReferencedItemIds() {
+            return referenced;
+        }
+
+        @Override
+        public void redo() throws Exception {
+            if (barrier != null) {
+                barrier.await(5, TimeUnit.SECONDS);
+            }
+            Thread.sleep(sleep);
+            log.add(name);
+        }
+
+        @Override
+        protected String getPrintableData() {
+            return name;
+        }
+
+        @Override
+        protected void serializeData(RedoLogOutput out) throws IOException {
+        }
+
+        @Override
+        protected void deserializeData(RedoLogInput in) throws IOException {
+        }
+    }
+}
@@ -31,6 +31,13 @@ import org.junit.Test;
  */
 public final class NioOutputStreamTest {
 
+    /**
+     * Returns a stream that writes to the session in 1KB chunks, for tests in other packages.
+     */
+    public static NioOutputStream newOutputStream(IoSession session) {
+        return new NioOutputStream(session, 1024, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
     @Test
     public void writeByte() throws Exception {
         DummySession session = new DummySession();
@@ -17,10 +17,18 @@
 
 package com.zimbra.cs.server;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
 
+import com.zimbra.common.util.Log;
+import com.zimbra.common.util.ZimbraLog;
+
 public class ServerConfigTest {
 
     private static final String SINGLE_IP = "1.2.3.4";
@@ -64,4 +72,41 @@ public class ServerConfigTest {
         Assert.assertEquals(MULTI_ADDR1, get[1]);
         Assert.assertEquals(MULTI_ADDR2, get[2]);
     }
+
+    @Test
+    public void handlerExecutor() throws Exception {
+        ServerConfig config = new ServerConfig("test", false) {
+            @Override
+            public int getBindPort() {
+                return 0;
+            }
+
+            @Override
+            public Log getLog() {
+                return ZimbraLog.misc;
+            }
+
+            @Override
+            public int getThreadStackSize() {
+                return 256 * 1024;
+            }
+        };
+        ExecutorService executor = config.newHandlerExecutor("TestServer", 2);
+        try {
+            Assert.assertEquals(2, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+            final CountDownLatch latch = new CountDownLatch(1);
+            final String[] threadName = new String[1];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadName[0] = Thread.currentThread().getName();
+                    latch.countDown();
+                }
+            });
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("TestServer-1", threadName[0]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -77,4 +77,15 @@ public class SearchTest {
         hits = response.listElements(MailConstants.E_CONV);
         Assert.assertTrue("no hits", hits.isEmpty());
     }
+
+    @Test
+    public void parallelizable() throws Exception {
+        Element request = new Element.XMLElement(MailConstants.SEARCH_REQUEST);
+        request.addAttribute(MailConstants.E_QUERY, "test", Element.Disposition.CONTENT);
+        Assert.assertTrue("plain search", new Search().isParallelizable(request));
+
+        // markRead modifies the messages it returns, so it has to keep its place in the batch
+        request.addAttribute(MailConstants.A_MARK_READ, true);
+        Assert.assertFalse("markRead", new Search().isParallelizable(request));
+    }
 }
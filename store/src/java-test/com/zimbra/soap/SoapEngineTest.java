@@ -0,0 +1,192 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.account.Key;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.common.soap.ZimbraNamespace;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.service.AuthProvider;
+
+/**
+ * Unit test for {@link SoapEngine} batch requests.
+ */
+public final class SoapEngineTest {
+    private static final QName ECHO_REQUEST = QName.get("EchoRequest", Namespace.get("urn:zimbraTest"));
+
+    /** Answers after {@code delay} ms with the request's {@code n}, or fails if {@code fail} is set. */
+    private static final class EchoHandler extends DocumentHandler {
+        @Override
+        public Element handle(Element request, Map<String, Object> context) throws ServiceException {
+            long delay = request.getAttributeLong("delay", 0);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw ServiceException.INTERRUPTED("echo");
+                }
+            }
+            if (request.getAttributeBool("fail", false)) {
+                throw ServiceException.FAILURE("echo failed", null);
+            }
+            Element response = getResponseElement(getZimbraSoapContext(context));
+            response.addAttribute("n", request.getAttribute("n"));
+            return response;
+        }
+
+        @Override
+        public boolean needsAuth(Map<String, Object> context) {
+            return false;
+        }
+
+        @Override
+        public boolean isParallelizable(Element request) {
+            return true;
+        }
+    }
+
+    private static SoapEngine engine;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        engine = new MockSoapEngine(new DocumentService() {
+            @Override
+            public void registerHandlers(DocumentDispatcher dispatcher) {
+                dispatcher.registerHandler(ECHO_REQUEST, new EchoHandler());
+            }
+        });
+    }
+
+    private static ZimbraSoapContext newContext() throws ServiceException {
+        Account acct = Provisioning.getInstance().get(Key.AccountBy.name, "test@zimbra.com");
+        return new ZimbraSoapContext(AuthProvider.getAuthToken(acct), acct.getId(),
+                SoapProtocol.Soap12, SoapProtocol.Soap12);
+    }
+
+    private static Element newBatch(String onerror) {
+        Element batch = new Element.XMLElement(ZimbraNamespace.E_BATCH_REQUEST);
+        batch.addAttribute(ZimbraNamespace.A_EXECUTION, ZimbraNamespace.EXECUTION_PARALLEL);
+        if (onerror != null) {
+            batch.addAttribute(ZimbraNamespace.A_ONERROR, onerror);
+        }
+        return batch;
+    }
+
+    private static Element addEcho(Element batch, int n, long delay) {
+        Element echo = batch.addNonUniqueElement(ECHO_REQUEST);
+        echo.addAttribute("n", n);
+        echo.addAttribute("delay", delay);
+        echo.addAttribute(SoapEngine.A_REQUEST_CORRELATOR, "req" + n);
+        return echo;
+    }
+
+    private static Element dispatch(ZimbraSoapContext zsc, Element batch) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put(SoapEngine.ZIMBRA_CONTEXT, zsc);
+        context.put(SoapEngine.ZIMBRA_ENGINE, engine);
+        return engine.dispatchBatch(batch, context, zsc, false, null);
+    }
+
+    @Test
+    public void parallelOrder() throws Exception {
+        // the earlier sub-requests take longer, so they'd finish last
+        Element batch = newBatch(null);
+        for (int i = 0; i < 5; i++) {
+            addEcho(batch, i, 400 - i * 100);
+        }
+
+        long start = System.currentTimeMillis();
+        List<Element> responses = dispatch(newContext(), batch).listElements();
+        Assert.assertTrue("ran one after the other", System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(5, responses.size());
+        for (int i = 0; i < 5; i++) {
+            Element response = responses.get(i);
+            Assert.assertEquals("EchoResponse", response.getName());
+            Assert.assertEquals(i, response.getAttributeLong("n"));
+            Assert.assertEquals("req" + i, response.getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+        }
+    }
+
+    @Test
+    public void parallelContinueOnError() throws Exception {
+        Element batch = newBatch("continue");
+        addEcho(batch, 0, 100);
+        addEcho(batch, 1, 0).addAttribute("fail", true);
+        addEcho(batch, 2, 0);
+
+        List<Element> responses = dispatch(newContext(), batch).listElements();
+        Assert.assertEquals(3, responses.size());
+        Assert.assertEquals(0, responses.get(0).getAttributeLong("n"));
+        Assert.assertTrue(SoapProtocol.Soap12.isFault(responses.get(1)));
+        Assert.assertEquals("req1", responses.get(1).getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+        Assert.assertEquals(2, responses.get(2).getAttributeLong("n"));
+        Assert.assertEquals("req2", responses.get(2).getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+    }
+
+    @Test
+    public void parallelStopOnError() throws Exception {
+        Element batch = newBatch("stop");
+        addEcho(batch, 0, 100);
+        addEcho(batch, 1, 0).addAttribute("fail", true);
+        addEcho(batch, 2, 0);
+
+        // nothing after the first fault, even though the sub-requests ran together
+        List<Element> responses = dispatch(newContext(), batch).listElements();
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals(0, responses.get(0).getAttributeLong("n"));
+        Assert.assertEquals("req0", responses.get(0).getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+        Assert.assertTrue(SoapProtocol.Soap12.isFault(responses.get(1)));
+        Assert.assertEquals("req1", responses.get(1).getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+    }
+
+    @Test
+    public void parallelInterrupted() throws Exception {
+        Element batch = newBatch(null);
+        addEcho(batch, 0, 0);
+        addEcho(batch, 1, 10000);
+
+        long start = System.currentTimeMillis();
+        Thread.currentThread().interrupt();
+        List<Element> responses;
+        try {
+            responses = dispatch(newContext(), batch).listElements();
+        } finally {
+            Assert.assertTrue("interrupt not restored", Thread.interrupted());
+        }
+        Assert.assertTrue("waited for the slow sub-request", System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals(0, responses.get(0).getAttributeLong("n"));
+        Assert.assertTrue(SoapProtocol.Soap12.isFault(responses.get(1)));
+        Assert.assertEquals("req1", responses.get(1).getAttribute(SoapEngine.A_REQUEST_CORRELATOR));
+    }
+}
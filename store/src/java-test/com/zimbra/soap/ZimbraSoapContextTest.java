@@ -0,0 +1,64 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.account.Key;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.service.AuthProvider;
+
+public class ZimbraSoapContextTest {
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Test
+    public void copyForParallelRequest() throws Exception {
+        Account acct = Provisioning.getInstance().get(Key.AccountBy.name, "test@zimbra.com");
+        ZimbraSoapContext zsc = new ZimbraSoapContext(AuthProvider.getAuthToken(acct), acct.getId(),
+                SoapProtocol.Soap12, SoapProtocol.Soap12);
+
+        ZimbraSoapContext copy = zsc.copyForParallelRequest();
+        Assert.assertNotNull(copy);
+        Assert.assertNotSame(zsc, copy);
+        Assert.assertNotSame(zsc.getAuthToken(), copy.getAuthToken());
+        Assert.assertEquals(acct.getId(), copy.getRequestedAccountId());
+        Assert.assertEquals(zsc.getAuthtokenAccountId(), copy.getAuthtokenAccountId());
+        // unlike a context for proxying, the copy is the same request
+        Assert.assertEquals(zsc.getHopCount(), copy.getHopCount());
+        Assert.assertEquals(zsc.isSessionProxied(), copy.isSessionProxied());
+
+        // proxying from the copy mustn't leak its token into the original or into other copies
+        ZimbraSoapContext other = zsc.copyForParallelRequest();
+        copy.getAuthToken().setProxyAuthToken("proxy");
+        Assert.assertEquals("proxy", copy.getAuthToken().getProxyAuthToken());
+        Assert.assertNull(zsc.getAuthToken().getProxyAuthToken());
+        Assert.assertNull(other.getAuthToken().getProxyAuthToken());
+        copy.resetProxyAuthToken();
+        Assert.assertNull(copy.getAuthToken().getProxyAuthToken());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.zimbra.common.localconfig.LC;
+
+/**
+ * Makes the attribute maps of cached entries share their keys and common values.
+ * <p>
+ * Every entry read from LDAP gets its own copy of each attribute name, and of values such as {@code TRUE} or
+ * {@code 30d} that hundreds of thousands of accounts have in common. Names are replaced by the {@link AttributeInfo}'s
+ * own instance, and values of attributes that can only take a few different values (booleans, enums, numbers and
+ * durations, and anything inherited from the COS or domain) go through a weak interner, so that they are shared with
+ * every other entry, including the COS and domain whose account defaults hold the same values.
+ * <p>
+ * The map is changed in place, so that whoever else holds it still sees the same entry.
+ */
+final class AttrInterner {
+    private static final int MAX_VALUE_LENGTH = 256;
+    private static final Set<AttributeType> SHARED_TYPES = EnumSet.of(AttributeType.TYPE_BOOLEAN,
+            AttributeType.TYPE_DURATION, AttributeType.TYPE_ENUM, AttributeType.TYPE_INTEGER, AttributeType.TYPE_LONG,
+            AttributeType.TYPE_PORT);
+    private static final Interner<String> VALUES = Interners.newWeakInterner();
+
+    private AttrInterner() {
+    }
+
+    static void intern(Map<String, Object> attrs) {
+        if (!(attrs instanceof HashMap) || attrs.isEmpty() || !LC.ldap_entry_intern_attrs.booleanValue()) {
+            return; // might be immutable
+        }
+        AttributeManager attrMgr = AttributeManager.getInst();
+        if (attrMgr == null) {
+            return;
+        }
+        List<String> renamed = null;
+        for (Map.Entry<String, Object> entry : attrs.entrySet()) {
+            String name = entry.getKey();
+            AttributeInfo info = attrMgr.getAttributeInfo(name);
+            if (info == null) {
+                continue;
+            }
+            if (name != info.getName() && name.equals(info.getName())) {
+                if (renamed == null) {
+                    renamed = new ArrayList<String>();
+                }
+                renamed.add(info.getName());
+            }
+            if (isShared(info)) {
+                Object value = entry.getValue();
+                if (value instanceof String) {
+                    entry.setValue(intern((String) value));
+                } else if (value instanceof String[]) {
+                    String[] values = (String[]) value;
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = intern(values[i]);
+                    }
+                }
+            }
+        }
+        if (renamed != null) {
+            for (String name : renamed) {
+                // removing first, as put() would keep the old key
+                attrs.put(name, attrs.remove(name));
+            }
+        }
+    }
+
+    private static boolean isShared(AttributeInfo info) {
+        return SHARED_TYPES.contains(info.getType()) || info.hasFlag(AttributeFlag.accountInherited) ||
+                info.hasFlag(AttributeFlag.accountCosDomainInherited) || info.hasFlag(AttributeFlag.domainInherited) ||
+                info.hasFlag(AttributeFlag.serverInherited);
+    }
+
+    private static String intern(String value) {
+        return value == null || value.length() > MAX_VALUE_LENGTH ? value : VALUES.intern(value);
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.zimbra.cs.account;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -130,7 +131,7 @@ public abstract class DistributionList extends ZAttrDistributionList implements
         return addrs.toArray(new String[0]);
     }
 
-    private final static class BasicInfo {
+    final static class BasicInfo {
         final String id;
         final String name;
         final String[] aliases;
@@ -229,6 +230,10 @@ public abstract class DistributionList extends ZAttrDistributionList implements
             GroupMembership membership, BasicInfo dl, Map<String, String> via,
             boolean adminGroupsOnly, boolean directOnly)
     throws ServiceException {
+        if (via == null && !adminGroupsOnly && !directOnly && GroupMembershipGraph.getInstance().isEnabled()) {
+            GroupMembershipGraph.getInstance().expand(prov, zlc, membership, Collections.singletonList(dl));
+            return membership;
+        }
         boolean ownContext = false;
         try {
             if (zlc == null) {
@@ -268,6 +273,10 @@ public abstract class DistributionList extends ZAttrDistributionList implements
             GroupMembership membership, List<BasicInfo> dls,
             boolean adminGroupsOnly, boolean directOnly)
     throws ServiceException {
+        if (!adminGroupsOnly && !directOnly && GroupMembershipGraph.getInstance().isEnabled()) {
+            GroupMembershipGraph.getInstance().expand(prov, zlc, membership, dls);
+            return membership;
+        }
         boolean ownContext = false;
         try {
             if (zlc == null) {
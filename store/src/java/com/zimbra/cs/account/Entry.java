@@ -113,6 +113,7 @@ public abstract class Entry implements ToZJSONObject {
     	mAttrs = attrs;
         mDefaults = defaults;
         setAttributeManager();
+        AttrInterner.intern(attrs);
     }
 
     protected Entry(Map<String,Object> attrs, Map<String,Object> defaults,
@@ -122,6 +123,7 @@ public abstract class Entry implements ToZJSONObject {
         mDefaults = defaults;
         mSecondaryDefaults = secondaryDefaults;
         setAttributeManager();
+        AttrInterner.intern(attrs);
     }
 
     protected Entry(Map<String,Object> attrs, Map<String,Object> defaults,
@@ -131,6 +133,7 @@ public abstract class Entry implements ToZJSONObject {
         mDefaults = defaults;
         mSecondaryDefaults = secondaryDefaults;
         setAttributeManager();
+        AttrInterner.intern(attrs);
     }
 
     private void setAttributeManager() {
@@ -157,6 +160,7 @@ public abstract class Entry implements ToZJSONObject {
 
     public synchronized void setAttrs(Map<String,Object> attrs,
             Map<String,Object> defaults, Map<String,Object> secondaryDefaults, Map<String,Object> overrideDefaults) {
+        AttrInterner.intern(attrs);
         mAttrs = attrs;
         mDefaults = defaults;
         mSecondaryDefaults = secondaryDefaults;
@@ -165,6 +169,7 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     public synchronized void setAttrs(Map<String,Object> attrs) {
+        AttrInterner.intern(attrs);
         mAttrs = attrs;
         resetData();
     }
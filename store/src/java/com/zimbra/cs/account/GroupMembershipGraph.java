@@ -0,0 +1,271 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Constants;
+import com.zimbra.cs.account.DistributionList.BasicInfo;
+import com.zimbra.cs.account.Provisioning.GroupMembership;
+import com.zimbra.cs.account.ldap.LdapProvisioning;
+import com.zimbra.cs.ldap.LdapClient;
+import com.zimbra.cs.ldap.LdapServerType;
+import com.zimbra.cs.ldap.LdapUsage;
+import com.zimbra.cs.ldap.ZLdapContext;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Node-local cache of which distribution lists each distribution list is a direct member of.
+ * <p>
+ * Upward membership of an account used to be expanded by searching LDAP one level of nesting at a time, for every
+ * account whose membership wasn't cached. The direct parents of each distribution list are cached here instead, and
+ * the transitive closure is walked in memory, so that LDAP is only searched for lists whose parents aren't known.
+ * <p>
+ * A reverse index from each list to the cached lists that are direct members of it, and another from member address
+ * to cached list, allow a change to invalidate only the lists it affects:
+ * <ul>
+ *   <li>adding or removing members: the lists that were added or removed</li>
+ *   <li>modifying, renaming or deleting a list: the list and the lists that are direct members of it</li>
+ * </ul>
+ * Changes made on other servers are seen when the entries expire after {@code ldap_cache_group_maxage}, or right
+ * away if the group cache is flushed.
+ */
+public final class GroupMembershipGraph {
+    private static final GroupMembershipGraph INSTANCE = new GroupMembershipGraph(
+            LC.ldap_cache_group_graph_maxsize.intValue(),
+            LC.ldap_cache_group_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+
+    private final ConcurrentMap<String, Node> nodes; // by list id
+    private final ConcurrentMap<String, Set<String>> children = new ConcurrentHashMap<String, Set<String>>();
+    private final ConcurrentMap<String, String> idByAddr = new ConcurrentHashMap<String, String>();
+    private final AtomicLong version = new AtomicLong(); // ticks on every invalidation
+    private final int maxSize;
+    private final long maxAge;
+
+    private static final class Node {
+        final List<String> addrs; // lower cased
+        final List<BasicInfo> parents;
+        final long loadedAt = System.currentTimeMillis();
+
+        Node(List<String> addrs, List<BasicInfo> parents) {
+            this.addrs = addrs;
+            this.parents = parents;
+        }
+    }
+
+    GroupMembershipGraph(int maxSize, long maxAge) {
+        this.maxSize = Math.max(maxSize, 0);
+        this.maxAge = maxAge;
+        nodes = new ConcurrentLinkedHashMap.Builder<String, Node>().maximumWeightedCapacity(this.maxSize)
+                .listener(new EvictionListener<String, Node>() {
+                    @Override
+                    public void onEviction(String id, Node node) {
+                        unindex(id, node);
+                    }
+                }).build();
+    }
+
+    public static GroupMembershipGraph getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Appends the distribution lists that any of {@code dls} is directly or indirectly a member of, and that aren't
+     * in the membership yet.
+     *
+     * @param zlc context to search LDAP with, or null to open one if needed
+     */
+    void expand(LdapProvisioning prov, ZLdapContext zlc, GroupMembership membership, Collection<BasicInfo> dls)
+    throws ServiceException {
+        boolean ownContext = false;
+        try {
+            Queue<BasicInfo> queue = new ArrayDeque<BasicInfo>(dls);
+            while (!queue.isEmpty()) {
+                BasicInfo dl = queue.remove();
+                List<BasicInfo> parents = getParents(dl);
+                if (parents == null) {
+                    if (zlc == null) {
+                        ownContext = true;
+                        zlc = LdapClient.getContext(LdapServerType.get(false /* useMaster */), LdapUsage.SEARCH);
+                    }
+                    parents = load(prov, zlc, dl);
+                }
+                for (BasicInfo parent : parents) {
+                    if (!membership.groupIds().contains(parent.id)) {
+                        membership.append(parent.toMemberOf());
+                        queue.add(parent);
+                    }
+                }
+            }
+        } finally {
+            if (ownContext) {
+                LdapClient.closeContext(zlc);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached direct parents of the list, or null if they aren't known.
+     */
+    List<BasicInfo> getParents(BasicInfo dl) {
+        Node node = nodes.get(dl.id);
+        if (node != null && node.loadedAt + maxAge < System.currentTimeMillis()) {
+            if (nodes.remove(dl.id, node)) {
+                unindex(dl.id, node);
+            }
+            node = null;
+        }
+        ZimbraPerf.COUNTER_LDAP_GROUP_GRAPH.increment(node != null ? 100 : 0);
+        return node == null ? null : node.parents;
+    }
+
+    private List<BasicInfo> load(LdapProvisioning prov, ZLdapContext zlc, BasicInfo dl) throws ServiceException {
+        long before = version.get();
+        List<BasicInfo> parents = Collections.unmodifiableList(
+                DistributionList.getContainingDLs(prov, zlc, dl, false /* adminGroupsOnly */, true /* directOnly */));
+        put(dl, parents, before);
+        return parents;
+    }
+
+    /**
+     * Caches the direct parents of the list, unless anything was invalidated since they were read.
+     */
+    void put(BasicInfo dl, List<BasicInfo> parents, long readAtVersion) throws ServiceException {
+        if (!isEnabled() || version.get() != readAtVersion) {
+            return;
+        }
+        List<String> addrs = dl.getAllAddrsAsGroupMember();
+        for (int i = 0; i < addrs.size(); i++) {
+            addrs.set(i, addrs.get(i).toLowerCase());
+        }
+        Node node = new Node(addrs, parents);
+        Node old = nodes.put(dl.id, node);
+        if (old != null) {
+            unindex(dl.id, old);
+        }
+        for (String addr : addrs) {
+            idByAddr.put(addr, dl.id);
+        }
+        for (BasicInfo parent : parents) {
+            Set<String> set = children.get(parent.id);
+            if (set == null) {
+                Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                set = children.putIfAbsent(parent.id, created);
+                if (set == null) {
+                    set = created;
+                }
+            }
+            set.add(dl.id);
+        }
+        // an invalidation that raced with the above might have missed the new node
+        if (version.get() != readAtVersion && nodes.remove(dl.id, node)) {
+            unindex(dl.id, node);
+        }
+    }
+
+    long getVersion() {
+        return version.get();
+    }
+
+    private void unindex(String id, Node node) {
+        for (String addr : node.addrs) {
+            idByAddr.remove(addr, id);
+        }
+        for (BasicInfo parent : node.parents) {
+            Set<String> set = children.get(parent.id);
+            if (set != null) {
+                set.remove(id);
+            }
+        }
+    }
+
+    private void remove(String id) {
+        Node node = nodes.remove(id);
+        if (node != null) {
+            unindex(id, node);
+        }
+    }
+
+    /**
+     * Invalidates the cached parents of the lists with these addresses, after they were added to or removed from a
+     * list.  Addresses of anything but a cached list are ignored.
+     */
+    public void invalidateMembers(Collection<String> addrs) {
+        version.incrementAndGet();
+        for (String addr : addrs) {
+            String id = idByAddr.get(addr.toLowerCase());
+            if (id != null) {
+                remove(id);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the cached parents of the list and of the lists that are direct members of it, after it was
+     * modified, renamed or deleted.
+     */
+    public void invalidateGroup(String id) {
+        version.incrementAndGet();
+        remove(id);
+        Set<String> members = children.remove(id);
+        if (members != null) {
+            for (String member : members) {
+                remove(member);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the list with this address like {@link #invalidateGroup}. If no cached list has the address, the
+     * lists that are members of it can't be found, so everything is invalidated.
+     */
+    public void invalidateGroupByAddr(String addr) {
+        String id = idByAddr.get(addr.toLowerCase());
+        if (id != null) {
+            invalidateGroup(id);
+        } else {
+            clear();
+        }
+    }
+
+    public void clear() {
+        version.incrementAndGet();
+        nodes.clear();
+        children.clear();
+        idByAddr.clear();
+    }
+
+    int size() {
+        return nodes.size();
+    }
+}
@@ -17,17 +17,21 @@
 
 package com.zimbra.cs.account.accesscontrol;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.util.Constants;
-import com.zimbra.common.util.LruMap;
-import com.zimbra.common.util.MapUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Entry;
 import com.zimbra.cs.account.NamedEntry;
-import com.zimbra.cs.account.Server;
 import com.zimbra.cs.account.accesscontrol.PermissionCache.CachedPermission;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 class PermCacheManager {
 
@@ -46,42 +50,80 @@ class PermCacheManager {
      * 
      * This makes invalidating cache for one specific target easy and efficient.  
      * 
-     * The first level is an LRU map:
+     * The first level is a concurrent LRU map:
      *   key:      target id
      *   value:    the "bucket" of cache entries for the target
      *   max size: LC key acl_cache_target_maxsize
      *   
-     * The second level is also an LRU map (the "bucket" for each specific target):
+     * The second level is also a concurrent LRU map (the "bucket" for each specific target):
      *   key:      credential of the accessing account
      *   value:    byte array.  One nibble (half byte) per cacheable rights.
-     *             Currently there are about 7 cacheable rights, so 4 bytes in the byte array.
+     *             The array is never modified once in the map, it is replaced by a copy
+     *             (grown if needed) whenever a right is cached, so there is no limit on
+     *             the number of cacheable rights.
      *   max size: LC key acl_cache_credential_maxsize
-     * 
+     *
+     * Nothing is locked.  Invalidation is done by stamps taken from a single clock:
+     *   - every bucket and every cached byte array remembers the clock when it was created
+     *   - invalidating everything ticks the clock, anything older is thrown away when seen
+     *   - invalidating a target drops its bucket
+     *   - invalidating a credential (e.g. the account was added to or removed from a group)
+     *     ticks the clock and remembers the tick for the credential, so the entries for that
+     *     credential in any bucket are thrown away when seen.  Only the most recently
+     *     invalidated acl_cache_credential_versions_maxsize credentials are remembered, the
+     *     tick of one that is forgotten applies to all credentials.
      */
         
     private static final int ACL_CACHE_TARGET_MAXSIZE = LC.acl_cache_target_maxsize.intValue();
     private static final long ACL_CACHE_TARGET_MAXAGE = LC.acl_cache_target_maxage.intValue() * Constants.MILLIS_PER_MINUTE;
     private static final int ACL_CACHE_CREDENTIAL_MAXSIZE = LC.acl_cache_credential_maxsize.intValue();
+    private static final int ACL_CACHE_CREDENTIAL_VERSIONS_MAXSIZE =
+            LC.acl_cache_credential_versions_maxsize.intValue();
     
     private static PermCacheManager theInstance = new PermCacheManager();
     
-    private final LruMap<String, PermCache> targetCache;
+    private final ConcurrentMap<String, PermCache> targetCache;
+    
+    // clock at which each recently invalidated credential was invalidated
+    private final ConcurrentMap<String, Long> credentialInvalidatedAt;
     
     private final Counter hitRate = new Counter();
     
-    // timestamp at which permission cache is invalidated
+    private final AtomicLong clock = new AtomicLong();
+    
+    // clock at which permission cache is invalidated
     // any permission cached prior to this time will be thrown away 
-    private long invalidatedAt;  
+    private volatile long invalidatedAt;  
+    
+    // clock at which the invalidated credential that was last forgotten was invalidated
+    private final AtomicLong credentialsInvalidatedAt = new AtomicLong();
     
     static PermCacheManager getInstance() {
         return theInstance;
     }
     
     private PermCacheManager() {
-        targetCache = MapUtil.newLruMap(ACL_CACHE_TARGET_MAXSIZE);
+        targetCache = new ConcurrentLinkedHashMap.Builder<String, PermCache>()
+                .maximumWeightedCapacity(Math.max(ACL_CACHE_TARGET_MAXSIZE, 0)).build();
+        credentialInvalidatedAt = new ConcurrentLinkedHashMap.Builder<String, Long>()
+                .maximumWeightedCapacity(Math.max(ACL_CACHE_CREDENTIAL_VERSIONS_MAXSIZE, 0))
+                .listener(new EvictionListener<String, Long>() {
+                    @Override
+                    public void onEviction(String credential, Long at) {
+                        raise(credentialsInvalidatedAt, at);
+                    }
+                }).build();
         invalidateCache();
     }
     
+    private static void raise(AtomicLong value, long to) {
+        while (true) {
+            long current = value.get();
+            if (current >= to || value.compareAndSet(current, to)) {
+                return;
+            }
+        }
+    }
     
     /**
      * invalidate permission cache on all entries
@@ -89,9 +131,10 @@ class PermCacheManager {
      * Note: permission cache is invalidated only on the server on which the permission 
      *       changing event is executed.
      */
-    synchronized void invalidateCache() {
-        invalidatedAt = System.currentTimeMillis();
+    void invalidateCache() {
+        invalidatedAt = clock.incrementAndGet();
         targetCache.clear();
+        ZimbraPerf.COUNTER_ACL_CACHE_INVALIDATE.increment();
     }
     
     /**
@@ -124,28 +167,46 @@ class PermCacheManager {
         if (invalidateAll) {
             invalidateCache();
         } else {
-            PermCache permCache = getPermCache(target, false);
-            
-            if (permCache != null) {
-                permCache.reset();
-            }
+            targetCache.remove(getCacheKey(target));
+            ZimbraPerf.COUNTER_ACL_CACHE_INVALIDATE.increment();
+        }
+    }
+    
+    /**
+     * invalidate permission cache for accounts that were added to or removed from a group
+     *   - invalidate permission cache on each account as a target, since it might inherit
+     *     grants from the group
+     *   - invalidate permission cache of each account as a credential, on all targets
+     *
+     * Note: permission cache is invalidated only on the server on which the permission 
+     *       changing event is executed.
+     */
+    void invalidateCache(Collection<? extends NamedEntry> accounts) {
+        for (NamedEntry acct : accounts) {
+            targetCache.remove(getCacheKey(acct));
+            credentialInvalidatedAt.put(acct.getId(), clock.incrementAndGet());
+            ZimbraPerf.COUNTER_ACL_CACHE_INVALIDATE.increment();
         }
     }
     
     /*
      * returns a PermCache for the target
      */
-    private synchronized PermCache getPermCache(Entry target, boolean createIfNotExist) {
+    private PermCache getPermCache(Entry target, boolean createIfNotExist) {
         String cacheKey = getCacheKey(target);
         PermCache permCache = targetCache.get(cacheKey);
         
-        if (permCache == null && createIfNotExist) {
-            permCache = new PermCache();
-            targetCache.put(cacheKey, permCache);
+        if (permCache != null && permCache.isExpired(invalidatedAt)) {
+            targetCache.remove(cacheKey, permCache);
+            permCache = null;
         }
-
-        if (permCache != null) {
-            permCache.resetIfExpired(invalidatedAt);
+        
+        if (permCache == null && createIfNotExist) {
+            PermCache created = new PermCache(clock.get());
+            permCache = targetCache.putIfAbsent(cacheKey, created);
+            if (permCache == null) {
+                permCache = created;
+            }
         }
         return permCache;
     }
@@ -158,8 +219,32 @@ class PermCacheManager {
             return target.getLabel(); 
     }
     
+    /*
+     * returns the GRANTEE-IDENTIFIER of a cache key built by PermissionCache.buildCacheKey,
+     * i.e. the key without the admin and can-delegate flags
+     */
+    private static String getCredential(String key) {
+        return key.substring(0, key.length() - 2);
+    }
+    
+    private boolean isValid(String key, CachedPerms cachedPerms) {
+        long at = Math.max(invalidatedAt, credentialsInvalidatedAt.get());
+        if (!credentialInvalidatedAt.isEmpty()) {
+            Long credentialAt = credentialInvalidatedAt.get(getCredential(key));
+            if (credentialAt != null) {
+                at = Math.max(at, credentialAt);
+            }
+        }
+        return cachedPerms.createdAt >= at;
+    }
+    
     private void updateHitRate(boolean hit) {
         hitRate.increment(hit ? 100 : 0);
+        if (hit) {
+            ZimbraPerf.COUNTER_ACL_CACHE_HIT.increment();
+        } else {
+            ZimbraPerf.COUNTER_ACL_CACHE_MISS.increment();
+        }
     }
     
     double getHitRate() {
@@ -173,74 +258,50 @@ class PermCacheManager {
             return CachedPermission.NOT_CACHED;
         }
         
-        CachedPermission perm = permCache.get(key, right);
+        CachedPerms cachedPerms = permCache.credentialToPermissionMap.get(key);
+        if (cachedPerms != null && !isValid(key, cachedPerms)) {
+            permCache.credentialToPermissionMap.remove(key, cachedPerms);
+            cachedPerms = null;
+        }
+        CachedPermission perm = cachedPerms == null ? CachedPermission.NOT_CACHED : cachedPerms.get(right);
         updateHitRate(CachedPermission.NOT_CACHED != perm);
         return perm;
     }
     
     void put(Entry target, String key, Right right, CachedPermission perm) {
         PermCache permCache = getPermCache(target, true);
-        permCache.put(key, right, perm);
-    }
-    
-    /*
-    synchronized void dump() {
-        Iterator<Map.Entry<String, PermCache>> iEntries = targetCache.entrySet().iterator();
-        while (iEntries.hasNext()) {
-            Map.Entry<String, PermCache> entry = iEntries.next();
-            String key = entry.getKey();
-            PermCache permCache = entry.getValue();
-            ZimbraLog.acl.debug("perm cache target: " + key);
+        ConcurrentMap<String, CachedPerms> map = permCache.credentialToPermissionMap;
+        while (true) {
+            // read the clock first, so that anything invalidated from now on invalidates this too
+            long now = clock.get();
+            CachedPerms cachedPerms = map.get(key);
+            if (cachedPerms == null || !isValid(key, cachedPerms)) {
+                CachedPerms created = CachedPerms.EMPTY.with(right, perm, now);
+                if (cachedPerms == null ? map.putIfAbsent(key, created) == null : map.replace(key, cachedPerms, created)) {
+                    return;
+                }
+            } else if (map.replace(key, cachedPerms, cachedPerms.with(right, perm, Math.min(now, cachedPerms.createdAt)))) {
+                return;
+            }
         }
-        System.out.println();
     }
-    */
     
-    // all methods can only be called from the PermCacheManager instance
     private static class PermCache {
         
-        private long resetAt;
+        private final long createdAt;
+        private final long createdAtMillis = System.currentTimeMillis();
         
-        private final LruMap<String, byte[]> credentialToPermissionMap;;
+        private final ConcurrentMap<String, CachedPerms> credentialToPermissionMap;
         
-        private PermCache() {
-            credentialToPermissionMap = MapUtil.newLruMap(ACL_CACHE_CREDENTIAL_MAXSIZE);
-            reset();
+        private PermCache(long createdAt) {
+            this.createdAt = createdAt;
+            credentialToPermissionMap = new ConcurrentLinkedHashMap.Builder<String, CachedPerms>()
+                    .maximumWeightedCapacity(Math.max(ACL_CACHE_CREDENTIAL_MAXSIZE, 0)).build();
         }
                 
-        private synchronized boolean isExpired(long timestamp) {
-            return (resetAt <= timestamp || 
-                    resetAt + ACL_CACHE_TARGET_MAXAGE < System.currentTimeMillis());
-        }
-        
-        private synchronized void reset() {
-            // +1 so we will never get a timestamp that is the same as the timestamp 
-            // when the cache is expired globally if we come from resetIfExpired.
-            // is it ever possible?
-            resetAt = System.currentTimeMillis() + 1;
-            credentialToPermissionMap.clear();
-        }
-        
-        private synchronized void resetIfExpired(long timestamp) {
-            if (isExpired(timestamp)) {
-                reset();
-            }
-        }
-
-        private synchronized CachedPermission get(String credential, Right right) {
-            byte[] cachedPerms = credentialToPermissionMap.get(credential);
-            if (cachedPerms == null)
-                return CachedPermission.NOT_CACHED;
-            return CachedPerms.get(cachedPerms, right);
-        }
-        
-        private synchronized void put(String credential, Right right, CachedPermission perm) {
-            byte[] cachedPerms = credentialToPermissionMap.get(credential);
-            if (cachedPerms == null) {
-                cachedPerms = new byte[CachedPerms.getMaxPermArraySize()];
-                credentialToPermissionMap.put(credential, cachedPerms);
-            }
-            CachedPerms.put(cachedPerms, right, perm);
+        private boolean isExpired(long invalidatedAt) {
+            return (createdAt < invalidatedAt || 
+                    createdAtMillis + ACL_CACHE_TARGET_MAXAGE < System.currentTimeMillis());
         }
 
     }
@@ -262,13 +323,22 @@ class PermCacheManager {
             0x70  // can't do F0, would overflow.  left-most bit is not used
         };
         
-        static int getMaxPermArraySize() {
-            return (Right.getMaxCacheIndex() / RIGHTS_PER_BYTE) + 1;
+        private static final CachedPerms EMPTY = new CachedPerms(new byte[0], 0);
+        
+        // clock at which the oldest permission in here was cached
+        private final long createdAt;
+        private final byte[] cachedPerms;
+        
+        private CachedPerms(byte[] cachedPerms, long createdAt) {
+            this.cachedPerms = cachedPerms;
+            this.createdAt = createdAt;
         }
         
-        static CachedPermission get(byte[] cachedPerms, Right right) {
+        CachedPermission get(Right right) {
             int rightIdx = right.getCacheIndex();
             int idx = rightIdx / RIGHTS_PER_BYTE;
+            if (idx >= cachedPerms.length)
+                return CachedPermission.NOT_CACHED;
             byte byteForRight = cachedPerms[idx];
             int mask = rightIdx % RIGHTS_PER_BYTE;
             
@@ -282,15 +352,21 @@ class PermCacheManager {
                 return CachedPermission.NOT_CACHED;
         }
         
-        static void put(byte[] cachedPerms, Right right, CachedPermission perm) {
+        /*
+         * returns a copy with the permission for the right set
+         */
+        CachedPerms with(Right right, CachedPermission perm, long createdAt) {
             int rightIdx = right.getCacheIndex();
             int idx = rightIdx / RIGHTS_PER_BYTE;
-            byte byteForRight = cachedPerms[idx];
+            byte[] copy = new byte[Math.max(cachedPerms.length, idx + 1)];
+            System.arraycopy(cachedPerms, 0, copy, 0, cachedPerms.length);
+            byte byteForRight = copy[idx];
             int mask = rightIdx % RIGHTS_PER_BYTE;
             
             byteForRight &= MASKS_CLEAR[mask];
             byteForRight |= MASKS_PERMS[mask][perm.getCacheMask()];
-            cachedPerms[idx] = byteForRight;
+            copy[idx] = byteForRight;
+            return new CachedPerms(copy, createdAt);
         }
 
     }
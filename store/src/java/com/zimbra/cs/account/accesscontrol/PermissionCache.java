@@ -16,6 +16,8 @@
  */
 package com.zimbra.cs.account.accesscontrol;
 
+import java.util.Collection;
+
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
@@ -24,7 +26,6 @@ import com.zimbra.cs.account.Entry;
 import com.zimbra.cs.account.GuestAccount;
 import com.zimbra.cs.account.MailTarget;
 import com.zimbra.cs.account.Provisioning;
-import com.zimbra.cs.account.accesscontrol.Rights.Admin;
 import com.zimbra.soap.admin.type.CacheEntryType;
 
 public class PermissionCache {
@@ -88,6 +89,16 @@ public class PermissionCache {
         PermCacheManager.getInstance().invalidateCache(target);
     }
 
+    /**
+     * Invalidates the permission cache of accounts that were added to or removed from a group, instead of the
+     * whole cache.  Only valid if all members added or removed are accounts.
+     */
+    public static void invalidateCache(Collection<Account> members) {
+        RightBearer.Grantee.clearGranteeCache();
+        RightCommand.clearAllEffectiveRightsCache();
+        PermCacheManager.getInstance().invalidateCache(members);
+    }
+
     public static double getHitRate() {
         return PermCacheManager.getInstance().getHitRate();
     }
@@ -172,10 +183,10 @@ public class PermissionCache {
             return null;
 
         //
-        // to conserve caching slots, cache only user rights and the adminLoginAs admin right
-        // sanity check in case someone marks arbitrary admin rights cacheable in right xml files
+        // there is no limit on the number of cached rights, cache any preset right
+        // marked cacheable in right xml files
         //
-        if (!rightNeeded.isUserRight() && Admin.R_adminLoginAs != rightNeeded)
+        if (!rightNeeded.isUserRight() && !rightNeeded.isPresetRight())
             return null;
 
         String id = null;
@@ -0,0 +1,85 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * {@link IAccountCache} that doesn't lock on reads.
+ *
+ * @see AccountCache
+ */
+public class ConcurrentAccountCache extends ConcurrentEntryCache<Account> implements IAccountCache {
+    private static final int BY_ID = 0;
+    private static final int BY_NAME = 1;
+    private static final int BY_ALIAS = 2;
+    private static final int BY_FOREIGN_PRINCIPAL = 3;
+
+    public ConcurrentAccountCache(int maxItems, long refreshTTL) {
+        super(4, maxItems, refreshTTL);
+    }
+
+    @Override
+    String[][] keys(Account entry) {
+        return new String[][] {
+                { entry.getId() },
+                { entry.getName() },
+                entry.getMultiAttr(Provisioning.A_zimbraMailAlias),
+                entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal) };
+    }
+
+    @Override
+    public void remove(Account entry) {
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public void put(Account entry) {
+        if (entry != null) {
+            putEntry(entry);
+        }
+    }
+
+    @Override
+    public void replace(Account entry) {
+        remove(entry);
+        put(entry);
+    }
+
+    @Override
+    public Account getById(String key) {
+        return get(BY_ID, key);
+    }
+
+    @Override
+    public Account getByName(String key) {
+        Account acct = get(BY_NAME, key.toLowerCase());
+        if (acct != null) {
+            return acct;
+        } else {
+            return get(BY_ALIAS, key.toLowerCase());
+        }
+    }
+
+    @Override
+    public Account getByForeignPrincipal(String key) {
+        return get(BY_FOREIGN_PRINCIPAL, key);
+    }
+}
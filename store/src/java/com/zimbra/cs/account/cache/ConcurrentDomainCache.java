@@ -0,0 +1,195 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.zimbra.common.account.Key.DomainBy;
+import com.zimbra.cs.account.Domain;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
+import com.zimbra.cs.account.cache.DomainCache.NonExistingDomain;
+
+/**
+ * {@link IDomainCache} that doesn't lock on reads.
+ *
+ * @see DomainCache
+ */
+public class ConcurrentDomainCache extends ConcurrentEntryCache<Domain> implements IDomainCache {
+    private static final int BY_ID = 0;
+    private static final int BY_NAME = 1;
+    private static final int BY_VIRTUAL_HOSTNAME = 2;
+    private static final int BY_FOREIGN_NAME = 3;
+    private static final int BY_KRB5_REALM = 4;
+
+    /*
+     * for caching non-existing domains so we don't repeatedly search LDAP for domains
+     * that do not exist in Zimbra LDAP.
+     */
+    private final Map<DomainBy, Map<String, NegativeNode>> negativeCache =
+            new EnumMap<DomainBy, Map<String, NegativeNode>>(DomainBy.class);
+    private final long refreshTTLNegative;
+
+    private static final class NegativeNode {
+        final NonExistingDomain domain = new NonExistingDomain();
+        final long expires;
+
+        NegativeNode(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    public ConcurrentDomainCache(int maxItems, long refreshTTL, int maxItemsNegative, long refreshTTLNegative) {
+        super(5, maxItems, refreshTTL);
+        for (DomainBy domainBy : DomainBy.values()) {
+            negativeCache.put(domainBy, new ConcurrentLinkedHashMap.Builder<String, NegativeNode>()
+                    .maximumWeightedCapacity(Math.max(maxItemsNegative, 0)).build());
+        }
+        this.refreshTTLNegative = refreshTTLNegative;
+    }
+
+    @Override
+    String[][] keys(Domain entry) {
+        String krb5Realm = entry.getAttr(Provisioning.A_zimbraAuthKerberos5Realm);
+        return new String[][] {
+                { entry.getId() },
+                { entry.getName() },
+                toLowerCase(entry.getMultiAttr(Provisioning.A_zimbraVirtualHostname)),
+                toLowerCase(entry.getMultiAttr(Provisioning.A_zimbraForeignName)),
+                krb5Realm == null ? new String[0] : new String[] { krb5Realm } };
+    }
+
+    /**
+     * Returns lower cased copies of the values, which are the entry's own attribute values and must not be changed.
+     */
+    private static String[] toLowerCase(String[] values) {
+        String[] result = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i].toLowerCase();
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (Map<String, NegativeNode> map : negativeCache.values()) {
+            map.clear();
+        }
+    }
+
+    @Override
+    public void remove(Domain entry) {
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public void replace(Domain entry) {
+        remove(entry);
+        put(DomainBy.id, entry.getId(), entry);
+    }
+
+    @Override
+    public void removeFromNegativeCache(DomainBy domainBy, String key) {
+        negativeCache.get(domainBy).remove(key);
+    }
+
+    @Override
+    public void put(DomainBy domainBy, String key, Domain entry) {
+        if (entry != null) {
+            // clean it from the non-existing cache first
+            String[][] keys = keys(entry);
+            negativeCache.get(DomainBy.id).remove(keys[BY_ID][0]);
+            negativeCache.get(DomainBy.name).remove(keys[BY_NAME][0]);
+            for (String vh : keys[BY_VIRTUAL_HOSTNAME]) {
+                negativeCache.get(DomainBy.virtualHostname).remove(vh);
+            }
+            for (String fn : keys[BY_FOREIGN_NAME]) {
+                negativeCache.get(DomainBy.foreignName).remove(fn);
+            }
+            for (String realm : keys[BY_KRB5_REALM]) {
+                negativeCache.get(DomainBy.krb5Realm).remove(realm);
+            }
+            putEntry(entry);
+        } else {
+            negativeCache.get(domainBy).put(key, new NegativeNode(System.currentTimeMillis() + refreshTTLNegative));
+        }
+    }
+
+    private Domain getNegative(DomainBy domainBy, String key) {
+        Map<String, NegativeNode> map = negativeCache.get(domainBy);
+        NegativeNode node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (refreshTTLNegative != 0 && System.currentTimeMillis() > node.expires) {
+            map.remove(key, node);
+            return null;
+        }
+        return node.domain;
+    }
+
+    /**
+     * @param positiveKey the key in the positive cache, which is lower case except for ids
+     * @param key the key in the negative cache, as given
+     */
+    private Domain get(int map, String positiveKey, DomainBy domainBy, String key, GetFromDomainCacheOption option) {
+        switch (option) {
+        case POSITIVE:
+            return get(map, positiveKey);
+        case NEGATIVE:
+            return getNegative(domainBy, key);
+        case BOTH:
+            Domain d = get(map, positiveKey);
+            if (d == null) {
+                d = getNegative(domainBy, key);
+            }
+            return d;
+        default:
+            return null;
+        }
+    }
+
+    @Override
+    public Domain getById(String key, GetFromDomainCacheOption option) {
+        return get(BY_ID, key, DomainBy.id, key, option);
+    }
+
+    @Override
+    public Domain getByName(String key, GetFromDomainCacheOption option) {
+        return get(BY_NAME, key.toLowerCase(), DomainBy.name, key, option);
+    }
+
+    @Override
+    public Domain getByVirtualHostname(String key, GetFromDomainCacheOption option) {
+        return get(BY_VIRTUAL_HOSTNAME, key.toLowerCase(), DomainBy.virtualHostname, key, option);
+    }
+
+    @Override
+    public Domain getByForeignName(String key, GetFromDomainCacheOption option) {
+        return get(BY_FOREIGN_NAME, key.toLowerCase(), DomainBy.foreignName, key, option);
+    }
+
+    @Override
+    public Domain getByKrb5Realm(String key, GetFromDomainCacheOption option) {
+        return get(BY_KRB5_REALM, key.toLowerCase(), DomainBy.krb5Realm, key, option);
+    }
+}
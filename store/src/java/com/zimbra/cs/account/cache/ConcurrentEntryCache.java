@@ -0,0 +1,196 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.stats.Counter;
+import com.zimbra.common.stats.HitRateCounter;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Entry;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Base for the provisioning entry caches that don't lock on reads.
+ * <p>
+ * An entry is cached under one or more keys in each of several maps (by id, by name, by alias...), each a bounded
+ * {@link ConcurrentLinkedHashMap}. Entries expire {@code refreshTTL} ms after they were put, as in the LRU map caches.
+ * When an entry that is about to expire is read, it is reloaded from LDAP by a background thread and put back with
+ * a new lifetime, so that entries in use don't drop out of the cache and get loaded again by a request thread.
+ */
+abstract class ConcurrentEntryCache<E extends Entry> implements IEntryCache {
+    private static final ThreadPoolExecutor REFRESHER = newRefresher(LC.ldap_cache_refresh_threads.intValue());
+
+    static final class Node<E> {
+        final E entry;
+        final String[][] keys;
+        final long expires;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Node(E entry, String[][] keys, long expires) {
+            this.entry = entry;
+            this.keys = keys;
+            this.expires = expires;
+        }
+    }
+
+    private static ThreadPoolExecutor newRefresher(int threads) {
+        threads = Math.max(threads, 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(1000),
+                new ThreadFactoryBuilder().setNameFormat("LdapCacheRefresher-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final ConcurrentMap<String, Node<E>>[] maps;
+    private final long refreshTTL;
+    private final long refreshAhead;
+    private final Counter hitRate = new HitRateCounter();
+
+    /**
+     * @param numMaps number of key spaces; the first one must be the one by id
+     */
+    @SuppressWarnings("unchecked")
+    ConcurrentEntryCache(int numMaps, int maxItems, long refreshTTL) {
+        maps = new ConcurrentMap[numMaps];
+        for (int i = 0; i < numMaps; i++) {
+            maps[i] = new ConcurrentLinkedHashMap.Builder<String, Node<E>>()
+                    .maximumWeightedCapacity(Math.max(maxItems, 0)).build();
+        }
+        this.refreshTTL = refreshTTL;
+        refreshAhead = refreshTTL * Math.max(Math.min(LC.ldap_cache_refresh_ahead_percent.intValue(), 100), 0) / 100;
+    }
+
+    /**
+     * Returns the keys the entry is cached under, one array per map.
+     */
+    abstract String[][] keys(E entry);
+
+    final E get(int map, String key) {
+        Node<E> node = maps[map].get(key);
+        if (node == null) {
+            hitRate.increment(0);
+            return null;
+        }
+        if (refreshTTL != 0) {
+            long now = System.currentTimeMillis();
+            if (now > node.expires) {
+                remove(node);
+                hitRate.increment(0);
+                return null;
+            } else if (now > node.expires - refreshAhead) {
+                refresh(node);
+            }
+        }
+        hitRate.increment(100);
+        return node.entry;
+    }
+
+    final void putEntry(E entry) {
+        Node<E> node = new Node<E>(entry, keys(entry), System.currentTimeMillis() + refreshTTL);
+        for (int i = 0; i < maps.length; i++) {
+            for (String key : node.keys[i]) {
+                maps[i].put(key, node);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry under the keys it has now.
+     */
+    final void removeEntry(E entry) {
+        String[][] keys = keys(entry);
+        for (int i = 0; i < maps.length; i++) {
+            for (String key : keys[i]) {
+                maps[i].remove(key);
+            }
+        }
+    }
+
+    final void removeKey(int map, String key) {
+        maps[map].remove(key);
+    }
+
+    /**
+     * Removes the entry under the keys it was put with, unless it has been replaced since.
+     */
+    private void remove(Node<E> node) {
+        for (int i = 0; i < maps.length; i++) {
+            for (String key : node.keys[i]) {
+                maps[i].remove(key, node);
+            }
+        }
+    }
+
+    private void refresh(final Node<E> node) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            REFRESHER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = ZimbraPerf.STOPWATCH_LDAP_CACHE_REFRESH.start();
+                    try {
+                        Provisioning.getInstance().reload(node.entry, false);
+                        // re-key it, in case names or aliases changed, unless it was flushed in the meantime
+                        if (maps[0].get(node.keys[0][0]) == node) {
+                            remove(node);
+                            putEntry(node.entry);
+                        }
+                    } catch (Exception e) {
+                        ZimbraLog.account.debug("unable to refresh cached entry %s", node.entry.getLabel(), e);
+                        remove(node);
+                    } finally {
+                        ZimbraPerf.STOPWATCH_LDAP_CACHE_REFRESH.stop(start);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many queued; the entry will be loaded again when it expires
+        }
+    }
+
+    public void clear() {
+        for (ConcurrentMap<String, Node<E>> map : maps) {
+            map.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return maps[0].size();
+    }
+
+    /**
+     * Returns the cache hit rate as a value between 0 and 100.
+     */
+    @Override
+    public double getHitRate() {
+        return hitRate.getAverage();
+    }
+}
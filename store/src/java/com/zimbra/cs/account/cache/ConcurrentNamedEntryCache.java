@@ -0,0 +1,89 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.List;
+
+import com.zimbra.cs.account.NamedEntry;
+
+/**
+ * {@link INamedEntryCache} that doesn't lock on reads.
+ *
+ * @see NamedEntryCache
+ */
+public class ConcurrentNamedEntryCache<E extends NamedEntry> extends ConcurrentEntryCache<E>
+        implements INamedEntryCache<E> {
+    private static final int BY_ID = 0;
+    private static final int BY_NAME = 1;
+
+    public ConcurrentNamedEntryCache(int maxItems, long refreshTTL) {
+        super(2, maxItems, refreshTTL);
+    }
+
+    @Override
+    String[][] keys(E entry) {
+        return new String[][] { { entry.getId() }, { entry.getName() } };
+    }
+
+    @Override
+    public void remove(String name, String id) {
+        removeKey(BY_NAME, name);
+        removeKey(BY_ID, id);
+    }
+
+    @Override
+    public void remove(E entry) {
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public void put(E entry) {
+        if (entry != null) {
+            putEntry(entry);
+        }
+    }
+
+    @Override
+    public void replace(E entry) {
+        remove(entry);
+        put(entry);
+    }
+
+    @Override
+    public void put(List<E> entries, boolean clear) {
+        if (entries != null) {
+            if (clear) {
+                clear();
+            }
+            for (E e : entries) {
+                put(e);
+            }
+        }
+    }
+
+    @Override
+    public E getById(String key) {
+        return get(BY_ID, key);
+    }
+
+    @Override
+    public E getByName(String key) {
+        return get(BY_NAME, key.toLowerCase());
+    }
+}
@@ -75,7 +75,7 @@ public class DomainCache implements IDomainCache {
     }
     
     public static class NonExistingDomain extends Domain {
-        private NonExistingDomain() {
+        NonExistingDomain() {
             super(null, null, null, null, null);
         }
     }
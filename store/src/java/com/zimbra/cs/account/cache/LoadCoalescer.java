@@ -0,0 +1,70 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.stats.StopWatch;
+
+/**
+ * Runs the LDAP lookup of an entry that wasn't in the cache, unless the same lookup is already running in another
+ * thread, in which case that lookup's result is used. Lookups are keyed by whatever identifies them to the caller,
+ * e.g. an id or a name.
+ */
+public final class LoadCoalescer<V> {
+    private final ConcurrentMap<String, FutureTask<V>> loads = new ConcurrentHashMap<String, FutureTask<V>>();
+    private final StopWatch stopWatch;
+
+    /**
+     * @param stopWatch times the lookups that actually run
+     */
+    public LoadCoalescer(StopWatch stopWatch) {
+        this.stopWatch = stopWatch;
+    }
+
+    public V load(String key, Callable<V> loader) throws ServiceException {
+        FutureTask<V> task = new FutureTask<V>(loader);
+        FutureTask<V> running = loads.putIfAbsent(key, task);
+        if (running == null) {
+            long start = stopWatch.start();
+            try {
+                task.run();
+            } finally {
+                loads.remove(key, task);
+                stopWatch.stop(start);
+            }
+            running = task;
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(running);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            }
+            Throwables.propagateIfPossible(cause);
+            throw ServiceException.FAILURE("unable to load " + key, cause);
+        }
+    }
+}
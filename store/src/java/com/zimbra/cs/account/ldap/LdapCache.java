@@ -35,6 +35,9 @@ import com.zimbra.cs.account.ShareLocator;
 import com.zimbra.cs.account.UCService;
 import com.zimbra.cs.account.XMPPComponent;
 import com.zimbra.cs.account.cache.AccountCache;
+import com.zimbra.cs.account.cache.ConcurrentAccountCache;
+import com.zimbra.cs.account.cache.ConcurrentDomainCache;
+import com.zimbra.cs.account.cache.ConcurrentNamedEntryCache;
 import com.zimbra.cs.account.cache.DomainCache;
 import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
 import com.zimbra.cs.account.cache.IAccountCache;
@@ -69,23 +72,50 @@ abstract class LdapCache {
      */
     static class LRUMapCache extends LdapCache {
 
+        /**
+         * Use the caches that don't lock on reads, unless {@code ldap_cache_concurrent} is turned off.
+         */
+        private static final boolean CONCURRENT = LC.ldap_cache_concurrent.booleanValue();
+
+        private static IAccountCache newAccountCache(int maxItems, long refreshTTL) {
+            if (CONCURRENT) {
+                return new ConcurrentAccountCache(maxItems, refreshTTL);
+            }
+            return new AccountCache(maxItems, refreshTTL);
+        }
+
+        private static <E extends NamedEntry> INamedEntryCache<E> newNamedEntryCache(int maxItems, long refreshTTL) {
+            if (CONCURRENT) {
+                return new ConcurrentNamedEntryCache<E>(maxItems, refreshTTL);
+            }
+            return new NamedEntryCache<E>(maxItems, refreshTTL);
+        }
+
+        private static IDomainCache newDomainCache(int maxItems, long refreshTTL,
+                int maxItemsNegative, long refreshTTLNegative) {
+            if (CONCURRENT) {
+                return new ConcurrentDomainCache(maxItems, refreshTTL, maxItemsNegative, refreshTTLNegative);
+            }
+            return new DomainCache(maxItems, refreshTTL, maxItemsNegative, refreshTTLNegative);
+        }
+
         private final IAccountCache accountCache =
-            new AccountCache(
+            newAccountCache(
                     LC.ldap_cache_account_maxsize.intValue(),
                     LC.ldap_cache_account_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<LdapCos> cosCache =
-            new NamedEntryCache<LdapCos>(
+            newNamedEntryCache(
                     LC.ldap_cache_cos_maxsize.intValue(),
                     LC.ldap_cache_cos_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<ShareLocator> shareLocatorCache =
-                new NamedEntryCache<ShareLocator>(
+                newNamedEntryCache(
                         LC.ldap_cache_share_locator_maxsize.intValue(),
                         LC.ldap_cache_share_locator_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final IDomainCache domainCache =
-            new DomainCache(
+            newDomainCache(
                     LC.ldap_cache_domain_maxsize.intValue(),
                     LC.ldap_cache_domain_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
                     LC.ldap_cache_external_domain_maxsize.intValue(),
@@ -94,33 +124,33 @@ abstract class LdapCache {
         private final IMimeTypeCache mimeTypeCache = new LdapMimeTypeCache();
 
         private final INamedEntryCache<Server> serverCache =
-            new NamedEntryCache<Server>(
+            newNamedEntryCache(
                     LC.ldap_cache_server_maxsize.intValue(),
                     LC.ldap_cache_server_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<UCService> ucServiceCache =
-            new NamedEntryCache<UCService>(
+            newNamedEntryCache(
                     LC.ldap_cache_ucservice_maxsize.intValue(),
                     LC.ldap_cache_ucservice_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<LdapZimlet> zimletCache =
-            new NamedEntryCache<LdapZimlet>(
+            newNamedEntryCache(
                     LC.ldap_cache_zimlet_maxsize.intValue(),
                     LC.ldap_cache_zimlet_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
 
         private final INamedEntryCache<Group> groupCache =
-            new NamedEntryCache<Group>(
+            newNamedEntryCache(
                     LC.ldap_cache_group_maxsize.intValue(),
                     LC.ldap_cache_group_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<XMPPComponent> xmppComponentCache =
-            new NamedEntryCache<XMPPComponent>(
+            newNamedEntryCache(
                     LC.ldap_cache_xmppcomponent_maxsize.intValue(),
                     LC.ldap_cache_xmppcomponent_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
         private final INamedEntryCache<AlwaysOnCluster> alwaysOnClusterCache =
-                new NamedEntryCache<AlwaysOnCluster>(
+                newNamedEntryCache(
                         LC.ldap_cache_alwaysoncluster_maxsize.intValue(),
                         LC.ldap_cache_alwaysoncluster_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
 
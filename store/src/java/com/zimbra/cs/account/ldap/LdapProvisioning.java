@@ -36,6 +36,7 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -87,6 +88,7 @@ import com.zimbra.cs.account.EntryCacheDataKey;
 import com.zimbra.cs.account.GalContact;
 import com.zimbra.cs.account.GlobalGrant;
 import com.zimbra.cs.account.Group;
+import com.zimbra.cs.account.GroupMembershipGraph;
 import com.zimbra.cs.account.GroupedEntry;
 import com.zimbra.cs.account.GuestAccount;
 import com.zimbra.cs.account.IDNUtil;
@@ -126,6 +128,7 @@ import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.account.cache.IDomainCache;
 import com.zimbra.cs.account.cache.IMimeTypeCache;
 import com.zimbra.cs.account.cache.INamedEntryCache;
+import com.zimbra.cs.account.cache.LoadCoalescer;
 import com.zimbra.cs.account.callback.CallbackContext;
 import com.zimbra.cs.account.callback.CallbackContext.DataKey;
 import com.zimbra.cs.account.gal.GalNamedFilter;
@@ -207,6 +210,7 @@ import com.zimbra.cs.mailbox.Folder;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mime.MimeTypeInfo;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zimlet.ZimletException;
 import com.zimbra.cs.zimlet.ZimletUtil;
@@ -251,6 +255,10 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
     private final INamedEntryCache<XMPPComponent> xmppComponentCache;
     private final INamedEntryCache<LdapZimlet> zimletCache;
 
+    /** Account lookups in progress after a cache miss, keyed by id or name. */
+    private final LoadCoalescer<Account> accountLoader =
+            new LoadCoalescer<Account>(ZimbraPerf.STOPWATCH_LDAP_ACCOUNT_LOAD);
+
     private LdapConfig cachedGlobalConfig = null;
     private GlobalGrant cachedGlobalGrant = null;
     private static final Random sPoolRandom = new Random();
@@ -552,7 +560,53 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
                 modifyEphemeralAttrs(entry, ephemeralAttrs, ephemeralAttrMap);
             }
         }
+        Set<String> changedMembers = null;
+        boolean groupChanged = false;
+        if (entry instanceof DistributionList) {
+            changedMembers = new HashSet<String>();
+            groupChanged = getMembershipGraphChanges((DistributionList) entry, attrs, changedMembers);
+        }
         modifyLdapAttrs(entry, initZlc, attrs);
+        if (groupChanged) {
+            GroupMembershipGraph.getInstance().invalidateGroup(((DistributionList) entry).getId());
+        }
+        if (changedMembers != null && !changedMembers.isEmpty()) {
+            GroupMembershipGraph.getInstance().invalidateMembers(changedMembers);
+        }
+    }
+
+    /**
+     * Collects the members added to or removed from the distribution list by the modification, and returns true if
+     * it changes the addresses or admin flag of the list itself.
+     */
+    private boolean getMembershipGraphChanges(DistributionList dl, Map<String, ? extends Object> attrs,
+            Set<String> changedMembers) throws ServiceException {
+        boolean groupChanged = false;
+        for (Map.Entry<String, ? extends Object> e : attrs.entrySet()) {
+            String key = e.getKey();
+            boolean replace = !key.startsWith("+") && !key.startsWith("-");
+            String attrName = replace ? key : key.substring(1);
+            if (Provisioning.A_zimbraMailForwardingAddress.equalsIgnoreCase(attrName)) {
+                if (replace) {
+                    Collections.addAll(changedMembers, dl.getAllMembers());
+                }
+                Object value = e.getValue();
+                if (value instanceof String) {
+                    changedMembers.add((String) value);
+                } else if (value instanceof String[]) {
+                    Collections.addAll(changedMembers, (String[]) value);
+                } else if (value instanceof Collection) {
+                    for (Object v : (Collection<?>) value) {
+                        changedMembers.add(String.valueOf(v));
+                    }
+                }
+            } else if (Provisioning.A_zimbraIsAdminGroup.equalsIgnoreCase(attrName) ||
+                    Provisioning.A_zimbraMailAlias.equalsIgnoreCase(attrName) ||
+                    Provisioning.A_mail.equalsIgnoreCase(attrName)) {
+                groupChanged = true;
+            }
+        }
+        return groupChanged;
     }
 
     private void modifyEphemeralAttrs(Entry entry, Map<String, Object> attrs, Map<String, AttributeInfo> ephemeralAttrMap) throws ServiceException {
@@ -935,21 +989,27 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         return null;
     }
 
-    private Account getAccountById(String zimbraId, ZLdapContext zlc, boolean loadFromMaster)
+    private Account getAccountById(final String zimbraId, final ZLdapContext zlc, final boolean loadFromMaster)
     throws ServiceException {
         if (zimbraId == null)
             return null;
         Account a = accountCache.getById(zimbraId);
         if (a == null) {
-            ZLdapFilter filter = filterFactory.accountById(zimbraId);
+            a = accountLoader.load((loadFromMaster ? "master:id:" : "id:") + zimbraId, new Callable<Account>() {
+                @Override
+                public Account call() throws ServiceException {
+                    ZLdapFilter filter = filterFactory.accountById(zimbraId);
 
-            a = getAccountByQuery(mDIT.mailBranchBaseDN(), filter, zlc, loadFromMaster);
+                    Account acct = getAccountByQuery(mDIT.mailBranchBaseDN(), filter, zlc, loadFromMaster);
 
-            // search again under the admin base if not found and admin base is not under mail base
-            if (a == null && !mDIT.isUnder(mDIT.mailBranchBaseDN(), mDIT.adminBaseDN()))
-                a = getAccountByQuery(mDIT.adminBaseDN(), filter, zlc, loadFromMaster);
+                    // search again under the admin base if not found and admin base is not under mail base
+                    if (acct == null && !mDIT.isUnder(mDIT.mailBranchBaseDN(), mDIT.adminBaseDN()))
+                        acct = getAccountByQuery(mDIT.adminBaseDN(), filter, zlc, loadFromMaster);
 
-            accountCache.put(a);
+                    accountCache.put(acct);
+                    return acct;
+                }
+            });
         }
         return a;
     }
@@ -1116,18 +1176,25 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         return account;
     }
 
-    private Account getAccountByNameInternal(String emailAddress, boolean loadFromMaster)
+    private Account getAccountByNameInternal(String emailAddress, final boolean loadFromMaster)
     throws ServiceException {
 
         emailAddress = fixupAccountName(emailAddress);
 
         Account account = accountCache.getByName(emailAddress);
         if (account == null) {
-            account = getAccountByQuery(
-                    mDIT.mailBranchBaseDN(),
-                    filterFactory.accountByName(emailAddress),
-                    null, loadFromMaster);
-            accountCache.put(account);
+            final String name = emailAddress;
+            account = accountLoader.load((loadFromMaster ? "master:name:" : "name:") + name, new Callable<Account>() {
+                @Override
+                public Account call() throws ServiceException {
+                    Account acct = getAccountByQuery(
+                            mDIT.mailBranchBaseDN(),
+                            filterFactory.accountByName(name),
+                            null, loadFromMaster);
+                    accountCache.put(acct);
+                    return acct;
+                }
+            });
         }
         return account;
     }
@@ -2320,6 +2387,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
     public void addAlias(DistributionList dl, String alias) throws ServiceException {
         addAliasInternal(dl, alias);
         allDLs.addGroup(dl);
+        GroupMembershipGraph.getInstance().invalidateGroup(dl.getId());
     }
 
     @Override
@@ -2327,6 +2395,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         groupCache.remove(dl);
         removeAliasInternal(dl, alias);
         allDLs.removeGroup(alias);
+        GroupMembershipGraph.getInstance().invalidateGroup(dl.getId());
     }
 
     private boolean isEntryAlias(ZAttributes attrs) throws ServiceException {
@@ -4640,6 +4709,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
             }
 
             groupCache.remove(dl);
+            GroupMembershipGraph.getInstance().invalidateGroup(dl.getId());
 
             String oldEmail = dl.getName();
             String oldDomain = EmailUtil.getValidDomainPart(oldEmail);
@@ -4838,6 +4908,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
             zlc = LdapClient.getContext(LdapServerType.MASTER, LdapUsage.DELETE_DISTRIBUTIONLIST);
             zlc.deleteEntry(dl.getDN());
             groupCache.remove(dl);
+            GroupMembershipGraph.getInstance().invalidateGroup(dl.getId());
             allDLs.removeGroup(addrs);
         } catch (ServiceException e) {
             throw ServiceException.FAILURE("unable to purge distribution list: "+zimbraId, e);
@@ -7179,6 +7250,10 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         // all addrs of this DL
         AddrsOfEntry addrsOfDL = getAllAddressesOfEntry(dl.getName());
 
+        // if only accounts are added, only their permissions change
+        List<Account> acctMembers = new ArrayList<Account>();
+        boolean onlyAccounts = true;
+
         for (int i = 0; i < members.length; i++) {
             String memberName = members[i].toLowerCase();
             memberName = IDNUtil.toAsciiEmail(memberName);
@@ -7200,7 +7275,9 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
                 Account acct = get(AccountBy.name, memberName);
                 if (acct != null) {
                     clearUpwardMembershipCache(acct);
+                    acctMembers.add(acct);
                 } else {
+                    onlyAccounts = false;
                     // for DistributionList/ACLGroup, get it from cache because
                     // if the dl is not in cache, after loading it prov.getAclGroup
                     // always compute the upward membership.  Sounds silly if we are
@@ -7222,7 +7299,11 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
             return;
         }
 
-        PermissionCache.invalidateCache();
+        if (onlyAccounts) {
+            PermissionCache.invalidateCache(acctMembers);
+        } else {
+            PermissionCache.invalidateCache();
+        }
         cleanGroupMembersCache(dl);
 
         Map<String,String[]> modmap = new HashMap<String,String[]>();
@@ -7241,6 +7322,10 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         Set<String> mods = new HashSet<String>();
         HashSet<String> failed = new HashSet<String>();
 
+        // if only accounts are removed, only their permissions change
+        List<Account> acctMembers = new ArrayList<Account>();
+        boolean onlyAccounts = true;
+
         for (int i = 0; i < members.length; i++) {
             String memberName = members[i].toLowerCase();
             memberName = IDNUtil.toAsciiEmail(memberName);
@@ -7292,9 +7377,18 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
                     Account acct = getFromCache(AccountBy.name, primary);
                     if (acct != null)
                         clearUpwardMembershipCache(acct);
+                    else
+                        acct = get(AccountBy.name, primary);
+                    if (acct != null)
+                        acctMembers.add(acct);
+                    else
+                        onlyAccounts = false;
                 } else {
                     removeGroupFromCache(Key.DistributionListBy.name, primary);
+                    onlyAccounts = false;
                 }
+            } else {
+                onlyAccounts = false;
             }
         }
 
@@ -7314,7 +7408,11 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
             throw ServiceException.INVALID_REQUEST("empty remove set", null);
         }
 
-        PermissionCache.invalidateCache();
+        if (onlyAccounts) {
+            PermissionCache.invalidateCache(acctMembers);
+        } else {
+            PermissionCache.invalidateCache();
+        }
         cleanGroupMembersCache(dl);
 
         Map<String,String[]> modmap = new HashMap<String,String[]>();
@@ -8690,11 +8788,27 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
                 for (CacheEntry entry : entries) {
                     Key.DistributionListBy dlBy = (entry.mEntryBy==Key.CacheEntryBy.id)?
                             Key.DistributionListBy.id : Key.DistributionListBy.name;
+                    String groupId = entry.mEntryIdentity;
+                    if (dlBy == Key.DistributionListBy.name) {
+                        // the graph only knows the addresses of lists it has cached, but the lists under this one
+                        // have to go too
+                        Group group = getGroupFromCache(dlBy, entry.mEntryIdentity);
+                        if (group == null) {
+                            group = getGroupInternal(dlBy, entry.mEntryIdentity, true, false);
+                        }
+                        groupId = group != null ? group.getId() : null;
+                    }
                     removeGroupFromCache(dlBy, entry.mEntryIdentity);
+                    if (groupId != null) {
+                        GroupMembershipGraph.getInstance().invalidateGroup(groupId);
+                    } else {
+                        GroupMembershipGraph.getInstance().invalidateGroupByAddr(entry.mEntryIdentity);
+                    }
                 }
             } else {
                 allDLs.clear();
                 groupCache.clear();
+                GroupMembershipGraph.getInstance().clear();
             }
             return;
         case config:
@@ -10201,7 +10315,11 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         } finally {
             LdapClient.closeContext(zlc);
         }
-        PermissionCache.invalidateCache();
+        if (externalAddrs.isEmpty()) {
+            PermissionCache.invalidateCache(accts);
+        } else {
+            PermissionCache.invalidateCache();
+        }
         cleanGroupMembersCache(group);
     }
 
@@ -10267,6 +10385,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
             throw AccountServiceException.NO_SUCH_MEMBER(group.getName(), sb.toString());
         }
 
+        boolean externalRemoved = false;
         ZLdapContext zlc = null;
         try {
             zlc = LdapClient.getContext(LdapServerType.MASTER, LdapUsage.REMOVE_GROUP_MEMBER);
@@ -10298,12 +10417,17 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
                 attrs.put("-" + LdapDynamicGroup.StaticUnit.MEMBER_ATTR,
                         addrsToRemove.toArray(new String[addrsToRemove.size()]));
                 modifyLdapAttrs(staticUnit, zlc, attrs);
+                externalRemoved = true;
             }
 
         } finally {
             LdapClient.closeContext(zlc);
         }
-        PermissionCache.invalidateCache();
+        if (!externalRemoved) {
+            PermissionCache.invalidateCache(accts);
+        } else {
+            PermissionCache.invalidateCache();
+        }
         cleanGroupMembersCache(group);
     }
 
@@ -114,6 +114,9 @@ public class DbMailItem {
 
     static final int RESULTS_STREAMING_MIN_ROWS = 10000;
 
+    /** Number of single-row UPDATEs sent to the database per JDBC batch. */
+    private static final int UPDATE_BATCH_SIZE = 500;
+
     static final int CI_DUMPSTER_FOLDER_ID   = 2;
 
     public static final int setMailboxId(PreparedStatement stmt, Mailbox mbox, int pos) throws SQLException {
@@ -1021,6 +1024,56 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Same as {@link #persistCounts(MailItem, Metadata)} for several items, sent to the database as JDBC batches
+     * instead of one statement per item.
+     */
+    public static void persistCounts(Mailbox mbox, Map<? extends MailItem, Metadata> items) throws ServiceException {
+        if (items.isEmpty()) {
+            return;
+        } else if (items.size() == 1) {
+            Map.Entry<? extends MailItem, Metadata> entry = items.entrySet().iterator().next();
+            persistCounts(entry.getKey(), entry.getValue());
+            return;
+        }
+
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(mbox) +
+                        " SET size = ?, unread = ?, metadata = ?, mod_metadata = ?, change_date = ?, mod_content = ?" +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
+            int count = 0;
+            for (Map.Entry<? extends MailItem, Metadata> entry : items.entrySet()) {
+                MailItem item = entry.getKey();
+                int pos = 1;
+                stmt.setLong(pos++, item.getSize());
+                stmt.setInt(pos++, item.getUnreadCount());
+                stmt.setString(pos++, checkMetadataLength(entry.getValue().toString()));
+                stmt.setInt(pos++, item.getModifiedSequence());
+                if (item.getChangeDate() > 0) {
+                    stmt.setInt(pos++, (int) (item.getChangeDate() / 1000));
+                } else {
+                    stmt.setNull(pos++, Types.INTEGER);
+                }
+                stmt.setInt(pos++, item.getSavedSequence());
+                pos = setMailboxId(stmt, mbox, pos);
+                stmt.setInt(pos++, item.getId());
+                stmt.addBatch();
+                if (++count % UPDATE_BATCH_SIZE == 0) {
+                    stmt.executeBatch();
+                }
+            }
+            if (count % UPDATE_BATCH_SIZE != 0) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("writing metadata for mailbox " + mbox.getId() + ", " + items.size() + " items", e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     // need to kill the Note class sooner rather than later
     public static void saveSubject(Note note) throws ServiceException {
         Mailbox mbox = note.getMailbox();
@@ -1194,6 +1247,7 @@ public class DbMailItem {
             stmt.setString(pos++, hash);
             stmt.setInt(pos++, item.getId());
             stmt.executeUpdate();
+            mbox.getConversationHashIndex().opened(hash, item.getId());
         } catch (SQLException e) {
             if (Db.errorMatches(e, Db.Error.DUPLICATE_ROW)) {
                 try {
@@ -1206,6 +1260,7 @@ public class DbMailItem {
                     pos = setMailboxId(stmt, mbox, pos);
                     stmt.setString(pos++, hash);
                     stmt.executeUpdate();
+                    mbox.getConversationHashIndex().opened(hash, item.getId());
                 } catch (SQLException nested) {
                     throw ServiceException.FAILURE("updating open conversation association for hash " + hash, nested);
                 }
@@ -1230,6 +1285,7 @@ public class DbMailItem {
             stmt.setString(pos++, hash);
             stmt.setInt(pos++, item.getId());
             stmt.executeUpdate();
+            mbox.getConversationHashIndex().closed(hash, item.getId());
         } catch (SQLException e) {
             throw ServiceException.FAILURE("closing open conversation association for hash " + hash, e);
         } finally {
@@ -1261,6 +1317,7 @@ public class DbMailItem {
             stmt.setInt(pos++, beforeDate);
             int numRows = stmt.executeUpdate();
             if (numRows > 0) {
+                mbox.getConversationHashIndex().clear();
                 ZimbraLog.purge.info("Closed %d conversations dated before %d.", numRows, beforeDate);
             }
         } catch (SQLException e) {
@@ -1284,6 +1341,7 @@ public class DbMailItem {
             pos = setMailboxId(stmt, mbox, pos);
             stmt.setInt(pos++, oldTargetId);
             stmt.executeUpdate();
+            mbox.getConversationHashIndex().retargeted(oldTargetId, newTargetId);
         } catch (SQLException e) {
             throw ServiceException.FAILURE("switching open conversation association for item " + oldTarget.getId(), e);
         } finally {
@@ -1355,6 +1413,47 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Same as {@link #saveImapUid(MailItem)} for several items, sent to the database as JDBC batches instead of one
+     * statement per item.
+     */
+    public static void saveImapUids(Mailbox mbox, List<? extends MailItem> items) throws ServiceException {
+        if (items.isEmpty()) {
+            return;
+        } else if (items.size() == 1) {
+            saveImapUid(items.get(0));
+            return;
+        }
+
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(mbox) +
+                        " SET imap_id = ?, mod_metadata = ?, change_date = ?" +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
+            int count = 0;
+            for (MailItem item : items) {
+                int pos = 1;
+                stmt.setInt(pos++, item.getImapUid());
+                stmt.setInt(pos++, mbox.getOperationChangeID());
+                stmt.setInt(pos++, mbox.getOperationTimestamp());
+                pos = setMailboxId(stmt, mbox, pos);
+                stmt.setInt(pos++, item.getId());
+                stmt.addBatch();
+                if (++count % UPDATE_BATCH_SIZE == 0) {
+                    stmt.executeBatch();
+                }
+            }
+            if (count % UPDATE_BATCH_SIZE != 0) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("setting IMAP UIDs for " + items.size() + " items", e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static void alterUnread(Mailbox mbox, List<Integer> itemIDs, boolean unread)
     throws ServiceException {
         if (itemIDs == null || itemIDs.isEmpty()) {
@@ -2681,6 +2780,66 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Returns the item ids that the mailbox's {@code OPEN_CONVERSATION} rows map their hashes to, reading at most
+     * {@code limit + 1} rows so that the caller can tell whether there were more than {@code limit}.
+     */
+    public static Map<String, Integer> getOpenConversations(Mailbox mbox, int limit) throws ServiceException {
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT hash, conv_id FROM " + getConversationTableName(mbox) +
+                    (DebugConfig.disableMailboxGroups ? "" : " WHERE mailbox_id = ?") +
+                    (Db.supports(Db.Capability.LIMIT_CLAUSE) ? " " + Db.getInstance().limit(limit + 1) : ""));
+            if (!Db.supports(Db.Capability.LIMIT_CLAUSE)) {
+                stmt.setMaxRows(limit + 1);
+            }
+            setMailboxId(stmt, mbox, 1);
+            rs = stmt.executeQuery();
+            Map<String, Integer> result = new HashMap<String, Integer>();
+            while (rs.next()) {
+                result.put(rs.getString(1), rs.getInt(2));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("loading open conversations for mailbox " + mbox.getId(), e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
+    /**
+     * Returns the item ids that the given hashes are mapped to in the mailbox's {@code OPEN_CONVERSATION} rows.
+     */
+    public static Map<String, Integer> getOpenConversations(Mailbox mbox, Collection<String> hashes)
+            throws ServiceException {
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT hash, conv_id FROM " + getConversationTableName(mbox) +
+                    " WHERE " + IN_THIS_MAILBOX_AND + DbUtil.whereIn("hash", hashes.size()));
+            int pos = 1;
+            pos = setMailboxId(stmt, mbox, pos);
+            for (String hash : hashes) {
+                stmt.setString(pos++, hash);
+            }
+            rs = stmt.executeQuery();
+            Map<String, Integer> result = new HashMap<String, Integer>();
+            while (rs.next()) {
+                result.put(rs.getString(1), rs.getInt(2));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("fetching open conversations for hash " + hashes, e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static UnderlyingData getByHash(Mailbox mbox, String hash) throws ServiceException {
         return ListUtil.getFirstElement(getByHashes(mbox, Arrays.asList(hash)));
     }
@@ -58,6 +58,7 @@ public class DbPool {
     public static class DbConnection {
         private final Connection connection;
         private Throwable mStackTrace;
+        private int prepareCount;
         Integer mboxId;
 
         DbConnection(Connection conn) {
@@ -112,13 +113,23 @@ public class DbPool {
         }
 
         public PreparedStatement prepareStatement(String sql) throws SQLException {
+            prepareCount++;
             return new StatTrackingPreparedStatement(connection.prepareStatement(sql), sql);
         }
 
         public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            prepareCount++;
             return new StatTrackingPreparedStatement(connection.prepareStatement(sql, autoGeneratedKeys), sql);
         }
 
+        /**
+         * Returns the number of statements prepared on this connection since it was taken from the pool.  A JDBC
+         * batch counts once, however many rows it updates.
+         */
+        public int getPrepareCount() {
+            return prepareCount;
+        }
+
         public void rollback() throws ServiceException {
             try {
                 connection.rollback();
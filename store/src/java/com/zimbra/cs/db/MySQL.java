@@ -186,6 +186,8 @@ public class MySQL extends Db {
             props.put("useUnicode", "true");
             props.put("characterEncoding", "UTF-8");
             props.put("dumpQueriesOnException", "true");
+            // send JDBC batches (e.g. DbMailItem.saveImapUids) in one round-trip instead of a statement at a time
+            props.put("rewriteBatchedStatements", "true");
 
             // props.put("connectTimeout", "0");    // connect timeout in msecs
             // props.put("initialTimeout", "2");    // time to wait between re-connects
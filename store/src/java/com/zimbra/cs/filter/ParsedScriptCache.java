@@ -0,0 +1,109 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.filter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+import org.apache.jsieve.parser.generated.TokenMgrError;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ExecutionError;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Server-wide cache of parsed Sieve scripts, keyed by the SHA-256 digest of the script.
+ * <p>
+ * Accounts whose combined admin and user scripts are the same share one parsed tree, and a tree outlives the
+ * {@code Account} object it was first parsed for, so evicting an account from the provisioning cache no longer means
+ * parsing its filters again on the next delivery. The cache is bounded by the estimated heap size of the trees.
+ * Trees handed out must not be modified.
+ */
+final class ParsedScriptCache {
+    /** Rough heap cost of a parsed tree per character of script, used to weigh entries. */
+    private static final int BYTES_PER_CHAR = 16;
+
+    private final Cache<String, Parsed> cache;
+
+    ParsedScriptCache(long maxBytes) {
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(Math.max(maxBytes, 0))
+            .weigher(new Weigher<String, Parsed>() {
+                @Override
+                public int weigh(String key, Parsed value) {
+                    return value.weight;
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Returns the parsed script, parsing it if it isn't in the cache.
+     *
+     * @see RuleManager#parse(String)
+     */
+    Node get(final String script) throws ParseException {
+        String key = ByteUtil.getSHA256Digest(script.getBytes(Charsets.UTF_8), true);
+        final boolean[] parsed = new boolean[1];
+        Parsed value;
+        try {
+            value = cache.get(key, new Callable<Parsed>() {
+                @Override
+                public Parsed call() throws ParseException {
+                    parsed[0] = true;
+                    long start = ZimbraPerf.STOPWATCH_FILTER_PARSE.start();
+                    Node root = RuleManager.parse(script);
+                    ZimbraPerf.STOPWATCH_FILTER_PARSE.stop(start);
+                    return new Parsed(root, script.length());
+                }
+            });
+        } catch (ExecutionException e) {
+            throw (ParseException) e.getCause();
+        } catch (ExecutionError e) {
+            if (e.getCause() instanceof TokenMgrError) {
+                throw (TokenMgrError) e.getCause();
+            }
+            throw e;
+        }
+        ZimbraPerf.COUNTER_FILTER_SCRIPT_CACHE.increment(parsed[0] ? 0 : 100);
+        return value.node;
+    }
+
+    void clear() {
+        cache.invalidateAll();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    private static final class Parsed {
+        final Node node;
+        final int weight;
+
+        Parsed(Node node, int length) {
+            this.node = node;
+            weight = (int) Math.min((long) length * BYTES_PER_CHAR + 64, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package com.zimbra.cs.filter;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.DeliveryServiceException;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
@@ -95,6 +96,13 @@ public final class RuleManager {
 
     private static SieveFactory SIEVE_FACTORY = createSieveFactory();
 
+    /**
+     * Parsed scripts shared by all accounts, cos, domains and servers.  The per-entry cached data above is checked
+     * first; this one saves parsing again when an entry is reloaded, or when many entries have the same script.
+     */
+    private static final ParsedScriptCache PARSED_SCRIPTS =
+            new ParsedScriptCache(LC.sieve_script_cache_max_kb.longValue() * 1024);
+
     private RuleManager() {
     }
 
@@ -294,7 +302,7 @@ public final class RuleManager {
                 script = "";
             }
             ZimbraLog.filter.debug("filterType[%s] useAdminRule[%s] rule[%s]", filterType == FilterType.INCOMING ? "incoming" : "outgoing", useAdminRule ? "true" : "false", debugScript);
-            node = parse(script);
+            node = PARSED_SCRIPTS.get(script);
             account.setCachedData(rulesCacheKey, node);
         }
         return node;
@@ -895,7 +903,7 @@ public final class RuleManager {
             script = requiresPart.toString() + adminRule;
             debugScript = requiresPart.toString() + "\n# " + adminRuleAttrName + " script\n" + debugAdminRule;
             ZimbraLog.filter.debug("filterType[%s] rule[%s]", filterType == FilterType.INCOMING ? "incoming" : "outgoing", debugScript);
-            node = parse(script);
+            node = PARSED_SCRIPTS.get(script);
             entry.setCachedData(rulesCacheKey, node);
         }
         return node;
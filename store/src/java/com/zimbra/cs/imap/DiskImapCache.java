@@ -17,11 +17,8 @@
 package com.zimbra.cs.imap;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
 
@@ -41,10 +38,24 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
     private static final File CACHE_DIR = new File(LC.zimbra_home.value(), CACHE_DATA_SUBDIR);
     private static final String IMAP_CACHEFILE_SUFFIX = ".i4c";
 
+    // lets a folder be written as just its changes since the file it was loaded from
+    private final ImapFolderSerializer.RecordStore records = new ImapFolderSerializer.RecordStore() {
+        @Override
+        public byte[] load(String key) {
+            File pagefile = new File(CACHE_DIR, key + IMAP_CACHEFILE_SUFFIX);
+            try {
+                return pagefile.exists() ? ByteUtil.getContent(pagefile) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    };
+
     DiskImapCache() {
         CACHE_DIR.mkdirs();
 
-        // iterate over all serialized folders and delete all but the most recent
+        // iterate over all serialized folders and delete all but the most recent; a most recent file that was written
+        // as changes to one of the deleted ones then reads as a miss, and the folder is loaded from the database
         File[] allCached = CACHE_DIR.listFiles();
         Arrays.sort(allCached, new Comparator<File>() {
             @Override public int compare(File o1, File o2)  {
@@ -90,18 +101,18 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
             return;
         }
         FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
         try {
-            oos = new ObjectOutputStream(fos = new FileOutputStream(pagefile));
+            byte[] data;
             synchronized (folder) {
-                oos.writeObject(folder);
+                data = ImapFolderSerializer.serialize(folder, key, records);
             }
+            fos = new FileOutputStream(pagefile);
+            fos.write(data);
         } catch (IOException e) {
-            ByteUtil.closeStream(oos);
             ByteUtil.closeStream(fos);
             pagefile.delete();
+            folder.setSnapshot(null);
         } finally {
-            ByteUtil.closeStream(oos);
             ByteUtil.closeStream(fos);
         }
     }
@@ -112,20 +123,12 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
         if (!pagefile.exists()) {
             return null;
         }
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
         try {
             // read serialized ImapFolder from cache
-            ois = new ObjectInputStream(fis = new FileInputStream(pagefile));
-            return (ImapFolder) ois.readObject();
+            return ImapFolderSerializer.deserialize(ByteUtil.getContent(pagefile), key, records);
         } catch (Exception e) {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
             pagefile.delete();
             return null;
-        } finally {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
         }
     }
 
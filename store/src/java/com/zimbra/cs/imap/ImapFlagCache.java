@@ -89,6 +89,14 @@ public class ImapFlagCache implements Iterable<ImapFlagCache.ImapFlag>, java.io.
             mListed = listed;
         }
 
+        ImapFlag(String name, String imapName, int id, long bitmask, boolean positive, boolean permanent,
+                boolean listed) {
+            mId   = id;           mBitmask   = bitmask;
+            mName = name;         mImapName  = imapName;
+            mPositive = positive; mPermanent = permanent;
+            mListed = listed;
+        }
+
         ImapFlag(String name, FlagInfo flagInfo, boolean positive) {
             mId   = flagInfo.toId();      mBitmask   = flagInfo.toBitmask();
             mName = flagInfo.toString();  mImapName  = normalize(name, mId);
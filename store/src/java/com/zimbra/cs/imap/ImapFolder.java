@@ -16,16 +16,17 @@
  */
 package com.zimbra.cs.imap;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -59,7 +60,7 @@ import com.zimbra.cs.session.PendingModifications.Change;
  */
 public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Serializable {
     // Update serialVersionUID when changing any instance members. Otherwise serialization won't work correctly.
-    private static final long serialVersionUID = 3845968507901145794L;
+    private static final long serialVersionUID = -4032466311437364170L;
     public static final byte SELECT_READONLY  = 0x01;
     public static final byte SELECT_CONDSTORE = 0x02;
 
@@ -68,13 +69,15 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     private transient ImapListener session;
     private transient ImapPath path;
     private transient SessionData sessionData;
-    private transient Map<Integer, ImapMessage> messageIds;
+    private transient ImapMessageIdMap messageIds;
+    private transient ImapFolderSerializer.Snapshot snapshot; // columns of the last cache record, for deltas
 
     private final int folderId;
     private final int uidValidity;
     private String query;
     private Set<MailItem.Type> typeConstraint = ImapHandler.ITEM_TYPES;
-    private final List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+    // serialized as columns by writeObject()
+    private transient List<ImapMessage> sequence = new ArrayList<ImapMessage>();
     private final ImapFlagCache tags;   // operationally could be "transient", but that makes deserialization replay depend on magic
 
     // below this point are session-specific attributes of the folder SELECT state
@@ -123,6 +126,18 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         this.tags = new ImapFlagCache();
     }
 
+    /** Rebuilds a folder read back from the session cache by {@link ImapFolderSerializer}.  It has no
+     *  session state until {@link #restore} is called. */
+    ImapFolder(int folderId, int uidValidity, String query, Set<MailItem.Type> typeConstraint, ImapFlagCache tags,
+            List<ImapMessage> sequence) {
+        this.folderId = folderId;
+        this.uidValidity = uidValidity;
+        this.query = query;
+        this.typeConstraint = typeConstraint;
+        this.tags = tags;
+        this.sequence = sequence;
+    }
+
     protected void setInitialSize() {
         SessionData sdata = sessionData;
         if (sdata != null) {
@@ -368,14 +383,14 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         // if item id and IMAP uid differ, the message goes in the "mMessageIds" map
         if (messageIds == null) {
             // lookup miss means we need to generate the item-id-to-imap-message mapping
-            messageIds = new HashMap<Integer, ImapMessage>();
+            messageIds = new ImapMessageIdMap();
             for (ImapMessage i4msg : sequence) {
                 if (i4msg != null && i4msg.msgId != i4msg.imapUid) {
                     messageIds.put(i4msg.msgId, i4msg);
                 }
             }
         }
-        return checkRemoved(messageIds.get(Integer.valueOf(id)));
+        return checkRemoved(messageIds.get(id));
     }
 
     /** Returns the ImapMessage with the given IMAP UID from the folder's
@@ -503,9 +518,9 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         i4msg.sequence = position;
         if (messageIds != null) {
             if (i4msg.msgId != i4msg.imapUid) {
-                messageIds.put(Integer.valueOf(i4msg.msgId), i4msg);
+                messageIds.put(i4msg.msgId, i4msg);
             } else {
-                messageIds.remove(Integer.valueOf(i4msg.msgId));
+                messageIds.remove(i4msg.msgId);
             }
         }
     }
@@ -593,6 +608,19 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         return tags;
     }
 
+    /** Returns the messages in sequence order, for {@link ImapFolderSerializer}. */
+    List<ImapMessage> getSequence() {
+        return sequence;
+    }
+
+    ImapFolderSerializer.Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    void setSnapshot(ImapFolderSerializer.Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
     protected void clearTagCache() {
         tags.clear();
     }
@@ -1074,28 +1102,34 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
         ZimbraLog.imap.debug("  ** iterating (collapseExpunged)");
 
-        boolean trimmed = false;
-        int seq = 1;
+        // compact in place in one pass: survivors slide down over the expunged slots, then the tail is dropped
+        int size = sequence.size();
+        int kept = 0;
         List<Integer> removed = new ArrayList<Integer>();
-        for (ListIterator<ImapMessage> lit = sequence.listIterator(); lit.hasNext(); seq++) {
-            ImapMessage i4msg = lit.next();
+        for (int i = 0; i < size; i++) {
+            ImapMessage i4msg = sequence.get(i);
             if (i4msg.isExpunged()) {
                 ZimbraLog.imap.debug("  ** removing: %s", i4msg);
                 // uncache() removes pointers to the message from mMessageIds;
                 //   if the message appears again in sequence, it *must* be later and the
                 //   subsequent call to setIndex() will correctly update the mMessageIds mapping
                 uncache(i4msg);
-                lit.remove();
                 // note that we can't send expunge notifications for messages the client doesn't know about yet...
+                // (sequence numbers are reported as of the preceding removals, i.e. kept + 1)
                 if (!i4msg.isAdded()) {
-                    removed.add(byUID ? i4msg.imapUid : seq);
+                    removed.add(byUID ? i4msg.imapUid : kept + 1);
                 }
-                seq--;
-                trimmed = true;
-            } else if (trimmed) {
-                setIndex(i4msg, seq);
+            } else {
+                if (kept != i) {
+                    sequence.set(kept, i4msg);
+                    setIndex(i4msg, kept + 1);
+                }
+                kept++;
             }
         }
+        if (kept < size) {
+            sequence.subList(kept, size).clear();
+        }
         return removed;
     }
 
@@ -1108,10 +1142,23 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
         mailboxStore = ImapMailboxStore.get(sessMbox, sessMbox.getAccountId());
         path = session.getPath();
-        // FIXME: NOT RESTORING sequence.msg.sflags PROPERLY -- need to serialize it!!!
         sessionData = sdata;
     }
 
+    /**
+     * Writes {@link #sequence} as columns rather than as one object per message; see
+     * {@link ImapFolderSerializer#writeMessages}.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ImapFolderSerializer.writeMessages(out, sequence);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        sequence = ImapFolderSerializer.readMessages(in);
+    }
+
     @Override
     public void handleTagDelete(int changeId, int tagId, Change chg) {
         dirtyTag(tags.uncache(tagId), changeId, null);
@@ -0,0 +1,465 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.util.ArrayUtil;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Versioned binary form of an {@link ImapFolder} for the IMAP session caches.
+ * <p>
+ * Every record starts with a magic number and a format version, so that an entry a server with a different format
+ * left in a persistent cache is dropped instead of misread. A full record holds the folder attributes, its flag cache
+ * and the message list written as columns (see {@link #writeMessages}).
+ * <p>
+ * A delta record names the cache key of an earlier record of the same folder and holds only the messages that were
+ * changed or appended since that record was written or read. That is the common case for a session that is paged in to
+ * apply a few notifications and paged out again, and it turns the spill into a write of a few bytes per change instead
+ * of a rewrite of the whole folder. Deltas are only written for a store that can hand back the earlier record (see
+ * {@link RecordStore}), at most {@link #MAX_DELTA_CHAIN} deep, and only while the UIDs of the earlier record are still in
+ * place; anything else, such as collapsed expunges, produces a full record. If the earlier record has gone missing when
+ * a delta is read, the delta can't be decoded and the entry is treated as a cache miss.
+ */
+final class ImapFolderSerializer {
+    private static final int MAGIC = 0x49344643; // "I4FC"
+    static final int VERSION = 1;
+
+    private static final int FULL = 0;
+    private static final int DELTA = 1;
+
+    /** longest chain of delta records before a full record is written again */
+    static final int MAX_DELTA_CHAIN = 4;
+
+    /**
+     * A cache that can hand back the raw records it stored, which delta records depend on.
+     */
+    interface RecordStore {
+        /** Returns the record stored under the key, or null if there is none. */
+        byte[] load(String key);
+    }
+
+    private ImapFolderSerializer() {
+    }
+
+    /**
+     * Encodes the folder.
+     *
+     * @param key the key the record will be stored under
+     * @param store the cache the record will be stored in, or null if the record must be self-contained
+     */
+    static byte[] serialize(ImapFolder folder, String key, RecordStore store) throws IOException {
+        List<ImapMessage> sequence = folder.getSequence();
+        Snapshot base = folder.getSnapshot();
+        int[] changed = null;
+        if (store != null && base != null && base.store == store && base.depth < MAX_DELTA_CHAIN) {
+            changed = base.changes(sequence);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + sequence.size() * 6);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        int depth;
+        if (changed == null) {
+            depth = 0;
+            out.writeByte(FULL);
+            writeVarint(out, depth);
+            writeAttributes(out, folder);
+            writeMessages(out, sequence);
+        } else {
+            depth = base.depth + 1;
+            out.writeByte(DELTA);
+            writeVarint(out, depth);
+            out.writeUTF(base.key);
+            writeVarint(out, base.size());
+            writeAttributes(out, folder);
+
+            List<ImapMessage> rows = new ArrayList<ImapMessage>(changed.length + sequence.size() - base.size());
+            for (int pos : changed) {
+                rows.add(sequence.get(pos));
+            }
+            List<ImapMessage> appended = sequence.subList(base.size(), sequence.size());
+            rows.addAll(appended);
+            Map<List<String>, Integer> tagSets = writeTagSets(out, rows);
+
+            writeVarint(out, changed.length);
+            int prevPos = -1;
+            for (int pos : changed) {
+                writeVarint(out, pos - prevPos - 1);
+                writeRow(out, sequence.get(pos), tagSets);
+                prevPos = pos;
+            }
+            writeVarint(out, appended.size());
+            int prevUid = base.size() == 0 ? 0 : sequence.get(base.size() - 1).imapUid;
+            for (ImapMessage i4msg : appended) {
+                writeVarint(out, zigzag(i4msg.imapUid - prevUid));
+                writeRow(out, i4msg, tagSets);
+                prevUid = i4msg.imapUid;
+            }
+        }
+        out.flush();
+
+        folder.setSnapshot(store == null ? null : new Snapshot(store, key, depth, sequence));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record written by {@link #serialize}.
+     *
+     * @param key the key the record was stored under
+     * @param store the cache the record was stored in, used to look up the records a delta depends on; null if the
+     *  record must be self-contained
+     * @throws InvalidObjectException if the record is not in this format, or is a delta whose earlier records are gone
+     */
+    static ImapFolder deserialize(byte[] data, String key, RecordStore store) throws IOException {
+        return read(data, key, store, 0);
+    }
+
+    private static ImapFolder read(byte[] data, String key, RecordStore store, int chained) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 6 || in.readInt() != MAGIC) {
+            throw new InvalidObjectException("not a serialized IMAP folder");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new InvalidObjectException("unsupported IMAP folder format version " + version);
+        }
+        int kind = in.readUnsignedByte();
+        int depth = readVarint(in);
+        String baseKey = null;
+        int baseSize = 0;
+        if (kind == DELTA) {
+            baseKey = in.readUTF();
+            baseSize = readVarint(in);
+        } else if (kind != FULL) {
+            throw new InvalidObjectException("unknown IMAP folder record type " + kind);
+        }
+
+        int folderId = readVarint(in);
+        int uidValidity = in.readInt();
+        String query = in.readBoolean() ? in.readUTF() : null;
+        Set<MailItem.Type> typeConstraint = readTypes(in);
+        ImapFlagCache tags = readFlags(in);
+
+        List<ImapMessage> sequence;
+        if (kind == FULL) {
+            sequence = readMessages(in);
+        } else {
+            if (store == null || chained >= MAX_DELTA_CHAIN) {
+                throw new InvalidObjectException("can't resolve delta against " + baseKey);
+            }
+            byte[] baseData = store.load(baseKey);
+            if (baseData == null) {
+                throw new InvalidObjectException("missing base record " + baseKey);
+            }
+            ImapFolder base = read(baseData, baseKey, store, chained + 1);
+            sequence = base.getSequence();
+            if (sequence.size() != baseSize || base.getId() != folderId || base.getUIDValidity() != uidValidity) {
+                throw new InvalidObjectException("base record " + baseKey + " does not match");
+            }
+
+            String[][] tagSets = readTagSets(in);
+            int numChanged = readVarint(in);
+            int pos = -1;
+            for (int i = 0; i < numChanged; i++) {
+                pos += readVarint(in) + 1;
+                if (pos >= baseSize) {
+                    throw new InvalidObjectException("bad message position " + pos);
+                }
+                sequence.set(pos, readRow(in, sequence.get(pos).imapUid, pos + 1, tagSets));
+            }
+            int numAppended = readVarint(in);
+            int uid = baseSize == 0 ? 0 : sequence.get(baseSize - 1).imapUid;
+            for (int i = 0; i < numAppended; i++) {
+                uid += unzigzag(readVarint(in));
+                sequence.add(readRow(in, uid, sequence.size() + 1, tagSets));
+            }
+        }
+
+        ImapFolder folder = new ImapFolder(folderId, uidValidity, query, typeConstraint, tags, sequence);
+        if (chained == 0 && store != null) {
+            folder.setSnapshot(new Snapshot(store, key, depth, sequence));
+        }
+        return folder;
+    }
+
+    private static void writeAttributes(DataOutputStream out, ImapFolder folder) throws IOException {
+        writeVarint(out, folder.getId());
+        out.writeInt(folder.getUIDValidity());
+        out.writeBoolean(folder.isVirtual());
+        if (folder.isVirtual()) {
+            out.writeUTF(folder.getQuery());
+        }
+
+        Set<MailItem.Type> types = folder.getTypeConstraint();
+        writeVarint(out, types.size());
+        for (MailItem.Type type : types) {
+            out.writeByte(type.toByte());
+        }
+
+        List<ImapFlag> flags = new ArrayList<ImapFlag>();
+        for (ImapFlag i4flag : folder.getTagset()) {
+            flags.add(i4flag);
+        }
+        writeVarint(out, flags.size());
+        for (ImapFlag i4flag : flags) {
+            out.writeUTF(i4flag.mName);
+            out.writeUTF(i4flag.mImapName);
+            writeVarint(out, zigzag(i4flag.mId));
+            out.writeLong(i4flag.mBitmask);
+            out.writeByte((i4flag.mPositive ? 1 : 0) | (i4flag.mPermanent ? 2 : 0) | (i4flag.mListed ? 4 : 0));
+        }
+    }
+
+    private static Set<MailItem.Type> readTypes(DataInput in) throws IOException {
+        int count = readVarint(in);
+        Set<MailItem.Type> types = EnumSet.noneOf(MailItem.Type.class);
+        for (int i = 0; i < count; i++) {
+            types.add(MailItem.Type.of(in.readByte()));
+        }
+        // share the default rather than holding a copy per folder
+        return types.equals(ImapHandler.ITEM_TYPES) ? ImapHandler.ITEM_TYPES : types;
+    }
+
+    private static ImapFlagCache readFlags(DataInput in) throws IOException {
+        ImapFlagCache tags = new ImapFlagCache();
+        int count = readVarint(in);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String imapName = in.readUTF();
+            int id = unzigzag(readVarint(in));
+            long bitmask = in.readLong();
+            int bits = in.readUnsignedByte();
+            tags.cache(new ImapFlag(name, imapName, id, bitmask, (bits & 1) != 0, (bits & 2) != 0, (bits & 4) != 0));
+        }
+        return tags;
+    }
+
+    /**
+     * Writes the messages as columns rather than as one object per message: a table of the distinct tag sets, then per
+     * message its UID as the difference from the previous UID, its item ID as the offset from its UID (usually 0), its
+     * flags and session flags, and an index into the tag set table. All numbers are varints, so a typical message takes
+     * a few bytes.
+     */
+    static void writeMessages(DataOutput out, List<ImapMessage> sequence) throws IOException {
+        Map<List<String>, Integer> tagSets = writeTagSets(out, sequence);
+        writeVarint(out, sequence.size());
+        int prevUid = 0;
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, zigzag(i4msg.imapUid - prevUid));
+            writeRow(out, i4msg, tagSets);
+            prevUid = i4msg.imapUid;
+        }
+    }
+
+    /**
+     * Reads messages written by {@link #writeMessages}, numbering them from 1.
+     */
+    static List<ImapMessage> readMessages(DataInput in) throws IOException {
+        String[][] tagSets = readTagSets(in);
+        int size = readVarint(in);
+        List<ImapMessage> sequence = new ArrayList<ImapMessage>(size);
+        int uid = 0;
+        for (int i = 0; i < size; i++) {
+            uid += unzigzag(readVarint(in));
+            sequence.add(readRow(in, uid, i + 1, tagSets));
+        }
+        return sequence;
+    }
+
+    private static Map<List<String>, Integer> writeTagSets(DataOutput out, List<ImapMessage> messages)
+            throws IOException {
+        Map<List<String>, Integer> tagSets = new LinkedHashMap<List<String>, Integer>();
+        for (ImapMessage i4msg : messages) {
+            if (!ArrayUtil.isEmpty(i4msg.tags)) {
+                List<String> key = Arrays.asList(i4msg.tags);
+                if (!tagSets.containsKey(key)) {
+                    tagSets.put(key, tagSets.size() + 1);
+                }
+            }
+        }
+        writeVarint(out, tagSets.size());
+        for (List<String> tagSet : tagSets.keySet()) {
+            writeVarint(out, tagSet.size());
+            for (String tag : tagSet) {
+                out.writeUTF(tag);
+            }
+        }
+        return tagSets;
+    }
+
+    private static String[][] readTagSets(DataInput in) throws IOException {
+        String[][] tagSets = new String[readVarint(in) + 1][];
+        for (int i = 1; i < tagSets.length; i++) {
+            tagSets[i] = new String[readVarint(in)];
+            for (int j = 0; j < tagSets[i].length; j++) {
+                tagSets[i][j] = in.readUTF();
+            }
+        }
+        return tagSets;
+    }
+
+    private static void writeRow(DataOutput out, ImapMessage i4msg, Map<List<String>, Integer> tagSets)
+            throws IOException {
+        writeVarint(out, zigzag(i4msg.msgId - i4msg.imapUid));
+        writeVarint(out, i4msg.flags);
+        writeVarint(out, i4msg.sflags & 0xFFFF);
+        writeVarint(out, ArrayUtil.isEmpty(i4msg.tags) ? 0 : tagSets.get(Arrays.asList(i4msg.tags)));
+    }
+
+    private static ImapMessage readRow(DataInput in, int uid, int seq, String[][] tagSets) throws IOException {
+        int msgId = uid + unzigzag(readVarint(in));
+        int flags = readVarint(in);
+        short sflags = (short) readVarint(in);
+        int tagSet = readVarint(in);
+        if (tagSet >= tagSets.length) {
+            throw new InvalidObjectException("bad tag set index " + tagSet);
+        }
+        // messages with the same tags share one array
+        ImapMessage i4msg = new ImapMessage(msgId, MailItem.Type.MESSAGE, uid, flags, tagSets[tagSet]);
+        i4msg.sflags = sflags;
+        i4msg.sequence = seq;
+        return i4msg;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(DataOutput out, int n) throws IOException {
+        while ((n & ~0x7F) != 0) {
+            out.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new InvalidObjectException("malformed varint");
+    }
+
+    /**
+     * What a delta against the record a folder was last written to or read from needs to know: the UIDs in the record,
+     * which have to be unchanged, and the columns {@link #writeRow} wrote for each message, to find the rows that
+     * changed. Tag arrays are shared with the messages, as they are replaced rather than modified.
+     */
+    static final class Snapshot {
+        final RecordStore store;
+        final String key;
+        final int depth;
+        private final int[] uids;
+        private final int[] msgIds;
+        private final int[] flags;
+        private final short[] sflags;
+        private final String[][] tags;
+
+        Snapshot(RecordStore store, String key, int depth, List<ImapMessage> sequence) {
+            this.store = store;
+            this.key = key;
+            this.depth = depth;
+            int size = sequence.size();
+            uids = new int[size];
+            msgIds = new int[size];
+            flags = new int[size];
+            sflags = new short[size];
+            tags = new String[size][];
+            for (int i = 0; i < size; i++) {
+                ImapMessage i4msg = sequence.get(i);
+                uids[i] = i4msg.imapUid;
+                msgIds[i] = i4msg.msgId;
+                flags[i] = i4msg.flags;
+                sflags[i] = i4msg.sflags;
+                tags[i] = i4msg.tags;
+            }
+        }
+
+        int size() {
+            return uids.length;
+        }
+
+        /**
+         * Returns the positions of the messages that differ from the snapshot, or null if the sequence can't be written
+         * as a delta against it, or if a full record would be about as small.
+         */
+        int[] changes(List<ImapMessage> sequence) {
+            int size = uids.length;
+            if (sequence.size() < size) {
+                return null;
+            }
+            int[] changed = new int[Math.min(size, 16)];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                ImapMessage i4msg = sequence.get(i);
+                if (i4msg.imapUid != uids[i]) {
+                    return null;
+                }
+                if (!sameRow(i4msg, i)) {
+                    if (count > size / 2) {
+                        return null;
+                    }
+                    if (count == changed.length) {
+                        changed = Arrays.copyOf(changed, count * 2);
+                    }
+                    changed[count++] = i;
+                }
+            }
+            return Arrays.copyOf(changed, count);
+        }
+
+        /** Compares the columns {@link #writeRow} writes. */
+        private boolean sameRow(ImapMessage i4msg, int i) {
+            return i4msg.msgId == msgIds[i] && i4msg.flags == flags[i] && i4msg.sflags == sflags[i] &&
+                    (i4msg.tags == tags[i] || sameTags(i4msg.tags, tags[i]));
+        }
+
+        private static boolean sameTags(String[] tags1, String[] tags2) {
+            if (ArrayUtil.isEmpty(tags1)) {
+                return ArrayUtil.isEmpty(tags2);
+            }
+            return Arrays.equals(tags1, tags2);
+        }
+    }
+}
@@ -18,10 +18,13 @@ package com.zimbra.cs.imap;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -30,6 +33,9 @@ import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimePart;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.ZimbraMailItem;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
@@ -37,7 +43,12 @@ import com.zimbra.common.util.InputStreamWithSize;
 import com.zimbra.common.util.StartOutOfBoundsException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.MailboxBlob;
+import com.zimbra.cs.store.file.VolumeMailboxBlob;
 
 class ImapPartSpecifier {
     static class BinaryDecodingException extends Exception {
@@ -182,9 +193,67 @@ class ImapPartSpecifier {
 
     void write(PrintStream ps, OutputStream os, ZimbraMailItem zmi)
     throws IOException, BinaryDecodingException, ServiceException {
+        if (os instanceof NioOutputStream && (command.equals("BODY") || command.equals("RFC822")) &&
+                zmi instanceof Message && LC.imap_zero_copy_fetch.booleanValue() &&
+                transferBlob(ps, (NioOutputStream) os, (Message) zmi)) {
+            return;
+        }
         write(ps, os, new ZimbraMailItemGettableInputStreamWithSize(zmi));
     }
 
+    /**
+     * Sends the message as a file region straight from its blob file, without copying it through the heap. Only
+     * uncompressed blobs on a local volume qualify, and only when nothing between us and the socket needs to see the
+     * bytes (no SSL, SASL or compression).
+     *
+     * @return false, without having written anything, if the message has to go through the regular path instead
+     */
+    private boolean transferBlob(PrintStream ps, NioOutputStream os, Message msg) throws IOException, ServiceException {
+        MailboxBlob mblob = msg.getBlob();
+        if (!(mblob instanceof VolumeMailboxBlob)) {
+            return false; // no blob, or an external store
+        }
+        return transferBlob(ps, os, mblob.getLocalBlob(), msg.getSize());
+    }
+
+    @VisibleForTesting
+    boolean transferBlob(PrintStream ps, NioOutputStream os, Blob blob, long size) throws IOException {
+        if (!os.canTransferFrom() || blob == null || blob.isCompressed() || blob.getFile().length() != size) {
+            return false;
+        }
+        long start = 0, length = size;
+        if (octetStart >= 0) {
+            if (octetStart > size) {
+                return false; // let the regular path deal with it
+            }
+            start = octetStart;
+            length = Math.max(0, Math.min(size, octetEnd) - octetStart);
+        }
+        FileChannel channel;
+        try {
+            channel = new FileInputStream(blob.getFile()).getChannel();
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        boolean handedOver = false;
+        try {
+            ps.print(this);
+            ps.write(' ');
+            ps.print("{");
+            ps.print(length);
+            ps.write('}');   /* } added to fix vim buggy brace matching code */
+            os.write(ImapHandler.LINE_SEPARATOR_BYTES);
+            handedOver = true; // from here on the stream closes the channel, even if the transfer fails
+            os.transferFrom(channel, start, length);
+        } finally {
+            if (!handedOver) {
+                Closeables.closeQuietly(channel);
+            }
+        }
+        return true;
+    }
+
     void write(PrintStream ps, OutputStream os, MimeMessage mimeMsg)
     throws IOException, BinaryDecodingException, ServiceException {
         write(ps, os, new MimeMessageGettableInputStreamWithSize(mimeMsg));
@@ -51,7 +51,7 @@ public final class TcpImapServer extends TcpServer implements ImapServer, Realti
 
     /**
      * Implementation of {@link RealtimeStatsCallback} that returns the number
-     * of active handlers and number of threads for this server.
+     * of active handlers, threads and busy threads for this server.
      */
     @Override
     public Map<String, Object> getStatData() {
@@ -59,9 +59,11 @@ public final class TcpImapServer extends TcpServer implements ImapServer, Realti
         if (getConfig().isSslEnabled()) {
             data.put(ZimbraPerf.RTS_IMAP_SSL_CONN, numActiveHandlers());
             data.put(ZimbraPerf.RTS_IMAP_SSL_THREADS, numThreads());
+            data.put(ZimbraPerf.RTS_IMAP_SSL_BUSY_THREADS, numBusyThreads());
         } else {
             data.put(ZimbraPerf.RTS_IMAP_CONN, numActiveHandlers());
             data.put(ZimbraPerf.RTS_IMAP_THREADS, numThreads());
+            data.put(ZimbraPerf.RTS_IMAP_BUSY_THREADS, numBusyThreads());
         }
         return data;
     }
@@ -19,8 +19,11 @@ package com.zimbra.cs.index;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
@@ -49,6 +52,7 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.NoSuchDirectoryException;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 
 import com.google.common.base.Objects;
@@ -67,6 +71,7 @@ import com.zimbra.cs.mailbox.Folder;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxIndex;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
 
@@ -376,15 +381,9 @@ public final class LuceneIndex extends IndexStore {
      */
     @Override
     public synchronized ZimbraIndexSearcher openSearcher() throws IOException {
-        IndexSearcherImpl searcher = null;
-        if (mailbox.isGalSyncMailbox()) {
-            searcher = GAL_SEARCHER_CACHE.get(mailbox.getId());
-        } else {
-            searcher = SEARCHER_CACHE.getIfPresent(mailbox.getId());
-        }
+        IndexSearcherImpl searcher = getCachedSearcher();
         if (searcher != null) {
             ZimbraLog.search.debug("CacheHitLuceneSearcher %s", searcher);
-            searcher.inc();
             return searcher;
         }
 
@@ -420,6 +419,61 @@ public final class LuceneIndex extends IndexStore {
         return searcher;
     }
 
+    /**
+     * Returns the cached searcher with its reference count incremented, or null if there is none.
+     */
+    private IndexSearcherImpl getCachedSearcher() {
+        IndexSearcherImpl searcher;
+        if (mailbox.isGalSyncMailbox()) {
+            searcher = GAL_SEARCHER_CACHE.get(mailbox.getId());
+        } else {
+            searcher = SEARCHER_CACHE.getIfPresent(mailbox.getId());
+        }
+        // the cache may have closed it since we looked it up
+        return searcher != null && searcher.tryInc() ? searcher : null;
+    }
+
+    /**
+     * Brings the cached searcher, if any, up to date with the last commit. Only the segments added since the cached
+     * reader was opened are loaded; unchanged segments are shared with the old reader, which is closed once the
+     * searches still using it are done.
+     */
+    private synchronized void refreshSearcher() {
+        IndexSearcherImpl searcher = getCachedSearcher();
+        if (searcher == null) {
+            return; // the next search opens a new one
+        }
+        try {
+            IndexSearcherImpl newSearcher = searcher.reopen();
+            if (newSearcher == null) {
+                return;
+            }
+            boolean replaced;
+            if (mailbox.isGalSyncMailbox()) {
+                replaced = GAL_SEARCHER_CACHE.replace(mailbox.getId(), searcher, newSearcher);
+                if (replaced) {
+                    searcher.close(); // the reference held by the cache
+                }
+            } else {
+                // Bug: 69870
+                // No need to close the previous value associated with the key here.
+                // CacheBuilder sends a callback using removalListener onRemoval(..)
+                // which eventually closes IndexSearcher
+                replaced = SEARCHER_CACHE.asMap().replace(mailbox.getId(), searcher, newSearcher);
+            }
+            if (replaced) {
+                newSearcher.takePermit(searcher);
+            } else {
+                newSearcher.close(); // evicted meanwhile
+            }
+        } catch (IOException e) {
+            ZimbraLog.search.warn("Failed to reopen IndexSearcher %s", searcher, e);
+            evict();
+        } finally {
+            Closeables.closeQuietly(searcher);
+        }
+    }
+
     /**
      * Check to see if it is OK for us to create an index in the specified directory.
      *
@@ -521,7 +575,7 @@ public final class LuceneIndex extends IndexStore {
             mailbox.index.submit(task); // merge must run in background
             success = true;
         } catch (RejectedExecutionException e) {
-            ZimbraLog.index.warn("Skipping merge because all index threads are busy");
+            ZimbraLog.index.warn("Skipping merge because the index queue is full");
         } finally {
             if (!success) {
                 writerInfo.getWriterRef().dec();
@@ -799,30 +853,7 @@ public final class LuceneIndex extends IndexStore {
         @Override
         public void close() throws IOException {
             writer.index.commitWriter();
-            ZimbraIndexSearcher searcher = null;
-            if (writer.getIndex().mailbox.isGalSyncMailbox()) {
-                searcher = GAL_SEARCHER_CACHE.get(writer.getIndex().mailbox.getId());
-            } else {
-                searcher = SEARCHER_CACHE.getIfPresent(writer.getIndex().mailbox.getId());
-            }
-            if (searcher != null) {
-                ZimbraLuceneIndexReader ndxReader = (ZimbraLuceneIndexReader)searcher.getIndexReader();
-                IndexReader newReader = IndexReader.openIfChanged(ndxReader.getLuceneReader(), true);
-                if (newReader != null) {
-                    if (writer.getIndex().mailbox.isGalSyncMailbox()) {
-                        //make sure that we close the previous value associated with the key
-                        Closeables.closeQuietly(GAL_SEARCHER_CACHE.put(writer.getIndex().mailbox.getId(),
-                                new IndexSearcherImpl(newReader)));
-                    } else {
-                        // Bug: 69870
-                        // No need to close the previous value associated with the key here.
-                        // CacheBuilder sends a callback using removalListener onRemoval(..)
-                        // which eventually closes IndexSearcher
-                        SEARCHER_CACHE.asMap().put(writer.getIndex().mailbox.getId(),
-                            new IndexSearcherImpl(newReader));
-                    }
-                }
-            }
+            writer.index.refreshSearcher();
         }
 
         @Override
@@ -943,10 +974,17 @@ public final class LuceneIndex extends IndexStore {
      */
     private static final class IndexSearcherImpl implements ZimbraIndexSearcher {
         private final AtomicInteger count = new AtomicInteger(1);
+        // whether this searcher holds a READER_THROTTLE permit; a reopened searcher takes over the one of its predecessor
+        private final AtomicBoolean permit;
         private final IndexSearcher luceneSearcher;
         private final ZimbraIndexReader luceneReader;
 
         IndexSearcherImpl(IndexReader reader) {
+            this(reader, true);
+        }
+
+        private IndexSearcherImpl(IndexReader reader, boolean permit) {
+            this.permit = new AtomicBoolean(permit);
             luceneSearcher = new IndexSearcher(reader);
             luceneReader = new ZimbraLuceneIndexReader(luceneSearcher.getIndexReader());
         }
@@ -955,6 +993,67 @@ public final class LuceneIndex extends IndexStore {
             count.incrementAndGet();
         }
 
+        /**
+         * Increments the reference count unless this searcher has already been closed.
+         */
+        boolean tryInc() {
+            while (true) {
+                int current = count.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns a new searcher on the latest commit, or null if the index hasn't changed. The new searcher starts
+         * with one reference and no reader permit; see {@link #takePermit(IndexSearcherImpl)}.
+         */
+        IndexSearcherImpl reopen() throws IOException {
+            IndexReader oldReader = luceneSearcher.getIndexReader();
+            long start = ZimbraPerf.STOPWATCH_IDX_READER_REOPEN.start();
+            IndexReader newReader = IndexReader.openIfChanged(oldReader, true);
+            if (newReader == null) {
+                return null;
+            }
+            ZimbraPerf.STOPWATCH_IDX_READER_REOPEN.stop(start);
+
+            // unchanged segments share their core, even if their deletions changed
+            List<IndexReader> segments = new ArrayList<IndexReader>();
+            ReaderUtil.gatherSubReaders(segments, oldReader);
+            Set<Object> oldCores = new HashSet<Object>();
+            for (IndexReader segment : segments) {
+                oldCores.add(segment.getCoreCacheKey());
+            }
+            segments.clear();
+            ReaderUtil.gatherSubReaders(segments, newReader);
+            int reused = 0, loaded = 0;
+            for (IndexReader segment : segments) {
+                if (oldCores.contains(segment.getCoreCacheKey())) {
+                    reused++;
+                } else {
+                    loaded++;
+                }
+            }
+            ZimbraPerf.COUNTER_IDX_READER_SEGMENTS_REUSED.increment(reused);
+            ZimbraPerf.COUNTER_IDX_READER_SEGMENTS_LOADED.increment(loaded);
+            ZimbraLog.search.debug("ReopenLuceneSearcher reused=%d,loaded=%d,elapsed=%d",
+                    reused, loaded, System.currentTimeMillis() - start);
+            return new IndexSearcherImpl(newReader, false);
+        }
+
+        /**
+         * Takes over the reader permit of the searcher this one replaced.
+         */
+        void takePermit(IndexSearcherImpl previous) {
+            if (previous.permit.getAndSet(false)) {
+                permit.set(true);
+            }
+        }
+
         @Override
         public void close() throws IOException {
             if (count.decrementAndGet() == 0) {
@@ -963,7 +1062,9 @@ public final class LuceneIndex extends IndexStore {
                     Closeables.closeQuietly(luceneSearcher);
                 } finally {
                     Closeables.closeQuietly(getIndexReader());
-                    READER_THROTTLE.release();
+                    if (permit.getAndSet(false)) {
+                        READER_THROTTLE.release();
+                    }
                 }
             }
         }
@@ -24,6 +24,8 @@ import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraLmtpExposeVers
 import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraLmtpNumThreads;
 import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraLmtpPermanentFailureWhenOverQuota;
 import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraLmtpShutdownGraceSeconds;
+import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraMailDiskStreamingThreshold;
+import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraMtaMaxMessageSize;
 import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraMtaRecipientDelimiter;
 import static com.zimbra.common.account.ZAttrProvisioning.A_zimbraLmtpLHLORequired;
 
@@ -40,6 +42,8 @@ public class LmtpConfig extends ServerConfig {
 
     private static final String PROTOCOL = "LMTP";
     private static final int MAX_IDLE_TIME = 300; // seconds
+    private static final int DEFAULT_MAX_MESSAGE_SIZE = 100 * 1024 * 1024;
+    private static final int DEFAULT_DISK_STREAMING_THRESHOLD = 1024 * 1024;
 
     public static final LmtpConfig INSTANCE = new LmtpConfig();
 
@@ -122,4 +126,28 @@ public class LmtpConfig extends ServerConfig {
     public boolean isLHLORequired(){
         return getBooleanAttr(A_zimbraLmtpLHLORequired, true);
     }
+
+    /**
+     * @return maximum message size where 0 means "no limit"
+     */
+    public long getMaxMessageSize() {
+        try {
+            return getGlobalConfig().getLongAttr(A_zimbraMtaMaxMessageSize, DEFAULT_MAX_MESSAGE_SIZE);
+        } catch (ServiceException e) {
+            getLog().warn("Unable to get global attribute: " + A_zimbraMtaMaxMessageSize, e);
+            return DEFAULT_MAX_MESSAGE_SIZE;
+        }
+    }
+
+    /**
+     * @return size above which an incoming message is spooled to disk instead of being held in memory
+     */
+    public int getDiskStreamingThreshold() {
+        try {
+            return getLocalServer().getMailDiskStreamingThreshold();
+        } catch (ServiceException e) {
+            getLog().warn("Unable to get server attribute: " + A_zimbraMailDiskStreamingThreshold, e);
+            return DEFAULT_DISK_STREAMING_THRESHOLD;
+        }
+    }
 }
@@ -29,11 +29,14 @@ import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
-import com.zimbra.cs.server.ProtocolHandler;
 import com.zimbra.cs.server.ServerThrottle;
 import com.zimbra.cs.stats.ZimbraPerf;
 
-public abstract class LmtpHandler extends ProtocolHandler {
+/**
+ * Protocol logic of an LMTP connection, shared by the thread-per-connection and the NIO servers. The transport is
+ * left to subclasses.
+ */
+public abstract class LmtpHandler {
     // Connection specific data
     final LmtpConfig config;
     protected LmtpWriter mWriter;
@@ -51,7 +54,6 @@ public abstract class LmtpHandler extends ProtocolHandler {
     protected boolean lhloIssuedAfterStartTLS;
 
     LmtpHandler(LmtpServer server) {
-        super(server instanceof TcpLmtpServer ? (TcpLmtpServer) server : null);
         config = server.getConfig();
         throttle = ServerThrottle.getThrottle(config.getProtocol());
     }
@@ -77,15 +79,19 @@ public abstract class LmtpHandler extends ProtocolHandler {
         return true;
     }
 
-    @Override
     protected void notifyIdleConnection() {
         sendReply(LmtpReply.TIMEOUT);
     }
 
-    @Override
-    protected boolean authenticate() {
-        // LMTP doesn't need auth.
-        return true;
+    /**
+     * Closes any input/output streams with the client. May get called multiple times.
+     */
+    protected abstract void dropConnection();
+
+    /**
+     * Marks the connection as waiting for the next command, or busy processing one.
+     */
+    protected void setIdle(boolean idle) {
     }
 
     protected boolean processCommand(String cmd) throws IOException {
@@ -430,10 +436,17 @@ public abstract class LmtpHandler extends ProtocolHandler {
             sendReply(LmtpReply.NO_RECIPIENTS);
             return;
         }
+        startDATA();
         sendReply(LmtpReply.OK_TO_SEND_DATA);
         continueDATA();
     }
 
+    /**
+     * Called after {@code DATA} has been accepted, but before the client is told to go ahead.
+     */
+    protected void startDATA() {
+    }
+
     protected abstract void continueDATA() throws IOException;
 
     protected void processMessageData(LmtpMessageInputStream in) {
@@ -456,6 +469,17 @@ public abstract class LmtpHandler extends ProtocolHandler {
         }
     }
 
+    /**
+     * Answers every recipient with {@code reply} when the message can't be delivered to any of them, e.g. because it
+     * was too large to be read.
+     */
+    protected void rejectMessageData(LmtpReply reply) {
+        for (int i = mEnvelope.getRecipients().size(); i > 0; i--) {
+            sendReply(reply);
+        }
+        reset();
+    }
+
     private void finishMessageData(long size) {
         int numRecipients = mEnvelope.getRecipients().size();
         ZimbraPerf.COUNTER_LMTP_RCVD_MSGS.increment();
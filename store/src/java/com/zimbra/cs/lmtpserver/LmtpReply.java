@@ -53,6 +53,7 @@ public enum LmtpReply {
     NO_SUCH_USER(550, "5.1.1", "No such user here"),
     PERMANENT_MESSAGE_REFUSED(550, "5.7.1", "Message rejected"),
     PERMANENT_FAILURE_OVER_QUOTA(552, "5.2.2", "Over quota"),
+    MESSAGE_TOO_LARGE(552, "5.3.4", "Message size exceeds fixed maximum message size"),
     PERMANENT_FAILURE(554, "5.0.0", "Permanent message delivery failure");
     
     private int mCode;
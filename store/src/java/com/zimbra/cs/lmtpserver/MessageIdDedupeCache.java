@@ -0,0 +1,245 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.zimbra.common.stats.Counter;
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Remembers which mailboxes a Message-ID has been delivered to.
+ * <p>
+ * The entries are kept in a {@link ConcurrentLinkedHashMap}, so that concurrent deliveries of different messages
+ * don't wait for each other, and {@link #setLimits} resizes it in place with {@code setCapacity()}. The cache holds
+ * up to {@code maxSize} entries, least recently used ones going first, and, if a timeout is set, entries also expire
+ * that long after the Message-ID was first seen.
+ */
+final class MessageIdDedupeCache {
+    private static final int FILE_MAGIC = 0x4C444443; // "LDDC"
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_SAVED_ID_LENGTH = 16 * 1024;
+
+    private final ConcurrentLinkedHashMap<String, Entry> map;
+    private final Counter hitRate = new Counter();
+    private volatile int maxSize;
+    private volatile long timeoutMillis;
+
+    /**
+     * @param timeoutMillis how long entries are kept, or 0 to keep them until evicted by size
+     */
+    MessageIdDedupeCache(int maxSize, long timeoutMillis) {
+        this.maxSize = Math.max(maxSize, 0);
+        this.timeoutMillis = Math.max(timeoutMillis, 0);
+        map = new ConcurrentLinkedHashMap.Builder<String, Entry>().maximumWeightedCapacity(this.maxSize).build();
+    }
+
+    void setLimits(int maxSize, long timeoutMillis) {
+        this.maxSize = Math.max(maxSize, 0);
+        this.timeoutMillis = Math.max(timeoutMillis, 0);
+        map.setCapacity(this.maxSize);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Returns true if the Message-ID was delivered to the mailbox, and counts the lookup towards the hit rate.
+     */
+    boolean contains(String msgid, int mailboxId) {
+        Entry entry = get(msgid, System.currentTimeMillis());
+        boolean hit = entry != null && entry.contains(mailboxId);
+        hitRate.increment(hit ? 100 : 0);
+        return hit;
+    }
+
+    void add(String msgid, int mailboxId) {
+        long now = System.currentTimeMillis();
+        Entry entry = get(msgid, now);
+        if (entry == null) {
+            Entry created = new Entry(now);
+            entry = map.putIfAbsent(msgid, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        entry.add(mailboxId);
+    }
+
+    void remove(String msgid, int mailboxId) {
+        Entry entry = map.get(msgid);
+        if (entry != null) {
+            entry.remove(mailboxId);
+        }
+    }
+
+    /**
+     * Returns the number of Message-IDs in the cache, including any that have expired but not been purged yet.
+     */
+    int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the percentage of {@link #contains} calls that found a duplicate.
+     */
+    double getHitRate() {
+        return hitRate.getAverage();
+    }
+
+    /**
+     * Writes the cache to the file, via a temporary file so that a crash can't leave a truncated one behind.
+     */
+    void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            // least recently used first; looking them up in that order leaves the order as it was
+            for (String msgid : map.ascendingKeySet()) {
+                Entry entry = map.get(msgid);
+                if (entry == null || msgid.length() > MAX_SAVED_ID_LENGTH) {
+                    continue; // writeUTF() can't take a huge one, and it's no real Message-ID anyway
+                }
+                int[] mailboxIds = entry.getMailboxIds();
+                out.writeBoolean(true);
+                out.writeUTF(msgid);
+                out.writeLong(entry.created);
+                out.writeInt(mailboxIds.length);
+                for (int id : mailboxIds) {
+                    out.writeInt(id);
+                }
+            }
+            out.writeBoolean(false);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Adds the entries saved in the file that haven't expired yet.
+     */
+    void load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("unrecognized dedupe cache file " + file);
+            }
+            long now = System.currentTimeMillis();
+            while (in.readBoolean()) {
+                String msgid = in.readUTF();
+                Entry entry = new Entry(in.readLong());
+                int size = in.readInt();
+                if (size < 0) {
+                    throw new EOFException();
+                }
+                for (int i = 0; i < size; i++) {
+                    entry.add(in.readInt());
+                }
+                if (!expired(entry, now)) {
+                    map.put(msgid, entry);
+                }
+            }
+        } finally {
+            ByteUtil.closeStream(in);
+        }
+    }
+
+    private Entry get(String msgid, long now) {
+        Entry entry = map.get(msgid);
+        if (entry != null && expired(entry, now)) {
+            map.remove(msgid, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean expired(Entry entry, long now) {
+        long timeout = timeoutMillis;
+        return timeout > 0 && now - entry.created >= timeout;
+    }
+
+    /**
+     * IDs of the mailboxes a Message-ID was delivered to, usually just one.
+     */
+    private static final class Entry {
+        final long created;
+        private int[] mailboxIds = new int[1];
+        private int size;
+
+        Entry(long created) {
+            this.created = created;
+        }
+
+        synchronized boolean contains(int id) {
+            for (int i = 0; i < size; i++) {
+                if (mailboxIds[i] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void add(int id) {
+            if (contains(id)) {
+                return;
+            }
+            if (size == mailboxIds.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(mailboxIds, 0, grown, 0, size);
+                mailboxIds = grown;
+            }
+            mailboxIds[size++] = id;
+        }
+
+        synchronized void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (mailboxIds[i] == id) {
+                    mailboxIds[i] = mailboxIds[--size];
+                    return;
+                }
+            }
+        }
+
+        synchronized int[] getMailboxIds() {
+            int[] copy = new int[size];
+            System.arraycopy(mailboxIds, 0, copy, 0, size);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.RecoverableProtocolDecoderException;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.util.BufferStream;
+
+/**
+ * Decodes LMTP commands into {@link String} lines, and the message following an accepted {@code DATA} command into a
+ * {@link BufferStream} that ends with {@code CRLF.CRLF}. The message is spooled to disk once it outgrows the disk
+ * threshold. A message over the size limit is read up to its terminator and dropped, and the decoder emits
+ * {@link LmtpReply#MESSAGE_TOO_LARGE} in its place. The handler owns the emitted {@link BufferStream} and has to close
+ * it.
+ * <p>
+ * The decoder can't tell by itself whether {@code DATA} was accepted, so the handler sets {@link #DATA} on the session
+ * before it replies 354. Clients have to wait for that reply before sending the message (RFC 2920), so the attribute
+ * is always in place by the time the first byte of the message arrives. An instance keeps per-session state and must
+ * not be shared.
+ */
+final class NioLmtpDecoder extends CumulativeProtocolDecoder {
+    static final String DATA = NioLmtpDecoder.class.getName() + ".DATA";
+
+    // message terminator scanner states
+    private static final int MID_LINE = 0;
+    private static final int CR = 1;
+    private static final int LINE_START = 2;
+    private static final int DOT = 3;
+    private static final int DOT_CR = 4;
+
+    private final int maxLineLength;
+    private final long maxMessageSize; // 0 means no limit
+    private final int diskThreshold;
+    private boolean reading; // reading a message
+    private BufferStream data; // null while reading a message that is too large
+    private long size;
+    private int state;
+    private boolean discarding; // skipping the rest of a line that was too long
+
+    NioLmtpDecoder(int maxLineLength, long maxMessageSize, int diskThreshold) {
+        this.maxLineLength = maxLineLength;
+        this.maxMessageSize = maxMessageSize;
+        this.diskThreshold = diskThreshold;
+    }
+
+    @Override
+    protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+        if (!reading && session.removeAttribute(DATA) != null) {
+            reading = true;
+            data = new BufferStream(0, diskThreshold);
+            size = 0;
+            state = LINE_START; // the CRLF of the DATA command counts
+        }
+        return reading ? decodeData(in, out) : decodeLine(in, out);
+    }
+
+    private boolean decodeLine(IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) != '\n') {
+                continue;
+            }
+            if (discarding || i - start > maxLineLength) {
+                discarding = false;
+                in.position(i + 1);
+                throw new RecoverableProtocolDecoderException("line too long");
+            }
+            int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+            byte[] line = new byte[end - start];
+            in.position(start);
+            in.get(line);
+            in.position(i + 1);
+            out.write(new String(line, Charsets.ISO_8859_1));
+            return true;
+        }
+        if (discarding || limit - start > maxLineLength) {
+            discarding = true;
+            in.position(limit);
+        }
+        return false;
+    }
+
+    /**
+     * Copies message bytes out of the cumulative buffer as they arrive, so that a large message is scanned only once.
+     */
+    private boolean decodeData(IoBuffer in, ProtocolDecoderOutput out) {
+        int start = in.position();
+        int end = start;
+        boolean complete = false;
+        while (end < in.limit() && !complete) {
+            complete = advance(in.get(end++));
+        }
+        append(in, start, end);
+        in.position(end);
+        if (!complete) {
+            return false;
+        }
+        reading = false;
+        if (data != null) {
+            out.write(data);
+            data = null;
+        } else {
+            out.write(LmtpReply.MESSAGE_TOO_LARGE);
+        }
+        return true;
+    }
+
+    private void append(IoBuffer in, int start, int end) {
+        size += end - start;
+        if (data == null) { // already too large, skip to the terminator
+            return;
+        }
+        if (maxMessageSize > 0 && size > maxMessageSize) {
+            data.close();
+            data = null;
+            return;
+        }
+        if (in.hasArray()) {
+            data.write(in.array(), in.arrayOffset() + start, end - start);
+        } else {
+            byte[] chunk = new byte[end - start];
+            in.position(start);
+            in.get(chunk);
+            data.write(chunk, 0, chunk.length);
+        }
+    }
+
+    /**
+     * Follows the same rules as {@link LmtpMessageInputStream}.
+     *
+     * @return true if {@code b} completes {@code CRLF.CRLF}
+     */
+    private boolean advance(byte b) {
+        switch (state) {
+            case LINE_START:
+                state = b == '.' ? DOT : b == '\r' ? CR : b == '\n' ? LINE_START : MID_LINE;
+                return false;
+            case DOT:
+                state = b == '\r' ? DOT_CR : MID_LINE;
+                return false;
+            case DOT_CR:
+                if (b == '\n') {
+                    return true;
+                }
+                state = b == '\r' ? CR : MID_LINE;
+                return false;
+            case CR:
+                state = b == '\n' ? LINE_START : b == '\r' ? CR : MID_LINE;
+                return false;
+            default:
+                state = b == '\r' ? CR : MID_LINE;
+                return false;
+        }
+    }
+
+    @Override
+    public void dispose(IoSession session) throws Exception {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+        super.dispose(session);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.mina.filter.codec.RecoverableProtocolDecoderException;
+
+import com.zimbra.common.util.BufferStream;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.server.NioConnection;
+import com.zimbra.cs.server.NioHandler;
+
+final class NioLmtpHandler extends LmtpHandler implements NioHandler {
+    private final NioConnection connection;
+
+    NioLmtpHandler(NioLmtpServer server, NioConnection conn) {
+        super(server);
+        connection = conn;
+        mWriter = new LmtpWriter(conn.getOutputStream());
+    }
+
+    @Override
+    public void connectionOpened() throws IOException {
+        reset();
+        if (!setupConnection(connection.getRemoteAddress().getAddress())) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void connectionClosed() throws IOException {
+        connection.close();
+    }
+
+    @Override
+    public void connectionIdle() {
+        ZimbraLog.lmtp.debug("idle connection");
+        notifyIdleConnection();
+        dropConnection();
+    }
+
+    @Override
+    public void messageReceived(Object msg) throws IOException {
+        if (msg instanceof BufferStream) { // the message following DATA, terminator included
+            processMessageData((BufferStream) msg);
+        } else if (msg instanceof LmtpReply) { // the message following DATA was refused by the decoder
+            rejectMessageData((LmtpReply) msg);
+        } else if (!processCommand((String) msg)) {
+            dropConnection();
+        }
+    }
+
+    private void processMessageData(BufferStream data) {
+        InputStream in = null;
+        try {
+            in = data.getInputStream();
+            processMessageData(new LmtpMessageInputStream(in, getAdditionalHeaders()));
+        } catch (IOException e) {
+            ZimbraLog.lmtp.warn("unable to read back the message", e);
+            rejectMessageData(LmtpReply.TEMPORARY_FAILURE);
+        } finally {
+            ByteUtil.closeStream(in);
+            data.close();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(Throwable e) throws IOException {
+        if (e instanceof javax.net.ssl.SSLException) {
+            ZimbraLog.lmtp.error("Error detected by SSL subsystem, dropping connection:" + e);
+            dropConnection();
+        } else if (e instanceof RecoverableProtocolDecoderException) {
+            doSyntaxError();
+        }
+    }
+
+    @Override
+    public void dropConnection() {
+        if (!connection.isOpen()) {
+            return;
+        }
+        mWriter.close();
+        connection.close();
+    }
+
+    @Override
+    public void setLoggingContext() {
+        ZimbraLog.addIpToContext(mRemoteAddress);
+    }
+
+    @Override
+    protected void startDATA() {
+        connection.setAttribute(NioLmtpDecoder.DATA, Boolean.TRUE);
+    }
+
+    @Override
+    protected void continueDATA() {
+        // the decoder hands over the message once the terminating CRLF.CRLF has arrived
+    }
+
+    @Override
+    protected void doSTARTTLS(String arg) {
+        if (arg != null) {
+            sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
+            return;
+        }
+        connection.startTls();
+        sendReply(LmtpReply.READY_TO_START_TLS);
+        startedTLS = true;
+    }
+}
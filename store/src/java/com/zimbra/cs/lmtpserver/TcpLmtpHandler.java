@@ -26,75 +26,107 @@ import javax.net.ssl.SSLSocketFactory;
 import com.zimbra.common.io.TcpServerInputStream;
 import com.zimbra.common.util.NetUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.server.ProtocolHandler;
 
-public class TcpLmtpHandler extends LmtpHandler {
+public class TcpLmtpHandler extends ProtocolHandler {
     private TcpServerInputStream inputStream;
+    private final HandlerDelegate delegate;
 
-    TcpLmtpHandler(LmtpServer server) {
+    TcpLmtpHandler(TcpLmtpServer server) {
         super(server);
+        delegate = new HandlerDelegate(server);
     }
 
     @Override
     protected boolean setupConnection(Socket connection) throws IOException {
-        reset();
+        delegate.reset();
         inputStream = new TcpServerInputStream(connection.getInputStream());
-        mWriter = new LmtpWriter(connection.getOutputStream());
-        return setupConnection(connection.getInetAddress());
+        delegate.mWriter = new LmtpWriter(connection.getOutputStream());
+        return delegate.setupConnection(connection.getInetAddress());
     }
 
     @Override
-    protected synchronized void dropConnection() {
-        ZimbraLog.addIpToContext(mRemoteAddress);
-        try {
-            if (inputStream != null) {
-                inputStream.close();
-                inputStream = null;
-            }
-            if (mWriter != null) {
-                mWriter.close();
-                mWriter = null;
-            }
-        } catch (IOException e) {
-            if (ZimbraLog.lmtp.isDebugEnabled()) {
-                ZimbraLog.lmtp.info("I/O error while closing connection", e);
-            } else {
-                ZimbraLog.lmtp.info("I/O error while closing connection: " + e);
-            }
-        } finally {
-            ZimbraLog.clearContext();
-        }
+    protected boolean authenticate() {
+        // LMTP doesn't need auth.
+        return true;
+    }
+
+    @Override
+    protected void notifyIdleConnection() {
+        delegate.notifyIdleConnection();
+    }
+
+    @Override
+    protected void dropConnection() {
+        delegate.dropConnection();
     }
 
     @Override
     protected boolean processCommand() throws IOException {
         // make sure that the connection wasn't dropped during a preceding command processing
         if (inputStream != null)
-            return processCommand(inputStream.readLine());
+            return delegate.processCommand(inputStream.readLine());
         return false;
     }
 
-    @Override
-    protected void continueDATA() throws IOException {
-        LmtpMessageInputStream min = new LmtpMessageInputStream(inputStream, getAdditionalHeaders());
-        processMessageData(min);
-    }
-    
-    @Override
+    private final class HandlerDelegate extends LmtpHandler {
+
+        HandlerDelegate(LmtpServer server) {
+            super(server);
+        }
+
+        @Override
+        protected void setIdle(boolean idle) {
+            TcpLmtpHandler.this.setIdle(idle);
+        }
+
+        @Override
+        protected void dropConnection() {
+            synchronized (TcpLmtpHandler.this) {
+                ZimbraLog.addIpToContext(mRemoteAddress);
+                try {
+                    if (inputStream != null) {
+                        inputStream.close();
+                        inputStream = null;
+                    }
+                    if (mWriter != null) {
+                        mWriter.close();
+                        mWriter = null;
+                    }
+                } catch (IOException e) {
+                    if (ZimbraLog.lmtp.isDebugEnabled()) {
+                        ZimbraLog.lmtp.info("I/O error while closing connection", e);
+                    } else {
+                        ZimbraLog.lmtp.info("I/O error while closing connection: " + e);
+                    }
+                } finally {
+                    ZimbraLog.clearContext();
+                }
+            }
+        }
+
+        @Override
+        protected void continueDATA() throws IOException {
+            LmtpMessageInputStream min = new LmtpMessageInputStream(inputStream, getAdditionalHeaders());
+            processMessageData(min);
+        }
+
+        @Override
         protected void doSTARTTLS(String arg) throws IOException {
             if (arg != null) {
-            	sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
+                sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
                 return;
             }
             sendReply(LmtpReply.READY_TO_START_TLS);
             SSLSocketFactory fac = (SSLSocketFactory) SSLSocketFactory.getDefault();
             SSLSocket tlsconn = (SSLSocket) fac.createSocket(connection, connection.getInetAddress().getHostName(),
-                        connection.getPort(), true);
+                    connection.getPort(), true);
             NetUtil.setSSLEnabledCipherSuites(tlsconn, config.getSslExcludedCiphers(), config.getSslIncludedCiphers());
             tlsconn.setUseClientMode(false);
             startHandshake(tlsconn);
             inputStream = new TcpServerInputStream(tlsconn.getInputStream());
             mWriter = new LmtpWriter(tlsconn.getOutputStream());
             startedTLS = true;
+        }
     }
-
 }
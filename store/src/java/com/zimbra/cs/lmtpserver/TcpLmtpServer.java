@@ -51,13 +51,14 @@ public final class TcpLmtpServer extends TcpServer implements LmtpServer, Realti
 
     /**
      * Implementation of {@link RealtimeStatsCallback} that returns the number
-     * of active handlers and number of threads for this server.
+     * of active handlers, threads and busy threads for this server.
      */
     @Override
     public Map<String, Object> getStatData() {
         Map<String, Object> data = new HashMap<String, Object>();
         data.put(ZimbraPerf.RTS_LMTP_CONN, numActiveHandlers());
         data.put(ZimbraPerf.RTS_LMTP_THREADS, numThreads());
+        data.put(ZimbraPerf.RTS_LMTP_BUSY_THREADS, numBusyThreads());
         return data;
     }
 }
@@ -18,16 +18,20 @@
 package com.zimbra.cs.lmtpserver;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,6 +43,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.lmtp.LmtpClient;
 import com.zimbra.common.lmtp.LmtpProtocolException;
@@ -50,9 +56,6 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.BufferStream;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.CopyInputStream;
-import com.zimbra.common.util.LruMap;
-import com.zimbra.common.util.MapUtil;
-import com.zimbra.common.util.TimeoutMap;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Config;
@@ -83,14 +86,16 @@ import com.zimbra.cs.util.Zimbra;
 public class ZimbraLmtpBackend implements LmtpBackend {
 
     private static List<LmtpCallback> callbacks = new CopyOnWriteArrayList<LmtpCallback>();
-    private static Map<String, Set<Integer>> receivedMessageIDs;
+    private static volatile MessageIdDedupeCache dedupeCache;
     private static final Map<Integer, ReentrantLock> mailboxDeliveryLocks = createMailboxDeliveryLocks();
+    private static final int DELIVERY_THREADS = LC.zimbra_lmtp_delivery_threads.intValue();
+    private static final ExecutorService deliveryPool = createDeliveryPool();
 
     private final LmtpConfig config;
 
     public ZimbraLmtpBackend(LmtpConfig lmtpConfig) {
         config = lmtpConfig;
-        checkDedupeCacheSize(); // This initializes receivedMessageIDs
+        checkDedupeCacheSize(); // This initializes dedupeCache
     }
 
     /**
@@ -121,6 +126,22 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         return new MapMaker().makeComputingMap(lockCreator);
     }
 
+    /**
+     * Runs the extra lanes of a multi-recipient delivery. The queue is bounded, and a lane that doesn't fit runs on the
+     * connection's own thread instead.
+     */
+    private static ExecutorService createDeliveryPool() {
+        if (DELIVERY_THREADS <= 0) {
+            return null;
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(DELIVERY_THREADS, DELIVERY_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(DELIVERY_THREADS * 4),
+                new ThreadFactoryBuilder().setNameFormat("LmtpDelivery-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     @Override public LmtpReply getAddressStatus(LmtpAddress address) {
         String addr = address.getEmailAddress();
 
@@ -194,13 +215,7 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         if (msgid == null || msgid.equals(""))
             return false;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds != null && mboxIds.contains(mbox.getId())) {
-                return true;
-            }
-        }
-        return false;
+        return dedupeCache.contains(msgid, mbox.getId());
     }
 
     /**
@@ -223,54 +238,80 @@ public class ZimbraLmtpBackend implements LmtpBackend {
     }
 
     /**
-     * If the configured Message-ID cache size has changed, create a new cache and copy
-     * values from the old one.
+     * Creates the Message-ID cache, or applies the configured size and timeout to it if they have changed.
      */
-    private void checkDedupeCacheSize() {
+    private static void checkDedupeCacheSize() {
+        int cacheSize = 0;
+        long entryTimeout = 0;
         try {
             Config config = Provisioning.getInstance().getConfig();
-            int cacheSize = config.getMessageIdDedupeCacheSize();
-            long entryTimeout = config.getMessageIdDedupeCacheTimeout();
-            synchronized (ZimbraLmtpBackend.class) {
-                Map<String, Set<Integer>> newMap = null;
-                if (receivedMessageIDs == null) {
-                    // if non-zero entry timeout is specified then use a timeout map, else use an lru map
-                    receivedMessageIDs = entryTimeout == 0 ?
-                            new LruMap<String, Set<Integer>>(cacheSize) :
-                            new TimeoutMap<String, Set<Integer>>(entryTimeout);
-                } else if (receivedMessageIDs instanceof LruMap) {
-                    if (entryTimeout != 0) {
-                        // change to a timeout map
-                        newMap = MapUtil.newTimeoutMap(entryTimeout);
-                    } else if (((LruMap) receivedMessageIDs).getMaxSize() != cacheSize) {
-                        // adjust lru map size
-                        newMap = MapUtil.newLruMap(cacheSize);
-                    }
-                } else if (receivedMessageIDs instanceof TimeoutMap) {
-                    if (entryTimeout == 0) {
-                        // change to a lru map
-                        newMap = MapUtil.newLruMap(cacheSize);
-                    } else {
-                        ((TimeoutMap) receivedMessageIDs).setTimeout(entryTimeout);
-                    }
-                }
-                if (newMap != null) {
-                    // Copy entries from the old map to the new one.  The old map
-                    // is iterated in order from least-recently accessed to last accessed.
-                    // If the new map size is smaller, we'll get the latest entries.
-                    newMap.putAll(receivedMessageIDs);
-                    receivedMessageIDs = newMap;
-                }
-            }
+            cacheSize = config.getMessageIdDedupeCacheSize();
+            entryTimeout = config.getMessageIdDedupeCacheTimeout();
         } catch (ServiceException e) {
             ZimbraLog.lmtp.warn("Unable to update dedupe cache size.", e);
-            // create an empty lru map if it doesn't exist already.
+            if (dedupeCache != null) {
+                return;
+            }
+        }
+        MessageIdDedupeCache cache = dedupeCache;
+        if (cache == null) {
             synchronized (ZimbraLmtpBackend.class) {
-                if (receivedMessageIDs == null) {
-                    receivedMessageIDs = new LruMap<String, Set<Integer>>(0);
+                if (dedupeCache == null) {
+                    cache = new MessageIdDedupeCache(cacheSize, entryTimeout);
+                    loadDedupeCache(cache);
+                    dedupeCache = cache;
                 }
+                return;
             }
         }
+        if (cache.getMaxSize() != cacheSize || cache.getTimeout() != entryTimeout) {
+            cache.setLimits(cacheSize, entryTimeout);
+        }
+    }
+
+    private static File getDedupeCacheFile() {
+        String path = LC.zimbra_lmtp_dedupe_cache_file.value();
+        return Strings.isNullOrEmpty(path) ? null : new File(path);
+    }
+
+    private static void loadDedupeCache(MessageIdDedupeCache cache) {
+        File file = getDedupeCacheFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            cache.load(file);
+            ZimbraLog.lmtp.info("Loaded %d Message-IDs from %s", cache.size(), file);
+        } catch (IOException e) {
+            ZimbraLog.lmtp.warn("Unable to load dedupe cache from %s", file, e);
+        }
+    }
+
+    /**
+     * Saves the Message-ID cache to {@code zimbra_lmtp_dedupe_cache_file}, if set, so that it is still there after a
+     * restart.
+     */
+    public static void saveDedupeCache() {
+        File file = getDedupeCacheFile();
+        MessageIdDedupeCache cache = dedupeCache;
+        if (file == null || cache == null) {
+            return;
+        }
+        try {
+            cache.save(file);
+        } catch (IOException e) {
+            ZimbraLog.lmtp.warn("Unable to save dedupe cache to %s", file, e);
+        }
+    }
+
+    public static int getDedupeCacheSize() {
+        MessageIdDedupeCache cache = dedupeCache;
+        return cache != null ? cache.size() : 0;
+    }
+
+    public static double getDedupeCacheHitRate() {
+        MessageIdDedupeCache cache = dedupeCache;
+        return cache != null ? cache.getHitRate() : 0;
     }
 
     private void addToDedupeCache(ParsedMessage pm, Mailbox mbox) {
@@ -280,26 +321,17 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         if (msgid == null || msgid.equals(""))
             return;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds == null) {
-                mboxIds = new HashSet<Integer>();
-                receivedMessageIDs.put(msgid, mboxIds);
-            }
-            mboxIds.add(mbox.getId());
-        }
+        dedupeCache.add(msgid, mbox.getId());
     }
 
-    private void removeFromDedupeCache(String msgid, Mailbox mbox) {
-        if (mbox == null || Strings.isNullOrEmpty(msgid))
+    private void removeFromDedupeCache(ParsedMessage pm, Mailbox mbox) {
+        if (pm == null || mbox == null)
+            return;
+        String msgid = getMessageID(pm);
+        if (Strings.isNullOrEmpty(msgid))
             return;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds != null) {
-                mboxIds.remove(mbox.getId());
-            }
-        }
+        dedupeCache.remove(msgid, mbox.getId());
     }
 
     private enum DeliveryAction {
@@ -417,7 +449,6 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         throws ServiceException, IOException {
 
         List<LmtpAddress> recipients = env.getLocalRecipients();
-        String envSender = env.getSender().getEmailAddress();
 
         boolean shared = recipients.size() > 1;
         List<Integer> targetMailboxIds = new ArrayList<Integer>(recipients.size());
@@ -530,177 +561,17 @@ public class ZimbraLmtpBackend implements LmtpBackend {
             sharedDeliveryCtxt.setIncomingBlob(blob);
 
             // We now know which addresses are valid and which ParsedMessage
-            // version each recipient needs.  Deliver!
-            for (LmtpAddress recipient : recipients) {
-                String rcptEmail = recipient.getEmailAddress();
-                LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+            // version each recipient needs.  Deliver!  Recipients are taken one at a time until
+            // the message has been stored once, so that the others link to that blob.
+            int next = 0;
+            while (next < recipients.size() && sharedDeliveryCtxt.isFirst()) {
+                LmtpAddress recipient = recipients.get(next++);
                 RecipientDetail rd = rcptMap.get(recipient);
-                if (rd.account != null)
-                    ZimbraLog.addAccountNameToContext(rd.account.getName());
-                if (rd.mbox != null)
-                    ZimbraLog.addMboxToContext(rd.mbox.getId());
-
-                boolean success = false;
-                try {
-                    if (rd != null) {
-                        switch (rd.action) {
-                        case discard:
-                            ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
-                                    envSender, rcptEmail);
-                            if (rd.account.getPrefMailForwardingAddress() != null) {
-                                // mail forwarding is set up
-                                for (LmtpCallback callback : callbacks) {
-                                    ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                    callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
-                                }
-                            }
-                            reply = LmtpReply.DELIVERY_OK;
-                            break;
-                        case deliver:
-                            Account account = rd.account;
-                            Mailbox mbox = rd.mbox;
-                            ParsedMessage pm = rd.pm;
-                            List<ItemId> addedMessageIds = null;
-                            ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
-                            boolean acquiredLock;
-                            try {
-                                // Wait for the lock, up to the timeout
-                                acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-                            } catch (InterruptedException e) {
-                                acquiredLock = false;
-                            }
-                            if (!acquiredLock) {
-                                ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
-                                        envSender, rcptEmail);
-                                reply = LmtpReply.TEMPORARY_FAILURE;
-                                break;
-                            }
-                            try {
-                                if (dedupe(pm, mbox)) {
-                                    // message was already delivered to this mailbox
-                                    ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
-                                } else if (mbox.dedupeForSelfMsg(pm)) {
-                                    ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
-                                        pm.getMessageID());
-
-                                } else if (recipient.getSkipFilters()) {
-                                    msgId = pm.getMessageID();
-                                    int folderId = Mailbox.ID_FOLDER_INBOX;
-                                    if (recipient.getFolder() != null) {
-                                        try {
-                                            Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
-                                            folderId = folder.getId();
-                                        } catch (ServiceException se) {
-                                            if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
-                                                Folder folder = mbox.createFolder(null, recipient.getFolder(),
-                                                        new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
-                                                folderId = folder.getId();
-                                            } else {
-                                                throw se;
-                                            }
-                                        }
-                                    }
-                                    int flags = Flag.BITMASK_UNREAD;
-                                    if (recipient.getFlags() != null) {
-                                        flags = Flag.toBitmask(recipient.getFlags());
-                                    }
-                                    DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
-                                    dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
-                                    Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                    addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                                } else if (!DebugConfig.disableIncomingFilter) {
-                                    // Get msgid first, to avoid having to reopen and reparse the blob
-                                    // file if Mailbox.addMessageInternal() closes it.
-                                    pm.getMessageID();
-                                    addedMessageIds = RuleManager.applyRulesToIncomingMessage(
-                                            null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
-                                            Mailbox.ID_FOLDER_INBOX, false, true);
-                                } else {
-                                    pm.getMessageID();
-                                    DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
-                                    dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
-                                    Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                    addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                                }
-                                success = true;
-                                if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                    addToDedupeCache(pm, mbox);
-                                }
-                            } finally {
-                                lock.unlock();
-                            }
-
-                            if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                // Execute callbacks
-                                for (LmtpCallback callback : callbacks) {
-                                    for (ItemId id : addedMessageIds) {
-                                        if (id.belongsTo(mbox)) {
-                                            // Message was added to the local mailbox, as opposed to a mountpoint.
-                                            ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                            try {
-                                                Message msg = mbox.getMessageById(null, id.getId());
-                                                callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
-                                            } catch (Throwable t) {
-                                                if (t instanceof OutOfMemoryError) {
-                                                    Zimbra.halt("LMTP callback failed", t);
-                                                } else {
-                                                    ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                            reply = LmtpReply.DELIVERY_OK;
-                            break;
-                        case defer:
-                            // Delivery to mailbox skipped.  Let MTA retry again later.
-                            // This case happens for shared delivery to a mailbox in
-                            // backup mode.
-                            ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
-                                    envSender, rcptEmail);
-                            reply = LmtpReply.TEMPORARY_FAILURE;
-                            break;
-                        }
-                    } else {
-                        // Account or mailbox not found.
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
-                                envSender, rcptEmail);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (DeliveryServiceException e) {
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
-                    reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
-                } catch (ServiceException e) {
-                    if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
-                        if (config.isPermanentFailureWhenOverQuota()) {
-                            reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
-                        } else {
-                            reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
-                        }
-                    } else if (e.isReceiversFault()) {
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                    } else {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (Exception e) {
-                    reply = LmtpReply.TEMPORARY_FAILURE;
-                    ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                } finally {
-                    if (rd.action == DeliveryAction.deliver && !success) {
-                        // Message was not delivered.  Remove it from the dedupe
-                        // cache so we don't dedupe it on LMTP retry.
-                        removeFromDedupeCache(msgId, rd.mbox);
-                    }
-                    recipient.setDeliveryStatus(reply);
-                    if (shared && rd != null && rd.esd) {
-                        rd.mbox.endSharedDelivery();
-                        rd.esd = false;
-                    }
-                }
+                deliverToRecipient(recipient, rd, rd != null ? rd.pm : null, env, blob, sharedDeliveryCtxt);
+            }
+            if (next < recipients.size()) {
+                deliverInParallel(recipients.subList(next, recipients.size()), rcptMap, pmAttachIndex, env, blob, data,
+                        sharedDeliveryCtxt);
             }
 
             // If this message is being streamed from disk, cache it
@@ -735,6 +606,281 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         }
     }
 
+    /**
+     * Delivers to the recipients in up to {@link #DELIVERY_THREADS} + 1 lanes, the first of which runs on the calling
+     * thread. Recipients of the same mailbox share a lane, so they are still delivered to one after another and in
+     * order. The message must already have been stored for an earlier recipient: each lane gets its own copy of the
+     * delivery context and of the {@link ParsedMessage}s, since neither is safe to share between threads.
+     * <p>
+     * Replies go out in recipient order regardless, because the handler reads each recipient's delivery status only
+     * after this returns.
+     */
+    private void deliverInParallel(List<LmtpAddress> recipients, final Map<LmtpAddress, RecipientDetail> rcptMap,
+            final ParsedMessage pmAttachIndex, final LmtpEnvelope env, final Blob blob, final byte[] data,
+            final DeliveryContext sharedDeliveryCtxt) {
+        int numLanes = deliveryPool == null ? 1 : Math.min(DELIVERY_THREADS + 1, recipients.size());
+        List<List<LmtpAddress>> lanes = new ArrayList<List<LmtpAddress>>(numLanes);
+        for (int i = 0; i < numLanes; i++) {
+            lanes.add(new ArrayList<LmtpAddress>());
+        }
+        Map<Integer, Integer> laneByMailbox = new HashMap<Integer, Integer>();
+        for (LmtpAddress recipient : recipients) {
+            RecipientDetail rd = rcptMap.get(recipient);
+            if (rd == null || rd.mbox == null) {
+                lanes.get(0).add(recipient); // nothing to deliver
+                continue;
+            }
+            Integer lane = laneByMailbox.get(rd.mbox.getId());
+            if (lane == null) {
+                lane = laneByMailbox.size() % numLanes;
+                laneByMailbox.put(rd.mbox.getId(), lane);
+            }
+            lanes.get(lane).add(recipient);
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(numLanes - 1);
+        for (final List<LmtpAddress> lane : lanes.subList(1, numLanes)) {
+            if (lane.isEmpty()) {
+                continue;
+            }
+            final DeliveryContext dctxt = new DeliveryContext(sharedDeliveryCtxt.getShared(),
+                    sharedDeliveryCtxt.getMailboxIdList());
+            dctxt.setIncomingBlob(blob).setMailboxBlob(sharedDeliveryCtxt.getMailboxBlob()).setFirst(false);
+            futures.add(deliveryPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ParsedMessage pmAttach = null;
+                    ParsedMessage pmNoAttach = null;
+                    try {
+                        for (LmtpAddress recipient : lane) {
+                            RecipientDetail rd = rcptMap.get(recipient);
+                            ParsedMessage pm = null;
+                            if (rd != null && rd.pm != null) {
+                                if (rd.pm == pmAttachIndex) {
+                                    if (pmAttach == null) {
+                                        pmAttach = new ParsedMessage(
+                                                new ParsedMessageOptions(blob, data).setAttachmentIndexing(true));
+                                    }
+                                    pm = pmAttach;
+                                } else {
+                                    if (pmNoAttach == null) {
+                                        pmNoAttach = new ParsedMessage(
+                                                new ParsedMessageOptions(blob, data).setAttachmentIndexing(false));
+                                    }
+                                    pm = pmNoAttach;
+                                }
+                            }
+                            deliverToRecipient(recipient, rd, pm, env, blob, dctxt);
+                        }
+                    } catch (IOException | ServiceException e) {
+                        ZimbraLog.lmtp.warn("Unable to parse message for delivery", e);
+                        for (LmtpAddress recipient : lane) {
+                            if (recipient.getDeliveryStatus() == null) {
+                                recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+                            }
+                        }
+                    } finally {
+                        ZimbraLog.clearContext();
+                    }
+                }
+            }));
+        }
+
+        for (LmtpAddress recipient : lanes.get(0)) {
+            RecipientDetail rd = rcptMap.get(recipient);
+            deliverToRecipient(recipient, rd, rd != null ? rd.pm : null, env, blob, sharedDeliveryCtxt);
+        }
+        // wait for every lane even if interrupted, since the caller deletes the blob they deliver from
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                ZimbraLog.lmtp.warn("Delivery failed", e.getCause());
+            }
+        }
+        for (LmtpAddress recipient : recipients) {
+            if (recipient.getDeliveryStatus() == null) {
+                recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Delivers to one local recipient and sets its delivery status.
+     *
+     * @param pm the recipient's version of the message, which must not be in use by another thread
+     */
+    private void deliverToRecipient(LmtpAddress recipient, RecipientDetail rd, ParsedMessage pm, LmtpEnvelope env,
+            Blob blob, DeliveryContext dctxt) {
+        String rcptEmail = recipient.getEmailAddress();
+        String envSender = env.getSender().getEmailAddress();
+        LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+        if (rd != null && rd.account != null)
+            ZimbraLog.addAccountNameToContext(rd.account.getName());
+        if (rd != null && rd.mbox != null)
+            ZimbraLog.addMboxToContext(rd.mbox.getId());
+
+        boolean success = false;
+        try {
+            if (rd != null) {
+                switch (rd.action) {
+                case discard:
+                    ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
+                            envSender, rcptEmail);
+                    if (rd.account.getPrefMailForwardingAddress() != null) {
+                        // mail forwarding is set up
+                        for (LmtpCallback callback : callbacks) {
+                            ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                            callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, pm);
+                        }
+                    }
+                    reply = LmtpReply.DELIVERY_OK;
+                    break;
+                case deliver:
+                    Account account = rd.account;
+                    Mailbox mbox = rd.mbox;
+                    List<ItemId> addedMessageIds = null;
+                    ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
+                    boolean acquiredLock;
+                    try {
+                        // Wait for the lock, up to the timeout
+                        acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        acquiredLock = false;
+                    }
+                    if (!acquiredLock) {
+                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
+                                envSender, rcptEmail);
+                        reply = LmtpReply.TEMPORARY_FAILURE;
+                        break;
+                    }
+                    try {
+                        if (dedupe(pm, mbox)) {
+                            // message was already delivered to this mailbox
+                            ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
+                        } else if (mbox.dedupeForSelfMsg(pm)) {
+                            ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
+                                pm.getMessageID());
+
+                        } else if (recipient.getSkipFilters()) {
+                            int folderId = Mailbox.ID_FOLDER_INBOX;
+                            if (recipient.getFolder() != null) {
+                                try {
+                                    Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
+                                    folderId = folder.getId();
+                                } catch (ServiceException se) {
+                                    if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
+                                        Folder folder = mbox.createFolder(null, recipient.getFolder(),
+                                                new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+                                        folderId = folder.getId();
+                                    } else {
+                                        throw se;
+                                    }
+                                }
+                            }
+                            int flags = Flag.BITMASK_UNREAD;
+                            if (recipient.getFlags() != null) {
+                                flags = Flag.toBitmask(recipient.getFlags());
+                            }
+                            DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
+                            dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
+                            Message msg = mbox.addMessage(null, pm, dopt, dctxt);
+                            addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                        } else if (!DebugConfig.disableIncomingFilter) {
+                            // Get msgid first, to avoid having to reopen and reparse the blob
+                            // file if Mailbox.addMessageInternal() closes it.
+                            pm.getMessageID();
+                            addedMessageIds = RuleManager.applyRulesToIncomingMessage(
+                                    null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, dctxt,
+                                    Mailbox.ID_FOLDER_INBOX, false, true);
+                        } else {
+                            pm.getMessageID();
+                            DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+                            dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
+                            Message msg = mbox.addMessage(null, pm, dopt, dctxt);
+                            addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                        }
+                        success = true;
+                        if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                            addToDedupeCache(pm, mbox);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                        // Execute callbacks
+                        for (LmtpCallback callback : callbacks) {
+                            for (ItemId id : addedMessageIds) {
+                                if (id.belongsTo(mbox)) {
+                                    // Message was added to the local mailbox, as opposed to a mountpoint.
+                                    ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                                    try {
+                                        Message msg = mbox.getMessageById(null, id.getId());
+                                        callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
+                                    } catch (Throwable t) {
+                                        if (t instanceof OutOfMemoryError) {
+                                            Zimbra.halt("LMTP callback failed", t);
+                                        } else {
+                                            ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    reply = LmtpReply.DELIVERY_OK;
+                    break;
+                case defer:
+                    // Delivery to mailbox skipped.  Let MTA retry again later.
+                    // This case happens for shared delivery to a mailbox in
+                    // backup mode.
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
+                            envSender, rcptEmail);
+                    reply = LmtpReply.TEMPORARY_FAILURE;
+                    break;
+                }
+            } else {
+                // Account or mailbox not found.
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
+                        envSender, rcptEmail);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (DeliveryServiceException e) {
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
+            reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
+        } catch (ServiceException e) {
+            if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
+                if (config.isPermanentFailureWhenOverQuota()) {
+                    reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
+                } else {
+                    reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                }
+            } else if (e.isReceiversFault()) {
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+            } else {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (Exception e) {
+            reply = LmtpReply.TEMPORARY_FAILURE;
+            ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+        } finally {
+            if (rd != null && rd.action == DeliveryAction.deliver && !success) {
+                // Message was not delivered.  Remove it from the dedupe
+                // cache so we don't dedupe it on LMTP retry.
+                removeFromDedupeCache(pm, rd.mbox);
+            }
+            recipient.setDeliveryStatus(reply);
+            if (rd != null && rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+        }
+    }
+
     private void deliverMessageToRemoteMailboxes(Blob blob, byte[] data, LmtpEnvelope env) {
         Multimap<String, LmtpAddress> serverToRecipientsMap = env.getRemoteServerToRecipientsMap();
         for (String server : serverToRecipientsMap.keySet()) {
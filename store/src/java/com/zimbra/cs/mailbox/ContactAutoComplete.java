@@ -25,6 +25,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
 import com.google.common.base.CharMatcher;
@@ -34,12 +42,15 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.account.Key;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.ContactConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
 import com.zimbra.common.soap.MailConstants;
 import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.common.stats.Histogram;
 import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
@@ -59,6 +70,7 @@ import com.zimbra.cs.index.ZimbraHit;
 import com.zimbra.cs.index.ZimbraQueryResults;
 import com.zimbra.cs.mailbox.Contact.Attachment;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.soap.ZimbraSoapContext;
 import com.zimbra.soap.type.GalSearchType;
 
@@ -69,6 +81,7 @@ public class ContactAutoComplete {
         public boolean canBeCached;
         public final int limit;
         private final List<String> keys;
+        private volatile boolean cancelled; // set when a search running on another thread is no longer waited for
 
         public AutoCompleteResult(int l) {
             entries = new TreeSet<ContactEntry>();
@@ -79,7 +92,7 @@ public class ContactAutoComplete {
 
         public void addEntry(ContactEntry entry) {
             String key = entry.getKey();
-            if (entries.size() >= limit) {
+            if (entries.size() >= limit || cancelled) {
                 canBeCached = false;
                 return;
             }
@@ -111,6 +124,10 @@ public class ContactAutoComplete {
             keys.clear();
         }
 
+        void cancel() {
+            cancelled = true;
+        }
+
     }
 
     public static final class ContactEntry implements Comparable<ContactEntry> {
@@ -329,6 +346,22 @@ public class ContactAutoComplete {
     private static final List<String> DEFAULT_EMAIL_KEYS = ImmutableList.of(
             ContactConstants.A_email, ContactConstants.A_email2, ContactConstants.A_email3);
 
+    private static final ExecutorService executor = createExecutor();
+
+    private static ExecutorService createExecutor() {
+        int threads = LC.contact_autocomplete_threads.intValue();
+        if (threads <= 0) {
+            return null;
+        }
+        // bounded; when it's full, searches run on the request's own thread
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4),
+                new ThreadFactoryBuilder().setNameFormat("AutoComplete-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public ContactAutoComplete(Account acct, OperationContext octxt) {
         this(acct, null, octxt);
     }
@@ -421,21 +454,28 @@ public class ContactAutoComplete {
         List<Folder> listFolders = pFolders.getFirst();
         Map<ItemId, Mountpoint> mountpoints = pFolders.getSecond();
         final String searchContactFolderQuery = generateFolderQuery(listFolders);
+        if (executor != null) {
+            queryInParallel(str, searchContactFolderQuery, mountpoints, limit, result);
+            return result;
+        }
 
         long t0 = System.currentTimeMillis();
         //Search in ranking table first.
         addExistingContactsFromRankingTable(str, searchContactFolderQuery, mountpoints, limit, result);
         long t1 = System.currentTimeMillis();
+        ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_RANKING_MS.increment(t1 - t0);
 
         // search other folders
         if (result.entries.size() < limit) {
             String query = searchContactFolderQuery + generateQuery(str);
             queryFolders(str, query, mountpoints, limit, result);
+            ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_FOLDER_MS.increment(System.currentTimeMillis() - t1);
         }
         long t2 = System.currentTimeMillis();
 
         if (mIncludeGal && result.entries.size() < limit) {
             queryGal(str, result);
+            ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_GAL_MS.increment(System.currentTimeMillis() - t2);
         }
 
         long t3 = System.currentTimeMillis();
@@ -445,6 +485,137 @@ public class ContactAutoComplete {
         return result;
     }
 
+    /**
+     * Searches contact folders and GAL on {@link #executor} while the ranking table is searched on the calling
+     * thread. The results are merged in that order, as each is needed, so that the entries are the same as the
+     * sequential search would return. A search that isn't done by its deadline, or is no longer needed because the
+     * limit has been reached, is abandoned; if it timed out the result is not cacheable, since it may be missing
+     * entries.
+     * <p>
+     * Abandoned searches are not interrupted, which would close the index files they're reading. They stop adding
+     * entries, and a folder search stops at the next hit.
+     */
+    private void queryInParallel(final String str, String folderQuery, final Map<ItemId, Mountpoint> mountpoints,
+            final int limit, AutoCompleteResult result) throws ServiceException {
+        long t0 = System.currentTimeMillis();
+        final String query = folderQuery + generateQuery(str);
+        Source folders = new Source("folder", result.rankings, limit, ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_FOLDER_MS) {
+            @Override
+            void search(AutoCompleteResult sourceResult) throws ServiceException {
+                queryFolders(str, query, mountpoints, limit, sourceResult);
+            }
+        };
+        Source gal = null;
+        if (mIncludeGal) {
+            gal = new Source("gal", result.rankings, limit, ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_GAL_MS) {
+                @Override
+                void search(AutoCompleteResult sourceResult) {
+                    queryGal(str, sourceResult);
+                }
+            };
+        }
+        try {
+            folders.submit();
+            if (gal != null) {
+                gal.submit();
+            }
+
+            addExistingContactsFromRankingTable(str, folderQuery, mountpoints, limit, result);
+            long t1 = System.currentTimeMillis();
+            ZimbraPerf.HISTOGRAM_AUTOCOMPLETE_RANKING_MS.increment(t1 - t0);
+
+            if (result.entries.size() < limit) {
+                folders.mergeInto(result, t0 + LC.contact_autocomplete_folder_timeout_ms.longValue());
+            }
+            long t2 = System.currentTimeMillis();
+
+            if (gal != null && result.entries.size() < limit) {
+                gal.mergeInto(result, t0 + LC.contact_autocomplete_gal_timeout_ms.longValue());
+            }
+            long t3 = System.currentTimeMillis();
+
+            ZimbraLog.gal.info("autocomplete: overall=%dms, ranking=%dms, folder wait=%dms, gal wait=%dms",
+                    t3 - t0, t1 - t0, t2 - t1, t3 - t2);
+        } finally {
+            folders.cancel();
+            if (gal != null) {
+                gal.cancel();
+            }
+        }
+    }
+
+    /**
+     * One of the searches run by {@link #queryInParallel}, collecting into a result of its own.
+     */
+    private abstract class Source implements Callable<AutoCompleteResult> {
+        private final String name;
+        private final AutoCompleteResult result;
+        private final Histogram latency;
+        private final Map<String, String> logContext = ZimbraLog.getContext();
+        private Future<AutoCompleteResult> future;
+
+        Source(String name, ContactRankings rankings, int limit, Histogram latency) {
+            this.name = name;
+            result = new AutoCompleteResult(limit);
+            result.rankings = rankings;
+            this.latency = latency;
+        }
+
+        abstract void search(AutoCompleteResult sourceResult) throws ServiceException;
+
+        @Override
+        public AutoCompleteResult call() throws ServiceException {
+            // may run on the calling thread if the pool is saturated
+            Map<String, String> saved = ZimbraLog.getContext();
+            ZimbraLog.setContext(logContext);
+            long start = System.currentTimeMillis();
+            try {
+                search(result);
+                return result;
+            } finally {
+                latency.increment(System.currentTimeMillis() - start);
+                ZimbraLog.setContext(saved);
+            }
+        }
+
+        void submit() {
+            future = executor.submit(this);
+        }
+
+        /**
+         * Waits until the deadline for the search to finish, then adds its entries to the result.
+         */
+        void mergeInto(AutoCompleteResult merged, long deadline) throws ServiceException {
+            AutoCompleteResult sourceResult;
+            try {
+                sourceResult = future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                ZimbraLog.gal.info("autocomplete: %s search timed out", name);
+                merged.canBeCached = false;
+                return;
+            } catch (InterruptedException e) {
+                throw ServiceException.INTERRUPTED("autocomplete");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ServiceException) {
+                    throw (ServiceException) e.getCause();
+                }
+                throw ServiceException.FAILURE("autocomplete failed", e.getCause());
+            }
+            merged.appendEntries(sourceResult);
+            if (!sourceResult.canBeCached) {
+                merged.canBeCached = false;
+            }
+        }
+
+        void cancel() {
+            if (future != null && !future.isDone()) {
+                result.cancel();
+                future.cancel(false);
+                ZimbraPerf.COUNTER_AUTOCOMPLETE_CANCELLED.increment();
+            }
+        }
+    }
+
     /**
      * ranking table and local contact matches don't have group indicator persisted on them,
      * cross-ref GAL to check if the address is a group.
@@ -803,7 +974,7 @@ public class ContactAutoComplete {
             params.setFetchMode(SearchParams.Fetch.NORMAL);
             ZimbraLog.gal.debug("querying contact folders: %s", params.getQueryString());
             qres = mbox.index.search(SoapProtocol.Soap12, octxt, params);
-            while (qres.hasNext()) {
+            while (qres.hasNext() && !result.cancelled) {
                 ZimbraHit hit = qres.getNext();
                 Map<String,String> fields = null;
                 ItemId id = null;
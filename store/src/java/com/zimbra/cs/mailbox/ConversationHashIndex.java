@@ -0,0 +1,169 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * In-memory copy of a mailbox's rows in the {@code OPEN_CONVERSATION} table, mapping subject and reference hashes to
+ * the id of the {@link Conversation} (or, for a {@link VirtualConversation}, the {@link Message}) they thread to.
+ * <p>
+ * The rows are loaded the first time a hash is looked up. If the mailbox has no more than {@code maxSize} of them, the
+ * index is complete and answers every lookup, including misses, without going to the database. Otherwise, and once
+ * an entry has been evicted to stay within {@code maxSize}, only the most recently used hashes are kept and a hash that
+ * isn't found is looked up in the database.
+ * <p>
+ * {@link DbMailItem} reports every change it makes to the table. A transaction that changed the index and is rolled
+ * back clears it, and the next lookup loads it again.
+ * <p>
+ * In always-on mode other servers write the table too, but only while they hold the mailbox's distributed lock. The
+ * index is therefore only trusted as long as this server has kept the lease it was loaded under, and is loaded again
+ * once another server has taken the lock in between. Without a lease every lookup goes to the database.
+ */
+public final class ConversationHashIndex {
+    private final Mailbox mbox;
+    private final int maxSize;
+    private final Map<String, Integer> hashes;
+    private boolean loaded;
+    private boolean complete;
+    private long lease; // distributed lock lease the index is valid for, in always-on mode
+
+    ConversationHashIndex(Mailbox mbox, final int maxSize) {
+        this.mbox = mbox;
+        this.maxSize = Math.max(maxSize, 0);
+        hashes = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = -6482043150786235148L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                if (size() > ConversationHashIndex.this.maxSize) {
+                    complete = false;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the ids of the items the hashes point to, without duplicates. Must be called in a transaction.
+     */
+    synchronized Set<Integer> lookup(Collection<String> keys) throws ServiceException {
+        if (Zimbra.isAlwaysOn()) {
+            long current = mbox.lock.getDistributedLease();
+            if (current == 0) { // can't tell what other servers have changed
+                ZimbraPerf.COUNTER_MBOX_CONV_HASH_CACHE.increment(0);
+                return new LinkedHashSet<Integer>(DbMailItem.getOpenConversations(mbox, keys).values());
+            } else if (current != lease) {
+                clear();
+                lease = current;
+            }
+        }
+        if (!loaded) {
+            load();
+        }
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        List<String> unknown = null;
+        for (String hash : keys) {
+            Integer id = hashes.get(hash);
+            if (id != null) {
+                ids.add(id);
+            } else if (!complete) {
+                if (unknown == null) {
+                    unknown = new ArrayList<String>(keys.size());
+                }
+                unknown.add(hash);
+            }
+        }
+        ZimbraPerf.COUNTER_MBOX_CONV_HASH_CACHE.increment(unknown == null ? 100 : 0);
+        if (unknown != null) {
+            for (Map.Entry<String, Integer> entry : DbMailItem.getOpenConversations(mbox, unknown).entrySet()) {
+                hashes.put(entry.getKey(), entry.getValue());
+                ids.add(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    private void load() throws ServiceException {
+        Map<String, Integer> rows = DbMailItem.getOpenConversations(mbox, maxSize);
+        complete = rows.size() <= maxSize;
+        hashes.putAll(rows);
+        loaded = true;
+    }
+
+    /**
+     * Called after the hash was pointed at the item.
+     */
+    public synchronized void opened(String hash, int id) {
+        mbox.markOtherItemDirty(this);
+        if (loaded) {
+            hashes.put(hash, id);
+        }
+    }
+
+    /**
+     * Called after the hash was removed if it pointed at the item.
+     */
+    public synchronized void closed(String hash, int id) {
+        mbox.markOtherItemDirty(this);
+        Integer current = hashes.get(hash);
+        if (current != null && current == id) {
+            hashes.remove(hash);
+        }
+    }
+
+    /**
+     * Called after all hashes pointing at one item were pointed at another.
+     */
+    public synchronized void retargeted(int oldId, int newId) {
+        mbox.markOtherItemDirty(this);
+        for (Map.Entry<String, Integer> entry : hashes.entrySet()) {
+            if (entry.getValue() == oldId) {
+                entry.setValue(newId);
+            }
+        }
+    }
+
+    /**
+     * Drops everything. The next lookup loads the index again.
+     */
+    public synchronized void clear() {
+        hashes.clear();
+        loaded = false;
+        complete = false;
+    }
+
+    synchronized int size() {
+        return hashes.size();
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+}
@@ -18,6 +18,7 @@ package com.zimbra.cs.mailbox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -717,6 +718,20 @@ public class Folder extends MailItem implements FolderStore {
                                 mData.size, deletedCount, mData.unreadCount, deletedUnreadCount, totalSize);
     }
 
+    /** Persists the current counts of several folders to the database in
+     *  one batch.  Same as calling {@link #saveFolderCounts(boolean)} with
+     *  <tt>false</tt> on each of them. */
+    static void saveFolderCounts(Mailbox mbox, Collection<Folder> folders) throws ServiceException {
+        Map<Folder, Metadata> counts = new LinkedHashMap<Folder, Metadata>(folders.size() * 2);
+        for (Folder folder : folders) {
+            counts.put(folder, folder.encodeMetadata());
+            ZimbraLog.mailbox.debug("\"%s\": updating folder counts (c%d/d%d/u%d/du%d/s%d)", folder.getName(),
+                                    folder.mData.size, folder.deletedCount, folder.mData.unreadCount,
+                                    folder.deletedUnreadCount, folder.totalSize);
+        }
+        DbMailItem.persistCounts(mbox, counts);
+    }
+
     @Override
     boolean isTaggable() {
         return false;
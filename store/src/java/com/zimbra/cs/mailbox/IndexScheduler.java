@@ -0,0 +1,289 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Runs index tasks on a fixed set of threads.
+ * <p>
+ * Each mailbox has its own bounded queue, and at most one task per mailbox runs at a time. Idle threads pick the
+ * highest {@link Priority} that has work, and within a priority serve mailboxes round-robin: a mailbox goes to the back
+ * of the line each time one of its tasks has run, so a busy mailbox can't starve the others.
+ */
+final class IndexScheduler {
+
+    enum Priority {
+        /** work a search is waiting on */
+        INTERACTIVE,
+        /** catching up with deferred items */
+        BATCH,
+        /** background housekeeping, e.g. merges */
+        BULK
+    }
+
+    private final int maxQueued;
+    private final ThreadFactory threadFactory;
+    private final int numThreads;
+    private boolean started; // guarded by this
+    private final Map<Integer, MailboxQueue> mailboxes = new HashMap<Integer, MailboxQueue>(); // guarded by this
+    // mailboxes that are not running and have work at the given priority, in service order
+    private final Map<Priority, ArrayDeque<MailboxQueue>> ready =
+            new EnumMap<Priority, ArrayDeque<MailboxQueue>>(Priority.class); // guarded by this
+    private int queued; // guarded by this
+
+    /**
+     * @param maxQueued maximum number of tasks waiting per mailbox
+     */
+    IndexScheduler(String name, int numThreads, int maxQueued) {
+        this.numThreads = Math.max(numThreads, 1);
+        this.maxQueued = Math.max(maxQueued, 1);
+        threadFactory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+        for (Priority p : Priority.values()) {
+            ready.put(p, new ArrayDeque<MailboxQueue>());
+        }
+    }
+
+    /**
+     * Starts the worker threads. Called implicitly by the first {@link #submit}.
+     */
+    synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (int i = 0; i < numThreads; i++) {
+            threadFactory.newThread(new Worker()).start();
+        }
+    }
+
+    /**
+     * Queues a task for the mailbox.
+     *
+     * @param coalesce if true and a task of the same class is already waiting for this mailbox, don't add another one;
+     *  the waiting task is moved up to {@code priority} if that is more urgent
+     * @return false if the task was coalesced into a waiting one
+     * @throws RejectedExecutionException if the mailbox already has the maximum number of tasks waiting
+     */
+    synchronized boolean submit(int mailboxId, Runnable task, Priority priority, boolean coalesce) {
+        start();
+        MailboxQueue mq = mailboxes.get(mailboxId);
+        if (mq == null) {
+            mq = new MailboxQueue(mailboxId);
+            mailboxes.put(mailboxId, mq);
+        }
+        if (coalesce) {
+            for (Priority p : Priority.values()) {
+                for (Iterator<Entry> i = mq.queues.get(p).iterator(); i.hasNext();) {
+                    Entry entry = i.next();
+                    if (entry.task.getClass() == task.getClass()) {
+                        if (priority.compareTo(p) < 0) {
+                            i.remove();
+                            unready(mq, p);
+                            mq.queues.get(priority).addLast(entry);
+                            ready(mq, priority);
+                        }
+                        return false;
+                    }
+                }
+            }
+        }
+        if (mq.size() >= maxQueued) {
+            throw new RejectedExecutionException("index queue for mailbox " + mailboxId + " is full");
+        }
+        mq.queues.get(priority).addLast(new Entry(task));
+        queued++;
+        ready(mq, priority);
+        return true;
+    }
+
+    /**
+     * Puts the mailbox in line for the priority if it isn't already, and wakes a worker.
+     */
+    private void ready(MailboxQueue mq, Priority p) {
+        if (!mq.running && !mq.inLine.containsKey(p)) {
+            mq.inLine.put(p, Boolean.TRUE);
+            ready.get(p).addLast(mq);
+            notify();
+        }
+    }
+
+    /**
+     * Takes the mailbox out of line for the priority if it has nothing left there.
+     */
+    private void unready(MailboxQueue mq, Priority p) {
+        if (mq.queues.get(p).isEmpty() && mq.inLine.remove(p) != null) {
+            ready.get(p).remove(mq);
+        }
+    }
+
+    private synchronized Entry take() throws InterruptedException {
+        while (true) {
+            for (Priority p : Priority.values()) {
+                MailboxQueue mq = ready.get(p).pollFirst();
+                if (mq != null) {
+                    Entry entry = mq.queues.get(p).pollFirst();
+                    queued--;
+                    // the mailbox is busy until this task completes; leave every line
+                    for (Priority other : mq.inLine.keySet()) {
+                        if (other != p) {
+                            ready.get(other).remove(mq);
+                        }
+                    }
+                    mq.inLine.clear();
+                    mq.running = true;
+                    entry.mailbox = mq;
+                    return entry;
+                }
+            }
+            wait();
+        }
+    }
+
+    private synchronized void completed(Entry entry) {
+        MailboxQueue mq = entry.mailbox;
+        mq.running = false;
+        if (mq.size() == 0) {
+            mailboxes.remove(mq.id);
+            return;
+        }
+        // back of the line for each priority it still has work at
+        for (Priority p : Priority.values()) {
+            if (!mq.queues.get(p).isEmpty()) {
+                ready(mq, p);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting for the mailbox, not counting a running one.
+     */
+    synchronized int getQueueDepth(int mailboxId) {
+        MailboxQueue mq = mailboxes.get(mailboxId);
+        return mq != null ? mq.size() : 0;
+    }
+
+    /**
+     * Returns how long in milliseconds the oldest waiting task for the mailbox has been waiting, or 0 if none.
+     */
+    synchronized long getQueueAge(int mailboxId) {
+        MailboxQueue mq = mailboxes.get(mailboxId);
+        return mq != null ? age(mq.oldest(), System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Returns the number of tasks waiting across all mailboxes.
+     */
+    synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    /**
+     * Returns how long in milliseconds the oldest waiting task across all mailboxes has been waiting, or 0 if none.
+     */
+    synchronized long getMaxQueueAge() {
+        long now = System.currentTimeMillis();
+        long max = 0;
+        for (MailboxQueue mq : mailboxes.values()) {
+            max = Math.max(max, age(mq.oldest(), now));
+        }
+        return max;
+    }
+
+    private static long age(long since, long now) {
+        return since == Long.MAX_VALUE ? 0 : Math.max(now - since, 0);
+    }
+
+    @VisibleForTesting
+    synchronized boolean isRunning(int mailboxId) {
+        MailboxQueue mq = mailboxes.get(mailboxId);
+        return mq != null && mq.running;
+    }
+
+    private static final class Entry {
+        final Runnable task;
+        final long enqueued = System.currentTimeMillis();
+        MailboxQueue mailbox;
+
+        Entry(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private static final class MailboxQueue {
+        final int id;
+        final Map<Priority, ArrayDeque<Entry>> queues = new EnumMap<Priority, ArrayDeque<Entry>>(Priority.class);
+        final Map<Priority, Boolean> inLine = new EnumMap<Priority, Boolean>(Priority.class);
+        boolean running;
+
+        MailboxQueue(int id) {
+            this.id = id;
+            for (Priority p : Priority.values()) {
+                queues.put(p, new ArrayDeque<Entry>());
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (ArrayDeque<Entry> queue : queues.values()) {
+                size += queue.size();
+            }
+            return size;
+        }
+
+        long oldest() {
+            long oldest = Long.MAX_VALUE;
+            for (ArrayDeque<Entry> queue : queues.values()) {
+                for (Entry entry : queue) {
+                    oldest = Math.min(oldest, entry.enqueued);
+                }
+            }
+            return oldest;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Entry entry;
+                try {
+                    entry = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    entry.task.run();
+                } catch (Throwable t) {
+                    ZimbraLog.index.error("index task failed", t);
+                } finally {
+                    completed(entry);
+                }
+            }
+        }
+    }
+}
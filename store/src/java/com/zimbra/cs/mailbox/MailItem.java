@@ -2005,18 +2005,29 @@ public abstract class MailItem implements Comparable<MailItem>, ScheduledTaskRes
      *  not update the containing folder's IMAP UID highwater mark; that is
      *  done implicitly whenever the folder size increases. */
     void setImapUid(int imapId) throws ServiceException {
-        if (mData.imapId == imapId)
+        if (!updateImapUid(imapId))
             return;
 
+        DbMailItem.saveImapUid(this);
+
+        getFolder().updateUIDNEXT();
+    }
+
+    /** Sets the IMAP UID for the item without persisting it, so that the
+     *  caller can save the UIDs of many items at once via
+     *  {@link DbMailItem#saveImapUids}.  Returns <tt>false</tt> if the
+     *  item already had that UID. */
+    boolean updateImapUid(int imapId) throws ServiceException {
+        if (mData.imapId == imapId)
+            return false;
+
         if (ZimbraLog.mailop.isDebugEnabled()) {
             ZimbraLog.mailop.debug("Setting imapId of %s to %d.", getMailopContext(this), imapId);
         }
         markItemModified(Change.IMAP_UID);
         mData.imapId = imapId;
         metadataChanged();
-        DbMailItem.saveImapUid(this);
-
-        getFolder().updateUIDNEXT();
+        return true;
     }
 
     MailboxBlob setContent(StagedBlob staged, Object content) throws ServiceException, IOException {
@@ -32,6 +32,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -93,6 +94,7 @@ import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.CopyInputStream;
 import com.zimbra.common.util.DateUtil;
+import com.zimbra.common.util.ListUtil;
 import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.SetUtil;
 import com.zimbra.common.util.StringUtil;
@@ -482,6 +484,11 @@ public class Mailbox implements MailboxStore {
         }
 
         void reset() {
+            if (conn != null) {
+                int statements = conn.getPrepareCount();
+                ZimbraPerf.COUNTER_MBOX_TXN_SQL.increment(statements);
+                ZimbraLog.mailbox.debug("  %d SQL statements prepared", statements);
+            }
             DbPool.quietClose(conn);
             this.active = false;
             this.conn = null;
@@ -741,8 +748,8 @@ public class Mailbox implements MailboxStore {
     private FolderCache mFolderCache;
     private Map<Object, Tag> mTagCache;
     private SoftReference<ItemCache> mItemCache = new SoftReference<ItemCache>(null);
-    private final Map<String, Integer> mConvHashes = new ConcurrentLinkedHashMap.Builder<String, Integer>()
-                    .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
+    private final ConversationHashIndex convHashIndex =
+                    new ConversationHashIndex(this, LC.zimbra_mailbox_conv_hash_cache.intValue());
     private final Map<String, Integer> mSentMessageIDs = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
 
@@ -750,6 +757,7 @@ public class Mailbox implements MailboxStore {
     private volatile boolean open = false;
     private boolean galSyncMailbox = false;
     private volatile boolean requiresWriteLock = true;
+    private volatile long foldersTagsLease; // distributed lease folders and tags were last loaded under (always-on)
 
     protected Mailbox(MailboxData data) {
         mId = data.id;
@@ -785,9 +793,23 @@ public class Mailbox implements MailboxStore {
     boolean requiresWriteLock() {
         //mailbox currently forced to use write lock due to one of the following
         //1. pending tag/flag reload; i.e. cache flush or initial mailbox load
-        //2. this is an always on node (distributed lock does not support read/write currently)
+        //2. this is an always on node and folders/tags may have been changed by another server since they were loaded
         //3. read/write disabled by LC for debugging
-        return requiresWriteLock || Zimbra.isAlwaysOn() || !LC.zimbra_mailbox_lock_readwrite.booleanValue();
+        return requiresWriteLock || !LC.zimbra_mailbox_lock_readwrite.booleanValue() ||
+                (Zimbra.isAlwaysOn() && !isFoldersTagsLeaseCurrent());
+    }
+
+    /**
+     * In always-on mode, returns true if this server has held the distributed lock ever since folders and tags were
+     * last loaded, so that no other server can have changed them. Otherwise every transaction has to reload them,
+     * which only a writer may do.
+     */
+    private boolean isFoldersTagsLeaseCurrent() {
+        if (!LC.zimbra_mailbox_distributed_lock_readwrite.booleanValue()) {
+            return false;
+        }
+        long lease = lock.getDistributedLease();
+        return lease != 0 && lease == foldersTagsLease;
     }
 
     /**
@@ -1632,8 +1654,8 @@ public class Mailbox implements MailboxStore {
      *    <li>The {@link Blob} or {@link MailboxBlob} for a newly-created file.
      *    <li>The {@link PendingDelete} holding blobs and index
      *        entries to be cleaned up after a {@link MailItem#deletes}.
-     *    <li>The SHA1 hash of a conversation's subject stored in
-     *        {@link #mConvHashes}.</ul>
+     *    <li>The {@link ConversationHashIndex}, when the transaction changed
+     *        the {@code OPEN_CONVERSATION} table.</ul>
      *
      * @param obj  The relevant object.
      * @see #commitCache(Mailbox.MailboxChange)
@@ -1767,8 +1789,8 @@ public class Mailbox implements MailboxStore {
         if (conn != null) {
             setOperationConnection(conn);
         }
-        if (Zimbra.isAlwaysOn()) {
-            // refresh mailbox stats
+        if (Zimbra.isAlwaysOn() && write) {
+            // refresh mailbox stats; readers only get here if nobody else can have changed them
             MailboxData newData = DbMailbox.getMailboxStats(getOperationConnection(), getId());
             if (newData != null) { // Mailbox may have been deleted
                 mData = newData;
@@ -2116,6 +2138,7 @@ public class Mailbox implements MailboxStore {
                     clearFolderCache();
                     clearTagCache();
                     clearItemCache();
+                    convHashIndex.clear();
                     break;
             }
         } finally {
@@ -2229,7 +2252,8 @@ public class Mailbox implements MailboxStore {
     private void loadFoldersAndTags() throws ServiceException {
         // if the persisted mailbox sizes aren't available, we *must* recalculate
         boolean initial = mData.contacts < 0 || mData.size < 0;
-        if (!Zimbra.isAlwaysOn() || lock.getHoldCount() > 1) {
+        if (!Zimbra.isAlwaysOn() || lock.getHoldCount() > 1 || !lock.isWriteLockedByCurrentThread()) {
+            // an always-on reader only gets a read lock if the caches are current; see requiresWriteLock()
             if (mFolderCache != null && mTagCache != null && !initial) {
                 return;
             }
@@ -2329,6 +2353,9 @@ public class Mailbox implements MailboxStore {
             if (!loadedFromMemcached && !DebugConfig.disableFoldersTagsCache) {
                 cacheFoldersTagsToMemcached();
             }
+            if (Zimbra.isAlwaysOn()) {
+                foldersTagsLease = lock.getDistributedLease();
+            }
             if (requiresWriteLock) {
                 requiresWriteLock = false;
                 ZimbraLog.mailbox.debug("consuming forceWriteMode");
@@ -2451,6 +2478,7 @@ public class Mailbox implements MailboxStore {
                     // remove all traces of the mailbox from the Mailbox cache
                     //   (so anyone asking for the Mailbox gets NO_SUCH_MBOX or creates a fresh new empty one with a different id)
                     MailboxManager.getInstance().markMailboxDeleted(this);
+                    MessageCache.purgeStats(getId());
 
                     // attempt to nuke the store and index
                     try {
@@ -4533,22 +4561,41 @@ public class Mailbox implements MailboxStore {
     }
 
     Conversation getConversationByHash(String hash) throws ServiceException {
-        Conversation conv = null;
-
-        Integer convId = mConvHashes.get(hash);
-        if (convId != null) {
-            conv = getCachedConversation(convId);
-        }
-        if (conv != null) {
-            return conv;
+        return ListUtil.getFirstElement(getConversationsByHash(Collections.singletonList(hash)));
+    }
+
+    /** Returns the open conversations that the subject or reference hashes
+     *  thread to, as recorded in the {@code OPEN_CONVERSATION} table.  The
+     *  table is read through the {@link ConversationHashIndex}, so this
+     *  normally doesn't touch the database.
+     * @return a mutable list without duplicates, possibly empty */
+    List<Conversation> getConversationsByHash(Collection<String> hashes) throws ServiceException {
+        Set<Integer> ids = convHashIndex.lookup(hashes);
+        List<Conversation> convs = new ArrayList<Conversation>(ids.size());
+        for (int id : ids) {
+            MailItem item;
+            try {
+                item = getItemById(id, MailItem.Type.UNKNOWN);
+            } catch (NoSuchItemException e) {
+                continue; // the join in DbMailItem.getByHashes() used to skip these too
+            }
+            Conversation conv = null;
+            if (item instanceof Conversation) {
+                conv = (Conversation) item;
+            } else if (item instanceof Message) {
+                conv = (Conversation) item.getParent();
+            }
+            if (conv != null && !convs.contains(conv)) {
+                convs.add(conv);
+            }
         }
+        return convs;
+    }
 
-        // XXX: why not just do a "getConversationById()" if convId != null?
-        MailItem.UnderlyingData data = DbMailItem.getByHash(this, hash);
-        if (data == null || data.type == MailItem.Type.CONVERSATION.toByte()) {
-            return getConversation(data);
-        }
-        return (Conversation) getMessage(data).getParent();
+    /** Returns the in-memory copy of this mailbox's {@code OPEN_CONVERSATION}
+     *  rows.  {@link DbMailItem} keeps it up to date. */
+    public ConversationHashIndex getConversationHashIndex() {
+        return convHashIndex;
     }
 
     public SenderList getConversationSenderList(int convId) throws ServiceException {
@@ -6411,15 +6458,12 @@ public class Mailbox implements MailboxStore {
     void openConversation(Conversation conv, String subjectHash) throws ServiceException {
         String hash = subjectHash != null ? subjectHash : getHash(conv.getNormalizedSubject());
         conv.open(hash);
-        markOtherItemDirty(hash);
-        mConvHashes.put(hash, Integer.valueOf(conv.getId()));
     }
 
     // please keep this package-visible but not public
     void closeConversation(Conversation conv, String subjectHash) throws ServiceException {
         String hash = subjectHash != null ? subjectHash : getHash(conv.getNormalizedSubject());
         conv.close(hash);
-        mConvHashes.remove(hash);
     }
 
     // please keep this package-visible but not public
@@ -6574,13 +6618,23 @@ public class Mailbox implements MailboxStore {
             beginTransaction("resetImapUid", OperationContext.asOperationContext(octxt), redoRecorder);
             SetImapUid redoPlayer = (SetImapUid) currentChange().getRedoPlayer();
 
-            for (int id : itemIds) {
-                MailItem item = getItemById(id, MailItem.Type.UNKNOWN);
-                int imapId = redoPlayer == null ? ID_AUTO_INCREMENT : redoPlayer.getImapUid(id);
-                item.setImapUid(getNextItemId(imapId));
+            // fetch the uncached items in one go and write the new UIDs in batches rather than item by item
+            MailItem[] items = getItemById(itemIds, MailItem.Type.UNKNOWN);
+            List<MailItem> changed = new ArrayList<MailItem>(items.length);
+            Set<Folder> folders = new HashSet<Folder>();
+            for (MailItem item : items) {
+                int imapId = redoPlayer == null ? ID_AUTO_INCREMENT : redoPlayer.getImapUid(item.getId());
+                if (item.updateImapUid(getNextItemId(imapId))) {
+                    changed.add(item);
+                    folders.add(item.getFolder());
+                }
                 redoRecorder.setImapUid(item.getId(), item.getImapUid());
                 newIds.add(item.getImapUid());
             }
+            DbMailItem.saveImapUids(this, changed);
+            for (Folder folder : folders) {
+                folder.updateUIDNEXT();
+            }
             success = true;
             return newIds;
         } finally {
@@ -9685,13 +9739,15 @@ public class Mailbox implements MailboxStore {
         boolean foldersTagsDirty = false;
         if (currentChange().dirty != null && currentChange().dirty.hasNotifications()) {
             assert(currentChange().writeChange);
+            // folder counts are written in one batch rather than a statement per folder
+            Set<Folder> countsDirty = new LinkedHashSet<Folder>();
             if (currentChange().dirty.created != null) {
                 for (BaseItemInfo item : currentChange().dirty.created.values()) {
                     if (item instanceof Folder) {
                         Folder folder = (Folder) item;
                         foldersTagsDirty = true;
                         if (folder.getSize() != 0) {
-                            folder.saveFolderCounts(false);
+                            countsDirty.add(folder);
                         }
                     } else if (item instanceof Tag) {
                         Tag tag = (Tag) item;
@@ -9708,7 +9764,7 @@ public class Mailbox implements MailboxStore {
                     if (change.what instanceof Folder) {
                         foldersTagsDirty = true;
                         if ((change.why & (Change.UNREAD | Change.SIZE)) != 0) {
-                            ((Folder) change.what).saveFolderCounts(false);
+                            countsDirty.add((Folder) change.what);
                         }
                     } else if (change.what instanceof Tag) {
                         foldersTagsDirty = true;
@@ -9724,6 +9780,7 @@ public class Mailbox implements MailboxStore {
                     }
                 }
             }
+            Folder.saveFolderCounts(this, countsDirty);
 
             if (currentChange().dirty.deleted != null) {
                 for (Change change : currentChange().dirty.deleted.values()) {
@@ -9890,8 +9947,8 @@ public class Mailbox implements MailboxStore {
             for (Object obj : change.otherDirtyStuff) {
                 if (obj instanceof MailboxBlob || obj instanceof Blob) {
                     deletes.add(obj);
-                } else if (obj instanceof String) {
-                    mConvHashes.remove(obj);
+                } else if (obj instanceof ConversationHashIndex) {
+                    ((ConversationHashIndex) obj).clear();
                 }
             }
             return deletes;
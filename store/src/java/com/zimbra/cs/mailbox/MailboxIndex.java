@@ -19,6 +19,7 @@ package com.zimbra.cs.mailbox;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -26,12 +27,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -88,14 +93,18 @@ public final class MailboxIndex {
     private static final int MAX_TX_ITEMS = LC.zimbra_index_max_transaction_items.intValue();
     private static final long FAILURE_DELAY = LC.zimbra_index_deferred_items_failure_delay.intValue() * 1000;
 
-    private static final ThreadPoolExecutor INDEX_EXECUTOR = new ThreadPoolExecutor(
-            LC.zimbra_index_threads.intValue(), LC.zimbra_index_threads.intValue(),
-            Long.MAX_VALUE, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(),
-            new ThreadFactoryBuilder().setNameFormat("Index-%d").setDaemon(true).build());
+    private static final IndexScheduler INDEX_SCHEDULER = new IndexScheduler("Index",
+            LC.zimbra_index_threads.intValue(), LC.zimbra_index_queue_max_per_mailbox.intValue());
     // Re-index threads are created on demand basis. The number of threads are capped.
     private static final ExecutorService REINDEX_EXECUTOR = new ThreadPoolExecutor(
             0, LC.zimbra_reindex_threads.intValue(), 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             new ThreadFactoryBuilder().setNameFormat("ReIndex-%d").setDaemon(true).build());
+    // Fetch and parse items for all running re-indexes; each re-index thread commits its own results.
+    private static final int REINDEX_PARSE_THREADS = LC.zimbra_reindex_parse_threads.intValue();
+    private static final int REINDEX_MAX_PENDING = Math.max(LC.zimbra_reindex_max_pending_items.intValue(), 1);
+    private static final ExecutorService REINDEX_PARSE_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(REINDEX_PARSE_THREADS, 1),
+            new ThreadFactoryBuilder().setNameFormat("ReIndexParse-%d").setDaemon(true).build());
 
     private volatile long lastFailedTime = -1;
     // Only one thread may run index at a time.
@@ -105,6 +114,8 @@ public final class MailboxIndex {
     private IndexStore indexStore;
     // current re-indexing operation for this mailbox, or NULL if a re-index is not in progress.
     private volatile ReIndexTask reIndex;
+    // last re-index that was cancelled or failed, or NULL if the last one completed.
+    private volatile ReIndexTask interruptedReIndex;
     // current compact-indexing operation for this mailbox, or NULL if a compact-index is not in progress.
     private volatile CompactIndexTask compactIndex;
     private volatile SetMultimap<MailItem.Type, Integer> deferredIds; // guarded by IndexHelper
@@ -126,7 +137,7 @@ public final class MailboxIndex {
      * Starts all index threads.
      */
     public static void startup() {
-        INDEX_EXECUTOR.prestartAllCoreThreads();
+        INDEX_SCHEDULER.start();
     }
 
     public static void shutdown() {
@@ -166,13 +177,8 @@ public final class MailboxIndex {
         ZimbraQuery query = new ZimbraQuery(octx, proto, mailbox, params);
         Set<MailItem.Type> types = toIndexTypes(params.getTypes());
         // no need to index if the search doesn't involve Lucene
-        if (!params.isQuick() && query.hasTextOperation() && getDeferredCount(types) > 0) {
-            try {
-                // don't wait if an indexing is in progress by other thread
-                indexDeferredItems(types, new BatchStatus(), false);
-            } catch (ServiceException e) {
-                ZimbraLog.index.error("Failed to index deferred items", e);
-            }
+        if (!params.isQuick() && query.hasTextOperation()) {
+            flushDeferredItems(types);
         }
         return search(query);
     }
@@ -258,14 +264,7 @@ public final class MailboxIndex {
      * Returns true if any of the specified email addresses exists in contacts, otherwise false.
      */
     public boolean existsInContacts(Collection<InternetAddress> addrs) throws IOException {
-        Set<MailItem.Type> types = EnumSet.of(MailItem.Type.CONTACT);
-        if (getDeferredCount(types) > 0) {
-            try {
-                indexDeferredItems(types, new BatchStatus(), false);
-            } catch (ServiceException e) {
-                ZimbraLog.index.error("Failed to index deferred items", e);
-            }
-        }
+        flushDeferredItems(EnumSet.of(MailItem.Type.CONTACT));
 
         ZimbraIndexSearcher searcher = indexStore.openSearcher();
         try {
@@ -322,13 +321,70 @@ public final class MailboxIndex {
     }
 
     /**
-     * Submits a task to {@link #INDEX_EXECUTOR}.
+     * Queues a background task, such as a merge, behind any indexing work for this mailbox.
      *
      * @param task index task
-     * @throws RejectedExecutionException if all index threads are busy
+     * @throws RejectedExecutionException if the index queue for this mailbox is full
      */
     public void submit(IndexTask task) {
-        INDEX_EXECUTOR.submit(task);
+        INDEX_SCHEDULER.submit(mailbox.getId(), task, IndexScheduler.Priority.BULK, false);
+    }
+
+    /**
+     * Queues a batch index of the deferred items, unless one is already waiting for this mailbox.
+     */
+    private void submitBatchIndex(IndexScheduler.Priority priority) {
+        try {
+            INDEX_SCHEDULER.submit(mailbox.getId(), new BatchIndexTask(), priority, true);
+        } catch (RejectedExecutionException e) {
+            ZimbraLog.index.warn("Skipping batch index because the index queue is full");
+        }
+    }
+
+    /**
+     * Indexes deferred items of the given types before a search that needs them. If another thread is already
+     * indexing this mailbox, doesn't wait for it but moves the next batch index for this mailbox ahead of other
+     * mailboxes' batches, so that whatever the other thread leaves behind is picked up promptly.
+     */
+    private void flushDeferredItems(Set<MailItem.Type> types) {
+        if (getDeferredCount(types) == 0) {
+            return;
+        }
+        try {
+            if (!indexDeferredItems(types, new BatchStatus(), false) && !isReIndexInProgress()) {
+                submitBatchIndex(IndexScheduler.Priority.INTERACTIVE);
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.index.error("Failed to index deferred items", e);
+        }
+    }
+
+    /**
+     * Returns the number of index tasks waiting for this mailbox.
+     */
+    public int getQueueDepth() {
+        return INDEX_SCHEDULER.getQueueDepth(mailbox.getId());
+    }
+
+    /**
+     * Returns how long in milliseconds the oldest index task for this mailbox has been waiting, or 0 if none.
+     */
+    public long getQueueAge() {
+        return INDEX_SCHEDULER.getQueueAge(mailbox.getId());
+    }
+
+    /**
+     * Returns the number of index tasks waiting across all mailboxes.
+     */
+    public static int getTotalQueueDepth() {
+        return INDEX_SCHEDULER.getQueueDepth();
+    }
+
+    /**
+     * Returns how long in milliseconds the oldest index task across all mailboxes has been waiting, or 0 if none.
+     */
+    public static long getMaxQueueAge() {
+        return INDEX_SCHEDULER.getMaxQueueAge();
     }
 
     void setIndexingSuspended( boolean suspended) {
@@ -361,11 +417,7 @@ public final class MailboxIndex {
         // If there was a failure, we trigger indexing even if the deferred count is still low.
         if ((lastFailedTime >= 0 && System.currentTimeMillis() - lastFailedTime > FAILURE_DELAY) ||
                 getDeferredCount(EnumSet.noneOf(MailItem.Type.class)) >= getBatchThreshold()) {
-            try {
-                INDEX_EXECUTOR.submit(new BatchIndexTask());
-            } catch (RejectedExecutionException e) {
-                ZimbraLog.index.warn("Skipping batch index because all index threads are busy");
-            }
+            submitBatchIndex(IndexScheduler.Priority.BATCH);
         }
     }
 
@@ -386,20 +438,21 @@ public final class MailboxIndex {
      * @param types item types to index, empty set means all types
      * @param wait if an indexing is in progress by other threads, true to wait for them to complete, false to skip
      * indexing
+     * @return false if indexing was skipped because another thread is indexing
      */
-    private void indexDeferredItems(Set<MailItem.Type> types, BatchStatus status, boolean wait)
+    private boolean indexDeferredItems(Set<MailItem.Type> types, BatchStatus status, boolean wait)
             throws ServiceException {
         assert(mailbox.lock.isUnlocked());
         if ((indexStore != null) && indexStore.isPendingDelete()) {
             ZimbraLog.index.debug("index delete is in progress by other thread, skipping");
-            return;  // No point in indexing if we are going to delete the index
+            return true;  // No point in indexing if we are going to delete the index
         }
 
         if (wait) {
             indexLock.acquireUninterruptibly();
         } else if (!indexLock.tryAcquire()) {
             ZimbraLog.index.debug("index is in progress by other thread, skipping");
-            return;
+            return false;
         }
         lastFailedTime = -1; // reset
         try {
@@ -414,6 +467,7 @@ public final class MailboxIndex {
         } finally {
             indexLock.release();
         }
+        return true;
     }
 
     @VisibleForTesting
@@ -444,6 +498,20 @@ public final class MailboxIndex {
         startReIndexById(ids);
     }
 
+    /**
+     * Resumes the last re-index that was cancelled or failed. A partial re-index restarts from its checkpoint. Items a
+     * full re-index didn't get to are still deferred, so resuming one, or resuming after a restart, indexes the
+     * deferred items without resetting the index again.
+     */
+    public void resumeReIndex() throws ServiceException {
+        ReIndexTask last = interruptedReIndex;
+        if (last != null && last.ids != null) {
+            startReIndex(new ReIndexTask(mailbox, last.getRemainingIds()));
+        } else {
+            startReIndex(new ReIndexTask(mailbox, null, true));
+        }
+    }
+
     private synchronized void startReIndex(ReIndexTask task) throws ServiceException {
         if ((indexStore != null) && indexStore.isPendingDelete()) {
             throw ServiceException.FAILURE("Unable to submit reindex request. Index is pending delete", null);
@@ -509,15 +577,33 @@ public final class MailboxIndex {
 
     private class ReIndexTask extends IndexTask {
         private final Collection<Integer> ids;
+        private final boolean resume;
         private final ReIndexStatus status = new ReIndexStatus();
 
         ReIndexTask(Mailbox mbox, Collection<Integer> ids) {
+            this(mbox, ids, false);
+        }
+
+        /**
+         * @param resume for a full re-index, index what is still deferred without resetting the index first
+         */
+        ReIndexTask(Mailbox mbox, Collection<Integer> ids, boolean resume) {
             super(mbox);
             this.ids = ids;
+            this.resume = resume;
+        }
+
+        /**
+         * Returns the IDs of a partial re-index from its checkpoint on.
+         */
+        List<Integer> getRemainingIds() {
+            List<Integer> list = new ArrayList<Integer>(ids);
+            return new ArrayList<Integer>(list.subList(Math.min(status.getCheckpoint(), list.size()), list.size()));
         }
 
         @Override
         public void exec() {
+            boolean completed = false;
             try {
                 ZimbraLog.index.info("Re-index start");
 
@@ -534,6 +620,7 @@ public final class MailboxIndex {
                 ZimbraLog.index.info("Re-index completed items=%d,failed=%d,elapsed=%d (avg %d ms/item, %d items/sec)",
                         status.getTotal(), status.getFailed(), elapsed, avg, mps);
                 onCompletion();
+                completed = true;
             } catch (ServiceException e) {
                 if (e.getCode() == ServiceException.INTERRUPTED) {
                     ZimbraLog.index.info("Re-index cancelled %s", status);
@@ -547,6 +634,7 @@ public final class MailboxIndex {
             } finally {
                 synchronized (MailboxIndex.this) {
                     reIndex = null;
+                    interruptedReIndex = completed ? null : this;
                 }
             }
         }
@@ -565,7 +653,10 @@ public final class MailboxIndex {
          * mailbox can still be accessed while the re-index is running, albeit at a slower rate.
          */
         void reIndex() throws ServiceException {
-            if (ids == null) { // full re-index
+            if (ids == null && resume) { // pick up a full re-index where it stopped
+                ZimbraLog.index.info("Resuming re-index of deferred items");
+                indexDeferredItems(EnumSet.noneOf(MailItem.Type.class), status, true);
+            } else if (ids == null) { // full re-index
                 mailbox.lock.lock();
                 try {
                     ZimbraLog.index.info("Resetting DB index data");
@@ -714,6 +805,9 @@ public final class MailboxIndex {
      * Index a potentially very large list of {@link MailItem}s. Iterate through the list of items, fetch each one and
      * call generateIndexData(). Buffer the items, IndexData into a chunk and when the chunk gets sufficiently large,
      * run a Mailbox transaction to actually do the indexing
+     * <p>
+     * A re-index spreads the fetching and parsing over {@link #REINDEX_PARSE_EXECUTOR}; see
+     * {@link #indexItemListPipelined}.
      *
      * @param ids item IDs to index
      * @param status progress will be written to the status
@@ -726,6 +820,10 @@ public final class MailboxIndex {
         if (ids.isEmpty()) {
             return;
         }
+        if (status instanceof ReIndexStatus && REINDEX_PARSE_THREADS > 1) {
+            indexItemListPipelined(new ArrayList<Integer>(ids), (ReIndexStatus) status);
+            return;
+        }
 
         // we re-index 'chunks' of items -- up to a certain size or count
         List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
@@ -739,43 +837,26 @@ public final class MailboxIndex {
             // lock. Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
             // index.
             ZimbraLog.index.debug("Tokenizing id=%d", id);
-            MailItem item = null;
+            MailItem item;
             try {
-                mailbox.beginReadTransaction("IndexItemList-Fetch", null);
-                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
-            } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
-                try {
-                    item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
-                } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
-                    ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
-                    removeDeferredId(id);
-                    continue;
-                }
+                item = fetchItemForIndex(id);
             } catch (MailServiceException e) {
-                // fetch without metadata because reindex will regenerate metadata
-                if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
-                    UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
-                    ud.metadata = null; // ignore corrupted metadata
-                    item = mailbox.getItem(ud);
-                } else {
-                    throw e;
-                }
+                throw e;
             } catch (Exception e) {
                 ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
                 status.addFailed(1);
                 continue;
-            } finally {
-                mailbox.endTransaction(item != null);
             }
-            try {
-                chunk.add(new Mailbox.IndexItemEntry(item, item.generateIndexData()));
-            } catch (MailItem.TemporaryIndexingException e) {
-                ZimbraLog.index.warn("Temporary index failure id=%d", id, e);
-                lastFailedTime = System.currentTimeMillis();
-                status.addFailed(1);
-                continue;
+            if (item != null) {
+                try {
+                    chunk.add(new Mailbox.IndexItemEntry(item, item.generateIndexData()));
+                    chunkByteSize += item.getSize();
+                } catch (MailItem.TemporaryIndexingException e) {
+                    ZimbraLog.index.warn("Temporary index failure id=%d", id, e);
+                    lastFailedTime = System.currentTimeMillis();
+                    status.addFailed(1);
+                }
             }
-            chunkByteSize += item.getSize();
 
             if (i == ids.size() || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
                 // we have a chunk of items and their corresponding index data -- add them to the index
@@ -785,22 +866,10 @@ public final class MailboxIndex {
                     if (status.isCancelled()) {
                         throw ServiceException.INTERRUPTED("cancelled");
                     }
-
-                    try {
-                        boolean success = false;
-                        try {
-                            mailbox.beginTransaction("IndexItemList-Commit", null);
-                            for (Mailbox.IndexItemEntry entry : chunk) {
-                                mailbox.addIndexItemToCurrentChange(entry);
-                            }
-                            success = true;
-                        } finally {
-                            mailbox.endTransaction(success);
-                        }
-                    } catch (ServiceException e) {
-                        ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
-                        status.addFailed(chunk.size());
+                    if (!chunk.isEmpty()) {
+                        commitIndexChunk(chunk, status);
                     }
+                    status.setCheckpoint(i);
                 } finally {
                     chunk.clear();
                     chunkByteSize = 0;
@@ -809,6 +878,188 @@ public final class MailboxIndex {
         }
     }
 
+    /**
+     * Re-index variant of {@link #indexItemList} that runs as a pipeline. Fetching each item and generating its index
+     * data (reading the blob, parsing the MIME and extracting text) is done by {@link #REINDEX_PARSE_EXECUTOR}, while
+     * the calling thread collects the results into chunks and commits them, as the only index writer for the mailbox.
+     * <p>
+     * At most {@link #REINDEX_MAX_PENDING} items are handed to the workers and not yet collected, so a slow index
+     * writer holds back the parsers rather than letting parsed documents pile up in memory. Results come back out of
+     * order; {@link ReIndexStatus#getCheckpoint()} only advances past an item once it and every item before it are
+     * done.
+     */
+    private void indexItemListPipelined(List<Integer> ids, ReIndexStatus status) throws ServiceException {
+        BlockingQueue<FetchParseJob> done = new LinkedBlockingQueue<FetchParseJob>();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        BitSet finished = new BitSet(ids.size());
+        List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
+        List<Integer> chunkPositions = new ArrayList<Integer>();
+        long chunkByteSize = 0;
+        int next = 0;
+        int pending = 0;
+        try {
+            while (next < ids.size() || pending > 0) {
+                if (next < ids.size() && pending < REINDEX_MAX_PENDING) {
+                    REINDEX_PARSE_EXECUTOR.execute(new FetchParseJob(next, ids.get(next), done, abandoned, status));
+                    next++;
+                    pending++;
+                    continue;
+                }
+
+                FetchParseJob job;
+                try {
+                    job = done.take();
+                } catch (InterruptedException e) {
+                    throw ServiceException.INTERRUPTED("interrupted");
+                }
+                pending--;
+                status.addProcessed(1);
+                if (job.failure instanceof MailServiceException) {
+                    throw (MailServiceException) job.failure;
+                } else if (job.failure instanceof MailItem.TemporaryIndexingException) {
+                    ZimbraLog.index.warn("Temporary index failure id=%d", job.id, job.failure);
+                    lastFailedTime = System.currentTimeMillis();
+                    status.addFailed(1);
+                    finished.set(job.position);
+                } else if (job.failure != null) {
+                    ZimbraLog.index.warn("Failed to fetch deferred item id=%d", job.id, job.failure);
+                    status.addFailed(1);
+                    finished.set(job.position);
+                } else if (job.skipped) {
+                    continue; // cancelled before it was fetched
+                } else if (job.entry == null) { // deleted
+                    finished.set(job.position);
+                } else {
+                    chunk.add(job.entry);
+                    chunkPositions.add(job.position);
+                    chunkByteSize += job.entry.item.getSize();
+                }
+
+                boolean last = next == ids.size() && pending == 0;
+                if (!chunk.isEmpty() && (last || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS)) {
+                    ZimbraLog.index.debug("Batch progress %d/%d", status.getProcessed(), ids.size());
+                    if (status.isCancelled()) {
+                        throw ServiceException.INTERRUPTED("cancelled");
+                    }
+                    commitIndexChunk(chunk, status);
+                    for (int position : chunkPositions) {
+                        finished.set(position);
+                    }
+                    chunk.clear();
+                    chunkPositions.clear();
+                    chunkByteSize = 0;
+                }
+                status.setCheckpoint(finished.nextClearBit(status.getCheckpoint()));
+            }
+            if (status.isCancelled()) {
+                throw ServiceException.INTERRUPTED("cancelled");
+            }
+        } finally {
+            abandoned.set(true); // workers skip whatever is still queued
+        }
+    }
+
+    /**
+     * Loads an item to be indexed, falling back to the dumpster.
+     *
+     * @return null if the item no longer exists
+     */
+    private MailItem fetchItemForIndex(int id) throws ServiceException {
+        MailItem item = null;
+        try {
+            mailbox.beginReadTransaction("IndexItemList-Fetch", null);
+            item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
+        } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
+            try {
+                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
+            } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
+                ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
+                removeDeferredId(id);
+                return null;
+            }
+        } catch (MailServiceException e) {
+            // fetch without metadata because reindex will regenerate metadata
+            if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
+                UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
+                ud.metadata = null; // ignore corrupted metadata
+                item = mailbox.getItem(ud);
+            } else {
+                throw e;
+            }
+        } finally {
+            mailbox.endTransaction(item != null);
+        }
+        return item;
+    }
+
+    private void commitIndexChunk(List<Mailbox.IndexItemEntry> chunk, BatchStatus status) {
+        try {
+            boolean success = false;
+            try {
+                mailbox.beginTransaction("IndexItemList-Commit", null);
+                for (Mailbox.IndexItemEntry entry : chunk) {
+                    mailbox.addIndexItemToCurrentChange(entry);
+                }
+                success = true;
+            } finally {
+                mailbox.endTransaction(success);
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
+            status.addFailed(chunk.size());
+        }
+    }
+
+    /**
+     * Fetches one item and generates its index data on {@link #REINDEX_PARSE_EXECUTOR}, then hands itself back to the
+     * re-index thread through {@code done}.
+     */
+    private final class FetchParseJob implements Runnable {
+        private final int position;
+        private final int id;
+        private final BlockingQueue<FetchParseJob> done;
+        private final AtomicBoolean abandoned;
+        private final ReIndexStatus status;
+        private Mailbox.IndexItemEntry entry;
+        private Exception failure;
+        private boolean skipped;
+
+        FetchParseJob(int position, int id, BlockingQueue<FetchParseJob> done, AtomicBoolean abandoned,
+                ReIndexStatus status) {
+            this.position = position;
+            this.id = id;
+            this.done = done;
+            this.abandoned = abandoned;
+            this.status = status;
+        }
+
+        @Override
+        public void run() {
+            if (abandoned.get()) {
+                return;
+            }
+            try {
+                if (status.isCancelled()) {
+                    skipped = true;
+                } else {
+                    ZimbraLog.addMboxToContext(mailbox.getId());
+                    ZimbraLog.index.debug("Tokenizing id=%d", id);
+                    MailItem item = fetchItemForIndex(id);
+                    if (item != null) {
+                        entry = new Mailbox.IndexItemEntry(item, item.generateIndexData());
+                    }
+                }
+            } catch (OutOfMemoryError e) {
+                Zimbra.halt("out of memory", e);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                ZimbraLog.clearContext();
+                done.add(this);
+            }
+        }
+    }
+
     /**
      * Mailbox version (1.0,1.1)->1.2 Re-Index all contacts.
      */
@@ -998,11 +1249,19 @@ public final class MailboxIndex {
     public static final class IndexStats {
         private final int maxDocs;
         private final int numDeletedDocs;
+        private final int queueDepth;
+        private final long queueAge;
 
         public IndexStats(int maxDocs, int numDeletedDocs) {
+            this(maxDocs, numDeletedDocs, 0, 0);
+        }
+
+        public IndexStats(int maxDocs, int numDeletedDocs, int queueDepth, long queueAge) {
             super();
             this.maxDocs = maxDocs;
             this.numDeletedDocs = numDeletedDocs;
+            this.queueDepth = queueDepth;
+            this.queueAge = queueAge;
         }
 
         public int getMaxDocs() {
@@ -1012,6 +1271,14 @@ public final class MailboxIndex {
         public int getNumDeletedDocs() {
             return numDeletedDocs;
         }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getQueueAge() {
+            return queueAge;
+        }
     }
 
     public IndexStats getIndexStats() throws ServiceException {
@@ -1029,7 +1296,7 @@ public final class MailboxIndex {
             throw ServiceException.FAILURE("Failed to open Indexer", e);
         }
 
-        return new IndexStats(maxDocs, numDeletedDocs);
+        return new IndexStats(maxDocs, numDeletedDocs, getQueueDepth(), getQueueAge());
     }
 
     /**
@@ -1341,6 +1608,13 @@ public final class MailboxIndex {
             return false;
         }
 
+        void setCheckpoint(int value) {
+        }
+
+        public int getCheckpoint() {
+            return 0;
+        }
+
         @Override
         public String toString() {
             return Objects.toStringHelper(this)
@@ -1358,6 +1632,7 @@ public final class MailboxIndex {
         private volatile int total = -1;
         private volatile int processed = 0;
         private volatile int failed = 0;
+        private volatile int checkpoint = 0;
         private volatile boolean cancel = false;
 
         private ReIndexStatus() {
@@ -1396,6 +1671,20 @@ public final class MailboxIndex {
             return failed;
         }
 
+        @Override
+        void setCheckpoint(int value) {
+            checkpoint = value;
+        }
+
+        /**
+         * Returns the number of leading items, in re-index order, that are all either committed to the index or
+         * failed. {@link MailboxIndex#resumeReIndex()} picks up from here.
+         */
+        @Override
+        public int getCheckpoint() {
+            return checkpoint;
+        }
+
         void cancel() {
             cancel = true;
         }
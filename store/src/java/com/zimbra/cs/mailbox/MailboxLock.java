@@ -20,14 +20,13 @@ import java.util.EmptyStackException;
 import java.util.Stack;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
-
 import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mailbox.lock.DebugZLock;
+import com.zimbra.cs.mailbox.lock.DistributedLock;
 import com.zimbra.cs.mailbox.lock.ZLock;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zookeeper.CuratorManager;
@@ -43,14 +42,14 @@ import com.zimbra.cs.zookeeper.CuratorManager;
  */
 public final class MailboxLock {
     private final ZLock zLock = DebugConfig.debugMailboxLock ? new DebugZLock() : new ZLock();
-    private InterProcessSemaphoreMutex dLock = null;
+    private DistributedLock dLock = null;
     private final Stack<Boolean> lockStack = new Stack<Boolean>();
     private Mailbox mbox;
 
     public MailboxLock(String id, Mailbox mbox) {
         if (Zimbra.isAlwaysOn()) {
             try {
-                dLock = CuratorManager.getInstance().createLock(id);
+                dLock = new DistributedLock(CuratorManager.getInstance().createReadWriteLock(id));
             } catch (ServiceException se) {
                 ZimbraLog.mailbox.error("could not initialize distributed lock", se);
             }
@@ -59,27 +58,31 @@ public final class MailboxLock {
     }
 
     private void acquireDistributedLock(boolean write) throws ServiceException {
-        //TODO: consider read/write distributed lock
         if (dLock != null && getHoldCount() == 1) {
-            try {
-                dLock.acquire(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-            } catch (Exception e) {
-                throw new LockFailedException("could not acquire distributed lock", e);
-            }
+            dLock.acquire(write, LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
         }
     }
 
     private void releaseDistributedLock(boolean write) {
-        //TODO: consider read/write distributed lock
         if (dLock != null && getHoldCount() == 1) {
-            try {
-                dLock.release();
-            } catch (Exception e) {
-                ZimbraLog.mailbox.warn("error while releasing distributed lock", e);
-            }
+            dLock.release();
         }
     }
 
+    /**
+     * Returns the distributed lease this server holds on the mailbox, or 0 if none.
+     *
+     * @see DistributedLock#getLease()
+     */
+    long getDistributedLease() {
+        return dLock != null ? dLock.getLease() : 0;
+    }
+
+    @VisibleForTesting
+    void setDistributedLock(DistributedLock dLock) {
+        this.dLock = dLock;
+    }
+
     int getHoldCount() {
         return zLock.getReadHoldCount() + zLock.getWriteHoldCount();
     }
@@ -177,6 +180,11 @@ public final class MailboxLock {
                     lfe.logStackTrace();
                     throw lfe;
                 }
+                if (!write && getHoldCount() == 1 && mbox.requiresWriteLock()) {
+                    //another server took the distributed lock since we checked; folders and tags need a reload
+                    release();
+                    lock(true);
+                }
                 return;
             }
             int queueLength = zLock.getQueueLength();
@@ -206,6 +214,11 @@ public final class MailboxLock {
                     lfe.logStackTrace();
                     throw lfe;
                 }
+                if (!write && getHoldCount() == 1 && mbox.requiresWriteLock()) {
+                    //another server took the distributed lock since we checked; folders and tags need a reload
+                    release();
+                    lock(true);
+                }
                 return;
             }
             LockFailedException e = new LockFailedException("timeout");
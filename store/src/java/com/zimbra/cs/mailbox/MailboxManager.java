@@ -16,20 +16,25 @@
  */
 package com.zimbra.cs.mailbox;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.localconfig.LC;
@@ -123,7 +128,8 @@ public class MailboxManager {
 
     /** Maps account IDs (<code>String</code>s) to mailbox IDs
      *  (<code>Integer</code>s).  <i>Every</i> mailbox in existence on the
-     *  server appears in this mapping. */
+     *  server appears in this mapping.  Reads don't need the MailboxManager
+     *  lock; compound updates still take it. */
     private Map<String, Integer> mailboxIds;
 
     /**
@@ -136,15 +142,22 @@ public class MailboxManager {
      * Mailboxes are faulted into memory as needed, but may drop from memory when the SoftReference expires due to
      * memory pressure combined with a lack of outstanding references to the {@link Mailbox}.  Only one {@link Mailbox}
      * per user is cached, and only that {@link Mailbox} can process user requests.
+     * <p>
+     * The map is safe for concurrent use, so lookups are done without the MailboxManager lock.  Updates that must be
+     * atomic with respect to other state (maintenance, creation, deletion) are still made while holding the lock.
      */
     private MailboxMap cache;
 
+    /** Mailboxes currently being loaded from the database, so that concurrent misses on the same id load it once. */
+    private final ConcurrentHashMap<Integer, SettableFuture<Mailbox>> loadsInProgress =
+            new ConcurrentHashMap<Integer, SettableFuture<Mailbox>>();
+
     public MailboxManager() throws ServiceException {
         DbConnection conn = null;
         synchronized (this) {
             try {
                 conn = DbPool.getConnection();
-                mailboxIds = DbMailbox.listMailboxes(conn, this);
+                mailboxIds = new ConcurrentHashMap<String, Integer>(DbMailbox.listMailboxes(conn, this));
                 cache = createCache();
             } finally {
                 DbPool.quietClose(conn);
@@ -336,10 +349,7 @@ public class MailboxManager {
         if (accountId == null)
             throw new IllegalArgumentException();
 
-        Integer mailboxKey;
-        synchronized (this) {
-            mailboxKey = mailboxIds.get(accountId.toLowerCase());
-        }
+        Integer mailboxKey = mailboxIds.get(accountId.toLowerCase());
         if (mailboxKey != null) {
             if (DebugConfig.mockMultiserverInstall)
                 lookupAccountWithHostCheck(accountId, skipMailHostCheck);
@@ -350,9 +360,7 @@ public class MailboxManager {
 
         // auto-create the mailbox if this is the right host...
         Account account = lookupAccountWithHostCheck(accountId, skipMailHostCheck);
-        synchronized (this) {
-            mailboxKey = mailboxIds.get(accountId.toLowerCase());
-        }
+        mailboxKey = mailboxIds.get(accountId.toLowerCase());
         if (mailboxKey != null)
             return getMailboxById(mailboxKey, fetchMode, skipMailHostCheck);
         else
@@ -431,13 +439,12 @@ public class MailboxManager {
         long startTime = ZimbraPerf.STOPWATCH_MBOX_GET.start();
 
         Mailbox mbox = null;
-        synchronized (this) {
-            // check to see if the mailbox has already been cached
-            Object cached = retrieveFromCache(mailboxId, true);
-            if (cached instanceof Mailbox) {
-                ZimbraPerf.COUNTER_MBOX_CACHE.increment(100);
-                mbox = (Mailbox) cached;
-            }
+        // check to see if the mailbox has already been cached
+        Object cached = retrieveFromCache(mailboxId, true);
+        if (cached instanceof Mailbox) {
+            ZimbraPerf.COUNTER_MBOX_CACHE.increment(100);
+            ZimbraPerf.COUNTER_MBOX_CACHE_HIT.increment();
+            mbox = (Mailbox) cached;
         }
 
         if (fetchMode == FetchMode.ONLY_IF_CACHED && (mbox == null || !mbox.isOpen())) {
@@ -447,48 +454,8 @@ public class MailboxManager {
 
         if (mbox == null) { // not found in cache
             ZimbraPerf.COUNTER_MBOX_CACHE.increment(0);
-            MailboxData data;
-            DbConnection conn = DbPool.getConnection();
-            try {
-                // fetch the Mailbox data from the database
-                data = DbMailbox.getMailboxStats(conn, mailboxId);
-                if (data == null) {
-                    throw MailServiceException.NO_SUCH_MBOX(mailboxId);
-                }
-            } finally {
-                conn.closeQuietly();
-            }
-
-            mbox = instantiateMailbox(data);
-            Account account = mbox.getAccount();
-            boolean isGalSyncAccount = AccountUtil.isGalSyncAccount(account);
-            mbox.setGalSyncMailbox(isGalSyncAccount);
-
-            if (!skipMailHostCheck) {
-                // The host check here makes sure that sessions that were
-                // already connected at the time of mailbox move are not
-                // allowed to continue working with this mailbox which is
-                // essentially a soft-deleted copy.  The WRONG_HOST
-                // exception forces the clients to reconnect to the new
-                // server.
-                if (!Provisioning.onLocalServer(account))
-                    throw ServiceException.WRONG_HOST(account.getMailHost(), null);
-            }
-
-            synchronized (this) {
-                // avoid the race condition by re-checking the cache and using that data (if any)
-                Object cached = retrieveFromCache(mailboxId, false);
-                if (cached instanceof Mailbox) {
-                    mbox = (Mailbox) cached;
-                } else {
-                    // cache the newly-created Mailbox object
-                    if (cached instanceof MailboxMaintenance) {
-                        ((MailboxMaintenance) cached).setMailbox(mbox);
-                    } else {
-                        cacheMailbox(mbox);
-                    }
-                }
-            }
+            ZimbraPerf.COUNTER_MBOX_CACHE_MISS.increment();
+            mbox = loadMailbox(mailboxId, skipMailHostCheck);
         }
 
         // now, make sure the mailbox is opened -- we do this after releasing MailboxManager lock so that filesystem IO
@@ -520,10 +487,87 @@ public class MailboxManager {
         return mbox;
     }
 
+    /**
+     * Fetches the mailbox from the database and caches it.  Only one thread loads a given mailbox at a time; other
+     * threads missing the cache for the same id wait for that load and share its result.  If the load fails, waiters
+     * retry on their own, since the failure may be specific to the loading thread (e.g. the mail host check).
+     */
+    private Mailbox loadMailbox(int mailboxId, boolean skipMailHostCheck) throws ServiceException {
+        while (true) {
+            SettableFuture<Mailbox> load = SettableFuture.create();
+            SettableFuture<Mailbox> inProgress = loadsInProgress.putIfAbsent(mailboxId, load);
+            if (inProgress == null) {
+                long startTime = ZimbraPerf.STOPWATCH_MBOX_LOAD.start();
+                try {
+                    Mailbox mbox = loadAndCacheMailbox(mailboxId, skipMailHostCheck);
+                    load.set(mbox);
+                    return mbox;
+                } catch (ServiceException | RuntimeException | Error e) {
+                    load.setException(e);
+                    throw e;
+                } finally {
+                    loadsInProgress.remove(mailboxId, load);
+                    ZimbraPerf.STOPWATCH_MBOX_LOAD.stop(startTime);
+                }
+            }
+            try {
+                return Uninterruptibles.getUninterruptibly(inProgress);
+            } catch (ExecutionException e) {
+                ZimbraLog.mailbox.debug("concurrent load of mailbox %d failed; retrying", mailboxId, e.getCause());
+            }
+        }
+    }
+
+    private Mailbox loadAndCacheMailbox(int mailboxId, boolean skipMailHostCheck) throws ServiceException {
+        MailboxData data;
+        DbConnection conn = DbPool.getConnection();
+        try {
+            // fetch the Mailbox data from the database
+            data = DbMailbox.getMailboxStats(conn, mailboxId);
+            if (data == null) {
+                throw MailServiceException.NO_SUCH_MBOX(mailboxId);
+            }
+        } finally {
+            conn.closeQuietly();
+        }
+
+        Mailbox mbox = instantiateMailbox(data);
+        Account account = mbox.getAccount();
+        boolean isGalSyncAccount = AccountUtil.isGalSyncAccount(account);
+        mbox.setGalSyncMailbox(isGalSyncAccount);
+
+        if (!skipMailHostCheck) {
+            // The host check here makes sure that sessions that were
+            // already connected at the time of mailbox move are not
+            // allowed to continue working with this mailbox which is
+            // essentially a soft-deleted copy.  The WRONG_HOST
+            // exception forces the clients to reconnect to the new
+            // server.
+            if (!Provisioning.onLocalServer(account))
+                throw ServiceException.WRONG_HOST(account.getMailHost(), null);
+        }
+
+        synchronized (this) {
+            // avoid the race condition by re-checking the cache and using that data (if any)
+            Object cached = retrieveFromCache(mailboxId, false);
+            if (cached instanceof Mailbox) {
+                mbox = (Mailbox) cached;
+            } else {
+                // cache the newly-created Mailbox object
+                if (cached instanceof MailboxMaintenance) {
+                    ((MailboxMaintenance) cached).setMailbox(mbox);
+                } else {
+                    cacheMailbox(mbox);
+                }
+            }
+        }
+        return mbox;
+    }
+
     /** @return A list of *hard references* to all currently-loaded mailboxes which are not
      *     .   in MAINTENANCE mode.  Caller must be careful to not hang onto this list for
      *         very long or else mailboxes will not be purged. */
-    public synchronized List<Mailbox> getAllLoadedMailboxes() {
+    public List<Mailbox> getAllLoadedMailboxes() {
         List<Mailbox> mboxes = new ArrayList<Mailbox>(cache.size());
         for (Object o : cache.values()) {
             if (o instanceof Mailbox) {
@@ -541,7 +585,7 @@ public class MailboxManager {
     /**
      * Returns the number of hard references to currently-loaded mailboxes, either in MAINTENANCE mode or not.
      */
-    public synchronized int getCacheSize() {
+    public int getCacheSize() {
         int count = 0;
         for (Object o : cache.values()) {
             if (o instanceof Mailbox || o instanceof MailboxMaintenance) {
@@ -556,7 +600,7 @@ public class MailboxManager {
      * that one of the {@link Listener} APIs be called for this mailbox at some point in the future, if this mailbox is
      * ever accessed.
      */
-    public synchronized boolean isMailboxLoadedAndAvailable(int mailboxId) {
+    public boolean isMailboxLoadedAndAvailable(int mailboxId) {
         Object cached = cache.get(mailboxId);
         if (cached == null) {
             return false;
@@ -569,24 +613,22 @@ public class MailboxManager {
     }
 
     private Object retrieveFromCache(int mailboxId, boolean trackGC) throws MailServiceException {
-        synchronized (this) {
-            Object cached = cache.get(mailboxId, trackGC);
-            if (cached instanceof MailboxMaintenance) {
-                MailboxMaintenance maintenance = (MailboxMaintenance) cached;
-                if (!maintenance.canAccess()) {
-                    if (isMailboxLockedOut(maintenance.getAccountId())) {
-                        throw MailServiceException.MAINTENANCE(mailboxId, "mailbox locked out for maintenance");
-                    } else {
-                        throw MailServiceException.MAINTENANCE(mailboxId);
-                    }
-                }
-                if (maintenance.getMailbox() != null) {
-                    return maintenance.getMailbox();
+        Object cached = cache.get(mailboxId, trackGC);
+        if (cached instanceof MailboxMaintenance) {
+            MailboxMaintenance maintenance = (MailboxMaintenance) cached;
+            if (!maintenance.canAccess()) {
+                if (isMailboxLockedOut(maintenance.getAccountId())) {
+                    throw MailServiceException.MAINTENANCE(mailboxId, "mailbox locked out for maintenance");
+                } else {
+                    throw MailServiceException.MAINTENANCE(mailboxId);
                 }
             }
-            // if we've retrieved NULL or a Mailbox or an accessible lock, return it
-            return cached;
+            if (maintenance.getMailbox() != null) {
+                return maintenance.getMailbox();
+            }
         }
+        // if we've retrieved NULL or a Mailbox or an accessible lock, return it
+        return cached;
     }
 
     /**
@@ -697,9 +739,7 @@ public class MailboxManager {
      * @return
      */
     public int getMailboxCount() {
-        synchronized (this) {
-            return mailboxIds.size();
-        }
+        return mailboxIds.size();
     }
 
 
@@ -708,14 +748,12 @@ public class MailboxManager {
      *  not the same as the set of mailboxes for accounts whose
      *  <code>zimbraMailHost</code> LDAP attribute points to this server. */
     public int[] getMailboxIds() {
+        List<Integer> col = new ArrayList<Integer>(mailboxIds.values());
+        int[] ids = new int[col.size()];
         int i = 0;
-        synchronized (this) {
-            Collection<Integer> col = mailboxIds.values();
-            int[] mailboxIds = new int[col.size()];
-            for (int id : col)
-                mailboxIds[i++] = id;
-            return mailboxIds;
-        }
+        for (int id : col)
+            ids[i++] = id;
+        return ids;
     }
 
     public Set<Integer> getPurgePendingMailboxes(long time) throws ServiceException {
@@ -734,14 +772,7 @@ public class MailboxManager {
      *  the same as the set of accounts whose <code>zimbraMailHost</code> LDAP
      *  attribute points to this server.*/
     public String[] getAccountIds() {
-        int i = 0;
-        synchronized (this) {
-            Set<String> set = mailboxIds.keySet();
-            String[] accountIds = new String[set.size()];
-            for (String o : set)
-                accountIds[i++] = o;
-            return accountIds;
-        }
+        return mailboxIds.keySet().toArray(new String[0]);
     }
 
 
@@ -751,10 +782,7 @@ public class MailboxManager {
      * @return
      */
     public int lookupMailboxId(String accountId) {
-        Integer v;
-        synchronized (this) {
-            v = mailboxIds.get(accountId);
-        }
+        Integer v = mailboxIds.get(accountId);
         return v != null ? v.intValue() : -1;
     }
 
@@ -769,16 +797,14 @@ public class MailboxManager {
      *        the database; a SQLException is encapsulated</ul> */
     public Map<String, Long> getMailboxSizes(List<NamedEntry> accounts) throws ServiceException {
         List<Integer> requested;
-        synchronized (this) {
-            if (accounts == null) {
-                requested = new ArrayList<Integer>(mailboxIds.values());
-            } else {
-                requested = new ArrayList<Integer>(accounts.size());
-                for (NamedEntry account : accounts) {
-                    Integer mailboxId = mailboxIds.get(account.getId());
-                    if (mailboxId != null)
-                        requested.add(mailboxId);
-                }
+        if (accounts == null) {
+            requested = new ArrayList<Integer>(mailboxIds.values());
+        } else {
+            requested = new ArrayList<Integer>(accounts.size());
+            for (NamedEntry account : accounts) {
+                Integer mailboxId = mailboxIds.get(account.getId());
+                if (mailboxId != null)
+                    requested.add(mailboxId);
             }
         }
 
@@ -1000,53 +1026,144 @@ public class MailboxManager {
         }
     }
 
+    /**
+     * Two-tier mailbox cache that is safe for concurrent use.  Up to <tt>hardSize</tt> entries are held by hard
+     * reference; past that, the least recently accessed entry is demoted to a {@link SoftReference} (only
+     * {@link Mailbox} values are softened, maintenance locks stay strongly reachable).
+     * <p>
+     * Lookups never block.  Keys are spread over a set of stripes, each owning an equal share of the hard tier, and
+     * mutations lock only the stripe of the key they touch.  Demotion replaces the entry in place, so a concurrent
+     * lookup sees either the hard or the soft value but never a gap.  Entries whose soft reference has been cleared by
+     * the GC are pruned on the next mutation.
+     */
     protected static class MailboxMap implements Map<Integer, Object> {
+        private static final int MAX_STRIPES = 64;
+        private static final int MIN_STRIPE_CAPACITY = 32;
+        /** accesses to the same entry closer together than this aren't recorded, so hot mailboxes don't thrash */
+        private static final long ACCESS_GRANULARITY = TimeUnit.MILLISECONDS.toNanos(1);
+
         final int mHardSize;
-        final LinkedHashMap<Integer, Object> mHardMap;
-        final HashMap<Integer, Object> mSoftMap;
+        private final ConcurrentHashMap<Integer, Slot> slots = new ConcurrentHashMap<Integer, Slot>();
+        private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+        private final Stripe[] stripes;
+
+        /** A cached value along with the last time it was looked up. */
+        private static final class Slot {
+            final Object value; // Mailbox, MailboxMaintenance, or KeyedSoftReference to a Mailbox
+            volatile long lastAccess;
+
+            Slot(Object value) {
+                this.value = value;
+                this.lastAccess = System.nanoTime();
+            }
+
+            Object get() {
+                return value instanceof SoftReference ? ((SoftReference<?>) value).get() : value;
+            }
+
+            void touch() {
+                long now = System.nanoTime();
+                if (now - lastAccess > ACCESS_GRANULARITY) {
+                    lastAccess = now;
+                }
+            }
+        }
+
+        private static final class KeyedSoftReference extends SoftReference<Object> {
+            final Integer key;
+
+            KeyedSoftReference(Integer key, Object value, ReferenceQueue<Object> queue) {
+                super(value, queue);
+                this.key = key;
+            }
+        }
 
-        @SuppressWarnings("serial") MailboxMap(int hardSize) {
+        /** The keys of one stripe that are currently in the hard tier.  Guarded by the stripe's monitor. */
+        private static final class Stripe {
+            final int capacity;
+            final Set<Integer> hardKeys = new HashSet<Integer>();
+
+            Stripe(int capacity) {
+                this.capacity = capacity;
+            }
+        }
+
+        MailboxMap(int hardSize) {
             hardSize = Math.max(hardSize, 0);
             mHardSize = hardSize;
-            mSoftMap = new HashMap<Integer, Object>();
-            mHardMap = new LinkedHashMap<Integer, Object>(mHardSize / 4, (float) .75, true) {
-                @Override protected boolean removeEldestEntry(Entry<Integer, Object> eldest) {
-                    if (size() <= mHardSize)
-                        return false;
-
-                    Object obj = eldest.getValue();
-                    if (obj instanceof Mailbox)
-                        obj = new SoftReference<Mailbox>((Mailbox) obj);
-                    mSoftMap.put(eldest.getKey(), obj);
-                    return true;
-                }
-            };
+            int count = Math.max(1, Math.min(MAX_STRIPES, hardSize / MIN_STRIPE_CAPACITY));
+            stripes = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                // spread the remainder over the first stripes so the capacities add up to exactly hardSize
+                stripes[i] = new Stripe(hardSize / count + (i < hardSize % count ? 1 : 0));
+            }
         }
 
         protected MailboxMap() {
-            mHardSize = 0;
-            mHardMap = null;
-            mSoftMap = null;
+            this(0);
+        }
+
+        private Stripe stripe(Object key) {
+            return stripes[Math.abs(key.hashCode() % stripes.length)];
+        }
+
+        private Object soften(Integer key, Object value) {
+            return value instanceof Mailbox ? new KeyedSoftReference(key, value, collected) : value;
+        }
+
+        /** Demotes the least recently accessed hard entry of the stripe other than <tt>keep</tt>. */
+        private void demoteEldest(Stripe stripe, Integer keep) {
+            Integer eldestKey = null;
+            Slot eldest = null;
+            for (Integer key : stripe.hardKeys) {
+                Slot slot = slots.get(key);
+                if (!key.equals(keep) && slot != null && (eldest == null || slot.lastAccess - eldest.lastAccess < 0)) {
+                    eldestKey = key;
+                    eldest = slot;
+                }
+            }
+            if (eldestKey != null) {
+                stripe.hardKeys.remove(eldestKey);
+                slots.replace(eldestKey, eldest, new Slot(soften(eldestKey, eldest.value)));
+            }
+        }
+
+        /** Drops the entries whose soft reference has been cleared by the GC. */
+        private void expungeCollected() {
+            Reference<?> ref;
+            while ((ref = collected.poll()) != null) {
+                Integer key = ((KeyedSoftReference) ref).key;
+                Slot slot = slots.get(key);
+                if (slot != null && slot.value == ref) {
+                    slots.remove(key, slot);
+                }
+            }
         }
 
         @Override public void clear() {
-            mHardMap.clear();
-            mSoftMap.clear();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.hardKeys.clear();
+                }
+            }
+            slots.clear();
         }
 
         @Override public boolean containsKey(Object key) {
-            return mHardMap.containsKey(key) || mSoftMap.containsKey(key);
+            return slots.containsKey(key);
         }
 
         @Override public boolean containsValue(Object value) {
-            return mHardMap.containsValue(value) || mSoftMap.containsValue(value);
+            return value != null && values().contains(value);
         }
 
         @Override public Set<Entry<Integer, Object>> entrySet() {
-            Set<Entry<Integer, Object>> entries = new HashSet<Entry<Integer, Object>>(size());
-            if (mHardSize > 0)
-                entries.addAll(mHardMap.entrySet());
-            entries.addAll(mSoftMap.entrySet());
+            Set<Entry<Integer, Object>> entries = new HashSet<Entry<Integer, Object>>(slots.size());
+            for (Entry<Integer, Slot> entry : slots.entrySet()) {
+                Object obj = entry.getValue().get();
+                if (obj != null)
+                    entries.add(new AbstractMap.SimpleImmutableEntry<Integer, Object>(entry.getKey(), obj));
+            }
             return entries;
         }
 
@@ -1055,44 +1172,41 @@ public class MailboxManager {
         }
 
         public Object get(Object key, boolean trackGC) {
-            Object obj = mHardSize > 0 ? mHardMap.get(key) : null;
+            Slot slot = slots.get(key);
+            if (slot == null)
+                return null;
+            Object obj = slot.get();
             if (obj == null) {
-                obj = mSoftMap.get(key);
-                if (obj instanceof SoftReference) {
-                    obj = ((SoftReference<?>) obj).get();
-                    if (trackGC && obj == null)
-                        ZimbraLog.mailbox.debug("mailbox " + key + " has been GCed; reloading");
-                }
+                if (trackGC)
+                    ZimbraLog.mailbox.debug("mailbox " + key + " has been GCed; reloading");
+                return null;
             }
+            slot.touch();
             return obj;
         }
 
         @Override public boolean isEmpty() {
-            return mHardMap.isEmpty() && mSoftMap.isEmpty();
+            return slots.isEmpty();
         }
 
         @Override public Set<Integer> keySet() {
-            Set<Integer> keys = new HashSet<Integer>(size());
-            if (mHardSize > 0)
-                keys.addAll(mHardMap.keySet());
-            keys.addAll(mSoftMap.keySet());
-            return keys;
+            return new HashSet<Integer>(slots.keySet());
         }
 
         @Override public Object put(Integer key, Object value) {
-            Object removed;
-            if (mHardSize > 0) {
-                removed = mHardMap.put(key, value);
-                if (removed == null)
-                    removed = mSoftMap.remove(key);
-            } else {
-                if (value instanceof Mailbox)
-                    value = new SoftReference<Object>(value);
-                removed = mSoftMap.put(key, value);
+            Stripe stripe = stripe(key);
+            Slot removed;
+            synchronized (stripe) {
+                expungeCollected();
+                if (stripe.capacity > 0) {
+                    removed = slots.put(key, new Slot(value));
+                    if (stripe.hardKeys.add(key) && stripe.hardKeys.size() > stripe.capacity)
+                        demoteEldest(stripe, key);
+                } else {
+                    removed = slots.put(key, new Slot(soften(key, value)));
+                }
             }
-            if (removed instanceof SoftReference)
-                removed = ((SoftReference<?>) removed).get();
-            return removed;
+            return removed == null ? null : removed.get();
         }
 
         @Override public void putAll(Map<? extends Integer, ? extends Object> t) {
@@ -1101,33 +1215,43 @@ public class MailboxManager {
         }
 
         @Override public Object remove(Object key) {
-            Object removed = mHardSize > 0 ? mHardMap.remove(key) : null;
-            if (removed == null) {
-                removed = mSoftMap.remove(key);
-                if (removed instanceof SoftReference)
-                    removed = ((SoftReference<?>) removed).get();
+            Stripe stripe = stripe(key);
+            Slot removed;
+            synchronized (stripe) {
+                expungeCollected();
+                removed = slots.remove(key);
+                stripe.hardKeys.remove(key);
             }
-            return removed;
+            return removed == null ? null : removed.get();
         }
 
         @Override public int size() {
-            return mHardMap.size() + mSoftMap.size();
+            return slots.size();
         }
 
         @Override public Collection<Object> values() {
-            List<Object> values = new ArrayList<Object>(size());
-            if (mHardSize > 0)
-                values.addAll(mHardMap.values());
-            for (Object o : mSoftMap.values()) {
-                if (o instanceof SoftReference)
-                    o = ((SoftReference<?>) o).get();
-                values.add(o);
+            List<Object> values = new ArrayList<Object>(slots.size());
+            for (Slot slot : slots.values()) {
+                Object obj = slot.get();
+                if (obj != null)
+                    values.add(obj);
             }
             return values;
         }
 
+        /** Returns the number of entries currently held by hard reference. */
+        int hardSize() {
+            int count = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    count += stripe.hardKeys.size();
+                }
+            }
+            return count;
+        }
+
         @Override public String toString() {
-            return "<" + mHardMap.toString() + ", " + mSoftMap.toString() + ">";
+            return "<hard=" + hardSize() + "/" + mHardSize + ", total=" + slots.size() + ">";
         }
     }
 }
@@ -18,14 +18,20 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimeConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
@@ -46,21 +52,106 @@ public class MessageCache {
 
     private static final Log sLog = LogFactory.getLog(MessageCache.class);
 
+    /**
+     * Cached message structure for one digest.  The content is loaded, expanded and decrypted while holding the
+     * node's monitor, so concurrent requests for the same digest parse it only once; <tt>smimeAccessInfo</tt> is
+     * guarded by the monitor as well.
+     */
     private static final class CacheNode {
-        CacheNode()  { }
+        CacheNode(int mboxId)  {
+            this.mboxId = mboxId;
+        }
+        /** Mailbox whose request loaded the content, or 0 if unknown.  Its stats are charged for the node. */
+        final int mboxId;
         MimeMessage message;
         MimeMessage expanded;
         Map<Integer, String> smimeAccessInfo = new HashMap<Integer, String>();
-        long size = 0;
+        /** Number of bytes of message data held in memory, as opposed to streamed from disk. */
+        volatile long size = 0;
+        /** Approximate size of the parsed headers, which are always held in memory. */
+        volatile int headerSize = 0;
+
+        int weight() {
+            return (int) Math.min(Integer.MAX_VALUE, NODE_OVERHEAD + headerSize + size);
+        }
+    }
+
+    /** Cache activity of one mailbox since the last {@link #drainMailboxStats} call. */
+    private static final class Activity {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    /** Message cache statistics of one mailbox, as returned by {@link #drainMailboxStats}. */
+    public static final class MailboxStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long dataSize;
+
+        MailboxStats(long hits, long misses, long evictions, long dataSize) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.dataSize = dataSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** Returns the number of bytes of message data held in memory on behalf of the mailbox. */
+        public long getDataSize() {
+            return dataSize;
+        }
+
+        /** Returns the hit rate as a percentage, or 0 if there haven't been any lookups. */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : hits * 100.0 / total;
+        }
     }
 
-    /** Cache mapping message digest to the corresponding message structure. */
-    private static Map<String, CacheNode> sCache = new LinkedHashMap<String, CacheNode>(150, (float) 0.75, true);
-    /** Maximum number of items in {@link #sCache}. */
-    private static int sMaxCacheSize;
-    /** Number of bytes of message data stored in the cache.  This value includes only
-     * messages that are read into memory, not streamed from disk. */
-    private volatile static long sDataSize = 0;
+    /** Estimated footprint of a parsed <tt>MimeMessage</tt> and its cache entry, excluding headers and content. */
+    private static final int NODE_OVERHEAD = 1024;
+    /** Used to derive the byte budget from <tt>zimbraMessageCacheSize</tt> if no budget is configured. */
+    private static final int DEFAULT_BYTES_PER_ENTRY = 8 * 1024;
+
+    /**
+     * Cache mapping message digest to the corresponding message structure.  Entries are weighed by their estimated
+     * in-memory footprint, and the least recently used ones are evicted once the total exceeds the byte budget.
+     */
+    private static final ConcurrentLinkedHashMap<String, CacheNode> sCache =
+        new ConcurrentLinkedHashMap.Builder<String, CacheNode>()
+        .maximumWeightedCapacity(2000L * DEFAULT_BYTES_PER_ENTRY) // replaced by loadSettings()
+        .weigher(new Weigher<CacheNode>() {
+            @Override
+            public int weightOf(CacheNode node) {
+                return node.weight();
+            }
+        })
+        .listener(new EvictionListener<String, CacheNode>() {
+            @Override
+            public void onEviction(String digest, CacheNode node) {
+                sLog.debug("Pruning digest %s from the cache.", digest);
+                ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICTIONS.increment();
+                if (node.mboxId > 0) {
+                    getActivity(node.mboxId).evictions.incrementAndGet();
+                }
+            }
+        })
+        .build();
+
+    private static final ConcurrentMap<Integer, Activity> sActivity = new ConcurrentHashMap<Integer, Activity>();
 
     static {
         try {
@@ -71,25 +162,87 @@ public class MessageCache {
     }
 
     public static void loadSettings() throws ServiceException {
-        sMaxCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
-        ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize);
+        long maxBytes = LC.zimbra_message_cache_max_bytes.longValue();
+        if (maxBytes <= 0) {
+            maxBytes = (long) Provisioning.getInstance().getLocalServer().getMessageCacheSize() * DEFAULT_BYTES_PER_ENTRY;
+        }
+        ZimbraLog.cache.info("setting message cache size to " + maxBytes + " bytes");
+        // evicts right away if the cache is over the new budget
+        sCache.setCapacity(maxBytes);
     }
 
     /** Returns the number of messages in the cache. */
     public static int getSize() {
-        synchronized (sCache) {
-            return sCache.size();
-        }
+        return sCache.size();
     }
 
     public static boolean contains(String digest) {
-        synchronized (sCache) {
-            return sCache.containsKey(digest);
-        }
+        return sCache.containsKey(digest);
     }
 
+    /** Returns the number of bytes of message data that are held in memory rather than streamed from disk. */
     public static long getDataSize() {
-        return sDataSize;
+        long total = 0;
+        for (CacheNode node : sCache.values()) {
+            total += node.size;
+        }
+        return total;
+    }
+
+    /** Returns the estimated memory footprint of the cache, which is what its capacity is measured against. */
+    public static long getWeightedSize() {
+        return sCache.weightedSize();
+    }
+
+    /**
+     * Returns the cache statistics of every mailbox that used the cache or holds data in it, with the hits, misses
+     * and evictions counted since the previous call.  Mailboxes that did neither are dropped, so that the statistics
+     * don't grow with every mailbox that ever used the cache.
+     */
+    public static Map<Integer, MailboxStats> drainMailboxStats() {
+        Map<Integer, Long> dataSizes = new HashMap<Integer, Long>();
+        for (CacheNode node : sCache.values()) {
+            if (node.mboxId > 0 && node.size > 0) {
+                Long size = dataSizes.get(node.mboxId);
+                dataSizes.put(node.mboxId, size == null ? node.size : size + node.size);
+            }
+        }
+
+        Map<Integer, MailboxStats> result = new HashMap<Integer, MailboxStats>();
+        for (Map.Entry<Integer, Activity> entry : sActivity.entrySet()) {
+            Activity activity = entry.getValue();
+            // Not atomic across the counters, so a lookup racing with this call may land in either period.
+            long hits = activity.hits.getAndSet(0);
+            long misses = activity.misses.getAndSet(0);
+            long evictions = activity.evictions.getAndSet(0);
+            Long size = dataSizes.remove(entry.getKey());
+            if (hits == 0 && misses == 0 && evictions == 0 && size == null) {
+                sActivity.remove(entry.getKey(), activity);
+            } else {
+                result.put(entry.getKey(), new MailboxStats(hits, misses, evictions, size == null ? 0 : size));
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : dataSizes.entrySet()) {
+            result.put(entry.getKey(), new MailboxStats(0, 0, 0, entry.getValue()));
+        }
+        return result;
+    }
+
+    private static Activity getActivity(int mboxId) {
+        Activity activity = sActivity.get(mboxId);
+        if (activity == null) {
+            activity = new Activity();
+            Activity existing = sActivity.putIfAbsent(mboxId, activity);
+            if (existing != null) {
+                activity = existing;
+            }
+        }
+        return activity;
+    }
+
+    /** Discards the cache statistics of the given mailbox, e.g. when it is deleted. */
+    static void purgeStats(int mboxId) {
+        sActivity.remove(mboxId);
     }
 
     /** Uncaches any data associated with the given item.  This must be done
@@ -124,12 +277,8 @@ public class MessageCache {
      *  stale data. */
     public static void purge(String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.remove(digest);
-                if (node != null) {
-                    sLog.debug("Purged digest %s from the message cache.", digest);
-                    sDataSize -= node.size;
-                }
+            if (sCache.remove(digest) != null) {
+                sLog.debug("Purged digest %s from the message cache.", digest);
             }
         }
     }
@@ -150,102 +299,130 @@ public class MessageCache {
      * @see com.zimbra.cs.mime.UUEncodeConverter */
     static MimeMessage getMimeMessage(MailItem item, boolean expand) throws ServiceException {
         String digest = item.getDigest();
-        CacheNode cnode = null;
         boolean cacheHit = true;
         boolean newNode = false;
         InputStream in = null;
         int mboxId = item.getMailboxId();
         boolean isEncrypted = false;
 
-        synchronized (sCache) {
-            cnode = sCache.get(digest);
+        // publish the node before loading it, so that concurrent requests for the digest wait for this load
+        CacheNode cnode = sCache.get(digest);
+        if (cnode == null) {
+            CacheNode created = new CacheNode(mboxId);
+            cnode = sCache.putIfAbsent(digest, created);
             if (cnode == null) {
                 newNode = true;
-                cnode = new CacheNode();
+                cnode = created;
             }
         }
 
-        try {
-            if (cnode.message == null) {
-                sLog.debug("Loading MimeMessage for item %d.", item.getId());
-                cacheHit = false;
-                try {
-                    in = fetchFromStore(item);
-                    cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
-                    if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
-                        cnode.size = item.getSize();
-                        // Not the best place to increment the data size, but cacheItem()
-                        // won't get called if we're expanding a message for an existing
-                        // node.
-                        sDataSize += cnode.size;
+        MimeMessage result;
+        int weight;
+        synchronized (cnode) {
+            weight = cnode.weight();
+            try {
+                if (cnode.message == null) {
+                    sLog.debug("Loading MimeMessage for item %d.", item.getId());
+                    cacheHit = false;
+                    try {
+                        in = fetchFromStore(item);
+                        cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
+                        cnode.headerSize = getHeaderSize(cnode.message);
+                        if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
+                            cnode.size = item.getSize();
+                        }
+                    } finally {
+                        ByteUtil.closeStream(in);
                     }
-                } finally {
-                    ByteUtil.closeStream(in);
                 }
-            }
 
-            if (expand) {
-                sLog.debug("Expanding MimeMessage for item %d.", item.getId());
-                try {
-                    MimeMessage decryptedMimeMessage = null;
-                    if (item instanceof Message) {
-                        // if the mime is encrypted; decrypt it first
-                        if (cnode.message != null) {
-                            isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
-                        }
-                        if (isEncrypted) {
-                            if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
-                                sLog.debug(
-                                    "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
-                                    mboxId, item.getDigest());
-                                cnode.smimeAccessInfo.remove(mboxId);
+                if (expand) {
+                    sLog.debug("Expanding MimeMessage for item %d.", item.getId());
+                    try {
+                        MimeMessage decryptedMimeMessage = null;
+                        if (item instanceof Message) {
+                            // if the mime is encrypted; decrypt it first
+                            if (cnode.message != null) {
+                                isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
                             }
-                            if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
-                                cacheHit = false;
-                                decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                            if (isEncrypted) {
+                                if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
+                                    sLog.debug(
+                                        "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
+                                        mboxId, item.getDigest());
+                                    cnode.smimeAccessInfo.remove(mboxId);
+                                }
+                                if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
+                                    cacheHit = false;
+                                    decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                                }
                             }
                         }
+                        //expand if the message has not yet been expanded or if the message is decrypted successfully
+                        if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
+                            cacheHit = false;
+                            expandMessage(item, cnode, decryptedMimeMessage);
+                        }
+                    } catch (Exception e) {
+                        // if the conversion bombs for any reason, revert to the original
+                        sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
+                        cnode.expanded = cnode.message;
                     }
-                    //expand if the message has not yet been expanded or if the message is decrypted successfully
-                    if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
-                        cacheHit = false;
-                        expandMessage(item, cnode, decryptedMimeMessage);
-                    }
-                } catch (Exception e) {
-                    // if the conversion bombs for any reason, revert to the original
-                    sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
-                    cnode.expanded = cnode.message;
+                }
+            } catch (IOException e) {
+                throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
+            } catch (MessagingException e) {
+                throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
+            } finally {
+                ByteUtil.closeStream(in);
+                if (newNode && cnode.message == null) {
+                    // don't leave an empty node behind if the load failed
+                    sCache.remove(digest, cnode);
                 }
             }
 
-            if (newNode) {
-                cacheItem(digest, cnode);
+            if (expand) {
+                if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
+                    || cnode.smimeAccessInfo.get(mboxId) != null)) {
+                    result = cnode.message;
+                } else {
+                    result = cnode.expanded;
+                }
+            } else {
+                result = cnode.message;
             }
-        } catch (IOException e) {
-            throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
-        } catch (MessagingException e) {
-            throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
-        } finally {
-            ByteUtil.closeStream(in);
         }
 
+        if (cnode.weight() != weight) {
+            // the node's footprint changed; replacing it with itself makes the cache re-weigh it
+            sCache.replace(digest, cnode, cnode);
+        }
+
+        Activity activity = getActivity(mboxId);
         if (cacheHit) {
             sLog.debug("Cache hit for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(100);
+            activity.hits.incrementAndGet();
         } else {
             sLog.debug("Cache miss for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(0);
+            activity.misses.incrementAndGet();
         }
+        return result;
+    }
 
-        if (expand) {
-            if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
-                || cnode.smimeAccessInfo.get(mboxId) != null)) {
-                return cnode.message;
+    /** Returns the approximate number of bytes held by the parsed headers of the message. */
+    private static int getHeaderSize(MimeMessage mm) {
+        int size = 0;
+        try {
+            for (Enumeration<?> lines = mm.getAllHeaderLines(); lines.hasMoreElements(); ) {
+                // two bytes per char
+                size += ((String) lines.nextElement()).length() * 2;
             }
-            return cnode.expanded;
-        } else {
-            return cnode.message;
+        } catch (MessagingException e) {
+            sLog.debug("Unable to measure message headers.", e);
         }
+        return size;
     }
 
     private static boolean isSmimeFeatureToggled(Mailbox mailbox, CacheNode cnode) {
@@ -286,7 +463,6 @@ public class MessageCache {
         expander.expand();
         cnode.expanded = expander.getExpanded();
         if (cnode.expanded != cnode.message) {
-            sDataSize += cnode.size;
             cnode.size *= 2;
         }
     }
@@ -354,40 +530,21 @@ public class MessageCache {
      */
     public static void cacheMessage(String digest, MimeMessage original, MimeMessage expanded) {
         sLog.debug("Caching existing MimeMessage, digest=%s.", digest);
-        CacheNode cnode = new CacheNode();
+        CacheNode cnode = new CacheNode(0);
         cnode.message = original;
         cnode.expanded = expanded;
-        cacheItem(digest, cnode);
-    }
-
-    private static void cacheItem(String digest, CacheNode cnode) {
-        sLog.debug("Caching MimeMessage for digest %s.", digest);
-        synchronized (sCache) {
-            sCache.put(digest, cnode);
-            // Cache data size was incremented in getMimeMessage().
-
-            // trim the cache if needed
-            if (sCache.size() > sMaxCacheSize) {
-                Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-                while (sCache.size() > sMaxCacheSize && it.hasNext()) {
-                    Map.Entry<String, CacheNode> entry = it.next();
-                    sLog.debug("Pruning digest %s from the cache.", entry.getKey());
-                    it.remove();
-                    sDataSize -= entry.getValue().size;
-                }
-            }
-        }
+        cnode.headerSize = getHeaderSize(original);
+        // the cache evicts least recently used entries if this puts it over its capacity
+        sCache.put(digest, cnode);
     }
 
     public static void removeDecryptedMessages(int mboxId) {
         sLog.debug("Start removing decrypted messages for mboxId=%d", mboxId);
-        synchronized (sCache) {
-            Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, CacheNode> entry = it.next();
-                CacheNode cacheNode = entry.getValue();
+        for (Map.Entry<String, CacheNode> entry : sCache.entrySet()) {
+            CacheNode cacheNode = entry.getValue();
+            synchronized (cacheNode) {
                 try {
-                    if (Mime.isEncrypted(cacheNode.message.getContentType())
+                    if (cacheNode.message != null && Mime.isEncrypted(cacheNode.message.getContentType())
                         && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
                         cacheNode.smimeAccessInfo.remove(mboxId);
                     }
@@ -402,9 +559,9 @@ public class MessageCache {
 
     public static String getDecryptionError(int id, String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.get(digest);
-                if (node != null) {
+            CacheNode node = sCache.get(digest);
+            if (node != null) {
+                synchronized (node) {
                     return node.smimeAccessInfo.get(id);
                 }
             }
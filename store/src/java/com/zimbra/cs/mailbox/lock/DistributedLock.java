@@ -0,0 +1,263 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.lock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.zookeeper.DistributedReadWriteLock;
+
+/**
+ * The cluster-wide half of a mailbox lock, held by this server on behalf of all its local lock holders.
+ * <p>
+ * The local {@link ZLock} already arbitrates between threads of this server, so the ZooKeeper lock is acquired once
+ * and shared: any number of local readers use the same read lease, and a write lease covers readers too. When the last
+ * local holder releases it, the lease is kept for a short idle period so that the next request on the same mailbox
+ * doesn't have to go to ZooKeeper. It is given up early as soon as another server asks for a conflicting lock; from
+ * then on no new local holder may use it, so that it is released once the current ones are done and the other server
+ * isn't starved by a steady stream of local readers.
+ */
+public final class DistributedLock {
+    private static final ScheduledExecutorService RELEASER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("DistributedLockReleaser").setDaemon(true).build());
+
+    private final DistributedReadWriteLock zkLock;
+    private final boolean readWrite;
+    private String node; // ZooKeeper node of the current lease, or null
+    private boolean nodeIsWrite;
+    private int holders;
+    private long idleSince;
+    private boolean expiryScheduled;
+    private boolean contended; // another server is waiting for the lease
+    private boolean unwatched; // contention can't be detected, so the lease isn't kept when idle
+    private boolean acquiring; // a ZooKeeper acquisition is in progress without holding our monitor
+    private long leases; // number of leases acquired from ZooKeeper so far
+
+    public DistributedLock(DistributedReadWriteLock zkLock) {
+        this(zkLock, LC.zimbra_mailbox_distributed_lock_readwrite.booleanValue());
+    }
+
+    @VisibleForTesting
+    DistributedLock(DistributedReadWriteLock zkLock, boolean readWrite) {
+        this.zkLock = zkLock;
+        this.readWrite = readWrite;
+    }
+
+    private static long getLeaseMillis() {
+        return LC.zimbra_mailbox_distributed_lock_lease_ms.longValue();
+    }
+
+    /**
+     * Acquires the lock for a local holder, reusing the lease of this server if it covers the requested mode.
+     *
+     * @throws ServiceException if the lock could not be acquired within the timeout
+     */
+    public void acquire(boolean write, long timeout, TimeUnit unit) throws ServiceException {
+        write = write || !readWrite;
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (this) {
+            // concurrent local readers wait for the first one to get the lease instead of creating their own, and
+            // nobody joins a lease another server is waiting for; it is released once its current holders are done
+            while (acquiring || (node != null && contended)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw ServiceException.FAILURE("timed out waiting for distributed lock", null);
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    throw ServiceException.INTERRUPTED("waiting for distributed lock");
+                }
+            }
+            if (node != null && (nodeIsWrite || !write)) {
+                holders++;
+                ZimbraPerf.COUNTER_MBOX_DLOCK_LEASE.increment(100);
+                return;
+            }
+            ZimbraPerf.COUNTER_MBOX_DLOCK_LEASE.increment(0);
+            if (node != null) {
+                // upgrading an idle read lease; the local write lock guarantees nobody here is still using it
+                assert holders == 0 : holders;
+                releaseNode();
+            }
+            acquiring = true;
+        }
+
+        // wait for ZooKeeper outside the monitor, so that the releaser thread never blocks on a slow acquisition
+        String acquired = null;
+        long start = ZimbraPerf.STOPWATCH_MBOX_DLOCK.start();
+        try {
+            acquired = zkLock.acquire(write, Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw ServiceException.FAILURE("could not acquire distributed lock", e);
+        } finally {
+            ZimbraPerf.STOPWATCH_MBOX_DLOCK.stop(start);
+            synchronized (this) {
+                acquiring = false;
+                if (acquired != null) {
+                    leases++;
+                    node = acquired;
+                    nodeIsWrite = write;
+                    holders = 1;
+                    contended = false;
+                    watchContention(acquired);
+                }
+                notifyAll();
+            }
+        }
+        if (acquired == null) {
+            throw ServiceException.FAILURE("timed out acquiring distributed lock", null);
+        }
+    }
+
+    /**
+     * Releases the lock for a local holder. The lease itself is kept until it has been idle for
+     * {@code zimbra_mailbox_distributed_lock_lease_ms}, or until another server needs it.
+     */
+    public synchronized void release() {
+        if (holders <= 0) {
+            // MailboxLock releases the local lock this way when acquire() failed
+            ZimbraLog.mailbox.debug("releasing distributed lock that is not held");
+            return;
+        }
+        if (--holders > 0) {
+            return;
+        }
+        long leaseMillis = getLeaseMillis();
+        if (contended || unwatched || leaseMillis <= 0) {
+            releaseNode();
+            return;
+        }
+        idleSince = System.currentTimeMillis();
+        if (!expiryScheduled) {
+            scheduleExpiry(leaseMillis);
+        }
+    }
+
+    private void scheduleExpiry(long delay) {
+        expiryScheduled = true;
+        RELEASER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void expire() {
+        expiryScheduled = false;
+        if (node == null || holders > 0) {
+            return; // the next local release schedules a new expiry
+        }
+        long remaining = idleSince + getLeaseMillis() - System.currentTimeMillis();
+        if (remaining > 0) {
+            scheduleExpiry(remaining);
+        } else {
+            releaseNode();
+        }
+    }
+
+    private void watchContention(final String watched) {
+        try {
+            zkLock.watch(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    // don't block the ZooKeeper event thread on our monitor
+                    RELEASER.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkContention(watched);
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            // without a watch we can't tell when others are waiting, so don't hold on to an idle lease
+            ZimbraLog.mailbox.warn("could not watch distributed lock; lease caching disabled", e);
+            unwatched = true;
+        }
+    }
+
+    private synchronized void checkContention(String watched) {
+        if (!watched.equals(node)) {
+            return; // the lease this watch was set for is gone
+        }
+        try {
+            contended = zkLock.isContended(node, nodeIsWrite);
+        } catch (Exception e) {
+            ZimbraLog.mailbox.warn("could not check distributed lock contention", e);
+            contended = true;
+        }
+        if (contended) {
+            if (holders == 0) {
+                releaseNode();
+            }
+        } else {
+            watchContention(watched);
+        }
+    }
+
+    private void releaseNode() {
+        zkLock.release(node);
+        node = null;
+        contended = false;
+        unwatched = false;
+        notifyAll(); // local holders waiting for a contended lease to go
+    }
+
+    /**
+     * Returns an identifier of the lease this server currently holds, or 0 if it holds none. While the same lease is
+     * held, no other server can have held the write lock.
+     */
+    public synchronized long getLease() {
+        return node != null ? leases : 0;
+    }
+
+    /**
+     * Gives up the lease immediately if it is not in use.
+     */
+    public synchronized void flush() {
+        if (node != null && holders == 0) {
+            releaseNode();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized boolean hasLease() {
+        return node != null;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isContended() {
+        return contended;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isWriteLease() {
+        return node != null && nodeIsWrite;
+    }
+}
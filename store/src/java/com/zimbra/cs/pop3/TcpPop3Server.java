@@ -53,7 +53,7 @@ public final class TcpPop3Server extends TcpServer implements Pop3Server, Realti
 
     /**
      * Implementation of {@link RealtimeStatsCallback} that returns the number
-     * of active handlers and number of threads for this server.
+     * of active handlers, threads and busy threads for this server.
      */
     @Override
     public Map<String, Object> getStatData() {
@@ -61,9 +61,11 @@ public final class TcpPop3Server extends TcpServer implements Pop3Server, Realti
         if (getConfig().isSslEnabled()) {
             data.put(ZimbraPerf.RTS_POP_SSL_CONN, numActiveHandlers());
             data.put(ZimbraPerf.RTS_POP_SSL_THREADS, numThreads());
+            data.put(ZimbraPerf.RTS_POP_SSL_BUSY_THREADS, numBusyThreads());
         } else {
             data.put(ZimbraPerf.RTS_POP_CONN, numActiveHandlers());
             data.put(ZimbraPerf.RTS_POP_THREADS, numThreads());
+            data.put(ZimbraPerf.RTS_POP_BUSY_THREADS, numBusyThreads());
         }
         return data;
     }
@@ -184,13 +184,10 @@ public class RedoConfig {
      * Returns the fsync interval for flush/fsync thread.  Writes to the log
      * are written securely to disk by forcing an fsync.  But fsyncs are very
      * slow, so instead of each logging thread calling fsync individually,
-     * they wait for a dedicated thread to fsync the accumulated changes
-     * periodically.  This configuration value controls the interval between
-     * the fsyncs.
-     * 
-     * With a longer interval, there will be fewer fsyncs compared to the
-     * number of logging calls.  This can improve throughput under heavy
-     * load but increases the latency on individual logging calls.
+     * they wait for a dedicated group commit thread to fsync the accumulated
+     * changes.  Any positive value enables that thread; it fsyncs again as
+     * soon as the previous fsync completes rather than sleeping for this
+     * interval.  Zero or less makes each logging thread fsync by itself.
      * 
      * @return interval in milliseconds; default is 10ms
      */
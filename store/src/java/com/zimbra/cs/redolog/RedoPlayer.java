@@ -61,6 +61,7 @@ public class RedoPlayer {
     private boolean mSkipDeleteOps;
     protected boolean handleMailboxConflict;
     protected ConcurrentMap<Integer, Integer> mailboxConflicts = new ConcurrentHashMap<Integer, Integer>();
+    private final ReplayProgress mProgress = new ReplayProgress("redo replay");
 
     public RedoPlayer(boolean writable) {
         this(writable, false, false, false, false);
@@ -77,6 +78,7 @@ public class RedoPlayer {
     }
 
     public void shutdown() {
+        mProgress.finish();
         mOpsMap.clear();
     }
 
@@ -326,6 +328,7 @@ public class RedoPlayer {
                                     if (ZimbraLog.redolog.isDebugEnabled())
                                         ZimbraLog.redolog.debug("Redoing: " + prepareOp.toString());
                                     prepareOp.setUnloggedReplay(mUnloggedReplay);
+                                    mProgress.submitted(prepareOp);
                                     playOp(prepareOp);
                                 } catch(Exception e) {
                                     if (!ignoreReplayErrors())
@@ -345,15 +348,23 @@ public class RedoPlayer {
     protected boolean ignoreReplayErrors() { return mIgnoreReplayErrors; }
 
     /**
-     * Actually execute the operation.
+     * Actually execute the operation.  Subclasses may defer execution, but
+     * must eventually execute it through this method so that it is counted
+     * in the replay progress.
      * @param op
      * @throws Exception
      */
     protected void playOp(RedoableOp op) throws Exception {
-        if (handleMailboxConflict) {
-            redoOpWithMboxConflict(op);
-        } else {
-            op.redo();
+        boolean success = false;
+        try {
+            if (handleMailboxConflict) {
+                redoOpWithMboxConflict(op);
+            } else {
+                op.redo();
+            }
+            success = true;
+        } finally {
+            mProgress.replayed(op, success);
         }
     }
     
@@ -418,6 +429,7 @@ public class RedoPlayer {
             return 0;
         }
 
+        ReplayProgress progress = new ReplayProgress("crash recovery");
         synchronized (mOpsMapGuard) {
             Set entrySet = mOpsMap.entrySet();
             ZimbraLog.redolog.info("Redoing " + numOps + " uncommitted transactions");
@@ -437,6 +449,7 @@ public class RedoPlayer {
                     ZimbraLog.redolog.info("REDOING: " + op);
 
                 boolean success = false;
+                progress.submitted(op);
                 try {
                     op.redo();
                     success = true;
@@ -445,6 +458,7 @@ public class RedoPlayer {
                             "  Backend state of affected item is indeterminate." +
                             "  Marking operation as aborted and moving on.", e);
                 } finally {
+                    progress.replayed(op, success);
                     if (success) {
                         CommitTxn commit = new CommitTxn(op);
                         redoLogMgr.logOnly(commit, true);
@@ -456,6 +470,7 @@ public class RedoPlayer {
             }
             mOpsMap.clear();
         }
+        progress.finish();
 
         return numOps;
     }
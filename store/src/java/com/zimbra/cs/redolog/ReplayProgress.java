@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Throughput and lag of a redo log replay, logged every {@code zimbra_redolog_replay_progress_interval_ms} while it
+ * runs.
+ * <p>
+ * An op is submitted when the replay decides to redo it, and replayed once it has been redone (or has failed). Lag is
+ * the difference between the log timestamps of the newest submitted op and the newest replayed op, i.e. how far the
+ * replay trails the reader.
+ */
+public final class ReplayProgress {
+    private final String name;
+    private final long startTime;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong newestSubmitted = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong newestReplayed = new AtomicLong(Long.MIN_VALUE);
+    private volatile long nextReport;
+    private long lastReportTime; // guarded by this
+    private long lastReportCount; // guarded by this
+
+    public ReplayProgress(String name) {
+        this.name = name;
+        startTime = System.currentTimeMillis();
+        lastReportTime = startTime;
+        nextReport = nextReport(startTime);
+    }
+
+    private static long nextReport(long now) {
+        long interval = LC.zimbra_redolog_replay_progress_interval_ms.longValue();
+        return interval > 0 ? now + interval : Long.MAX_VALUE;
+    }
+
+    private static void advance(AtomicLong newest, long timestamp) {
+        long current;
+        while (timestamp > (current = newest.get())) {
+            if (newest.compareAndSet(current, timestamp)) {
+                return;
+            }
+        }
+    }
+
+    public void submitted(RedoableOp op) {
+        submitted.incrementAndGet();
+        advance(newestSubmitted, op.getTimestamp());
+        checkReport();
+    }
+
+    public void replayed(RedoableOp op, boolean success) {
+        replayed.incrementAndGet();
+        if (!success) {
+            failed.incrementAndGet();
+        }
+        advance(newestReplayed, op.getTimestamp());
+        checkReport();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * Returns the lag in milliseconds of log time, or 0 if nothing has been replayed yet.
+     */
+    public long getLag() {
+        long done = newestReplayed.get();
+        return done == Long.MIN_VALUE ? 0 : Math.max(newestSubmitted.get() - done, 0);
+    }
+
+    private void checkReport() {
+        if (System.currentTimeMillis() >= nextReport) {
+            report();
+        }
+    }
+
+    private synchronized void report() {
+        long now = System.currentTimeMillis();
+        if (now < nextReport) {
+            return; // another thread just reported
+        }
+        nextReport = nextReport(now);
+        long count = replayed.get();
+        long rate = (count - lastReportCount) * 1000 / Math.max(now - lastReportTime, 1);
+        lastReportTime = now;
+        lastReportCount = count;
+        ZimbraLog.redolog.info("%s: replayed %d ops (%d failed), %d ops/s, %d in progress, lag %d ms",
+                name, count, failed.get(), rate, submitted.get() - count, getLag());
+    }
+
+    /**
+     * Logs the totals of a finished replay.
+     */
+    public void finish() {
+        long count = replayed.get();
+        if (count == 0) {
+            return;
+        }
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        ZimbraLog.redolog.info("%s: finished, replayed %d ops (%d failed) in %d ms, %d ops/s",
+                name, count, failed.get(), elapsed, count * 1000 / elapsed);
+    }
+}
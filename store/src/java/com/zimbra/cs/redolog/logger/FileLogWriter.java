@@ -23,6 +23,7 @@
  */
 package com.zimbra.cs.redolog.logger;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Constants;
@@ -35,22 +36,31 @@ import com.zimbra.cs.redolog.RedoLogManager;
 import com.zimbra.cs.redolog.RolloverManager;
 import com.zimbra.cs.redolog.op.CommitTxn;
 import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author jhahm
  *
- * TODO To change the template for this generated type comment go to
- * Window - Preferences - Java - Code Generation - Code and Comments
+ * Appends redo records to a log file with group commit.  Logger threads copy
+ * their record into an in-memory batch and, if the record must be durable,
+ * wait for a single writer thread.  The writer takes whatever has accumulated,
+ * writes it with one call and fsyncs it, then starts over right away with the
+ * records that arrived in the meantime.  The more loggers are waiting, the
+ * more records each fsync covers, without a fixed delay when there's no load.
  */
 public class FileLogWriter implements LogWriter {
 
@@ -64,38 +74,53 @@ public class FileLogWriter implements LogWriter {
         }
     }
 
+    // Records larger than this are written straight to the file rather than copied into the batch.
+    private static final int MAX_BATCHED_RECORD = 64 * 1024;
+
+    // How long a logger waits for the writer thread before fsyncing by itself.
+    private static final long FSYNC_WAIT_MS = 10000;
+
+    // Commit callbacks are made in commit order, off the writer thread so they can't delay the next fsync.
+    private static final ExecutorService sCommitNotifier = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("RedoCommitNotifier").setDaemon(true).build());
+
     protected RedoLogManager mRedoLogMgr;
 
-    // Synchronizes access to mRAF, mFileSize, mLogSeq, mFsyncSeq, mLogCount, and mFsyncCount.
+    // Synchronizes access to mHeader, mFileSize, mPending, mPendingNotifs, the sequence numbers and counters.
+    // Logger threads wait on it for their record to be fsynced, and the writer thread waits on it for new records.
     private final Object mLock = new Object();
 
-    // wait/notify between logger threads and fsync thread
-    private final Object mFsyncCond = new Object();
+    // Serializes writes and fsyncs of mRAF.  Never acquired while holding mLock.
+    private final Object mIoLock = new Object();
 
     private FileHeader mHeader;
+    private boolean mHeaderDirty;
     private long mFirstOpTstamp;
     private long mLastOpTstamp;
     private long mCreateTime;
 
     private File mFile;
-    private RandomAccessFile mRAF;
-    private long mFileSize;
+    private volatile RandomAccessFile mRAF;
+    private long mFileSize;         // includes records that are still in the batch
     private long mLastLogTime;
 
-    private long mFsyncIntervalMS;          // how many milliseconds fsync thread sleeps after each fync
+    private long mFsyncIntervalMS;  // > 0 to use the group commit thread; <= 0 to fsync in the logging thread
     private boolean mFsyncDisabled;
 
-    private FsyncThread mFsyncer;   // fsync thread
+    private GroupCommitThread mFsyncer;
+    private boolean mFsyncerIdle;   // writer thread is waiting for records
+
+    private RecordBuffer mPending = new RecordBuffer();     // records not yet written
+    private RecordBuffer mSpare = new RecordBuffer();       // batch being written, owned by the holder of mIoLock
+    private List<Notif> mPendingNotifs = new ArrayList<Notif>();
 
-    private int mLogSeq;            // last item logged
-    private int mFsyncSeq;          // last item fsynced
+    private long mLogSeq;           // last item logged
+    private long mFsyncSeq;         // last item fsynced
 
     // for gathering some stats; nonessential for functionality
     private int mLogCount;          // how many times log was called
     private int mFsyncCount;        // how many times fsync was called
 
-    private CommitNotifyQueue mCommitNotifyQueue;
-
     public FileLogWriter(RedoLogManager redoLogMgr,
                          File logfile,
                          long fsyncIntervalMS) {
@@ -110,8 +135,6 @@ public class FileLogWriter implements LogWriter {
         mFsyncDisabled = DebugConfig.disableRedoLogFsync;
 
         mFsyncCount = mLogCount = 0;
-
-        mCommitNotifyQueue = new CommitNotifyQueue(100);
     }
 
     @Override public long getSequence() {
@@ -186,34 +209,36 @@ public class FileLogWriter implements LogWriter {
      * @see com.zimbra.cs.redolog.LogWriter#open()
      */
     @Override public synchronized void open() throws IOException {
-        synchronized (mLock) {
-            if (mRAF != null) return;  // already open
+        synchronized (mIoLock) {
+            synchronized (mLock) {
+                if (mRAF != null) return;  // already open
 
-            mRAF = new RandomAccessFile(mFile, "rw");
+                RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
 
-            if (mRAF.length() >= FileHeader.HEADER_LEN) {
-                mHeader.read(mRAF);
-                mCreateTime = mHeader.getCreateTime();
-                if (mCreateTime == 0) {
+                if (raf.length() >= FileHeader.HEADER_LEN) {
+                    mHeader.read(raf);
+                    mCreateTime = mHeader.getCreateTime();
+                    if (mCreateTime == 0) {
+                        mCreateTime = System.currentTimeMillis();
+                        mHeader.setCreateTime(mCreateTime);
+                    }
+                    mFirstOpTstamp = mHeader.getFirstOpTstamp();
+                    mLastOpTstamp = mHeader.getLastOpTstamp();
+                } else {
                     mCreateTime = System.currentTimeMillis();
                     mHeader.setCreateTime(mCreateTime);
+                    mHeader.setSequence(mRedoLogMgr.getCurrentLogSequence());
                 }
-                mFirstOpTstamp = mHeader.getFirstOpTstamp();
-                mLastOpTstamp = mHeader.getLastOpTstamp();
-            } else {
-                mCreateTime = System.currentTimeMillis();
-                mHeader.setCreateTime(mCreateTime);
-                mHeader.setSequence(mRedoLogMgr.getCurrentLogSequence());
+                mHeader.setOpen(true);
+                mHeader.write(raf);
+                mHeaderDirty = false;
+
+                // go to the end of file, so we can append
+                long len = raf.length();
+                raf.seek(len);
+                mFileSize = len;
+                mRAF = raf;
             }
-            mHeader.setOpen(true);
-            mHeader.write(mRAF);
-
-            // go to the end of file, so we can append
-            long len = mRAF.length();
-            mRAF.seek(len);
-            mFileSize = len;
-
-            mLogSeq = mFsyncSeq = 0;
         }
 
         if (mFsyncIntervalMS > 0)
@@ -226,8 +251,12 @@ public class FileLogWriter implements LogWriter {
     @Override public synchronized void close() throws IOException {
         stopFsyncThread();
 
-        synchronized (mLock) {
-            if (mRAF != null) {
+        synchronized (mIoLock) {
+            if (mRAF == null)
+                return;
+            // write out whatever the writer thread didn't get to
+            sync(true);
+            synchronized (mLock) {
                 if (mLastOpTstamp != 0)
                 	mHeader.setLastOpTstamp(mLastOpTstamp);
                 mHeader.setOpen(false);
@@ -237,8 +266,9 @@ public class FileLogWriter implements LogWriter {
                 mRAF.getChannel().force(true);
                 mRAF.close();
                 mRAF = null;
-            } else
-                return;
+                // wake up loggers that are still waiting, they'll find the file closed
+                mLock.notifyAll();
+            }
         }
 
         // Write some stats, so we can see how many times we were able to avoid calling fsync.
@@ -251,113 +281,201 @@ public class FileLogWriter implements LogWriter {
      * and the setting of fsync interval, this method can do one of 3 things:
      *
      * case 1: !synchronous
-     * action: write() only; no flush/fsync
+     * action: add the record to the batch; no fsync
+     * The record is written by the group commit thread, or right away if
+     * there is no such thread.
      *
      * case 2: synchronous && fsyncInterval > 0
-     * action: write(), then wait() until notified by fsync thread
-     * Current thread only calls write() on the RandomAccessFile, and blocks to
-     * wait for the next scheduled fsync.  Fsync thread periodically flushes
-     * the output stream and fsync's the file.  After each fsync, all waiting
-     * logger threads are notified to continue.  This method batches multiple
-     * log items before each fsync, and results in greater throughput than
-     * calling fsync after each log item because fsync to physical disk is
-     * a high-latency operation.
+     * action: add the record to the batch, then wait until the group commit
+     * thread has written and fsynced it.  The group commit thread fsyncs
+     * as soon as the previous fsync returns, so each fsync covers all the
+     * records that arrived while the previous one was in progress.  This
+     * results in greater throughput than calling fsync after each log item
+     * because fsync to physical disk is a high-latency operation.
      *
      * case 3: synchronous && fsyncInterval <= 0
-     * action: write(), then fsync() in the current thread
-     * Fsync is required, but the sleep interval for fsync thread is 0.  We
-     * special case this condition to mean fsync should be done by the calling
-     * thread.
+     * action: add the record to the batch, then write and fsync it in the
+     * current thread, along with anything other threads have batched.
      */
     @Override public void log(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
-        int seq;
-        boolean sameMboxAsLastOp = false;
+        if (mRAF == null)
+            throw new IOException("Redolog file closed");
+        long start = System.currentTimeMillis();
+
+        long seq;
+        try {
+            RecordBuffer record = RecordBuffer.read(data, MAX_BATCHED_RECORD);
+            if (record.size() <= MAX_BATCHED_RECORD) {
+                seq = append(op, record);
+            } else {
+                seq = appendLarge(op, record, data);
+            }
+        } finally {
+            data.close();
+        }
+
+        boolean threaded;
+        synchronized (mLock) {
+            threaded = mFsyncer != null;
+            if (threaded && mFsyncerIdle)
+                mLock.notifyAll();  // wake up the writer
+        }
+
+        if (!synchronous) {
+            // case 1
+            if (!threaded)
+                sync(false);
+            return;
+        }
+
+        if (threaded) {
+            // case 2
+            boolean synced = false;
+            try {
+                synced = waitForFsync(seq);
+            } catch (InterruptedException e) {
+                ZimbraLog.redolog.info("Thread interrupted during fsync");
+            }
+            if (!synced) {
+                // timed out, so fsync in this thread
+                sync(true);
+            }
+        } else {
+            // case 3
+            sync(true);
+        }
+        ZimbraPerf.HISTOGRAM_REDO_COMMIT_MS.increment(System.currentTimeMillis() - start);
+    }
 
+    /**
+     * Adds a record to the batch and returns its sequence number.
+     */
+    private long append(RedoableOp op, RecordBuffer record) throws IOException {
         synchronized (mLock) {
             if (mRAF == null)
                 throw new IOException("Redolog file closed");
+            recordOp(op);
+            mPending.append(record);
+            mFileSize += record.size();
+            return mLogSeq;
+        }
+    }
 
-            // Record first transaction in header.
-            long tstamp = op.getTimestamp();
-            mLastOpTstamp = Math.max(tstamp, mLastOpTstamp);
-            if (mFirstOpTstamp == 0) {
-            	mFirstOpTstamp = tstamp;
-                mHeader.setFirstOpTstamp(mFirstOpTstamp);
-                mHeader.setLastOpTstamp(mLastOpTstamp);
-                long pos = mRAF.getFilePointer();
-                mHeader.write(mRAF);
-                mRAF.seek(pos);
+    /**
+     * Writes a record that is too large to be batched directly to the file, after writing out the batch so that
+     * the order of records is preserved.  The record doesn't get fsynced here.
+     *
+     * @param head the beginning of the record, already read from {@code data}
+     */
+    private long appendLarge(RedoableOp op, RecordBuffer head, InputStream data) throws IOException {
+        synchronized (mIoLock) {
+            RecordBuffer batch;
+            long seq;
+            synchronized (mLock) {
+                if (mRAF == null)
+                    throw new IOException("Redolog file closed");
+                batch = takeBatch();
+                recordOp(op);
+                seq = mLogSeq;
             }
-
-            mLogSeq++;
-            mLogCount++;
-            seq = mLogSeq;
+            writeBatch(batch);
+            head.writeTo(mRAF);
+            long written = head.size();
             int numRead;
-            byte[] buf = new byte[1024];
+            byte[] buf = new byte[8192];
             while ((numRead = data.read(buf)) >= 0) {
                 mRAF.write(buf, 0, numRead);
-                mFileSize += numRead;
+                written += numRead;
             }
-            data.close();
-
-            // We do this with log writer lock held, so the commits and any
-            // callbacks made on their behalf are truly in the correct order.
-            if (op instanceof CommitTxn) {
-                CommitTxn cmt = (CommitTxn) op;
-                RedoCommitCallback cb = cmt.getCallback();
-                if (cb != null) {
-                    long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
-                    CommitId cid = new CommitId(redoSeq, (CommitTxn) op);
-                    Notif notif = new Notif(cb, cid);
-                    // We queue it instead making the callback right away.
-                    // Call it only after the commit record has been fsynced.
-                    mCommitNotifyQueue.push(notif);
-                }
+            synchronized (mLock) {
+                mFileSize += written;
             }
+            return seq;
+        }
+    }
 
-            mLastLogTime = System.currentTimeMillis();
+    /**
+     * Updates the bookkeeping for a record that is being appended.  Caller must hold mLock.
+     */
+    private void recordOp(RedoableOp op) {
+        // Record first transaction in header.
+        long tstamp = op.getTimestamp();
+        mLastOpTstamp = Math.max(tstamp, mLastOpTstamp);
+        if (mFirstOpTstamp == 0) {
+        	mFirstOpTstamp = tstamp;
+            mHeader.setFirstOpTstamp(mFirstOpTstamp);
+            mHeader.setLastOpTstamp(mLastOpTstamp);
+            mHeaderDirty = true;
+        }
 
-            sameMboxAsLastOp = mLastOpMboxId == op.getMailboxId();
-            mLastOpMboxId = op.getMailboxId();
+        mLogSeq++;
+        mLogCount++;
+
+        // We do this with log writer lock held, so the commits and any
+        // callbacks made on their behalf are truly in the correct order.
+        if (op instanceof CommitTxn) {
+            CommitTxn cmt = (CommitTxn) op;
+            RedoCommitCallback cb = cmt.getCallback();
+            if (cb != null) {
+                long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
+                CommitId cid = new CommitId(redoSeq, (CommitTxn) op);
+                // We queue it instead making the callback right away.
+                // Call it only after the commit record has been fsynced.
+                mPendingNotifs.add(new Notif(cb, cid));
+            }
         }
 
-        // cases 1 above
-        if (!synchronous)
-            return;
+        mLastLogTime = System.currentTimeMillis();
+    }
 
-        if (mFsyncIntervalMS > 0) {
-            if (!sameMboxAsLastOp) {
-                // case 2
-                try {
-                    // wait for fsync thread to write this entry to disk
-                    synchronized (mFsyncCond) {
-                        mFsyncCond.wait(10000);
-                    }
-                } catch (InterruptedException e) {
-                    ZimbraLog.redolog.info("Thread interrupted during fsync");
-                }
-                synchronized (mLock) {
-                    // timed out, so fsync in this thread
-                    if (seq > mFsyncSeq)
-                        fsync();
-                }
-            } else {
-                // If this op is on same mailbox as last op, let's assume there's a thread issuing
-                // many updates on a single mailbox in a loop, such as when importing a large ics file.
-                // We don't want to pause for mFsyncIntervalMS between every op (because all writes
-                // to a single mailbox are synchronized), so fsync inline and return immediately.
-                fsync();
+    /**
+     * Hands the batch over to the caller, who must hold mIoLock and mLock.
+     */
+    private RecordBuffer takeBatch() {
+        RecordBuffer batch = mPending;
+        mPending = mSpare;
+        mSpare = batch;
+        return batch;
+    }
+
+    /**
+     * Writes the header if it changed and the batch.  Caller must hold mIoLock.
+     */
+    private void writeBatch(RecordBuffer batch) throws IOException {
+        if (mHeaderDirty) {
+            synchronized (mLock) {
+                long pos = mRAF.getFilePointer();
+                mHeader.write(mRAF);
+                mRAF.seek(pos);
+                mHeaderDirty = false;
             }
-        } else {
-            // case 3
-            fsync();
         }
+        batch.writeTo(mRAF);
+        batch.clear();
     }
 
-    private int mLastOpMboxId;
+    /**
+     * Waits until the group commit thread has fsynced the record with the given sequence number.
+     *
+     * @return false if it didn't happen in time
+     */
+    private boolean waitForFsync(long seq) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + FSYNC_WAIT_MS;
+        synchronized (mLock) {
+            while (mFsyncSeq < seq) {
+                if (mRAF == null)
+                    throw new IOException("Redolog file closed");
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                mLock.wait(remaining);
+            }
+            return true;
+        }
+    }
 
     @Override public void flush() throws IOException {
-        fsync();
+        sync(true);
     }
 
     private boolean mNoStat;
@@ -427,205 +545,223 @@ public class FileLogWriter implements LogWriter {
 
     public synchronized void enableFsync() throws IOException {
         startFsyncThread();
-        fsync();
+        sync(true);
     }
 
     public synchronized void disableFsync() throws IOException {
-        fsync();
+        sync(true);
         stopFsyncThread();
     }
 
     private synchronized void startFsyncThread() {
-        if (mFsyncer == null && mFsyncIntervalMS > 0) {
-            mFsyncer = new FsyncThread(mFsyncIntervalMS);
-            mFsyncer.start();
+        synchronized (mLock) {
+            if (mFsyncer == null && mFsyncIntervalMS > 0) {
+                mFsyncer = new GroupCommitThread();
+                mFsyncer.start();
+            }
         }
     }
 
     private synchronized void stopFsyncThread() {
-        if (mFsyncer != null) {
-            mFsyncer.stopThread();
+        GroupCommitThread fsyncer;
+        synchronized (mLock) {
+            fsyncer = mFsyncer;
             mFsyncer = null;
+            mLock.notifyAll();
         }
+        if (fsyncer != null)
+            fsyncer.stopThread();
     }
 
-    // do fsync if there are items logged since last fsync
-    private void fsync() throws IOException {
-        boolean fsyncNeeded = false;
-        int seq = 0;
-        synchronized (mLock) {
-            if (mFsyncSeq < mLogSeq) {
+    /**
+     * Writes out the batch and, if {@code fsync} is true, fsyncs the file, unless there is nothing to do.
+     * Logger threads whose records are now on disk are released and their commit callbacks are queued.
+     */
+    private void sync(boolean fsync) throws IOException {
+        synchronized (mIoLock) {
+            RecordBuffer batch;
+            List<Notif> notifs;
+            long seq;
+            long lastFsyncSeq;
+            synchronized (mLock) {
+                if (mFsyncSeq >= mLogSeq)
+                    return;
                 if (mRAF == null)
                     throw new IOException("Redolog file closed");
-                fsyncNeeded = true;
                 seq = mLogSeq;
-                if (!mFsyncDisabled)
-                    mFsyncCount++;
+                lastFsyncSeq = mFsyncSeq;
+                batch = takeBatch();
+                notifs = mPendingNotifs;
+                if (fsync)
+                    mPendingNotifs = new ArrayList<Notif>();
             }
-        }
-        if (fsyncNeeded) {
+
+            writeBatch(batch);
+            if (!fsync)
+                return;
             if (!mFsyncDisabled) {
-                synchronized (mLock) {
-                    if (mRAF != null)
-                        mRAF.getChannel().force(false);
-                    else
-                        throw new IOException("Redolog file closed");
-                    mCommitNotifyQueue.flush(false);
-                }
+                long start = ZimbraPerf.STOPWATCH_REDO_FSYNC.start();
+                mRAF.getChannel().force(false);
+                ZimbraPerf.STOPWATCH_REDO_FSYNC.stop(start);
             }
+            ZimbraPerf.HISTOGRAM_REDO_FSYNC_BATCH.increment(seq - lastFsyncSeq);
+
             synchronized (mLock) {
+                if (!mFsyncDisabled)
+                    mFsyncCount++;
                 mFsyncSeq = seq;
+                mLock.notifyAll();
             }
-            if (mFsyncIntervalMS > 0) {
-                synchronized (mFsyncCond) {
-                    mFsyncCond.notifyAll();
-                }
-            }
+            if (!notifs.isEmpty())
+                notifyCommits(notifs);
         }
     }
 
+    private static void notifyCommits(final List<Notif> notifs) {
+        sCommitNotifier.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Notif notif : notifs) {
+                    RedoCommitCallback cb = notif.getCallback();
+                    assert(cb != null);
+                    try {
+                        cb.callback(notif.getCommitId());
+                    } catch (OutOfMemoryError e) {
+                        Zimbra.halt("out of memory", e);
+                    } catch (Throwable t) {
+                        ZimbraLog.misc.error("Error while making commit callback", t);
+                    }
+                }
+            }
+        });
+    }
 
-    // Thread that calls fsync() periodically.  Threads that call log()
-    // will write the log entry and wait for this thread to signal them
-    // after sync to disk has occurred.  This way, there are fewer fsyncs
-    // than there are calls to log(), resulting in improved throughput.
-    private class FsyncThread extends Thread {
-        private long mSleepMS;
-        private Object mFsyncLock;  // synchronizes access to mRunning
-        private boolean mRunning;
 
-        private static final long MIN_SLEEP_MILLIS = 1;
-        private static final long MAX_SLEEP_MILLIS = 1000;  // never sleep longer than 1 seconds
+    // Thread that writes and fsyncs batched records as long as there are any.
+    // Threads that call log() add their record to the batch and wait for
+    // this thread to signal them after sync to disk has occurred.  Records
+    // that arrive during an fsync go into the next one, so there are fewer
+    // fsyncs than there are calls to log(), resulting in improved throughput.
+    private class GroupCommitThread extends Thread {
 
-        public FsyncThread(long fsyncIntervalMS) {
-            super("FileLogWriter.FsyncThread-"+System.currentTimeMillis());
-            // Sanity check the sleep interval.
-            if (fsyncIntervalMS < MIN_SLEEP_MILLIS) {
-                ZimbraLog.redolog.warn("Invalid fsync thread sleep interval %dms; using %dms instead",
-                        fsyncIntervalMS, MIN_SLEEP_MILLIS);
-                mSleepMS = MIN_SLEEP_MILLIS;
-            } else if (fsyncIntervalMS > MAX_SLEEP_MILLIS) {
-                ZimbraLog.redolog.warn("Fsync thread sleep interval %ms is too long; using %dms instead",
-                        fsyncIntervalMS, MAX_SLEEP_MILLIS);
-                mSleepMS = MAX_SLEEP_MILLIS;
-            } else {
-                mSleepMS = fsyncIntervalMS;
-            }
-            mFsyncLock = new Object();
-            mRunning = true;
+        public GroupCommitThread() {
+            super("FileLogWriter.GroupCommitThread-"+System.currentTimeMillis());
         }
 
         @Override public void run() {
-            boolean running = true;
-        	ZimbraLog.redolog.info("Starting fsync thread with interval %d", mSleepMS);
-            while (running) {
-                // Sleep between fsyncs.
-                try {
-                	ZimbraLog.redolog.trace("Sleeping for %s", mSleepMS);
-                    Thread.sleep(mSleepMS);
-                	ZimbraLog.redolog.trace("Slept for %s running? %s", mSleepMS, mRunning);
-                } catch (InterruptedException e) {
-                    ZimbraLog.redolog.warn("Sync thread interrupted", e);
+        	ZimbraLog.redolog.info("Starting group commit thread");
+            while (true) {
+                synchronized (mLock) {
+                    while (mFsyncer == this && mFsyncSeq >= mLogSeq) {
+                        mFsyncerIdle = true;
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            ZimbraLog.redolog.warn("Sync thread interrupted", e);
+                        }
+                        mFsyncerIdle = false;
+                    }
+                    if (mFsyncer != this)
+                        break;
                 }
 
                 try {
-                    fsync();    // do the sync
+                    sync(true);
                 } catch (IOException e) {
                     String message = "Error while fsyncing " + mFile.getAbsolutePath() + "; Aborting.";
                     Zimbra.halt(message, e);
                 }
-
-                synchronized (mFsyncLock) {
-                    running = mRunning;
-                }
             }
-            ZimbraLog.redolog.info("fsync thread exiting");
+            ZimbraLog.redolog.info("group commit thread exiting");
         }
 
-        // Stop the fsync thread.  Wait until the thread really stops.
+        // Wait until the thread really stops.  Caller must have cleared mFsyncer.
         public void stopThread() {
-            synchronized (mFsyncLock) {
-                mRunning = false;
-            }
             try {
             	while (isAlive()) {
-            		if (ZimbraLog.redolog.isTraceEnabled()) {
-            			ZimbraLog.redolog.trace("waiting for %s to finish. running? %s", getName(), mRunning);
-            		} else {
-            			ZimbraLog.redolog.info("waiting for %s to finish.", getName());
-            		}
+            		ZimbraLog.redolog.info("waiting for %s to finish.", getName());
             		join(Constants.MILLIS_PER_MINUTE);
             	}
             	ZimbraLog.redolog.info("%s finished", getName());
             } catch (InterruptedException e) {
-                ZimbraLog.redolog.warn("InterruptedException while stopping FsyncThread", e);
+                ZimbraLog.redolog.warn("InterruptedException while stopping GroupCommitThread", e);
             }
         }
     }
 
 
-    // Commit callback handling
+    // Growable byte array holding one or more records
+    private static final class RecordBuffer {
+        private static final int INITIAL_SIZE = 16 * 1024;
+        private static final int MAX_RETAINED_SIZE = 1024 * 1024;
 
-    private static class Notif {
-        private RedoCommitCallback mCallback;
-        private CommitId mCommitId;
+        private byte[] mBuf;
+        private int mSize;
 
-        public Notif(RedoCommitCallback callback, CommitId cid) {
-            mCallback = callback;
-            mCommitId = cid;
+        RecordBuffer() {
+            this(INITIAL_SIZE);
         }
-        public RedoCommitCallback getCallback() { return mCallback; }
-        public CommitId getCommitId() { return mCommitId; }
-    }
 
-    private class CommitNotifyQueue {
-        private Notif[] mQueue = new Notif[100];
-        private int mHead;  // points to first entry
-        private int mTail;  // points to just after last entry (first empty slot)
-        private boolean mFull;
-
-        public CommitNotifyQueue(int size) {
-            mQueue = new Notif[size];
-            mHead = mTail = 0;
-            mFull = false;
+        RecordBuffer(int capacity) {
+            mBuf = new byte[capacity];
         }
 
-        public synchronized void push(Notif notif) throws IOException {
-            if (notif != null) {
-                if (mFull) flush(true);  // queue is full
-                assert(!mFull);
-                mQueue[mTail] = notif;
-                mTail++;
-                mTail %= mQueue.length;
-                mFull = mTail == mHead;
+        // Reads the whole stream, or stops as soon as more than limit bytes have been read.
+        static RecordBuffer read(InputStream in, int limit) throws IOException {
+            RecordBuffer record = new RecordBuffer(Math.min(Math.max(in.available(), 256), limit) + 1);
+            int numRead;
+            while ((numRead = in.read(record.mBuf, record.mSize, record.mBuf.length - record.mSize)) >= 0) {
+                record.mSize += numRead;
+                if (record.mSize > limit)
+                    break;
+                if (record.mSize == record.mBuf.length)
+                    record.ensureCapacity(Math.min(record.mSize * 2, limit + 1));
             }
+            return record;
         }
 
-        private synchronized Notif pop() {
-            if (mHead == mTail && !mFull) return null;  // queue is empty
-            Notif n = mQueue[mHead];
-            mQueue[mHead] = null;  // help with GC
-            mHead++;
-            mHead %= mQueue.length;
-            mFull = false;
-            return n;
+        int size() {
+            return mSize;
         }
 
-        public synchronized void flush(boolean fsync) throws IOException {
-            if (fsync)
-                fsync();
-            Notif notif;
-            while ((notif = pop()) != null) {
-                RedoCommitCallback cb = notif.getCallback();
-                assert(cb != null);
-                try {
-                    cb.callback(notif.getCommitId());
-                } catch (OutOfMemoryError e) {
-                    Zimbra.halt("out of memory", e);
-                } catch (Throwable t) {
-                    ZimbraLog.misc.error("Error while making commit callback", t);
-                }
+        private void ensureCapacity(int capacity) {
+            if (capacity > mBuf.length) {
+                byte[] buf = new byte[Math.max(capacity, mBuf.length * 2)];
+                System.arraycopy(mBuf, 0, buf, 0, mSize);
+                mBuf = buf;
             }
         }
+
+        void append(RecordBuffer record) {
+            ensureCapacity(mSize + record.mSize);
+            System.arraycopy(record.mBuf, 0, mBuf, mSize, record.mSize);
+            mSize += record.mSize;
+        }
+
+        void writeTo(RandomAccessFile raf) throws IOException {
+            if (mSize > 0)
+                raf.write(mBuf, 0, mSize);
+        }
+
+        void clear() {
+            mSize = 0;
+            if (mBuf.length > MAX_RETAINED_SIZE)
+                mBuf = new byte[INITIAL_SIZE];  // don't hold on to the memory after a burst
+        }
+    }
+
+
+    // Commit callback handling
+
+    private static class Notif {
+        private RedoCommitCallback mCallback;
+        private CommitId mCommitId;
+
+        public Notif(RedoCommitCallback callback, CommitId cid) {
+            mCallback = callback;
+            mCommitId = cid;
+        }
+        public RedoCommitCallback getCallback() { return mCallback; }
+        public CommitId getCommitId() { return mCommitId; }
     }
 }
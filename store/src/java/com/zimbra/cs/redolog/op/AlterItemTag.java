@@ -60,6 +60,16 @@ public class AlterItemTag extends RedoableOp {
         mConstraint = (tcon == null ? null : tcon.toString());
     }
 
+    @Override
+    public int[] getModifiedItemIds() {
+        // altering a tag may create it; altering a flag on a message or contact only affects that item
+        boolean flag = mTagName != null ? mTagName.startsWith("\\") : mTagId < 0;
+        if (flag && mIds != null && (type == MailItem.Type.MESSAGE || type == MailItem.Type.CONTACT)) {
+            return mIds;
+        }
+        return null;
+    }
+
     @Override
     protected String getPrintableData() {
         StringBuffer sb = new StringBuffer("ids=");
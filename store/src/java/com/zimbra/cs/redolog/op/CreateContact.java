@@ -28,6 +28,7 @@ import java.util.Map;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.StringUtil;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -77,6 +78,20 @@ public class CreateContact extends RedoableOp {
         return mId;
     }
 
+    @Override
+    public int[] getModifiedItemIds() {
+        // tags may be created on the fly
+        if (mId == UNKNOWN_ID || (mTags != null && mTags.length > 0) || !StringUtil.isNullOrEmpty(mTagIds)) {
+            return null;
+        }
+        return new int[] { mId };
+    }
+
+    @Override
+    public int[] getReferencedItemIds() {
+        return new int[] { mFolderId };
+    }
+
     @Override
     protected String getPrintableData() {
         StringBuffer sb = new StringBuffer("folder=").append(mFolderId);
@@ -32,6 +32,7 @@ import java.util.zip.GZIPInputStream;
 import javax.activation.DataSource;
 
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.StringUtil;
@@ -282,6 +283,31 @@ implements CreateCalendarItemPlayer, CreateCalendarItemRecorder {
         return mData;
     }
 
+    @Override
+    public int[] getModifiedItemIds() {
+        // tags may be created on the fly and invites update calendar items, so those affect more than the message
+        if (mMsgId == UNKNOWN_ID || mCalendarItemId != UNKNOWN_ID ||
+                (mTags != null && mTags.length > 0) || !StringUtil.isNullOrEmpty(mTagIds)) {
+            return null;
+        }
+        List<Integer> ids = Lists.newArrayList(mMsgId);
+        if (mConvId != UNKNOWN_ID) {
+            ids.add(mConvId);
+        }
+        if (mConvFirstMsgId != UNKNOWN_ID) {
+            ids.add(mConvFirstMsgId);
+        }
+        if (mMergedConvIds != null) {
+            ids.addAll(mMergedConvIds);
+        }
+        return Ints.toArray(ids);
+    }
+
+    @Override
+    public int[] getReferencedItemIds() {
+        return new int[] { mFolderId };
+    }
+
     @Override protected String getPrintableData() {
         StringBuilder sb = new StringBuilder("id=").append(mMsgId);
         sb.append(", rcpt=").append(mRcptEmail);
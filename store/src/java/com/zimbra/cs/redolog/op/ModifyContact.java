@@ -59,6 +59,11 @@ public class ModifyContact extends RedoableOp {
         mParsedContact = pc;
     }
 
+    @Override
+    public int[] getModifiedItemIds() {
+        return mId == UNKNOWN_ID ? null : new int[] { mId };
+    }
+
     @Override
     protected String getPrintableData() {
         StringBuffer sb = new StringBuffer("id=");
@@ -217,6 +217,30 @@ public abstract class RedoableOp {
         return false;
     }
 
+    protected static final int[] NO_ITEM_IDS = new int[0];
+
+    /**
+     * Returns the IDs of the items this operation creates or changes, so that
+     * replay can run it concurrently with other operations on the same
+     * mailbox that don't touch those items.  Returns null if the operation
+     * may affect anything in its mailbox, in which case it is replayed after
+     * all earlier operations on the mailbox and before all later ones.  This
+     * is the default; only override it when the complete set of affected
+     * items is known from the logged data alone.
+     */
+    public int[] getModifiedItemIds() {
+        return null;
+    }
+
+    /**
+     * Returns the IDs of items, such as the containing folder, that this
+     * operation requires but doesn't change.  Only meaningful when
+     * {@link #getModifiedItemIds()} is not null.
+     */
+    public int[] getReferencedItemIds() {
+        return NO_ITEM_IDS;
+    }
+
     public long getTimestamp() {
         return mTimestamp;
     }
@@ -58,6 +58,16 @@ public class SetItemTags extends RedoableOp {
         mConstraint = (tcon == null ? null : tcon.toString());
     }
 
+    @Override
+    public int[] getModifiedItemIds() {
+        // setting tags may create them; changing flags on a message or contact only affects that item
+        boolean flagsOnly = (mTags == null || mTags.length == 0) && mTagBitmask == 0;
+        if (flagsOnly && mIds != null && (type == MailItem.Type.MESSAGE || type == MailItem.Type.CONTACT)) {
+            return mIds;
+        }
+        return null;
+    }
+
     @Override
     protected String getPrintableData() {
         StringBuilder sb = new StringBuilder("ids=");
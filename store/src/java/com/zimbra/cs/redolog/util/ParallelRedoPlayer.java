@@ -17,18 +17,46 @@
 
 package com.zimbra.cs.redolog.util;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.redolog.RedoPlayer;
 import com.zimbra.cs.redolog.op.RedoableOp;
 import com.zimbra.cs.util.Zimbra;
 
+/**
+ * Replays redo ops on a pool of threads.
+ * <p>
+ * Ops on the same mailbox are ordered by the items they touch rather than by mailbox: an op waits only for earlier
+ * ops that write an item it reads or writes, or that read an item it writes (see
+ * {@link RedoableOp#getModifiedItemIds()}). Ops that don't declare their items act as barriers for their mailbox.
+ * Independent ops, including those on the same mailbox, run concurrently. Ops that span multiple mailboxes are
+ * executed by the calling thread, as before.
+ * <p>
+ * At most {@code numThreads * queueCapacity} ops are in flight; the reader blocks beyond that so that a long log is
+ * streamed rather than loaded into memory.
+ */
 public class ParallelRedoPlayer extends RedoPlayer {
 
-    private PlayerThread[] mPlayerThreads;
+    private final ExecutorService mExecutor;
+    private final int mMaxInFlight;
+
+    // Scheduling state, guarded by mSchedLock.
+    private final Object mSchedLock = new Object();
+    private final Map<Integer, MailboxDeps> mMailboxes = new HashMap<Integer, MailboxDeps>();
+    private int mInFlight;
 
     public ParallelRedoPlayer(boolean writable, boolean unloggedReplay,
                               boolean ignoreReplayErrors, boolean skipDeleteOps,
@@ -36,24 +64,26 @@ public class ParallelRedoPlayer extends RedoPlayer {
         super(writable, unloggedReplay, ignoreReplayErrors, skipDeleteOps, handleMailboxConflict);
         ZimbraLog.redolog.debug("Starting ParallelRedoPlayer");
         numThreads = Math.max(numThreads, 1);
-        mPlayerThreads = new PlayerThread[numThreads];
-        for (int i = 0; i < numThreads; i++) {
-            String name = "RedoPlayer-" + Integer.toString(i);
-            PlayerThread player = new PlayerThread(queueCapacity);
-            mPlayerThreads[i] = player;
-            player.setName(name);
-            player.start();
-        }
+        mMaxInFlight = numThreads * Math.max(queueCapacity, 1);
+        mExecutor = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder().setNameFormat("RedoPlayer-%d").build());
     }
 
     @Override public void shutdown() {
         ZimbraLog.redolog.debug("Shutting down ParallelRedoPlayer");
         try {
-            super.shutdown();
-        } finally {
-            for (int i = 0; i < mPlayerThreads.length; i++) {
-                mPlayerThreads[i].shutdown();
+            // tasks skip execution after an error, but still have to run to release their dependents
+            synchronized (mSchedLock) {
+                while (mInFlight > 0) {
+                    mSchedLock.wait();
+                }
             }
+            mExecutor.shutdown();
+            mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            mExecutor.shutdownNow();
+        } finally {
+            super.shutdown();
         }
         ZimbraLog.redolog.debug("ParallelRedoPlayer shutdown complete");
     }
@@ -66,20 +96,102 @@ public class ParallelRedoPlayer extends RedoPlayer {
             // that depend on this op's result aren't run out of order.
             if (ZimbraLog.redolog.isDebugEnabled())
                 ZimbraLog.redolog.info("Executing: " + op.toString());
-            op.redo();
+            super.playOp(op);
         } else {
-            // Ops for the same mailbox must be played back in order.  To ensure that,
-            // all ops for the same mailbox are sent to the same player thread.  The
-            // ops are added to the thread's internal queue and played back in order.
-            // This assignment of ops to threads will result in uneven distribution.
-            int index = Math.abs(mboxId % mPlayerThreads.length);
-            PlayerThread player = mPlayerThreads[index];
-            RedoTask task = new RedoTask(op);
             if (ZimbraLog.redolog.isDebugEnabled())
                 ZimbraLog.redolog.info("Enqueuing: " + op.toString());
-            try {
-                player.enqueue(task);
-            } catch (InterruptedException e) {}
+            schedule(new RedoTask(op));
+        }
+    }
+
+    private void schedule(RedoTask task) throws InterruptedException {
+        synchronized (mSchedLock) {
+            while (mInFlight >= mMaxInFlight) {
+                mSchedLock.wait();
+            }
+            mInFlight++;
+
+            MailboxDeps mbox = mMailboxes.get(task.mMailboxId);
+            if (mbox == null) {
+                mbox = new MailboxDeps();
+                mMailboxes.put(task.mMailboxId, mbox);
+            }
+            Set<RedoTask> deps = new LinkedHashSet<RedoTask>();
+            if (mbox.mBarrier != null) {
+                deps.add(mbox.mBarrier);
+            }
+            if (task.mModified == null) {
+                // may touch anything in the mailbox: wait for everything before it, and make everything after it wait
+                deps.addAll(mbox.mSinceBarrier);
+                mbox.mBarrier = task;
+                mbox.mSinceBarrier.clear();
+                mbox.mItems.clear();
+            } else {
+                for (int id : task.mReferenced) {
+                    ItemDeps item = mbox.getItem(id);
+                    if (item.mWriter != null) {
+                        deps.add(item.mWriter);
+                    }
+                    item.mReaders.add(task);
+                }
+                for (int id : task.mModified) {
+                    ItemDeps item = mbox.getItem(id);
+                    if (item.mWriter != null) {
+                        deps.add(item.mWriter);
+                    }
+                    deps.addAll(item.mReaders);
+                    item.mWriter = task;
+                    item.mReaders.clear();
+                }
+                mbox.mSinceBarrier.add(task);
+            }
+            deps.remove(task);
+
+            for (RedoTask dep : deps) {
+                dep.mDependents.add(task);
+            }
+            task.mPending = deps.size();
+            if (task.mPending == 0) {
+                mExecutor.execute(task);
+            }
+        }
+    }
+
+    private void completed(RedoTask task) {
+        synchronized (mSchedLock) {
+            MailboxDeps mbox = mMailboxes.get(task.mMailboxId);
+            if (mbox.mBarrier == task) {
+                mbox.mBarrier = null;
+            } else {
+                mbox.mSinceBarrier.remove(task);
+            }
+            if (task.mModified != null) {
+                // drop our keys unless a later op has taken them over
+                for (int id : task.mReferenced) {
+                    mbox.releaseItem(id, task);
+                }
+                for (int id : task.mModified) {
+                    mbox.releaseItem(id, task);
+                }
+            }
+            if (mbox.mBarrier == null && mbox.mSinceBarrier.isEmpty()) {
+                mMailboxes.remove(task.mMailboxId);
+            }
+
+            for (RedoTask dependent : task.mDependents) {
+                if (--dependent.mPending == 0) {
+                    mExecutor.execute(dependent);
+                }
+            }
+            mInFlight--;
+            mSchedLock.notifyAll();
+        }
+    }
+
+    @VisibleForTesting
+    int getInFlight() {
+        synchronized (mSchedLock) {
+            return mInFlight;
         }
     }
 
@@ -106,82 +218,87 @@ public class ParallelRedoPlayer extends RedoPlayer {
         }
     }
 
-    private static class RedoTask {
-        private RedoableOp mOp;
-        public RedoTask(RedoableOp op)  { mOp = op; }
-        public RedoableOp getOp()       { return mOp; }
-        public boolean isShutdownTask() { return false; }
-    }
-
     /**
-     * Special task to tell the queue drain thread to go away.
+     * Dependency state of one mailbox, covering the ops that have been scheduled but not completed.
      */
-    private static class ShutdownTask extends RedoTask {
-        public ShutdownTask() { super(null); }
-        @Override
-        public boolean isShutdownTask() { return true; }
-    }
-
-    private class PlayerThread extends Thread {
-        private BlockingQueue<RedoTask> mQueue;
+    private static final class MailboxDeps {
+        /** the last op that may touch anything in the mailbox, if still running or waiting */
+        RedoTask mBarrier;
+        /** ops scheduled after the barrier */
+        final Set<RedoTask> mSinceBarrier = new HashSet<RedoTask>();
+        /** per-item last writer and readers since that writer, for ops scheduled after the barrier */
+        final Map<Integer, ItemDeps> mItems = new HashMap<Integer, ItemDeps>();
 
-        private PlayerThread(int queueCapacity) {
-            queueCapacity = Math.max(queueCapacity, 1);
-            mQueue = new LinkedBlockingQueue<RedoTask>(queueCapacity);
+        ItemDeps getItem(int id) {
+            ItemDeps item = mItems.get(id);
+            if (item == null) {
+                item = new ItemDeps();
+                mItems.put(id, item);
+            }
+            return item;
         }
 
-        public void enqueue(RedoTask task) throws InterruptedException {
-            mQueue.put(task);
+        void releaseItem(int id, RedoTask task) {
+            ItemDeps item = mItems.get(id);
+            if (item == null) {
+                return;
+            }
+            if (item.mWriter == task) {
+                item.mWriter = null;
+            }
+            item.mReaders.remove(task);
+            if (item.mWriter == null && item.mReaders.isEmpty()) {
+                mItems.remove(id);
+            }
         }
+    }
 
-        public void shutdown() {
-            if (hadError())
-                mQueue.clear();  // Ensure mQueue.put() below will not block.
-            ShutdownTask t = new ShutdownTask();
-            try {
-                mQueue.put(t);
-            } catch (InterruptedException e) {}
-            try {
-                join();
-            } catch (InterruptedException e) {}
+    private static final class ItemDeps {
+        RedoTask mWriter;
+        final Set<RedoTask> mReaders = new HashSet<RedoTask>();
+    }
+
+    private class RedoTask implements Runnable {
+        final RedoableOp mOp;
+        final int mMailboxId;
+        final int[] mModified;
+        final int[] mReferenced;
+        // guarded by mSchedLock
+        final List<RedoTask> mDependents = new ArrayList<RedoTask>(1);
+        int mPending;
+
+        RedoTask(RedoableOp op) {
+            mOp = op;
+            mMailboxId = op.getMailboxId();
+            mModified = op.getModifiedItemIds();
+            mReferenced = mModified == null ? null : op.getReferencedItemIds();
         }
 
-        @Override public void run() {
-            while (true) {
-                RedoTask task;
-                try {
-                    task = mQueue.take();
-                } catch (InterruptedException e) {
-                    break;
-                }
-                if (task.isShutdownTask())
-                    break;
-
-                if (hadError()) {
-                    // If there was an error, keep consuming from the queue without executing anything.
-                    // This thread must consume all tasks until shutdown task is received.  If this
-                    // thread stopped consuming, the producer may not be able to enqueue the shutdown
-                    // task.
-                    continue;
+        @Override
+        public void run() {
+            try {
+                // If there was an error, keep completing tasks without executing anything so that
+                // ops waiting on them are released and shutdown can finish.
+                if (!hadError()) {
+                    execute();
                 }
+            } finally {
+                completed(this);
+            }
+        }
 
-                RedoableOp op = task.getOp();
-                try {
-                    if (ZimbraLog.redolog.isDebugEnabled()) {
-                        ZimbraLog.redolog.info("Executing: " + op.toString());
-                    }
-                    if (handleMailboxConflict) {
-                        redoOpWithMboxConflict(op);
-                    } else {
-                        op.redo();
-                    }
-                } catch (OutOfMemoryError oome) {
-                    Zimbra.halt("Out of memory while executing redo op", oome);
-                } catch (Throwable e) {
-                    ZimbraLog.redolog.error("Unable to execute redo op: " + op.toString(), e);
-                    if (!ignoreReplayErrors())
-                        raiseError(e);
+        private void execute() {
+            try {
+                if (ZimbraLog.redolog.isDebugEnabled()) {
+                    ZimbraLog.redolog.info("Executing: " + mOp.toString());
                 }
+                ParallelRedoPlayer.super.playOp(mOp);
+            } catch (OutOfMemoryError oome) {
+                Zimbra.halt("Out of memory while executing redo op", oome);
+            } catch (Throwable e) {
+                ZimbraLog.redolog.error("Unable to execute redo op: " + mOp.toString(), e);
+                if (!ignoreReplayErrors())
+                    raiseError(e);
             }
         }
     }
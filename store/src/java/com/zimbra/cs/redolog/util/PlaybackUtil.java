@@ -84,28 +84,30 @@ import com.zimbra.cs.util.Zimbra;
  * error.  By default errors are logged and ignored.
  *
  * Specify --threads <number of threads> to set the degree of parallelism.
- * By default 50 threads are used.  Operations for a given mailbox is always
- * executed by the same thread to guarantee execution order within a mailbox.
- * Thread assignment is done by taking the module of mailbox id divided by
- * number of threads.  Thus in the default setting mailboxes 1 and 51 are
- * handled by the same thread.  This means replay is not fully parallelized.
- * This is a consequence of the need to guarantee order of execution for each
- * mailbox.
+ * By default 50 threads are used.  Operations are ordered by the mail items
+ * they touch: an operation waits only for earlier operations on the same
+ * items of the same mailbox, so independent operations run in parallel even
+ * within a single mailbox.  Operations that don't declare which items they
+ * touch wait for all earlier operations on their mailbox, and all later
+ * operations on the mailbox wait for them.
  *
- * When only 1 thread is used or --mailboxId option is used all replay is done
- * by the main thread.  Even when multiple replay threads are used operations
+ * When only 1 thread is used all replay is done by the main thread.  Even
+ * when multiple replay threads are used operations
  * that span multiple mailboxes (StoreIncomingBlob of a multi-recipient email
  * delivery) or system operations (volume ops) are executed by the main thread.
  * This is necessary to guarantee that latermailbox-specific operations that
  * depend on the non-mailbox-specific operation (e.g. CreateMessage that links
  * to blob stored by StoreIncomingBlob) are not started out of order.
  *
- * Specify --queueCapacity <number of ops> to set the capacity of the operation
- * queue used by each replay thread.  Default capacity is 100.  This parameter
- * is related to the degree of parallelism.  When a replay thread's queue is full
- * and the main thread must submit another operation to the thread, it will block
- * and will be prevented from submitting operations that might have been run in
- * parallel by other replay threads that have available room in the queue.
+ * Specify --queueCapacity <number of ops> to limit the number of operations
+ * read ahead of replay, per replay thread.  Default capacity is 100.  When
+ * threads * queueCapacity operations are queued or running, the main thread
+ * stops reading the log until some of them complete.  A larger capacity lets
+ * more independent operations be found behind a slow one, at the cost of
+ * memory.
+ *
+ * Replay throughput and lag are logged periodically; see the
+ * zimbra_redolog_replay_progress_interval_ms local config key.
  */
 public class PlaybackUtil {
 
@@ -129,7 +131,7 @@ public class PlaybackUtil {
         sOptions.addOption(null, OPT_TO_SEQ, true, "Replay to this redolog sequence (inclusive)");
         sOptions.addOption(null, OPT_MAILBOX_ID, true, "Replay for this mailbox only");
         sOptions.addOption(null, OPT_THREADS, true, "Number of parallel redo threads; default=50");
-        sOptions.addOption(null, OPT_QUEUE_CAPACITY, true, "Queue capacity per player thread; default=100");
+        sOptions.addOption(null, OPT_QUEUE_CAPACITY, true, "Ops read ahead of replay, per player thread; default=100");
 
         Option logfilesOpt = new Option(null, OPT_LOGFILES, true, "Replay these logfiles, in order");
         logfilesOpt.setArgs(Option.UNLIMITED_VALUES);
@@ -321,7 +323,7 @@ public class PlaybackUtil {
 
     public PlaybackUtil(Params params) {
         mParams = params;
-        if (mParams.mboxId != Params.MBOX_ID_UNSET || mParams.threads == 1)
+        if (mParams.threads == 1)
             mPlayer = new RedoPlayer(false, true, !mParams.stopOnError, false, true);
         else
             mPlayer = new ParallelRedoPlayer(false, true, !mParams.stopOnError, false,
@@ -85,6 +85,13 @@ public final class NioConnection {
         session.setAttribute(SaslFilter.DISABLE_ENCRYPTION_ONCE, true);
     }
 
+    /**
+     * Sets a session attribute, e.g. to switch the mode of a stateful decoder.
+     */
+    public void setAttribute(Object key, Object value) {
+        session.setAttribute(key, value);
+    }
+
     public void send(Object obj) {
         session.write(obj);
     }
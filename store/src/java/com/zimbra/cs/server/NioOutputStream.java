@@ -19,10 +19,17 @@ package com.zimbra.cs.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
 
 import com.google.common.base.Charsets;
 import com.zimbra.common.util.ZimbraLog;
@@ -79,6 +86,56 @@ public final class NioOutputStream extends OutputStream {
         buf.put((byte) b);
     }
 
+    /**
+     * Returns true if {@link #transferFrom} can be used, i.e. if no filter that needs to see the bytes, such as SSL,
+     * SASL or a custom filter, is in the session's filter chain.
+     */
+    public boolean canTransferFrom() {
+        for (IoFilterChain.Entry entry : session.getFilterChain().getAll()) {
+            IoFilter filter = entry.getFilter();
+            if (!(filter instanceof ProtocolCodecFilter || filter instanceof ExecutorFilter ||
+                    filter instanceof NioLoggingFilter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes {@code count} bytes of the file from {@code position} as a file region, which Mina sends with
+     * {@link FileChannel#transferTo} instead of copying them through heap buffers. Anything written before is flushed
+     * first. The channel is closed once the region has been written, or if it can't be.
+     * <p>
+     * Only call this if {@link #canTransferFrom} returns true.
+     */
+    public synchronized void transferFrom(final FileChannel channel, long position, long count) throws IOException {
+        WriteFuture future;
+        try {
+            flush();
+            future = writeToSession(new DefaultFileRegion(channel, position, count));
+        } catch (IOException e) {
+            close(channel);
+            throw e;
+        } catch (RuntimeException e) {
+            close(channel);
+            throw e;
+        }
+        future.addListener(new IoFutureListener<WriteFuture>() {
+            @Override
+            public void operationComplete(WriteFuture future) {
+                close(channel);
+            }
+        });
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ZimbraLog.nio.debug("error closing file channel", e);
+        }
+    }
+
     @Override
     public synchronized void flush() throws IOException {
         if (buf.position() > 0) {
@@ -88,7 +145,7 @@ public final class NioOutputStream extends OutputStream {
         }
     }
 
-    private synchronized void writeToSession(Object output) throws IOException {
+    private synchronized WriteFuture writeToSession(Object output) throws IOException {
         long writeBytes = session.getScheduledWriteBytes();
         WriteFuture future = session.write(output);
         if (writeBytes > maxScheduledBytes) {
@@ -107,6 +164,7 @@ public final class NioOutputStream extends OutputStream {
                 ZimbraLog.nio.debug("now have %d scheduled bytes, %d messages; %d written bytes %d messages", session.getScheduledWriteBytes(), session.getScheduledWriteMessages(), session.getWrittenBytes(), session.getWrittenMessages());
             }
         }
+        return future;
     }
 
     @Override
@@ -20,6 +20,7 @@ package com.zimbra.cs.server;
 import java.net.ServerSocket;
 import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
@@ -163,6 +164,28 @@ public abstract class ServerConfig {
         return DEFAULT_THREAD_KEEP_ALIVE_TIME;
     }
 
+    /**
+     * Returns the stack size of connection handler threads of a {@link TcpServer}. As every open connection holds a
+     * thread, including idle ones such as IMAP IDLE, a smaller stack lets more connections fit in the same memory.
+     *
+     * @return stack size in bytes, or 0 for the JVM default
+     */
+    public int getThreadStackSize() {
+        return Math.max(LC.tcp_server_thread_stack_size_kb.intValue(), 0) * 1024;
+    }
+
+    /**
+     * Creates the executor that runs the connection handlers of a {@link TcpServer}. Override to plug in a different
+     * executor; it must not queue tasks, as a handler runs until its connection is closed, and it must reject tasks
+     * once {@code maxThreads} of them are running.
+     *
+     * @param name server name, used as the thread name prefix
+     * @param maxThreads max number of handler threads, hence of concurrent connections
+     */
+    public ExecutorService newHandlerExecutor(String name, int maxThreads) {
+        return TcpServer.newHandlerExecutor(name, maxThreads, getThreadKeepAliveTime(), getThreadStackSize());
+    }
+
     public int getNioMaxWriteQueueDelay() {
         return getWriteTimeout() * (int) Constants.MILLIS_PER_SECOND;
     }
@@ -25,7 +25,9 @@ import com.zimbra.cs.imap.NioImapServer;
 import com.zimbra.cs.imap.TcpImapServer;
 import com.zimbra.cs.lmtpserver.LmtpConfig;
 import com.zimbra.cs.lmtpserver.LmtpServer;
+import com.zimbra.cs.lmtpserver.NioLmtpServer;
 import com.zimbra.cs.lmtpserver.TcpLmtpServer;
+import com.zimbra.cs.lmtpserver.ZimbraLmtpBackend;
 import com.zimbra.cs.milter.MilterConfig;
 import com.zimbra.cs.milter.MilterServer;
 import com.zimbra.cs.pop3.NioPop3Server;
@@ -87,7 +89,8 @@ public final class ServerManager {
 
     private LmtpServer startLmtpServer() throws ServiceException {
         LmtpConfig config = LmtpConfig.getInstance();
-        LmtpServer server = new TcpLmtpServer(config);
+        LmtpServer server = NIO_ENABLED || LC.nio_lmtp_enabled.booleanValue() ?
+            new NioLmtpServer(config) : new TcpLmtpServer(config);
         server.start();
         return server;
     }
@@ -117,6 +120,7 @@ public final class ServerManager {
     public void stopServers() throws ServiceException {
         if (lmtpServer != null) {
             lmtpServer.stop();
+            ZimbraLmtpBackend.saveDedupeCache();
         }
         if (pop3Server != null) {
             pop3Server.stop();
@@ -26,23 +26,28 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
  * Base class for TCP servers using thread per connection model.
  */
 public abstract class TcpServer implements Runnable, Server {
     private Log log;
-    private ThreadPoolExecutor pooledExecutor;
+    private ExecutorService pooledExecutor;
+    private int maxThreads;
+    private final AtomicInteger busyThreads = new AtomicInteger();
     private ServerSocket serverSocket;
     private List<ProtocolHandler> activeHandlers;
     private boolean sslEnabled;
@@ -68,12 +73,13 @@ public abstract class TcpServer implements Runnable, Server {
             log.warn("max handler threads " + maxThreads + " invalid; will use 10 threads instead");
             maxThreads = 10;
         }
+        this.maxThreads = maxThreads;
 
-        // Core pool size is 1, to limit the number of idle threads in thread dumps.
-        // Idle threads are aged out of the pool after X minutes.
-        int keepAlive = config != null ? config.getThreadKeepAliveTime() : 2 * 60;
-        pooledExecutor = new ThreadPoolExecutor(1, maxThreads, keepAlive, TimeUnit.SECONDS,
-                new SynchronousQueue<Runnable>(), new TcpThreadFactory(getName(), false, Thread.NORM_PRIORITY));
+        if (config != null) {
+            pooledExecutor = config.newHandlerExecutor(getName(), maxThreads);
+        } else {
+            pooledExecutor = newHandlerExecutor(getName(), maxThreads, 2 * 60, 0);
+        }
 
         // TODO a linked list is probably the wrong datastructure here
         // TODO write tests with multiple concurrent client
@@ -81,6 +87,18 @@ public abstract class TcpServer implements Runnable, Server {
         activeHandlers = new LinkedList<ProtocolHandler>();
     }
 
+    /**
+     * Creates the default executor for connection handlers, which runs each handler on its own thread.
+     *
+     * @see ServerConfig#newHandlerExecutor(String, int)
+     */
+    static ThreadPoolExecutor newHandlerExecutor(String name, int maxThreads, int keepAlive, int stackSize) {
+        // Core pool size is 1, to limit the number of idle threads in thread dumps.
+        // Idle threads are aged out of the pool after X minutes.
+        return new ThreadPoolExecutor(1, maxThreads, keepAlive, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new TcpThreadFactory(name, false, Thread.NORM_PRIORITY, stackSize));
+    }
+
     @Override
     public ServerConfig getConfig() {
         return config;
@@ -123,7 +141,17 @@ public abstract class TcpServer implements Runnable, Server {
     }
 
     public int numThreads() {
-        return pooledExecutor.getPoolSize();
+        if (pooledExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) pooledExecutor).getPoolSize();
+        }
+        return numBusyThreads(); // an executor that doesn't pool has a thread per running handler
+    }
+
+    /**
+     * Returns the number of threads that are running a connection handler, as opposed to waiting in the pool.
+     */
+    public int numBusyThreads() {
+        return busyThreads.get();
     }
 
     private void shutdownActiveHandlers(boolean graceful) {
@@ -193,18 +221,28 @@ public abstract class TcpServer implements Runnable, Server {
     public void run() {
         Thread.currentThread().setName(getName());
 
-        log.info("Starting accept loop: %d core threads, %d max threads.",
-            pooledExecutor.getCorePoolSize(), pooledExecutor.getMaximumPoolSize());
+        log.info("Starting accept loop: %d max threads, %s.", maxThreads, pooledExecutor.getClass().getSimpleName());
 
         while (!shutdownRequested) {
             try {
                 Socket connection = serverSocket.accept();
                 warnIfNecessary();
-                ProtocolHandler handler = newProtocolHandler();
+                final ProtocolHandler handler = newProtocolHandler();
                 handler.setConnection(connection);
                 try {
-                    pooledExecutor.execute(handler);
+                    pooledExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            busyThreads.incrementAndGet();
+                            try {
+                                handler.run();
+                            } finally {
+                                busyThreads.decrementAndGet();
+                            }
+                        }
+                    });
                 } catch (RejectedExecutionException e) {
+                    ZimbraPerf.COUNTER_TCP_CONN_REJECTED.increment();
                     log.error("cannot handle connection; thread pool exhausted", e);
                     // send a "server busy" message to the client before dropping connection
                     //   (but skip if client expects an SSL handshake, which we can't do here)
@@ -247,12 +285,11 @@ public abstract class TcpServer implements Runnable, Server {
         if (log.isWarnEnabled()) {
             int warnPercent = LC.thread_pool_warn_percent.intValue();
             // Add 1 because the thread for this connection is not active yet.
-            int active = pooledExecutor.getActiveCount() + 1;
-            int max = pooledExecutor.getMaximumPoolSize();
-            int utilization = active * 100 / max;
+            int active = numBusyThreads() + 1;
+            int utilization = active * 100 / maxThreads;
             if (utilization >= warnPercent) {
                 log.warn("Thread pool is %d%% utilized.  %d out of %d threads in use.",
-                    utilization, active, max);
+                    utilization, active, maxThreads);
             }
         }
     }
@@ -24,15 +24,24 @@ public class TcpThreadFactory implements ThreadFactory {
     private final String prefix;
     private final boolean isDaemon;
     private final int priority;
+    private final long stackSize;
 
     public TcpThreadFactory(String prefix, boolean isDaemon) {
         this(prefix, isDaemon, Thread.NORM_PRIORITY);
     }
 
     public TcpThreadFactory(String prefix, boolean isDaemon, int priority) {
+        this(prefix, isDaemon, priority, 0);
+    }
+
+    /**
+     * @param stackSize thread stack size in bytes, or 0 for the JVM default
+     */
+    public TcpThreadFactory(String prefix, boolean isDaemon, int priority, long stackSize) {
         this.prefix = prefix;
         this.isDaemon = isDaemon;
         this.priority = priority;
+        this.stackSize = stackSize;
     }
 
     @Override
@@ -43,7 +52,7 @@ public class TcpThreadFactory implements ThreadFactory {
         }
         StringBuffer sb = new StringBuffer(prefix);
         sb.append('-').append(n);
-        Thread t = new Thread(runnable, sb.toString());
+        Thread t = new Thread(null, runnable, sb.toString(), stackSize);
         t.setDaemon(isDaemon);
         t.setPriority(priority);
         return t;
@@ -422,4 +422,9 @@ public class GetInfo extends AccountDocumentHandler  {
     private void doDiscoverRights(Element eRights, Account account, Set<Right> rights) throws ServiceException {
         DiscoverRights.discoverRights(account, rights, eRights, false);
     }
+
+    @Override
+    public boolean isParallelizable(Element request) {
+        return true;
+    }
 }
@@ -94,4 +94,8 @@ public class GetPrefs extends AccountDocumentHandler  {
         }
     }   
 
+    @Override
+    public boolean isParallelizable(Element request) {
+        return true;
+    }
 }
@@ -87,6 +87,8 @@ public class GetIndexStats extends AdminDocumentHandler {
         Element statsElem = response.addElement(AdminConstants.E_STATS);
         statsElem.addAttribute(AdminConstants.A_MAX_DOCS, stats.getMaxDocs());
         statsElem.addAttribute(AdminConstants.A_DELETED_DOCS, stats.getNumDeletedDocs());
+        statsElem.addAttribute(AdminConstants.A_QUEUE_DEPTH, stats.getQueueDepth());
+        statsElem.addAttribute(AdminConstants.A_QUEUE_AGE, stats.getQueueAge());
         return response;
     }
 
@@ -51,6 +51,7 @@ public final class ReIndex extends AdminDocumentHandler {
     private static final String ACTION_START = "start";
     private static final String ACTION_STATUS = "status";
     private static final String ACTION_CANCEL = "cancel";
+    private static final String ACTION_RESUME = "resume";
 
     private static final String STATUS_STARTED = "started";
     private static final String STATUS_RUNNING = "running";
@@ -137,6 +138,13 @@ public final class ReIndex extends AdminDocumentHandler {
                     mbox.index.startReIndex();
                 }
 
+                response.addAttribute(AdminConstants.A_STATUS, STATUS_STARTED);
+            }
+        } else if (ACTION_RESUME.equalsIgnoreCase(action)) {
+            if (mbox.index.isReIndexInProgress()) {
+                response.addAttribute(AdminConstants.A_STATUS, STATUS_RUNNING);
+            } else {
+                mbox.index.resumeReIndex();
                 response.addAttribute(AdminConstants.A_STATUS, STATUS_STARTED);
             }
         } else if (ACTION_STATUS.equalsIgnoreCase(action)) {
@@ -167,6 +175,7 @@ public final class ReIndex extends AdminDocumentHandler {
         prog.addAttribute(AdminConstants.A_NUM_SUCCEEDED, status.getProcessed() - status.getFailed());
         prog.addAttribute(AdminConstants.A_NUM_FAILED, status.getFailed());
         prog.addAttribute(AdminConstants.A_NUM_REMAINING, status.getTotal() - status.getProcessed());
+        prog.addAttribute(AdminConstants.A_CHECKPOINT, status.getCheckpoint());
     }
 
     @Override
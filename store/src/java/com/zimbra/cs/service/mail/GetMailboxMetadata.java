@@ -50,4 +50,9 @@ public class GetMailboxMetadata extends MailDocumentHandler {
 
         return response;
     }
+
+    @Override
+    public boolean isParallelizable(Element request) {
+        return true;
+    }
 }
@@ -63,4 +63,9 @@ public class GetTag extends MailDocumentHandler  {
         }
         return response;
     }
+
+    @Override
+    public boolean isParallelizable(Element request) {
+        return true;
+    }
 }
@@ -503,5 +503,14 @@ public class Search extends MailDocumentHandler  {
             request.addAttribute(recipField, "0");
         }
     }
-}
 
+    @Override
+    public boolean isParallelizable(Element request) {
+        // markRead changes the messages it fetches
+        try {
+            return !request.getAttributeBool(MailConstants.A_MARK_READ, false);
+        } catch (ServiceException e) {
+            return false; // let the search itself report the bad attribute
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.zimbra.common.stats.StatsDumperDataSource;
+import com.zimbra.cs.mailbox.MessageCache;
+import com.zimbra.cs.mailbox.MessageCache.MailboxStats;
+
+/**
+ * Writes the message cache statistics of the busiest mailboxes, one mailbox per line.  Mailboxes are ranked by the
+ * number of cache lookups since the last dump, then by the amount of message data they hold in the cache.
+ */
+public class MessageCacheStats
+implements StatsDumperDataSource {
+
+    /** Max number of mailboxes written per dump. */
+    static final int TOP_MAILBOXES = 20;
+
+    private final String filename;
+
+    public MessageCacheStats(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getHeader() {
+        return "mailbox_id,hits,misses,hit_rate,evictions,data_bytes";
+    }
+
+    @Override
+    public Collection<String> getDataLines() {
+        List<Map.Entry<Integer, MailboxStats>> entries =
+            new ArrayList<Map.Entry<Integer, MailboxStats>>(MessageCache.drainMailboxStats().entrySet());
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<Integer, MailboxStats>>() {
+            @Override
+            public int compare(Map.Entry<Integer, MailboxStats> e1, Map.Entry<Integer, MailboxStats> e2) {
+                MailboxStats s1 = e1.getValue();
+                MailboxStats s2 = e2.getValue();
+                int result = compareDescending(s1.getHits() + s1.getMisses(), s2.getHits() + s2.getMisses());
+                return result != 0 ? result : compareDescending(s1.getDataSize(), s2.getDataSize());
+            }
+        });
+
+        List<String> dataLines = new ArrayList<String>(Math.min(entries.size(), TOP_MAILBOXES));
+        for (Map.Entry<Integer, MailboxStats> entry : entries.subList(0, Math.min(entries.size(), TOP_MAILBOXES))) {
+            MailboxStats stats = entry.getValue();
+            dataLines.add(String.format("%d,%d,%d,%.1f,%d,%d", entry.getKey(), stats.getHits(), stats.getMisses(),
+                stats.getHitRate(), stats.getEvictions(), stats.getDataSize()));
+        }
+        return dataLines;
+    }
+
+    private static int compareDescending(long l1, long l2) {
+        return l1 > l2 ? -1 : (l1 < l2 ? 1 : 0);
+    }
+
+    @Override
+    public boolean hasTimestampColumn() {
+        return true;
+    }
+}
@@ -24,6 +24,8 @@ import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.PermissionCache;
 import com.zimbra.cs.account.ldap.LdapProv;
+import com.zimbra.cs.lmtpserver.ZimbraLmtpBackend;
+import com.zimbra.cs.mailbox.MailboxIndex;
 import com.zimbra.cs.mailbox.MessageCache;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.FileDescriptorCache;
@@ -35,10 +37,17 @@ public class ServerStatsCallback implements RealtimeStatsCallback {
         Map<String, Object> data = new HashMap<String, Object>();
         data.put(ZimbraPerf.RTS_MBOX_CACHE_SIZE, ZimbraPerf.getMailboxCacheSize());
         data.put(ZimbraPerf.RTS_MSG_CACHE_SIZE, MessageCache.getSize());
+        data.put(ZimbraPerf.RTS_MSG_CACHE_BYTES, MessageCache.getWeightedSize());
         
         FileDescriptorCache fdc = BlobInputStream.getFileDescriptorCache();
         data.put(ZimbraPerf.RTS_FD_CACHE_SIZE, fdc.getSize());
         data.put(ZimbraPerf.RTS_FD_CACHE_HIT_RATE, fdc.getHitRate());
+
+        data.put(ZimbraPerf.RTS_IDX_QUEUE_DEPTH, MailboxIndex.getTotalQueueDepth());
+        data.put(ZimbraPerf.RTS_IDX_QUEUE_AGE, MailboxIndex.getMaxQueueAge());
+
+        data.put(ZimbraPerf.RTS_LMTP_DEDUPE_CACHE_SIZE, ZimbraLmtpBackend.getDedupeCacheSize());
+        data.put(ZimbraPerf.RTS_LMTP_DEDUPE_HIT_RATE, ZimbraLmtpBackend.getDedupeCacheHitRate());
         
         data.put(ZimbraPerf.RTS_ACL_CACHE_HIT_RATE, PermissionCache.getHitRate());
         
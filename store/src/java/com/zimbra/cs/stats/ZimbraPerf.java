@@ -40,6 +40,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.Histogram;
 import com.zimbra.common.stats.RealtimeStats;
 import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.common.stats.StatsDumper;
@@ -79,30 +80,51 @@ public class ZimbraPerf {
     @Description("Number of LMTP handler threads")
     public static final String RTS_LMTP_THREADS = "lmtp_threads";
 
+    @Description("Number of LMTP handler threads serving a connection")
+    public static final String RTS_LMTP_BUSY_THREADS = "lmtp_busy_threads";
+
+    @Description("Number of Message-IDs in the LMTP dedupe cache")
+    public static final String RTS_LMTP_DEDUPE_CACHE_SIZE = "lmtp_dedupe_cache_size";
+
+    @Description("Percentage of LMTP deliveries dropped as duplicates by the dedupe cache")
+    public static final String RTS_LMTP_DEDUPE_HIT_RATE = "lmtp_dedupe_hit_rate";
+
     @Description("Number of cleartext POP3 connections")
     public static final String RTS_POP_CONN = "pop_conn";
 
     @Description("Number of POP3 handler threads")
     public static final String RTS_POP_THREADS = "pop_threads";
 
+    @Description("Number of POP3 handler threads serving a connection")
+    public static final String RTS_POP_BUSY_THREADS = "pop_busy_threads";
+
     @Description("Number of SSL POP3 connections")
     public static final String RTS_POP_SSL_CONN = "pop_ssl_conn";
 
     @Description("Number of POP3 SSL handler threads")
     public static final String RTS_POP_SSL_THREADS = "pop_ssl_threads";
 
+    @Description("Number of POP3 SSL handler threads serving a connection")
+    public static final String RTS_POP_SSL_BUSY_THREADS = "pop_ssl_busy_threads";
+
     @Description("Number of cleartext IMAP connections")
     public static final String RTS_IMAP_CONN = "imap_conn";
 
     @Description("Number of IMAP handler threads")
     public static final String RTS_IMAP_THREADS = "imap_threads";
 
+    @Description("Number of IMAP handler threads serving a connection")
+    public static final String RTS_IMAP_BUSY_THREADS = "imap_busy_threads";
+
     @Description("Number of SSL IMAP connections")
     public static final String RTS_IMAP_SSL_CONN = "imap_ssl_conn";
 
     @Description("Number of IMAP SSL handler threads")
     public static final String RTS_IMAP_SSL_THREADS = "imap_ssl_threads";
 
+    @Description("Number of IMAP SSL handler threads serving a connection")
+    public static final String RTS_IMAP_SSL_BUSY_THREADS = "imap_ssl_busy_threads";
+
     @Description("Number of HTTP handler threads")
     public static final String RTS_HTTP_THREADS = "http_threads";
 
@@ -118,12 +140,21 @@ public class ZimbraPerf {
     @Description("Number of message structures cached in memory")
     public static final String RTS_MSG_CACHE_SIZE = "msg_cache_size";
 
+    @Description("Estimated number of bytes of heap used by the message cache")
+    public static final String RTS_MSG_CACHE_BYTES = "msg_cache_bytes";
+
     @Description("Number of open file descriptors that reference message content")
     public static final String RTS_FD_CACHE_SIZE = "fd_cache_size";
 
     @Description("File descriptor cache hit rate")
     public static final String RTS_FD_CACHE_HIT_RATE = "fd_cache_hit_rate";
 
+    @Description("Number of index tasks waiting across all mailboxes")
+    public static final String RTS_IDX_QUEUE_DEPTH = "idx_queue_depth";
+
+    @Description("Milliseconds the oldest waiting index task has been waiting")
+    public static final String RTS_IDX_QUEUE_AGE = "idx_queue_max_age_ms";
+
     // LDAP provisioning caches.
     @Description("LDAP ACL cache hit rate")
     public static final String RTS_ACL_CACHE_HIT_RATE = "acl_cache_hit_rate";
@@ -183,19 +214,40 @@ public class ZimbraPerf {
     public static final Counter COUNTER_LMTP_RCVD_RCPT = new Counter();
     public static final Counter COUNTER_LMTP_DLVD_MSGS = new Counter();
     public static final Counter COUNTER_LMTP_DLVD_BYTES = new Counter();
+    public static final Counter COUNTER_TCP_CONN_REJECTED = new Counter();    // thread-per-connection servers out of threads
     public static final StopWatch STOPWATCH_DB_CONN = new StopWatch();
     public static final StopWatch STOPWATCH_LDAP_DC = new StopWatch();
+    public static final StopWatch STOPWATCH_LDAP_ACCOUNT_LOAD = new StopWatch(); // account cache misses
+    public static final StopWatch STOPWATCH_LDAP_CACHE_REFRESH = new StopWatch();
+    public static final Counter COUNTER_LDAP_GROUP_GRAPH = new Counter();    // nested distribution list lookups answered in memory
+    public static final Counter COUNTER_ACL_CACHE_HIT = new Counter();
+    public static final Counter COUNTER_ACL_CACHE_MISS = new Counter();
+    public static final Counter COUNTER_ACL_CACHE_INVALIDATE = new Counter();
     public static final StopWatch STOPWATCH_MBOX_ADD_MSG = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_GET = new StopWatch();         // Mailbox accessor response time
     public static final Counter COUNTER_MBOX_CACHE = new Counter();           // Mailbox cache hit rate
+    public static final Counter COUNTER_MBOX_CACHE_HIT = new Counter();
+    public static final Counter COUNTER_MBOX_CACHE_MISS = new Counter();
+    public static final StopWatch STOPWATCH_MBOX_LOAD = new StopWatch();      // Mailbox load time on cache miss
+    public static final StopWatch STOPWATCH_MBOX_DLOCK = new StopWatch();     // ZooKeeper round-trip for the distributed mailbox lock
+    public static final Counter COUNTER_MBOX_DLOCK_LEASE = new Counter();     // Distributed mailbox lock lease hit rate
     public static final Counter COUNTER_MBOX_MSG_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_EVICTIONS = new Counter();
     public static final Counter COUNTER_MBOX_ITEM_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_CONV_HASH_CACHE = new Counter(); // threading hash lookups answered in memory
+    public static final Counter COUNTER_MBOX_TXN_SQL = new Counter();         // SQL statements per mailbox transaction
+    public static final Counter COUNTER_FILTER_SCRIPT_CACHE = new Counter();  // parsed Sieve script cache hit rate
+    public static final StopWatch STOPWATCH_FILTER_PARSE = new StopWatch();
+    public static final StopWatch STOPWATCH_REDO_FSYNC = new StopWatch();
     public static final StopWatch STOPWATCH_SOAP = new StopWatch();
     public static final StopWatch STOPWATCH_IMAP = new StopWatch();
     public static final StopWatch STOPWATCH_POP = new StopWatch();
     public static final Counter COUNTER_IDX_WRT = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED_CACHE_HIT = new Counter();
+    public static final StopWatch STOPWATCH_IDX_READER_REOPEN = new StopWatch(); // Incremental index reader reopen after a commit
+    public static final Counter COUNTER_IDX_READER_SEGMENTS_REUSED = new Counter();
+    public static final Counter COUNTER_IDX_READER_SEGMENTS_LOADED = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_MEM_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_LRU_SIZE = new Counter();
@@ -225,12 +277,16 @@ public class ZimbraPerf {
     private static RealtimeStats realtimeStats =
         new RealtimeStats(new String[] {
             RTS_DB_POOL_SIZE, RTS_INNODB_BP_HIT_RATE,
-            RTS_LMTP_CONN, RTS_LMTP_THREADS,
-            RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS,
-            RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS,
+            RTS_LMTP_CONN, RTS_LMTP_THREADS, RTS_LMTP_BUSY_THREADS,
+            RTS_LMTP_DEDUPE_CACHE_SIZE, RTS_LMTP_DEDUPE_HIT_RATE,
+            RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_BUSY_THREADS,
+            RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS, RTS_POP_SSL_BUSY_THREADS,
+            RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_BUSY_THREADS,
+            RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS, RTS_IMAP_SSL_BUSY_THREADS,
             RTS_HTTP_IDLE_THREADS, RTS_HTTP_THREADS, RTS_SOAP_SESSIONS,
-            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE,
+            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE, RTS_MSG_CACHE_BYTES,
             RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE,
+            RTS_IDX_QUEUE_DEPTH, RTS_IDX_QUEUE_AGE,
             RTS_ACL_CACHE_HIT_RATE,
             RTS_ACCOUNT_CACHE_SIZE, RTS_ACCOUNT_CACHE_HIT_RATE,
             RTS_COS_CACHE_SIZE, RTS_COS_CACHE_HIT_RATE,
@@ -258,6 +314,9 @@ public class ZimbraPerf {
     @Description("Number of bytes of data delivered to mailboxes as a result of LMTP delivery")
     private static final String DC_LMTP_DLVD_BYTES = "lmtp_dlvd_bytes";
 
+    @Description("Number of connections to LMTP, IMAP or POP3 servers in thread-per-connection mode that were rejected because all handler threads were busy")
+    private static final String DC_TCP_CONN_REJECTED = "tcp_conn_rejected";
+
     @Description("Number of times that the server got a database connection from the pool")
     private static final String DC_DB_CONN_COUNT = "db_conn_count";
 
@@ -270,6 +329,30 @@ public class ZimbraPerf {
     @Description("Average latency (ms) of getting an LDAP directory context")
     private static final String DC_LDAP_DC_MS_AVG = "ldap_dc_ms_avg";
 
+    @Description("Number of accounts loaded from LDAP on an account cache miss")
+    private static final String DC_LDAP_ACCOUNT_LOAD_COUNT = "ldap_account_load_count";
+
+    @Description("Average latency (ms) of loading an account from LDAP on an account cache miss")
+    private static final String DC_LDAP_ACCOUNT_LOAD_MS_AVG = "ldap_account_load_ms_avg";
+
+    @Description("Number of LDAP cache entries reloaded in the background before they expired")
+    private static final String DC_LDAP_CACHE_REFRESH_COUNT = "ldap_cache_refresh_count";
+
+    @Description("Average latency (ms) of reloading an LDAP cache entry in the background")
+    private static final String DC_LDAP_CACHE_REFRESH_MS_AVG = "ldap_cache_refresh_ms_avg";
+
+    @Description("Percentage of nested distribution list lookups resolved without searching LDAP")
+    private static final String DC_LDAP_GROUP_GRAPH = "ldap_group_graph_cache";
+
+    @Description("Number of ACL permission cache hits")
+    private static final String DC_ACL_CACHE_HIT = "acl_cache_hit";
+
+    @Description("Number of ACL permission cache misses")
+    private static final String DC_ACL_CACHE_MISS = "acl_cache_miss";
+
+    @Description("Number of times that the ACL permission cache was invalidated, for all targets, one target or one account")
+    private static final String DC_ACL_CACHE_INVALIDATE = "acl_cache_invalidate";
+
     @Description("Number of messages that were added to a mailbox")
     private static final String DC_MBOX_ADD_MSG_COUNT = "mbox_add_msg_count";
 
@@ -285,12 +368,91 @@ public class ZimbraPerf {
     @Description("Mailbox cache hit rate")
     private static final String DC_MBOX_CACHE = "mbox_cache";
 
+    @Description("Number of mailbox cache hits")
+    private static final String DC_MBOX_CACHE_HIT = "mbox_cache_hit";
+
+    @Description("Number of mailbox cache misses")
+    private static final String DC_MBOX_CACHE_MISS = "mbox_cache_miss";
+
+    @Description("Number of mailboxes loaded from the database on a cache miss")
+    private static final String DC_MBOX_LOAD_COUNT = "mbox_load_count";
+
+    @Description("Average latency (ms) of loading a mailbox from the database on a cache miss")
+    private static final String DC_MBOX_LOAD_MS_AVG = "mbox_load_ms_avg";
+
+    @Description("Number of distributed mailbox locks acquired from ZooKeeper")
+    private static final String DC_MBOX_DLOCK_COUNT = "mbox_dlock_count";
+
+    @Description("Average latency (ms) of acquiring a distributed mailbox lock from ZooKeeper")
+    private static final String DC_MBOX_DLOCK_MS_AVG = "mbox_dlock_ms_avg";
+
+    @Description("Percentage of distributed mailbox lock requests served by a lease already held by this server")
+    private static final String DC_MBOX_DLOCK_LEASE = "mbox_dlock_lease";
+
     @Description("Message cache hit rate")
     private static final String DC_MBOX_MSG_CACHE = "mbox_msg_cache";
 
+    @Description("Number of redo log fsyncs")
+    private static final String DC_REDO_FSYNC_COUNT = "redo_fsync_count";
+
+    @Description("Average latency (ms) of a redo log fsync")
+    private static final String DC_REDO_FSYNC_MS_AVG = "redo_fsync_ms_avg";
+
+    @Description("Number of redo log fsyncs by the number of records they covered")
+    private static final String HG_REDO_FSYNC_BATCH = "redo_fsync_batch";
+
+    @Description("Number of synchronous redo log writes by latency (ms) until the record was fsynced")
+    private static final String HG_REDO_COMMIT_MS = "redo_commit_ms";
+
+    public static final Histogram HISTOGRAM_REDO_FSYNC_BATCH =
+        new Histogram(HG_REDO_FSYNC_BATCH, 1, 2, 4, 8, 16, 32, 64, 128, 256);   // redo records per fsync
+    public static final Histogram HISTOGRAM_REDO_COMMIT_MS =
+        new Histogram(HG_REDO_COMMIT_MS, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);   // synchronous redo log latency
+
+    @Description("Number of autocomplete ranking table searches by latency (ms)")
+    private static final String HG_AUTOCOMPLETE_RANKING_MS = "autocomplete_ranking_ms";
+
+    @Description("Number of autocomplete contact folder searches, including mountpoints, by latency (ms)")
+    private static final String HG_AUTOCOMPLETE_FOLDER_MS = "autocomplete_folder_ms";
+
+    @Description("Number of autocomplete GAL searches by latency (ms)")
+    private static final String HG_AUTOCOMPLETE_GAL_MS = "autocomplete_gal_ms";
+
+    @Description("Number of autocomplete searches abandoned because they timed out or weren't needed any more")
+    private static final String DC_AUTOCOMPLETE_CANCELLED = "autocomplete_cancelled";
+
+    public static final Histogram HISTOGRAM_AUTOCOMPLETE_RANKING_MS =
+        new Histogram(HG_AUTOCOMPLETE_RANKING_MS, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000);
+    public static final Histogram HISTOGRAM_AUTOCOMPLETE_FOLDER_MS =
+        new Histogram(HG_AUTOCOMPLETE_FOLDER_MS, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000);
+    public static final Histogram HISTOGRAM_AUTOCOMPLETE_GAL_MS =
+        new Histogram(HG_AUTOCOMPLETE_GAL_MS, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000);
+    public static final Counter COUNTER_AUTOCOMPLETE_CANCELLED = new Counter();
+
+    @Description("Number of messages evicted from the message cache")
+    private static final String DC_MBOX_MSG_CACHE_EVICTIONS = "mbox_msg_cache_evictions";
+
     @Description("Item cache hit rate")
     private static final String DC_MBOX_ITEM_CACHE = "mbox_item_cache";
 
+    @Description("Percentage of conversation threading lookups resolved without querying the open_conversation table")
+    private static final String DC_MBOX_CONV_HASH_CACHE = "mbox_conv_hash_cache";
+
+    @Description("Number of mailbox transactions that used the database")
+    private static final String DC_MBOX_TXN_SQL_COUNT = "mbox_txn_sql_count";
+
+    @Description("Average number of SQL statements prepared per mailbox transaction")
+    private static final String DC_MBOX_TXN_SQL_AVG = "mbox_txn_sql_avg";
+
+    @Description("Parsed Sieve script cache hit rate")
+    private static final String DC_FILTER_SCRIPT_CACHE = "filter_script_cache";
+
+    @Description("Number of Sieve scripts parsed on a parsed script cache miss")
+    private static final String DC_FILTER_PARSE_COUNT = "filter_parse_count";
+
+    @Description("Average time (ms) of parsing a Sieve script")
+    private static final String DC_FILTER_PARSE_MS_AVG = "filter_parse_ms_avg";
+
     @Description("Number of SOAP requests received")
     private static final String DC_SOAP_COUNT = "soap_count";
 
@@ -324,6 +486,18 @@ public class ZimbraPerf {
     @Description("Accumulated number of cache hits when opening an index writer")
     private static final String DC_IDX_WRT_OPENED_CACHE_HIT = "idx_wrt_opened_cache_hit";
 
+    @Description("Number of index readers incrementally reopened after an index commit")
+    private static final String DC_IDX_READER_REOPEN_COUNT = "idx_reader_reopen_count";
+
+    @Description("Average time in milliseconds to incrementally reopen an index reader")
+    private static final String DC_IDX_READER_REOPEN_MS_AVG = "idx_reader_reopen_ms_avg";
+
+    @Description("Accumulated number of index segments shared with the previous reader on reopen")
+    private static final String DC_IDX_READER_SEGMENTS_REUSED = "idx_reader_segments_reused";
+
+    @Description("Accumulated number of index segments loaded on reopen")
+    private static final String DC_IDX_READER_SEGMENTS_LOADED = "idx_reader_segments_loaded";
+
     @Description("Accumulated bytes written by Lucene")
     private static final String DC_IDX_BYTES_WRITTEN = "idx_bytes_written";
 
@@ -353,19 +527,46 @@ public class ZimbraPerf {
                         new DeltaCalculator(COUNTER_LMTP_RCVD_RCPT).setTotalName(DC_LMTP_RCVD_RCPT),
                         new DeltaCalculator(COUNTER_LMTP_DLVD_MSGS).setTotalName(DC_LMTP_DLVD_MSGS),
                         new DeltaCalculator(COUNTER_LMTP_DLVD_BYTES).setTotalName(DC_LMTP_DLVD_BYTES),
+                        new DeltaCalculator(COUNTER_TCP_CONN_REJECTED).setTotalName(DC_TCP_CONN_REJECTED),
                         new DeltaCalculator(STOPWATCH_DB_CONN).setCountName(DC_DB_CONN_COUNT).setAverageName(DC_DB_CONN_MS_AVG),
                         new DeltaCalculator(STOPWATCH_LDAP_DC).setCountName(DC_LDAP_DC_COUNT).setAverageName(DC_LDAP_DC_MS_AVG),
+                        new DeltaCalculator(STOPWATCH_LDAP_ACCOUNT_LOAD).setCountName(DC_LDAP_ACCOUNT_LOAD_COUNT).setAverageName(DC_LDAP_ACCOUNT_LOAD_MS_AVG),
+                        new DeltaCalculator(STOPWATCH_LDAP_CACHE_REFRESH).setCountName(DC_LDAP_CACHE_REFRESH_COUNT).setAverageName(DC_LDAP_CACHE_REFRESH_MS_AVG),
+                        new DeltaCalculator(COUNTER_LDAP_GROUP_GRAPH).setAverageName(DC_LDAP_GROUP_GRAPH),
+                        new DeltaCalculator(COUNTER_ACL_CACHE_HIT).setTotalName(DC_ACL_CACHE_HIT),
+                        new DeltaCalculator(COUNTER_ACL_CACHE_MISS).setTotalName(DC_ACL_CACHE_MISS),
+                        new DeltaCalculator(COUNTER_ACL_CACHE_INVALIDATE).setTotalName(DC_ACL_CACHE_INVALIDATE),
                         new DeltaCalculator(STOPWATCH_MBOX_ADD_MSG).setCountName(DC_MBOX_ADD_MSG_COUNT).setAverageName(DC_MBOX_ADD_MSG_MS_AVG),
                         new DeltaCalculator(STOPWATCH_MBOX_GET).setCountName(DC_MBOX_GET_COUNT).setAverageName(DC_MBOX_GET_MS_AVG),
                         new DeltaCalculator(COUNTER_MBOX_CACHE).setAverageName(DC_MBOX_CACHE),
+                        new DeltaCalculator(COUNTER_MBOX_CACHE_HIT).setTotalName(DC_MBOX_CACHE_HIT),
+                        new DeltaCalculator(COUNTER_MBOX_CACHE_MISS).setTotalName(DC_MBOX_CACHE_MISS),
+                        new DeltaCalculator(STOPWATCH_MBOX_LOAD).setCountName(DC_MBOX_LOAD_COUNT).setAverageName(DC_MBOX_LOAD_MS_AVG),
+                        new DeltaCalculator(STOPWATCH_MBOX_DLOCK).setCountName(DC_MBOX_DLOCK_COUNT).setAverageName(DC_MBOX_DLOCK_MS_AVG),
+                        new DeltaCalculator(COUNTER_MBOX_DLOCK_LEASE).setAverageName(DC_MBOX_DLOCK_LEASE),
                         new DeltaCalculator(COUNTER_MBOX_MSG_CACHE).setAverageName(DC_MBOX_MSG_CACHE),
+                        new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_EVICTIONS).setTotalName(DC_MBOX_MSG_CACHE_EVICTIONS),
                         new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE).setAverageName(DC_MBOX_ITEM_CACHE),
+                        new DeltaCalculator(COUNTER_MBOX_CONV_HASH_CACHE).setAverageName(DC_MBOX_CONV_HASH_CACHE),
+                        new DeltaCalculator(COUNTER_MBOX_TXN_SQL).setCountName(DC_MBOX_TXN_SQL_COUNT).setAverageName(DC_MBOX_TXN_SQL_AVG),
+                        new DeltaCalculator(COUNTER_FILTER_SCRIPT_CACHE).setAverageName(DC_FILTER_SCRIPT_CACHE),
+                        new DeltaCalculator(STOPWATCH_FILTER_PARSE).setCountName(DC_FILTER_PARSE_COUNT).setAverageName(DC_FILTER_PARSE_MS_AVG),
+                        new DeltaCalculator(STOPWATCH_REDO_FSYNC).setCountName(DC_REDO_FSYNC_COUNT).setAverageName(DC_REDO_FSYNC_MS_AVG),
+                        HISTOGRAM_REDO_FSYNC_BATCH,
+                        HISTOGRAM_REDO_COMMIT_MS,
+                        HISTOGRAM_AUTOCOMPLETE_RANKING_MS,
+                        HISTOGRAM_AUTOCOMPLETE_FOLDER_MS,
+                        HISTOGRAM_AUTOCOMPLETE_GAL_MS,
+                        new DeltaCalculator(COUNTER_AUTOCOMPLETE_CANCELLED).setTotalName(DC_AUTOCOMPLETE_CANCELLED),
                         new DeltaCalculator(STOPWATCH_SOAP).setCountName(DC_SOAP_COUNT).setAverageName(DC_SOAP_MS_AVG),
                         new DeltaCalculator(STOPWATCH_IMAP).setCountName(DC_IMAP_COUNT).setAverageName(DC_IMAP_MS_AVG),
                         new DeltaCalculator(STOPWATCH_POP).setCountName(DC_POP_COUNT).setAverageName(DC_POP_MS_AVG),
                         new DeltaCalculator(COUNTER_IDX_WRT).setAverageName(DC_IDX_WRT_AVG),
                         new DeltaCalculator(COUNTER_IDX_WRT_OPENED).setTotalName(DC_IDX_WRT_OPENED),
                         new DeltaCalculator(COUNTER_IDX_WRT_OPENED_CACHE_HIT).setTotalName(DC_IDX_WRT_OPENED_CACHE_HIT),
+                        new DeltaCalculator(STOPWATCH_IDX_READER_REOPEN).setCountName(DC_IDX_READER_REOPEN_COUNT).setAverageName(DC_IDX_READER_REOPEN_MS_AVG),
+                        new DeltaCalculator(COUNTER_IDX_READER_SEGMENTS_REUSED).setTotalName(DC_IDX_READER_SEGMENTS_REUSED),
+                        new DeltaCalculator(COUNTER_IDX_READER_SEGMENTS_LOADED).setTotalName(DC_IDX_READER_SEGMENTS_LOADED),
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_HIT).setAverageName(DC_CALCACHE_HIT),
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_MEM_HIT).setAverageName(DC_CALCACHE_MEM_HIT),
                         new DeltaCalculator(COUNTER_CALENDAR_CACHE_LRU_SIZE).setAverageName(DC_CALCACHE_LRU_SIZE),
@@ -393,6 +594,16 @@ public class ZimbraPerf {
                 }
             }
         }
+
+        // a histogram has one column per bucket, all described by the histogram's description
+        for (Accumulator a : sAccumulators) {
+            if (a instanceof Histogram) {
+                String description = descriptions.get(((Histogram) a).getName());
+                for (String column : a.getNames()) {
+                    descriptions.put(column, description + " (bucket " + column + ")");
+                }
+            }
+        }
     }
 
     /**
@@ -480,6 +691,8 @@ public class ZimbraPerf {
         ThreadStats threadStats = new ThreadStats("threads.csv");
         StatsDumper.schedule(threadStats, CSV_DUMP_FREQUENCY);
 
+        StatsDumper.schedule(new MessageCacheStats("msgcache.csv"), CSV_DUMP_FREQUENCY);
+
         // Initialize JMX
         MBeanServer jmxServer = ManagementFactory.getPlatformMBeanServer();
         jmxServerStats = new JmxServerStats();
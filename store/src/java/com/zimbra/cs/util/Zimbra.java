@@ -25,6 +25,7 @@ import java.util.Timer;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.dom4j.DocumentException;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.calendar.WellKnownTimeZones;
 import com.zimbra.common.lmtp.SmtpToLmtp;
 import com.zimbra.common.localconfig.ConfigException;
@@ -509,6 +510,11 @@ public final class Zimbra {
         return alwaysOnClusterId;
     }
 
+    @VisibleForTesting
+    public static void setAlwaysOnClusterId(String clusterId) {
+        alwaysOnClusterId = clusterId;
+    }
+
     public static boolean isAlwaysOn() {
         return alwaysOnClusterId != null;
     }
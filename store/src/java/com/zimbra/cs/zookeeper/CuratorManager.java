@@ -113,6 +113,10 @@ public class CuratorManager {
         return new InterProcessSemaphoreMutex(client, LOCKS + id);
     }
 
+    public DistributedReadWriteLock createReadWriteLock(String id) {
+        return new DistributedReadWriteLock(client, LOCKS + id);
+    }
+
     public void setData(String key, String value) throws Exception {
         byte[] data;
         try {
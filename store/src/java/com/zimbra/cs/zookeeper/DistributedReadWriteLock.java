@@ -0,0 +1,167 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.cs.zookeeper;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * Cluster-wide read/write lock on a ZooKeeper path.
+ * <p>
+ * Each acquisition creates an ephemeral sequential node under the lock path. A reader owns the lock once no write node
+ * precedes it, a writer once it is the first node. Unlike Curator's {@code InterProcessReadWriteLock}, an acquisition
+ * is identified by the node it created rather than by the calling thread, so it may be released from any thread.
+ */
+public final class DistributedReadWriteLock {
+    private static final String READ_PREFIX = "read-";
+    private static final String WRITE_PREFIX = "write-";
+
+    /** orders lock nodes by the sequence number ZooKeeper appended to their name */
+    private static final Comparator<String> SEQUENCE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String n1, String n2) {
+            return sequence(n1).compareTo(sequence(n2));
+        }
+    };
+
+    private final CuratorFramework client;
+    private final String basePath;
+
+    public DistributedReadWriteLock(CuratorFramework client, String basePath) {
+        this.client = client;
+        this.basePath = basePath;
+    }
+
+    private static String sequence(String node) {
+        int dash = node.lastIndexOf('-');
+        return dash < 0 ? node : node.substring(dash + 1);
+    }
+
+    private static boolean isWrite(String node) {
+        return node.startsWith(WRITE_PREFIX);
+    }
+
+    private List<String> getSortedChildren() throws Exception {
+        List<String> children = client.getChildren().forPath(basePath);
+        Collections.sort(children, SEQUENCE_ORDER);
+        return children;
+    }
+
+    /**
+     * Returns the node that has to go away before {@code ourNode} owns the lock, or null if it already does.
+     */
+    private static String getBlocker(List<String> children, String ourNode, boolean write) {
+        int index = children.indexOf(ourNode);
+        if (index < 0) {
+            throw new IllegalStateException("lock node disappeared: " + ourNode);
+        }
+        if (write) {
+            return index == 0 ? null : children.get(index - 1);
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            if (isWrite(children.get(i))) {
+                return children.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Acquires the lock in the given mode, waiting up to the given time.
+     *
+     * @return the path of the lock node to pass to {@link #release(String)}, or null if the lock could not be acquired
+     *  in time
+     */
+    public String acquire(boolean write, long time, TimeUnit unit) throws Exception {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        String ourPath = client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                .forPath(ZKPaths.makePath(basePath, write ? WRITE_PREFIX : READ_PREFIX));
+        String ourNode = ZKPaths.getNodeFromPath(ourPath);
+        boolean acquired = false;
+        try {
+            while (true) {
+                String blocker = getBlocker(getSortedChildren(), ourNode, write);
+                if (blocker == null) {
+                    acquired = true;
+                    return ourPath;
+                }
+                final CountDownLatch gone = new CountDownLatch(1);
+                Watcher watcher = new Watcher() {
+                    @Override
+                    public void process(WatchedEvent event) {
+                        gone.countDown();
+                    }
+                };
+                if (client.checkExists().usingWatcher(watcher).forPath(ZKPaths.makePath(basePath, blocker)) == null) {
+                    continue; // released between listing and watching
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !gone.await(remaining, TimeUnit.NANOSECONDS)) {
+                    return null;
+                }
+            }
+        } finally {
+            if (!acquired) {
+                release(ourPath);
+            }
+        }
+    }
+
+    /**
+     * Releases a lock acquired by {@link #acquire(boolean, long, TimeUnit)}. The node is deleted in the background
+     * until it succeeds even if the connection to ZooKeeper is temporarily lost.
+     */
+    public void release(String path) {
+        try {
+            client.delete().guaranteed().forPath(path);
+        } catch (Exception e) {
+            ZimbraLog.mailbox.warn("error while releasing distributed lock %s", path, e);
+        }
+    }
+
+    /**
+     * Returns true if another acquisition is waiting for the lock held by {@code ourPath}.
+     */
+    public boolean isContended(String ourPath, boolean write) throws Exception {
+        String ourNode = ZKPaths.getNodeFromPath(ourPath);
+        for (String node : client.getChildren().forPath(basePath)) {
+            if (!node.equals(ourNode) && (write || isWrite(node))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets a one-time watch that fires when an acquisition starts or ends on this lock.
+     */
+    public void watch(Watcher watcher) throws Exception {
+        client.getChildren().usingWatcher(watcher).forPath(basePath);
+    }
+}
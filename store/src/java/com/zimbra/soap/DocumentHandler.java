@@ -277,6 +277,17 @@ public abstract class DocumentHandler {
         return true;
     }
 
+    /** Returns <tt>true</tt> if the request may run at the same time as
+     *  other sub-requests of a parallel <tt>BatchRequest</tt>: it changes
+     *  nothing, doesn't depend on what earlier sub-requests did, and never
+     *  suspends the HTTP request.  Defaults to <tt>false</tt>.
+     *
+     * @param request the sub-request, for handlers where some options
+     *                change data */
+    public boolean isParallelizable(Element request) {
+        return false;
+    }
+
     /** Returns whether the client making the SOAP request is localhost. */
     protected boolean clientIsLocal(Map<String, Object> context) {
         HttpServletRequest req = (HttpServletRequest) context.get(SoapServlet.SERVLET_REQUEST);
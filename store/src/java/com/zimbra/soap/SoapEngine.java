@@ -20,7 +20,19 @@ package com.zimbra.soap;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
@@ -30,6 +42,7 @@ import javax.xml.stream.XMLStreamReader;
 
 import org.eclipse.jetty.continuation.ContinuationSupport;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
@@ -108,6 +121,25 @@ public class SoapEngine {
 
     private final DocumentDispatcher dispatcher = new DocumentDispatcher();
 
+    /**
+     * Runs the sub-requests of parallel {@code BatchRequest}s, or null if {@code soap_batch_parallel_threads} is 0.
+     */
+    private static final ExecutorService batchExecutor = createBatchExecutor();
+
+    private static ExecutorService createBatchExecutor() {
+        int threads = LC.soap_batch_parallel_threads.intValue();
+        if (threads <= 0) {
+            return null;
+        }
+        // bounded; when it's full, sub-requests run on the request's own thread
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4),
+                new ThreadFactoryBuilder().setNameFormat("SoapBatch-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     SoapEngine() {
         SoapTransport.setDefaultUserAgent(SoapTransport.DEFAULT_USER_AGENT_NAME, BuildInfo.VERSION);
     }
@@ -429,31 +461,7 @@ public class SoapEngine {
             acknowledgeNotifications(zsc);
 
             if (doc.getQName().equals(ZimbraNamespace.E_BATCH_REQUEST)) {
-                boolean contOnError = doc.getAttribute(ZimbraNamespace.A_ONERROR, ZimbraNamespace.DEF_ONERROR).equals("continue");
-                responseBody = zsc.createElement(ZimbraNamespace.E_BATCH_RESPONSE);
-                if (!isResumed) {
-                    ZimbraLog.soap.info(doc.getName());
-                }
-                for (Element req : doc.listElements()) {
-                    String id = req.getAttribute(A_REQUEST_CORRELATOR, null);
-                    long start = System.currentTimeMillis();
-                    Element br = dispatchRequest(dispatcher.getHandler(req), req, context, zsc);
-                    if (!isResumed) {
-                        ZimbraLog.soap.info("(batch) %s elapsed=%d", req.getName(), System.currentTimeMillis() - start);
-                    }
-                    if (id != null) {
-                        br.addAttribute(A_REQUEST_CORRELATOR, id);
-                    }
-                    responseBody.addNonUniqueElement(br);
-                    if (!contOnError && responseProto.isFault(br)) {
-                        break;
-                    }
-                    if (proxyAuthToken != null) {
-                        // requests will invalidate it when proxying locally;
-                        // make sure it's set for each sub-request in batch
-                        zsc.getAuthToken().setProxyAuthToken(proxyAuthToken);
-                    }
-                }
+                responseBody = dispatchBatch(doc, context, zsc, isResumed, proxyAuthToken);
             } else {
                 String id = doc.getAttribute(A_REQUEST_CORRELATOR, null);
                 long start = System.currentTimeMillis();
@@ -499,6 +507,171 @@ public class SoapEngine {
         return responseProto.soapEnvelope(responseBody, responseHeader);
     }
 
+    /**
+     * Handles the sub-requests of a {@code BatchRequest} and returns the {@code BatchResponse}, with the responses in
+     * request order. With {@code onerror="stop"}, nothing after the first fault is returned.
+     */
+    Element dispatchBatch(Element batch, Map<String, Object> context, ZimbraSoapContext zsc, boolean isResumed,
+            String proxyAuthToken) {
+        SoapProtocol responseProto = zsc.getResponseProtocol();
+        boolean contOnError = batch.getAttribute(ZimbraNamespace.A_ONERROR, ZimbraNamespace.DEF_ONERROR).equals("continue");
+        Element responseBody = zsc.createElement(ZimbraNamespace.E_BATCH_RESPONSE);
+        if (!isResumed) {
+            ZimbraLog.soap.info(batch.getName());
+        }
+        List<Element> requests = batch.listElements();
+        boolean parallel = batchExecutor != null && ZimbraNamespace.EXECUTION_PARALLEL.equals(
+                batch.getAttribute(ZimbraNamespace.A_EXECUTION, null));
+        for (int i = 0; i < requests.size();) {
+            // a run of parallelizable sub-requests goes out together; anything else runs by itself
+            int end = i + 1;
+            while (parallel && end < requests.size() && isParallelizable(requests.get(i)) &&
+                    isParallelizable(requests.get(end))) {
+                end++;
+            }
+            List<Element> responses = null;
+            if (end - i > 1) {
+                responses = dispatchBatchInParallel(requests.subList(i, end), context, zsc, isResumed);
+                if (responses == null) {
+                    parallel = false;
+                    end = i + 1;
+                }
+            }
+            if (responses == null) {
+                responses = Collections.singletonList(
+                        dispatchBatchRequest(requests.get(i), context, zsc, isResumed));
+            }
+            i = end;
+            boolean stop = false;
+            for (Element br : responses) {
+                responseBody.addNonUniqueElement(br);
+                if (!contOnError && responseProto.isFault(br)) {
+                    stop = true;
+                    break;
+                }
+            }
+            if (stop) {
+                break;
+            }
+            if (proxyAuthToken != null) {
+                // requests will invalidate it when proxying locally;
+                // make sure it's set for each sub-request in batch
+                zsc.getAuthToken().setProxyAuthToken(proxyAuthToken);
+            }
+        }
+        return responseBody;
+    }
+
+    private boolean isParallelizable(Element request) {
+        DocumentHandler handler = dispatcher.getHandler(request);
+        return handler != null && handler.isParallelizable(request);
+    }
+
+    /**
+     * Handles one sub-request of a batch, and tags the response with the sub-request's correlator.
+     */
+    private Element dispatchBatchRequest(Element req, Map<String, Object> context, ZimbraSoapContext zsc,
+            boolean isResumed) {
+        String id = req.getAttribute(A_REQUEST_CORRELATOR, null);
+        long start = System.currentTimeMillis();
+        Element br = dispatchRequest(dispatcher.getHandler(req), req, context, zsc);
+        if (!isResumed) {
+            ZimbraLog.soap.info("(batch) %s elapsed=%d", req.getName(), System.currentTimeMillis() - start);
+        }
+        if (id != null) {
+            br.addAttribute(A_REQUEST_CORRELATOR, id);
+        }
+        return br;
+    }
+
+    /**
+     * Runs parallelizable sub-requests of a batch at the same time, the first one on the calling thread and the rest
+     * on {@link #batchExecutor}, and returns the responses in request order.
+     * <p>
+     * Each sub-request gets its own copy of the context map and of the {@link ZimbraSoapContext}, whose auth token
+     * carries the proxy credentials of whichever account a handler proxies to. The batch's own context is left
+     * untouched.
+     *
+     * @return the responses, or null if the contexts can't be copied and the sub-requests have to run one after the
+     *         other instead
+     */
+    private List<Element> dispatchBatchInParallel(List<Element> requests, Map<String, Object> context,
+            ZimbraSoapContext zsc, final boolean isResumed) {
+        // fault in the session here, or each thread would create its own
+        for (Element req : requests) {
+            dispatcher.getHandler(req).getSession(zsc);
+        }
+        List<Map<String, Object>> contexts = new ArrayList<Map<String, Object>>(requests.size());
+        List<ZimbraSoapContext> zscs = new ArrayList<ZimbraSoapContext>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            ZimbraSoapContext copy;
+            try {
+                copy = zsc.copyForParallelRequest();
+            } catch (ServiceException e) {
+                ZimbraLog.soap.warn("cannot copy SOAP context for parallel batch", e);
+                copy = null;
+            }
+            if (copy == null) {
+                return null;
+            }
+            // dispatchRequest() puts the session in the context map, and handlers look the SOAP context up there
+            Map<String, Object> subContext = new HashMap<String, Object>(context);
+            subContext.put(ZIMBRA_CONTEXT, copy);
+            contexts.add(subContext);
+            zscs.add(copy);
+        }
+
+        final Map<String, String> logContext = ZimbraLog.getContext();
+        List<Future<Element>> futures = new ArrayList<Future<Element>>(requests.size() - 1);
+        for (int i = 1; i < requests.size(); i++) {
+            final Element req = requests.get(i);
+            final Map<String, Object> subContext = contexts.get(i);
+            final ZimbraSoapContext subZsc = zscs.get(i);
+            futures.add(batchExecutor.submit(new Callable<Element>() {
+                @Override
+                public Element call() {
+                    // may run on the calling thread if the pool is saturated
+                    Map<String, String> saved = ZimbraLog.getContext();
+                    ZimbraLog.setContext(logContext);
+                    try {
+                        return dispatchBatchRequest(req, subContext, subZsc, isResumed);
+                    } finally {
+                        ZimbraLog.setContext(saved);
+                    }
+                }
+            }));
+        }
+
+        List<Element> responses = new ArrayList<Element>(requests.size());
+        responses.add(dispatchBatchRequest(requests.get(0), contexts.get(0), zscs.get(0), isResumed));
+        for (int i = 0; i < futures.size(); i++) {
+            Element br;
+            try {
+                br = futures.get(i).get();
+            } catch (InterruptedException e) {
+                // give up on the sub-requests still out, and leave the interrupt for our caller
+                Thread.currentThread().interrupt();
+                for (Future<Element> future : futures.subList(i, futures.size())) {
+                    future.cancel(true);
+                }
+                br = soapFault(zsc.getResponseProtocol(), "batch interrupted",
+                        ServiceException.INTERRUPTED("batch request"));
+            } catch (CancellationException e) {
+                br = soapFault(zsc.getResponseProtocol(), "batch interrupted",
+                        ServiceException.INTERRUPTED("batch request"));
+            } catch (ExecutionException e) {
+                br = soapFault(zsc.getResponseProtocol(), "handler exception",
+                        ServiceException.FAILURE(e.getCause().toString(), e.getCause()));
+            }
+            String id = requests.get(i + 1).getAttribute(A_REQUEST_CORRELATOR, null);
+            if (id != null) {
+                br.addAttribute(A_REQUEST_CORRELATOR, id);
+            }
+            responses.add(br);
+        }
+        return responses;
+    }
+
     /**
      * Handles individual requests, either direct or from a batch
      */
@@ -365,18 +365,32 @@ public class SoapServlet extends ZimbraServlet {
         resp.setStatus(statusCode);
         resp.setHeader("Cache-Control", "no-store, no-cache");
 
-        if (chunkingEnabled) {
-            // Let jetty chunk the response if applicable.
-            ZimbraServletOutputStream out = new ZimbraServletOutputStream(resp.getOutputStream());
-            envelope.output(out);
-            out.flush();
-        } else {
-            // serialize the envelope to a byte array and send the response with Content-Length header.
-            byte[] soapBytes = envelope.toUTF8();
-            resp.setContentLength(soapBytes.length);
-            resp.getOutputStream().write(soapBytes);
-            resp.getOutputStream().flush();
+        try {
+            if (chunkingEnabled) {
+                // Let jetty chunk the response if applicable.  The envelope is encoded as it is written, so only
+                // our buffer and jetty's response buffer are ever held in memory.
+                ZimbraServletOutputStream out = new ZimbraServletOutputStream(resp.getOutputStream());
+                envelope.output(out);
+                out.flush();
+            } else {
+                // serialize the envelope to a byte array and send the response with Content-Length header.
+                byte[] soapBytes = envelope.toUTF8();
+                resp.setContentLength(soapBytes.length);
+                resp.getOutputStream().write(soapBytes);
+                resp.getOutputStream().flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (resp.isCommitted() || soapProto.hasFault(envelope)) {
+                // part of the response is already on the wire; all we can do is cut it short
+                throw e;
+            }
+            // nothing sent yet, so discard what was buffered and send a fault instead
+            ZimbraLog.soap.warn("unable to serialize response", e);
+            resp.resetBuffer();
+            Element fault = soapProto.soapFault(ServiceException.FAILURE("unable to serialize response", e));
+            sendResponse(req, resp, soapProto.soapEnvelope(fault));
+        } finally {
+            envelope.destroy();
         }
-        envelope.destroy();
     }
 }
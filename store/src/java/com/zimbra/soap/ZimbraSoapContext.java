@@ -43,6 +43,7 @@ import com.zimbra.cs.account.AuthTokenException;
 import com.zimbra.cs.account.GuestAccount;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.ShareInfoData;
+import com.zimbra.cs.account.ZimbraAuthToken;
 import com.zimbra.cs.account.accesscontrol.Rights;
 import com.zimbra.cs.mailbox.ACL;
 import com.zimbra.cs.mailbox.OperationContext;
@@ -249,6 +250,44 @@ public final class ZimbraSoapContext {
         }
     }
 
+    /** Creates an exact copy of another <code>ZimbraSoapContext</code>
+     *  for one sub-request of a parallel batch, with its own copy of the
+     *  auth token.  Unlike the proxying constructors, this neither marks
+     *  the session as proxied nor counts a hop. */
+    private ZimbraSoapContext(ZimbraSoapContext zsc, ZimbraAuthToken authToken) throws ServiceException {
+        mRawAuthToken = authToken == null ? zsc.mRawAuthToken : authToken.toZAuthToken();
+        mAuthToken = authToken;
+        mAuthTokenAccountId = zsc.mAuthTokenAccountId;
+        mRequestedAccountId = zsc.mRequestedAccountId;
+
+        mRequestProtocol = zsc.mRequestProtocol;
+        mResponseProtocol = zsc.mResponseProtocol;
+
+        mChangeConstraintType = zsc.mChangeConstraintType;
+        mMaximumChangeId = zsc.mMaximumChangeId;
+
+        mSessionEnabled = zsc.mSessionEnabled;
+        mSessionProxied = zsc.mSessionProxied;
+        mSessionInfo = zsc.mSessionInfo;
+        mUnqualifiedItemIds = zsc.mUnqualifiedItemIds;
+        mWaitForNotifications = zsc.mWaitForNotifications;
+        mCanceledWaitForNotifications = zsc.mCanceledWaitForNotifications;
+        continuationResume = zsc.continuationResume;
+
+        mProxyTarget = zsc.mProxyTarget;
+        mIsProxyRequest = zsc.mIsProxyRequest;
+        mHopCount = zsc.mHopCount;
+        mMountpointTraversed = zsc.mMountpointTraversed;
+
+        mUserAgent = zsc.mUserAgent;
+        mRequestIP = zsc.mRequestIP;
+        mPort = zsc.mPort;
+        mVia = zsc.mVia;
+        soapRequestId = zsc.soapRequestId;
+        mNotificationFormat = zsc.mNotificationFormat;
+        mCurWaitSetID = zsc.mCurWaitSetID;
+    }
+
     /**
      * Creates a {@link ZimbraSoapContext} from the {@code <context>}
      * {@link Element} from the SOAP header.
@@ -660,6 +699,24 @@ public final class ZimbraSoapContext {
         mAuthTokenAccountId = auth.getAccountId();
     }
 
+    /**
+     * Returns a copy of this context for one sub-request of a parallel {@code BatchRequest}, or null if the auth token
+     * can't be copied. The copy has an auth token of its own, so that setting up proxy credentials for one sub-request
+     * doesn't change them under the others; the session and everything else are the same as in this context.
+     */
+    public ZimbraSoapContext copyForParallelRequest() throws ServiceException {
+        if (mAuthToken == null) {
+            return new ZimbraSoapContext(this, (ZimbraAuthToken) null);
+        } else if (!(mAuthToken instanceof ZimbraAuthToken)) {
+            return null;
+        }
+        try {
+            return new ZimbraSoapContext(this, ((ZimbraAuthToken) mAuthToken).clone());
+        } catch (CloneNotSupportedException e) {
+            throw ServiceException.FAILURE("cannot copy SOAP context", e);
+        }
+    }
+
     /** Returns whether the authenticated user is the same as the user whose
      *  context the operation is set to execute in. */
     public boolean isDelegatedRequest() {